@@ -1,10 +1,28 @@
-10import zmq
-import time
+import sys
+import zmq
 
+# usage: ZMQ_test.py <proof spec id>
+#        ZMQ_test.py <proof spec id> <nonce> <proof file>
 context = zmq.Context()
-sock = context.socket(zmq.REQ)
+sock = context.socket(zmq.DEALER)
 sock.connect('tcp://127.0.0.1:9005')
-while True:
-    sock.send_string("")
-    print(sock.recv())
-    time.sleep(1)
\ No newline at end of file
+
+specId = sys.argv[1]
+if len(sys.argv) == 2:
+    # the server issues a nonce, which is accepted for one proof
+    sock.send_multipart([b'', b'nonce', specId.encode()])
+    _, requestId, status, nonce = sock.recv_multipart()
+    print(status.decode(), nonce.decode())
+    sys.exit()
+
+nonce, proofFile = sys.argv[2:4]
+with open(proofFile, 'rb') as f:
+    proof = f.read()
+# requests are sent without waiting for the replies; the replies carry the
+# request id and may arrive in any order. All but the first are replays.
+for requestId in range(10):
+    sock.send_multipart([b'', str(requestId).encode(), specId.encode(),
+                         nonce.encode(), proof])
+for _ in range(10):
+    _, requestId, status, message = sock.recv_multipart()
+    print(requestId.decode(), status.decode(), message.decode())
\ No newline at end of file
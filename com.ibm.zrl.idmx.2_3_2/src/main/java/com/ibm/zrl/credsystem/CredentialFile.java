@@ -0,0 +1,333 @@
+/**
+ * Copyright IBM Corporation 2010.
+ */
+package com.ibm.zrl.credsystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file that contains the encoded credentials of a credential
+ * store. The file is indexed by credential name; the index is built when the
+ * file is opened by reading the records. Storing a credential under a name
+ * that is already used appends a new record, which replaces the previous one
+ * in the index. Records are read from a read-only mapping of the file;
+ * records appended after the file has been mapped are read from the file
+ * until they make up half of it, then the file is mapped again.
+ *
+ * The file starts with a header (magic number and version, 4 bytes each),
+ * which is followed by the records. Each record consists of the length of the
+ * name and the length of the data (4 bytes each), the CRC-32 of these lengths
+ * (4 bytes), the name (UTF-8), the data and the CRC-32 of the name and the
+ * data (4 bytes). The checksums tell a record that has been torn by a crash
+ * during an append, which can only be the last record of the file, from a
+ * corrupted one.
+ */
+final class CredentialFile {
+
+    /** Logger. */
+    private static Logger log = Logger.getLogger(CredentialFile.class
+            .getName());
+
+    /** Name of the file within the credential store directory. */
+    static final String FILE_NAME = "credentials.bin";
+
+    /** Magic number ("IDMC"). */
+    private static final int MAGIC = 0x49444D43;
+    /** Version of the file format. */
+    private static final int VERSION = 2;
+    /** Length of the file header. */
+    private static final int HEADER_LENGTH = 8;
+    /** Length of the record header (lengths and their checksum). */
+    private static final int RECORD_HEADER_LENGTH = 12;
+    /** Length of the checksum at the end of a record. */
+    private static final int CHECKSUM_LENGTH = 4;
+    /** Size of the chunks in which the end of the file is read. */
+    private static final int CHUNK_LENGTH = 4096;
+    /** Encoding of the names. */
+    private static final String CHARSET = "UTF-8";
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    /**
+     * Read-only mapping of the file; may be shorter than the file and is
+     * <tt>null</tt> while the index is built.
+     */
+    private MappedByteBuffer mapped;
+    /** Length of the file (i.e., position of the next record). */
+    private long length;
+    /** Offset of the records of the credentials by name. */
+    private final HashMap<String, Long> index = new HashMap<String, Long>();
+
+    /**
+     * Opens the file (or creates it if it does not exist) and builds the
+     * index. A torn record at the end of the file (e.g., after a crash during
+     * an append) is removed. The file is mapped only after that, as a mapped
+     * file cannot be truncated on some platforms.
+     *
+     * @param location
+     *            Location of the file.
+     * @throws IOException
+     *             If the file cannot be opened, is not a credential file or
+     *             contains a corrupted record.
+     */
+    CredentialFile(final File location) throws IOException {
+        file = new RandomAccessFile(location, "rw");
+        channel = file.getChannel();
+        try {
+            if (channel.size() == 0) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                write(header, 0);
+            }
+            length = channel.size();
+            buildIndex();
+            map();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private void map() throws IOException {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    }
+
+    private void buildIndex() throws IOException {
+        final ByteBuffer header = get(0, HEADER_LENGTH);
+        if (header.remaining() < HEADER_LENGTH || header.getInt(0) != MAGIC) {
+            throw new IOException("Not a credential file.");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported version of the credential "
+                    + "file: " + header.getInt(4));
+        }
+        long position = HEADER_LENGTH;
+        while (position < length) {
+            final long end = skipRecord(position);
+            if (end < 0) {
+                log.log(Level.WARNING, "Torn record at offset " + position
+                        + " removed.");
+                channel.truncate(position);
+                length = position;
+                break;
+            }
+            position = end;
+        }
+    }
+
+    /**
+     * Adds the record at the given position to the index.
+     *
+     * @return Position of the next record or -1 if the record is torn, i.e.,
+     *         it is the last record and has not been written completely.
+     * @throws IOException
+     *             If the record is corrupted.
+     */
+    private long skipRecord(final long position) throws IOException {
+        if (position + RECORD_HEADER_LENGTH > length) {
+            return -1;
+        }
+        final ByteBuffer header = get(position, RECORD_HEADER_LENGTH);
+        final int nameLength = header.getInt(0);
+        final int dataLength = header.getInt(4);
+        if (checksum(header, 8) != header.getInt(8)) {
+            if (isZero(position)) {
+                // the file has been extended but the record not written
+                return -1;
+            }
+            throw new IOException("Corrupted record header at offset "
+                    + position + ".");
+        }
+        if (nameLength < 0 || dataLength < 0) {
+            throw new IOException("Invalid record at offset " + position
+                    + ".");
+        }
+        final long end = position + RECORD_HEADER_LENGTH + nameLength
+                + dataLength + CHECKSUM_LENGTH;
+        if (end > length) {
+            return -1;
+        }
+        final ByteBuffer record = get(position + RECORD_HEADER_LENGTH,
+                nameLength + dataLength + CHECKSUM_LENGTH);
+        if (checksum(record, nameLength + dataLength) != record
+                .getInt(nameLength + dataLength)) {
+            if (end == length) {
+                return -1;
+            }
+            throw new IOException("Corrupted record at offset " + position
+                    + ".");
+        }
+        final byte[] name = new byte[nameLength];
+        record.get(name);
+        index.put(new String(name, CHARSET), Long.valueOf(position));
+        return end;
+    }
+
+    /**
+     * @return True if the file only contains zeros from the given position
+     *         on.
+     */
+    private boolean isZero(final long position) throws IOException {
+        for (long p = position; p < length; p += CHUNK_LENGTH) {
+            final ByteBuffer chunk = get(p, (int) Math.min(CHUNK_LENGTH,
+                    length - p));
+            while (chunk.hasRemaining()) {
+                if (chunk.get() != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Buffer with the given range of the file (from its position 0),
+     *         taken from the mapping if it covers the range and read from the
+     *         file otherwise. The buffer is shorter than requested if the
+     *         file ends before the range.
+     */
+    private ByteBuffer get(final long position, final int len)
+            throws IOException {
+        if (mapped != null && position + len <= mapped.capacity()) {
+            final ByteBuffer buffer = mapped.duplicate();
+            buffer.position((int) position);
+            buffer.limit((int) position + len);
+            return buffer.slice();
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(len);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return CRC-32 of the first bytes of the given buffer.
+     */
+    private static int checksum(final ByteBuffer buffer, final int len) {
+        final ByteBuffer range = buffer.duplicate();
+        range.position(0);
+        final byte[] bytes = new byte[len];
+        range.get(bytes);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private void write(final ByteBuffer buffer, final long position)
+            throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    /**
+     * @param name
+     *            Name of a credential.
+     * @return True if the file contains a credential with the given name.
+     */
+    synchronized boolean contains(final String name) {
+        return index.containsKey(name);
+    }
+
+    /**
+     * @return Number of credentials in the file.
+     */
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Appends a credential to the file.
+     *
+     * @param name
+     *            Name of the credential.
+     * @param data
+     *            Encoded credential.
+     */
+    synchronized void append(final String name, final byte[] data)
+            throws IOException {
+        final byte[] nameBytes = name.getBytes(CHARSET);
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH
+                + nameBytes.length + data.length + CHECKSUM_LENGTH);
+        final CRC32 crc = new CRC32();
+        record.putInt(nameBytes.length).putInt(data.length);
+        crc.update(record.array(), 0, 8);
+        record.putInt((int) crc.getValue());
+        crc.reset();
+        crc.update(nameBytes);
+        crc.update(data);
+        record.put(nameBytes).put(data).putInt((int) crc.getValue());
+        record.flip();
+        if (length + record.capacity() > Integer.MAX_VALUE) {
+            // the file is mapped as a single buffer
+            throw new IOException("Credential file is full.");
+        }
+        write(record, length);
+
+        index.put(name, Long.valueOf(length));
+        length += record.capacity();
+    }
+
+    /**
+     * @param name
+     *            Name of a credential.
+     * @return Encoded credential or <tt>null</tt> if the file does not
+     *         contain a credential with the given name.
+     * @throws IOException
+     *             If the record has been corrupted since the file was opened.
+     */
+    synchronized byte[] read(final String name) throws IOException {
+        final Long recordPosition = index.get(name);
+        if (recordPosition == null) {
+            return null;
+        }
+        if (length >= 2L * mapped.capacity()) {
+            // the records appended since the last mapping make up half of the
+            // file; the file is mapped O(log(length)) times
+            map();
+        }
+        final long position = recordPosition.longValue();
+        final ByteBuffer header = get(position, RECORD_HEADER_LENGTH);
+        final int nameLength = header.getInt(0);
+        final int dataLength = header.getInt(4);
+        final ByteBuffer record = get(position + RECORD_HEADER_LENGTH,
+                nameLength + dataLength + CHECKSUM_LENGTH);
+        if (checksum(record, nameLength + dataLength) != record
+                .getInt(nameLength + dataLength)) {
+            throw new IOException("Corrupted record at offset " + position
+                    + ".");
+        }
+        final byte[] data = new byte[dataLength];
+        record.position(nameLength);
+        record.get(data);
+        return data;
+    }
+
+    /**
+     * Writes all appended records to the storage device.
+     */
+    synchronized void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Closes the file.
+     */
+    synchronized void close() throws IOException {
+        file.close();
+    }
+}
@@ -3,13 +3,24 @@
  */
 package com.ibm.zrl.credsystem;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,6 +36,13 @@ import com.ibm.zrl.idmx.utils.Constants;
 /**
  * Utility class that contains credentials that the user owns. All access to
  * credentials must be handled through this class.
+ *
+ * The credentials are kept in an append-only, memory-mapped file (see
+ * {@link CredentialFile}) and are decoded when they are requested. The most
+ * recently used credentials are cached; the size of the cache is read from
+ * the system property {@value #CACHE_SIZE_PROPERTY}. Credentials that have
+ * been stored as XML files by earlier versions are added to the file when the
+ * store is updated.
  */
 public class CredentialStore {
 
@@ -32,6 +50,15 @@ public class CredentialStore {
     private static Logger log = Logger.getLogger(CredentialStore.class
             .getName());
 
+    /** Name of the system property that sets the size of the cache. */
+    public static final String CACHE_SIZE_PROPERTY = "com.ibm.zrl.credsystem.credentialCacheSize";
+
+    /** Default number of cached credentials. */
+    private static final int DEFAULT_CACHE_SIZE = 256;
+
+    /** Encoding of the credentials in the credential file. */
+    private static final String CHARSET = "UTF-8";
+
     /** Map of all currently active credential stores. */
     private static HashMap<URI, CredentialStore> credStoreMap = new HashMap<URI, CredentialStore>();
 
@@ -44,8 +71,23 @@ public class CredentialStore {
     private URI groupParamsLocation;
     /** Translator for this credential store. */
     private Translator translator;
-    /** Credentials that are currently loaded. */
-    private final HashMap<String, Credential> credentialMap = new HashMap<String, Credential>();
+    /** File containing the credentials. */
+    private CredentialFile credentialFile;
+    /** Recently used credentials (least recently used first). */
+    private final Map<String, Credential> credentialMap =
+            new LinkedHashMap<String, Credential>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(
+                final Map.Entry<String, Credential> eldest) {
+            return size() > cacheSize;
+        }
+    };
+    /** Watches the credential directory, see {@link #refresh()}. */
+    private WatchService watchService;
+    /** Maximal number of cached credentials. */
+    private final int cacheSize = Integer.getInteger(CACHE_SIZE_PROPERTY,
+            DEFAULT_CACHE_SIZE).intValue();
     /**
      * Mapping of a a human recognisable object (e.g., an image or a name) to a
      * credential name.
@@ -61,7 +103,7 @@ public class CredentialStore {
      *            Location of the master secret, which may be different from the
      *            location of the credential store itself.
      */
-    public static CredentialStore get(final URI storeLocation,
+    public static synchronized CredentialStore get(final URI storeLocation,
             final URI msLocation, final URI groupParametersLocation) {
         CredentialStore credStore = credStoreMap.get(storeLocation);
         if (credStore == null) {
@@ -117,6 +159,14 @@ public class CredentialStore {
                     + "supported.");
         }
 
+        try {
+            credentialFile = new CredentialFile(new File(
+                    credentialStoreLocation.resolve(CredentialFile.FILE_NAME)));
+        } catch (IOException e) {
+            throw new RuntimeException("Credential file cannot be opened: "
+                    + e.getMessage());
+        }
+
         if (masterSecretLocation.getScheme().equalsIgnoreCase("file")) {
             masterSecret = (MasterSecret) Parser.getInstance().parse(
                     masterSecretLocation);
@@ -149,24 +199,21 @@ public class CredentialStore {
     }
 
     /**
-     * Scans the credential location for new credentials and loads them.
+     * Scans the credential location for credentials that have been stored as
+     * XML files and adds them to the credential file. The credentials are
+     * decoded when they are requested.
      */
     public final void update() {
 
         System.out.println("Updating credential store...");
 
         if (credentialStoreLocation.getScheme().equalsIgnoreCase("file")) {
-            // String[] files = getFiles("Credential_");
-            // for (int i = 0; i < files.length; i++) {
             Iterator<Object> it = credentialNamesMap.keySet().iterator();
             while (it.hasNext()) {
-                // String name = files[i];
                 Object credentialIdentifier = it.next();
                 String name = credentialNamesMap.get(credentialIdentifier);
-                if (!credentialMap.containsKey(name)) {
-                    Credential cred = (Credential) Parser.getInstance().parse(
-                            credentialStoreLocation.resolve(name));
-                    credentialMap.put(name, cred);
+                if (!credentialFile.contains(name)) {
+                    importCredential(name);
                 }
             }
         } else {
@@ -175,6 +222,104 @@ public class CredentialStore {
         }
     }
 
+    /**
+     * Updates the credential store if the credential directory has changed
+     * since the last call. Changes of the credential file itself (i.e.,
+     * appended credentials) are ignored. The first call registers a watch on
+     * the directory and updates the store. If the directory cannot be
+     * watched, the store is updated on every call.
+     */
+    public final synchronized void refresh() {
+        if (watchService == null) {
+            try {
+                final WatchService service = FileSystems.getDefault()
+                        .newWatchService();
+                try {
+                    Paths.get(credentialStoreLocation).register(service,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE);
+                } catch (IOException e) {
+                    service.close();
+                    throw e;
+                }
+                watchService = service;
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Credential directory cannot be "
+                        + "watched: " + e.getMessage());
+            }
+            update();
+            return;
+        }
+        boolean changed = false;
+        WatchKey key;
+        while ((key = watchService.poll()) != null) {
+            final Iterator<WatchEvent<?>> events = key.pollEvents().iterator();
+            while (events.hasNext()) {
+                final Object context = events.next().context();
+                changed |= context == null
+                        || !CredentialFile.FILE_NAME.equals(context.toString());
+            }
+            key.reset();
+        }
+        if (changed) {
+            update();
+        }
+    }
+
+    /**
+     * Adds a credential that has been stored as XML file to the credential
+     * file.
+     *
+     * @param name
+     *            File name of the credential in the credential directory.
+     */
+    private void importCredential(final String name) {
+        File xmlFile = new File(credentialStoreLocation.resolve(name));
+        if (!xmlFile.isFile()) {
+            log.log(Level.WARNING, "Credential: " + name + " not found.");
+            return;
+        }
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            FileInputStream fis = new FileInputStream(xmlFile);
+            try {
+                byte[] buffer = new byte[4096];
+                int length;
+                while ((length = fis.read(buffer)) != -1) {
+                    bos.write(buffer, 0, length);
+                }
+            } finally {
+                fis.close();
+            }
+            credentialFile.append(name, bos.toByteArray());
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Credential: " + name + " cannot be "
+                    + "imported: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param name
+     *            Name of a credential.
+     * @return Credential decoded from the credential file or <tt>null</tt>
+     *         if there is no credential with the given name.
+     */
+    private Credential decode(final String name) {
+        try {
+            byte[] data = credentialFile.read(name);
+            if (data == null) {
+                return null;
+            }
+            return (Credential) Parser.getInstance().parse(
+                    new String(data, CHARSET));
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Credential: " + name + " cannot be read: "
+                    + e.getMessage());
+        }
+        return null;
+    }
+
     /**
      * Delegation method. This method delegates the request to the right
      * translator.
@@ -205,15 +350,39 @@ public class CredentialStore {
 
     /**
      * Gracefully closes a credential store (e.g., by writing the translation
-     * map to a file).
+     * map to a file). The store must not be used afterwards; a subsequent
+     * call to {@link #get(URI, URI, URI)} opens the store again.
      */
     public final void close() {
+        synchronized (CredentialStore.class) {
+            if (credStoreMap.get(credentialStoreLocation) == this) {
+                credStoreMap.remove(credentialStoreLocation);
+            }
+        }
+        synchronized (this) {
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    log.log(Level.WARNING, "Watch of the credential "
+                            + "directory cannot be closed: " + e.getMessage());
+                }
+                watchService = null;
+            }
+        }
         XMLSerializer.getInstance().serialize(translator,
                 credentialStoreLocation.resolve("translator.xml"));
         XMLSerializer.getInstance().serialize(masterSecret,
                 masterSecretLocation);
         XMLSerializer.getInstance().serialize(credentialNamesMap,
                 credentialStoreLocation.resolve("credentialNames.xml"));
+        try {
+            credentialFile.force();
+            credentialFile.close();
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Credential file cannot be written: "
+                    + e.getMessage());
+        }
     }
 
     /**
@@ -222,7 +391,16 @@ public class CredentialStore {
      * @return Credential from the given file name.
      */
     public Credential getCredential(String credName) {
-        return credentialMap.get(credName);
+        synchronized (credentialMap) {
+            Credential cred = credentialMap.get(credName);
+            if (cred == null) {
+                cred = decode(credName);
+                if (cred != null) {
+                    credentialMap.put(credName, cred);
+                }
+            }
+            return cred;
+        }
     }
 
     /**
@@ -232,7 +410,7 @@ public class CredentialStore {
      *         their encodings.
      */
     public Credential getTranslatedCredential(String credName) {
-        Credential cred = credentialMap.get(credName);
+        Credential cred = getCredential(credName);
         Iterator<Attribute> iterator = cred.getAttributes().iterator();
         while (iterator.hasNext()) {
             Attribute att = iterator.next();
@@ -251,9 +429,17 @@ public class CredentialStore {
 
     public String put(Credential credential, Object information) {
         String name = "Credential_" + Utils.getRandomString(12) + ".xml";
-        XMLSerializer.getInstance().serialize(credential,
-                credentialStoreLocation.resolve(name));
-        credentialMap.put(name, credential);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        XMLSerializer.getInstance().serialize(credential, bos, false);
+        try {
+            credentialFile.append(name, bos.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException("Credential cannot be stored: "
+                    + e.getMessage());
+        }
+        synchronized (credentialMap) {
+            credentialMap.put(name, credential);
+        }
         // add it to the list of credentials
         credentialNamesMap.put(information, name);
         return name;
@@ -274,8 +460,7 @@ public class CredentialStore {
         if (!credentialNamesMap.keySet().contains(name)) {
             return creds;
         }
-        final Credential c = (Credential) Parser.getInstance().parse(
-                credentialStoreLocation.resolve(credentialNamesMap.get(name)));
+        final Credential c = decode(credentialNamesMap.get(name));
         String credTempName = c.getCredStructLocation().toString()
                 .concat(Constants.DELIMITER).concat(credIdentifier);
         creds.put(credTempName, c);
@@ -16,6 +16,7 @@ import com.ibm.zrl.idmx.showproof.ProofSpec;
 import com.ibm.zrl.idmx.showproof.Prover;
 import com.ibm.zrl.idmx.utils.Constants;
 import com.ibm.zrl.idmx.utils.Parser;
+import com.ibm.zrl.idmx.utils.ProofCodec;
 import com.ibm.zrl.idmx.utils.XMLSerializer;
 
 /**
@@ -39,9 +40,8 @@ public class Credsystem {
      */
     private HashMap<String, Credential> loadCredential(String credName,
             String tempCredName) {
-        // update credential store (not strictly necessary if no new credentials
-        // have been added)
-        credentialStore.update();
+        // update credential store if new credentials have been added
+        credentialStore.refresh();
         final Credential c = credentialStore.getCredential(credName);
 
         HashMap<String, Credential> creds = new HashMap<String, Credential>();
@@ -51,7 +51,51 @@ public class Credsystem {
         return creds;
     }
 
+    /**
+     * Builds a proof according to the given specification and returns it as
+     * XML.
+     * 
+     * @param proofSpecification
+     *            Proof specification (XML).
+     * @param nonceString
+     *            Nonce of the verifier.
+     * @return Proof (XML).
+     */
     public String requestProof(String proofSpecification, String nonceString) {
+        Proof p = buildProof(proofSpecification, nonceString);
+
+        String proofString = null;
+        try {
+            proofString = XMLSerializer.getInstance().serialize(p);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        // save the proof
+        return proofString;
+    }
+
+    /**
+     * Builds a proof according to the given specification and encodes it in
+     * the format negotiated with the verifier.
+     * 
+     * @param proofSpecification
+     *            Proof specification (XML).
+     * @param nonceString
+     *            Nonce of the verifier.
+     * @param acceptedFormats
+     *            Formats accepted by the verifier (see
+     *            {@link ProofCodec.Format#negotiate(String)}).
+     * @return Encoded proof; verifiers decode it with
+     *         {@link ProofCodec#decodeAny(byte[])}.
+     */
+    public byte[] requestProof(String proofSpecification, String nonceString,
+            String acceptedFormats) {
+        return ProofCodec.encode(buildProof(proofSpecification, nonceString),
+                ProofCodec.Format.negotiate(acceptedFormats));
+    }
+
+    private Proof buildProof(String proofSpecification, String nonceString) {
         InputSource is = new InputSource();
         is.setCharacterStream(new StringReader(proofSpecification));
         ProofSpec spec = (ProofSpec) Parser.getInstance().parse(is);
@@ -69,16 +113,6 @@ public class Credsystem {
                 spec, nonce);
 
         // create the proof
-        Proof p = prover.buildProof();
-
-        String proofString = null;
-        try {
-            proofString = XMLSerializer.getInstance().serialize(p);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        // save the proof
-        return proofString;
+        return prover.buildProof();
     }
 }
@@ -0,0 +1,366 @@
+/**
+ * Copyright IBM Corporation 2010.
+ */
+package com.ibm.zrl.credsystem;
+
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xml.sax.InputSource;
+
+import com.ibm.zrl.idmx.dm.Credential;
+import com.ibm.zrl.idmx.dm.MasterSecret;
+import com.ibm.zrl.idmx.showproof.Proof;
+import com.ibm.zrl.idmx.showproof.ProofSpec;
+import com.ibm.zrl.idmx.showproof.Prover;
+import com.ibm.zrl.idmx.utils.Constants;
+import com.ibm.zrl.idmx.utils.Parser;
+import com.ibm.zrl.idmx.utils.ProofCodec;
+import com.ibm.zrl.idmx.utils.Utils;
+
+/**
+ * Service that builds proofs for many holders (i.e., credential stores) in one
+ * JVM. A request passes three stages, each of which runs on a thread pool:
+ * parsing the proof specification, building the proof and encoding it. The
+ * stages of different requests overlap. At most a given number of requests
+ * is pending; further calls to
+ * {@link #submit(CredentialStore, HashMap, String, BigInteger, ProofCodec.Format)}
+ * block until a request has been completed.
+ *
+ * Parsed proof specifications are cached by the hash of their XML encoding.
+ * As the prover stores values in the identifiers of the specification, a
+ * parsed specification is used by one proof at a time and returned to the
+ * cache once the proof has been built; a specification whose proof failed is
+ * discarded. The credential store of a request is only updated if its
+ * directory has changed (see {@link CredentialStore#refresh()}).
+ */
+public class ProofService {
+
+    /** Default number of proof specifications that are cached. */
+    public static final int DEFAULT_SPEC_CACHE_SIZE = 64;
+
+    /** Threads parsing the specifications and encoding the proofs. */
+    private final ExecutorService codecExecutor;
+    /** Threads building the proofs. */
+    private final ExecutorService proverExecutor;
+    /** Permits for pending requests. */
+    private final Semaphore pending;
+    /** Maximal number of cached proof specifications. */
+    private final int specCacheSize;
+    /** Unused parsed proof specifications indexed by the hash of their XML. */
+    private final Map<String, ConcurrentLinkedQueue<ProofSpec>> specCache;
+    /** Number of proofs that used a cached proof specification. */
+    private final AtomicLong specHits = new AtomicLong();
+    /** Number of proofs for which the proof specification was parsed. */
+    private final AtomicLong specMisses = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param nbrOfProverThreads
+     *            Number of threads building proofs.
+     * @param nbrOfCodecThreads
+     *            Number of threads parsing specifications and encoding proofs.
+     * @param maxPending
+     *            Maximal number of pending requests.
+     * @param theSpecCacheSize
+     *            Maximal number of cached proof specifications.
+     */
+    public ProofService(final int nbrOfProverThreads,
+            final int nbrOfCodecThreads, final int maxPending,
+            final int theSpecCacheSize) {
+        if (nbrOfProverThreads <= 0 || nbrOfCodecThreads <= 0
+                || maxPending <= 0 || theSpecCacheSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        proverExecutor = Executors.newFixedThreadPool(nbrOfProverThreads,
+                new DaemonThreadFactory("idmx-proof-service-prover"));
+        codecExecutor = Executors.newFixedThreadPool(nbrOfCodecThreads,
+                new DaemonThreadFactory("idmx-proof-service-codec"));
+        pending = new Semaphore(maxPending);
+        specCacheSize = theSpecCacheSize;
+        specCache = new LinkedHashMap<String, ConcurrentLinkedQueue<ProofSpec>>(
+                16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(
+                    final Map.Entry<String, ConcurrentLinkedQueue<ProofSpec>> eldest) {
+                return size() > specCacheSize;
+            }
+        };
+    }
+
+    /**
+     * Constructor using one prover thread per core.
+     *
+     * @param maxPending
+     *            Maximal number of pending requests.
+     */
+    public ProofService(final int maxPending) {
+        this(Runtime.getRuntime().availableProcessors(), Math.max(1, Runtime
+                .getRuntime().availableProcessors() / 4), maxPending,
+                DEFAULT_SPEC_CACHE_SIZE);
+    }
+
+    /**
+     * Submits a proof request. Blocks while the maximal number of requests is
+     * pending.
+     *
+     * @param store
+     *            Credential store of the holder.
+     * @param credentialNames
+     *            Names of the credentials in the store indexed by their
+     *            temporary names in the proof specification.
+     * @param proofSpecification
+     *            Proof specification (XML).
+     * @param nonce
+     *            Nonce of the verifier.
+     * @param format
+     *            Encoding of the proof.
+     * @return Encoded proof; verifiers decode it with
+     *         {@link ProofCodec#decodeAny(byte[])}.
+     * @throws InterruptedException
+     *             If the calling thread is interrupted while waiting.
+     */
+    public final Future<byte[]> submit(final CredentialStore store,
+            final HashMap<String, String> credentialNames,
+            final String proofSpecification, final BigInteger nonce,
+            final ProofCodec.Format format) throws InterruptedException {
+        pending.acquire();
+        final Request request = new Request(store, credentialNames,
+                proofSpecification, nonce, format);
+        try {
+            codecExecutor.execute(new Runnable() {
+                public void run() {
+                    request.parse();
+                }
+            });
+        } catch (RuntimeException e) {
+            request.fail(e);
+        }
+        return request;
+    }
+
+    /**
+     * Stops the threads of the service. Pending requests are completed.
+     */
+    public final void shutdown() {
+        codecExecutor.shutdown();
+        proverExecutor.shutdown();
+    }
+
+    /**
+     * @return Number of requests that can be submitted without blocking.
+     */
+    public final int getAvailablePermits() {
+        return pending.availablePermits();
+    }
+
+    /**
+     * @return Number of proofs that used a cached proof specification.
+     */
+    public final long getSpecHits() {
+        return specHits.get();
+    }
+
+    /**
+     * @return Number of proofs for which the proof specification was parsed.
+     */
+    public final long getSpecMisses() {
+        return specMisses.get();
+    }
+
+    /**
+     * @return Parsed proof specification, either from the cache or newly
+     *         parsed.
+     */
+    private ProofSpec takeSpec(final String key, final String xml) {
+        final ConcurrentLinkedQueue<ProofSpec> idle;
+        synchronized (specCache) {
+            idle = specCache.get(key);
+        }
+        if (idle != null) {
+            final ProofSpec spec = idle.poll();
+            if (spec != null) {
+                specHits.incrementAndGet();
+                return spec;
+            }
+        }
+        specMisses.incrementAndGet();
+        final InputSource is = new InputSource();
+        is.setCharacterStream(new StringReader(xml));
+        final Object spec = Parser.getInstance().parse(is);
+        if (!(spec instanceof ProofSpec)) {
+            throw new IllegalArgumentException("Not a proof specification.");
+        }
+        return (ProofSpec) spec;
+    }
+
+    /**
+     * Returns a proof specification to the cache once the proof has been
+     * built. A specification whose proof failed may hold values of the
+     * failed proof and is not returned.
+     */
+    private void returnSpec(final String key, final ProofSpec spec) {
+        synchronized (specCache) {
+            ConcurrentLinkedQueue<ProofSpec> idle = specCache.get(key);
+            if (idle == null) {
+                idle = new ConcurrentLinkedQueue<ProofSpec>();
+                specCache.put(key, idle);
+            }
+            idle.add(spec);
+        }
+    }
+
+    /**
+     * @return Hash of the XML encoding of a proof specification.
+     */
+    private static String hash(final String xml) {
+        try {
+            final MessageDigest digest = MessageDigest
+                    .getInstance(Utils.DIGEST_METHOD);
+            return new BigInteger(1, digest.digest(xml.getBytes("UTF-8")))
+                    .toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e.getMessage());
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    /**
+     * Proof request that moves through the stages; completed with the encoded
+     * proof or with the exception of the stage that failed.
+     */
+    private final class Request extends FutureTask<byte[]> {
+        private final CredentialStore store;
+        private final HashMap<String, String> credentialNames;
+        private final String proofSpecification;
+        private final BigInteger nonce;
+        private final ProofCodec.Format format;
+
+        Request(final CredentialStore theStore,
+                final HashMap<String, String> theCredentialNames,
+                final String theProofSpecification, final BigInteger theNonce,
+                final ProofCodec.Format theFormat) {
+            super(new Callable<byte[]>() {
+                public byte[] call() {
+                    throw new IllegalStateException();
+                }
+            });
+            store = theStore;
+            credentialNames = theCredentialNames;
+            proofSpecification = theProofSpecification;
+            nonce = theNonce;
+            format = theFormat;
+        }
+
+        /**
+         * First stage: Gets the parsed proof specification.
+         */
+        void parse() {
+            try {
+                final String key = hash(proofSpecification);
+                final ProofSpec spec = takeSpec(key, proofSpecification);
+                proverExecutor.execute(new Runnable() {
+                    public void run() {
+                        prove(key, spec);
+                    }
+                });
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+        /**
+         * Second stage: Builds the proof.
+         */
+        void prove(final String key, final ProofSpec spec) {
+            try {
+                final Proof proof = buildProof(spec);
+                returnSpec(key, spec);
+                codecExecutor.execute(new Runnable() {
+                    public void run() {
+                        encode(proof);
+                    }
+                });
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+        /**
+         * Third stage: Encodes the proof.
+         */
+        void encode(final Proof proof) {
+            try {
+                set(ProofCodec.encode(proof, format));
+                pending.release();
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+        void fail(final Throwable t) {
+            setException(t);
+            pending.release();
+        }
+
+        private Proof buildProof(final ProofSpec spec) {
+            store.refresh();
+            final HashMap<String, Credential> creds = new HashMap<String, Credential>();
+            final Iterator<String> tempNames = credentialNames.keySet()
+                    .iterator();
+            while (tempNames.hasNext()) {
+                final String tempName = tempNames.next();
+                final String credName = credentialNames.get(tempName);
+                final Credential c = store.getCredential(credName);
+                if (c == null) {
+                    throw new IllegalArgumentException("Credential: "
+                            + credName + " not found.");
+                }
+                creds.put(c.getCredStructLocation().toString().concat(
+                        Constants.DELIMITER).concat(tempName), c);
+            }
+            // the prover stores its randomness in the master secret
+            final MasterSecret masterSecret = store.getMasterSecret();
+            final MasterSecret ms = new MasterSecret(masterSecret.getValue(),
+                    masterSecret.getGroupParametersLocation(), masterSecret
+                            .getNymList(), masterSecret.getDomNymList());
+            return new Prover(ms, creds, spec, nonce).buildProof();
+        }
+    }
+
+    /**
+     * Creates named daemon threads.
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+
+        DaemonThreadFactory(final String theName) {
+            name = theName;
+        }
+
+        public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -3,7 +3,6 @@
  */
 package com.ibm.zrl.credsystem.utils;
 
-import java.io.IOException;
 import java.math.BigInteger;
 import java.util.HashMap;
 
@@ -11,8 +10,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 import com.ibm.zrl.credsystem.Translator;
 
@@ -23,7 +20,7 @@ import com.ibm.zrl.credsystem.Translator;
 public final class Parser extends com.ibm.zrl.idmx.utils.Parser {
 
     /** Singleton design pattern. */
-    private static Parser parser;
+    private static final Parser parser = new Parser();
 
     /**
      * Constructor.
@@ -38,41 +35,24 @@ public final class Parser extends com.ibm.zrl.idmx.utils.Parser {
      * @return Parser object.
      */
     public static Parser getInstance() {
-        if (parser == null) {
-            parser = new Parser();
-        }
         return parser;
     }
 
     /**
-     * @param inputSource
-     *            File name of the XML file that is to be parsed.
-     * @return Element of the type as specified in the given XML file.
-     * @throws IOException
-     * @throws SAXException
+     * @see com.ibm.zrl.idmx.utils.Parser#parseOtherDocument(Document, String)
      */
-    public Object parse(final InputSource inputSource) {
-        // try if it is an element already implemented
-        Object result = super.parse(inputSource);
-
-        if (result == null) {
-            Element documentElement = document.getDocumentElement();
-
-            String rootName = documentElement.getNodeName();
-            if (rootName.equalsIgnoreCase("Translator")) {
-                return parseTranslator(document);
-
-            } else if (rootName.equalsIgnoreCase("CredentialNames")) {
-                return parseCredentialNames(document);
+    protected Object parseOtherDocument(final Document document,
+            final String rootName) {
+        if (rootName.equalsIgnoreCase("Translator")) {
+            return parseTranslator(document);
 
-            } else {
-                throw (new RuntimeException("Root node (" + rootName
-                        + ") of the given document: " + inputSource.toString()
-                        + " is unknown."));
-            }
+        } else if (rootName.equalsIgnoreCase("CredentialNames")) {
+            return parseCredentialNames(document);
 
+        } else {
+            throw (new RuntimeException("Root node (" + rootName
+                    + ") of the given document is unknown."));
         }
-        return result;
     }
 
     /**
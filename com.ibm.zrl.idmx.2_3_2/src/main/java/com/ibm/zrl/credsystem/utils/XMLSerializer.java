@@ -3,16 +3,11 @@
  */
 package com.ibm.zrl.credsystem.utils;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.HashMap;
 import java.util.Iterator;
 
-import javax.xml.parsers.*;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Text;
-
 import com.ibm.zrl.credsystem.Translator;
 
 /**
@@ -21,7 +16,7 @@ import com.ibm.zrl.credsystem.Translator;
 public class XMLSerializer extends com.ibm.zrl.idmx.utils.XMLSerializer {
 
     /** Singleton design pattern. */
-    private static XMLSerializer serializer;
+    private static final XMLSerializer serializer = new XMLSerializer();
 
     /**
      * Constructor.
@@ -32,81 +27,66 @@ public class XMLSerializer extends com.ibm.zrl.idmx.utils.XMLSerializer {
 
     /**
      * Singleton design pattern.
-     * 
+     *
      * @return Parser object.
      */
     public static XMLSerializer getInstance() {
-        if (serializer == null) {
-            serializer = new XMLSerializer();
-        }
         return serializer;
     }
 
     /**
-     * @param object
-     * @return
-     * @throws ParserConfigurationException
+     * @see com.ibm.zrl.idmx.utils.XMLSerializer#write(Object, Output)
      */
     @SuppressWarnings("unchecked")
-    protected Document createDOM(Object object) {
-
-        Document doc = super.createDOM(object);
-
+    protected boolean write(Object object, Output out) throws IOException {
         if (object instanceof Translator) {
-            doc = serializeTranslator((Translator) object, doc);
+            serializeTranslator((Translator) object, out);
         } else if (object instanceof HashMap<?, ?>) {
-            doc = serializeCredentialNames((HashMap<String, Object>) object,
-                    doc);
+            serializeCredentialNames((HashMap<String, Object>) object, out);
+        } else {
+            return super.write(object, out);
         }
-        return doc;
+        return true;
     }
 
-    private Document serializeTranslator(Translator translator, Document doc) {
-        Element root = doc.createElement("Translator");
-        setRootAttributes(root);
-        doc.appendChild(root);
-
-        Element attributes = doc.createElement("Attributes");
-        root.appendChild(attributes);
-
-        Element attribute = null;
-        Text text = null;
+    private void serializeTranslator(Translator translator, Output out)
+            throws IOException {
+        out.startRoot("Translator");
 
+        out.start("Attributes");
         Iterator<BigInteger> iterator = translator.getMap().keySet().iterator();
         while (iterator.hasNext()) {
             BigInteger key = (BigInteger) iterator.next();
             Object[] value = translator.getMap().get(key);
 
-            attribute = doc.createElement("Attribute");
+            out.start("Attribute");
             // the encoded value
-            attribute.setAttribute("key", key.toString());
+            out.attribute("key", key.toString());
             // the data type
-            attribute.setAttribute("dataType", value[1].toString());
+            out.attribute("dataType", value[1].toString());
             // the original value
-            text = doc.createTextNode(value[0].toString());
-            attribute.appendChild(text);
-            attributes.appendChild(attribute);
+            out.text(value[0]);
+            out.end();
         }
-        return doc;
+        out.end();
+
+        out.end();
     }
 
-    private Document serializeCredentialNames(
-            HashMap<String, Object> credentialNamesMap, Document doc) {
-        Element root = doc.createElement("CredentialNames");
-        setRootAttributes(root);
-        doc.appendChild(root);
+    private void serializeCredentialNames(
+            HashMap<String, Object> credentialNamesMap, Output out)
+            throws IOException {
+        out.startRoot("CredentialNames");
 
-        Text text = null;
         Iterator<String> it = credentialNamesMap.keySet().iterator();
         while (it.hasNext()) {
             String name = it.next();
-            Element element = doc.createElement("CredentialName");
-            element.setAttribute("name", name);
-            text = doc.createTextNode(credentialNamesMap.get(name).toString());
-            element.appendChild(text);
-
-            root.appendChild(element);
+            out.start("CredentialName");
+            out.attribute("name", name);
+            out.text(credentialNamesMap.get(name));
+            out.end();
         }
-        return doc;
+
+        out.end();
     }
 }
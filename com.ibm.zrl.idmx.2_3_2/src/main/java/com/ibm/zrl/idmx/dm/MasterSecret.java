@@ -100,6 +100,8 @@ public class MasterSecret {
         SystemParameters sp = groupParameters.getSystemParams();
         int bitlength = sp.getL_m() + sp.getL_Phi() + sp.getL_H() + 1;
         mTilde_1 = Utils.computeRandomNumberSymmetric(bitlength);
+        // the t-values depend on mTilde_1
+        domNymTildeList.clear();
     }
 
     /**
@@ -144,12 +146,15 @@ public class MasterSecret {
      */
     public final BigInteger loadNym(final String name) {
         BigInteger nymValue = null;
-        if (nymList.get(name) == null) {
-            Nym nym = new Nym(groupParameters, value, name);
-            nymList.put(name, nym);
-            nymValue = nym.getNym();
-        } else {
-            nymValue = nymList.get(name).getNym();
+        // the list may be shared with other instances (see ProverPool)
+        synchronized (nymList) {
+            if (nymList.get(name) == null) {
+                Nym nym = new Nym(groupParameters, value, name);
+                nymList.put(name, nym);
+                nymValue = nym.getNym();
+            } else {
+                nymValue = nymList.get(name).getNym();
+            }
         }
         return nymValue;
     }
@@ -164,7 +169,11 @@ public class MasterSecret {
      * @return True if pseudonym was successfully saved.
      */
     public final boolean saveNym(final String name, final String filename) {
-        return nymList.get(name).save(filename);
+        final Nym nym;
+        synchronized (nymList) {
+            nym = nymList.get(name);
+        }
+        return nym.save(filename);
     }
 
     // /**
@@ -193,7 +202,10 @@ public class MasterSecret {
      * @return S-value of the pseudonym with the given name.
      */
     public final BigInteger getRHat(final String nymName) {
-        Nym nym = nymList.get(nymName);
+        Nym nym;
+        synchronized (nymList) {
+            nym = nymList.get(nymName);
+        }
         assert (nym != null);
         // TODO (frp): step 2.1 in ProvePseudonym
         BigInteger rHat = Utils.computeResponse(nymTildeList.get(nymName)
@@ -210,15 +222,18 @@ public class MasterSecret {
      * @return Domain pseudonym computed on the basis of the given domain.
      */
     public final DomNym loadDomNym(final String domain) {
-        DomNym domNym = domNymList.get(domain);
-        if (domNym == null) {
-            BigInteger g_dom = DomNym.computeG_dom(groupParameters, domain);
-            BigInteger nym = Utils.expMul(null, g_dom, value,
-                    groupParameters.getCapGamma());
-            domNym = new DomNym(groupParameters, nym, g_dom);
-            domNymList.put(domain, domNym);
+        // the list may be shared with other instances (see ProverPool)
+        synchronized (domNymList) {
+            DomNym domNym = domNymList.get(domain);
+            if (domNym == null) {
+                BigInteger g_dom = DomNym.computeG_dom(groupParameters, domain);
+                BigInteger nym = Utils.expMul(null, g_dom, value,
+                        groupParameters.getCapGamma());
+                domNym = new DomNym(groupParameters, nym, g_dom);
+                domNymList.put(domain, domNym);
+            }
+            return domNym;
         }
-        return domNym;
     }
 
     // /**
@@ -233,7 +248,10 @@ public class MasterSecret {
      * @return T-Value of the domain pseudonym.
      */
     public final DomNym getDomNymTilde(final String domain) {
-        DomNym domNym = domNymList.get(domain);
+        DomNym domNym;
+        synchronized (domNymList) {
+            domNym = domNymList.get(domain);
+        }
         if (domNym == null) {
             return null;
         }
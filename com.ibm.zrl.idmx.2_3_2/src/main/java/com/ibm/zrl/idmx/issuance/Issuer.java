@@ -315,7 +315,7 @@ public class Issuer {
                 pubKey.getCapZ(), pubKey.getCapR(), vPrimePrime, pubKey.getN());
         log.log(Level.FINE, "capQ: " + Utils.logBigInt(capQ));
 
-        final BigInteger capA = capQ.modPow(eInverse, n);
+        final BigInteger capA = computeA(privKey, capQ, e, eInverse);
 
         // [spec: IssueCredentialProtocol 2.2]
         BigInteger context = spec.getContext();
@@ -327,8 +327,8 @@ public class Issuer {
         proofContext.add(capA);
         proofContext.add(nonce_recipient);
 
-        final Proof p2 = computeATildeProof(proofContext, sp, n, pPrime_qPrime,
-                eInverse, capQ);
+        final Proof p2 = computeATildeProof(proofContext, sp, privKey,
+                pPrime_qPrime, e, eInverse, capQ, capA);
 
         Message response;
         HashMap<IssuanceProtocolValues, BigInteger> issuanceProtocolValues;
@@ -375,14 +375,58 @@ public class Issuer {
         return response;
     }
 
+    /**
+     * Computes <tt>A = Q^(1/e) mod n</tt> using the CRT. The result is checked
+     * with the public exponent <tt>e</tt> before it is sent to the recipient:
+     * if one half of the CRT were faulty, <tt>gcd(A^e - Q, n)</tt> would
+     * reveal a factor of <tt>n</tt>. If the check fails, <tt>A</tt> is
+     * computed again without the CRT.
+     * 
+     * @param privKey
+     *            Private key of the issuer.
+     * @param capQ
+     *            Value <tt>Q</tt>.
+     * @param e
+     *            Prime exponent of the signature.
+     * @param eInverse
+     *            Inverse of <tt>e</tt> modulo <tt>p'*q'</tt>.
+     * @return <tt>A</tt>.
+     */
+    private static BigInteger computeA(final IssuerPrivateKey privKey,
+            final BigInteger capQ, final BigInteger e,
+            final BigInteger eInverse) {
+        final BigInteger n = privKey.getN();
+        BigInteger capA = privKey.modPow(capQ, eInverse);
+        if (!capA.modPow(e, n).equals(capQ)) {
+            log.log(Level.SEVERE, "CRT exponentiation failed, computing A "
+                    + "without the CRT.");
+            capA = capQ.modPow(eInverse, n);
+            if (!capA.modPow(e, n).equals(capQ)) {
+                throw new RuntimeException("Signature cannot be computed.");
+            }
+        }
+        return capA;
+    }
+
     private static Proof computeATildeProof(Vector<BigInteger> proofContext,
-            final SystemParameters sp, final BigInteger n,
-            final BigInteger pPrime_qPrime, final BigInteger eInverse,
-            final BigInteger capQ) {
+            final SystemParameters sp, final IssuerPrivateKey privKey,
+            final BigInteger pPrime_qPrime, final BigInteger e,
+            final BigInteger eInverse, final BigInteger capQ,
+            final BigInteger capA) {
         HashMap<String, SValue> sValues;
         final BigInteger r = Utils.computeRandomNumber(
                 pPrime_qPrime.subtract(BigInteger.ONE), sp).add(BigInteger.ONE);
-        final BigInteger capATilde = capQ.modPow(r, n);
+        final BigInteger n = privKey.getN();
+        BigInteger capATilde = privKey.modPow(capQ, r);
+        // A~ = Q^r = A^(e*r) must be checked like A (see computeA()); the
+        // exponent is reduced by the order 4*p'*q' of Z_n^*
+        final BigInteger expected = capA.modPow(e.multiply(r).mod(
+                pPrime_qPrime.shiftLeft(2)), n);
+        if (!capATilde.equals(expected)) {
+            log.log(Level.SEVERE, "CRT exponentiation failed, computing A~ "
+                    + "without the CRT.");
+            capATilde = expected;
+        }
 
         proofContext.add(capATilde);
 
@@ -541,7 +585,7 @@ public class Issuer {
 
         BigInteger pPrime_qPrime = privateKey.computeQPrimePPrime();
         BigInteger eInverse = e.modInverse(pPrime_qPrime);
-        BigInteger capABar = capQBar.modPow(eInverse, n);
+        BigInteger capABar = computeA(privateKey, capQBar, e, eInverse);
 
         // [spec: UpdateCredential 1.3] create the proof.
         Vector<BigInteger> proofContext = new Vector<BigInteger>();
@@ -550,8 +594,8 @@ public class Issuer {
         proofContext.add(capABar);
         proofContext.add(issuerRecord.getNonce());
 
-        final Proof p2 = computeATildeProof(proofContext, sp, n, pPrime_qPrime,
-                eInverse, capQBar);
+        final Proof p2 = computeATildeProof(proofContext, sp, privateKey,
+                pPrime_qPrime, e, eInverse, capQBar, capABar);
 
         issuerRecord.update(capQBar, vBarPrimePrime, newValues);
 
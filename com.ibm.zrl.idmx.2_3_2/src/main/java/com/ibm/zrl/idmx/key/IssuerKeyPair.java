@@ -59,6 +59,7 @@ public class IssuerKeyPair {
         maxNbrOfAttrs += sp.getL_res();
         publicKey = new IssuerPublicKey(groupParams, privateKey, maxNbrOfAttrs,
                 epochLength);
+        publicKey.cacheKeyBases();
     }
 
     /**
@@ -73,43 +74,6 @@ public class IssuerKeyPair {
         publicKey = privateKey.getPublicKey();
     }
 
-    // /**
-    // * Creates a cache of pre-computed values (based on this public key) to
-    // * allow faster computation. Does nothing if Constants.USE_FAST_EXPO_CACHE
-    // * is not set.
-    // */
-    // private boolean cacheKeyBases() {
-    //
-    // if (!Constants.USE_FAST_EXPO_CACHE) {
-    // return false;
-    // }
-    //
-    // SystemParameters sp = publicKey.getGroupParams().getSystemParams();
-    //
-    // int maxExpWidth = sp.getL_v() + sp.getL_Phi() + sp.getL_H();
-    // if (!ModPowCache.register(publicKey.getCapS(), publicKey.getN(),
-    // maxExpWidth)) {
-    // return false;
-    // }
-    //
-    // maxExpWidth = sp.getL_n() + sp.getL_Phi();
-    // if (!ModPowCache.register(this.publicKey.getCapZ(),
-    // this.publicKey.getN(), maxExpWidth)) {
-    // return false;
-    // }
-    //
-    // final BigInteger[] capR = this.publicKey.getCapR();
-    // maxExpWidth = sp.getL_m() + sp.getL_Phi() + sp.getL_H() + 1;
-    // for (int i = 0; i < capR.length; i++) {
-    // if (!ModPowCache.register(capR[i], this.publicKey.getN(),
-    // maxExpWidth)) {
-    // return false;
-    // }
-    // }
-    //
-    // return true;
-    // }
-
     @Override
     public final boolean equals(final Object o) {
         if (o == null) {
@@ -12,6 +12,7 @@ import java.util.logging.Logger;
 import com.ibm.zrl.idmx.utils.StructureStore;
 import com.ibm.zrl.idmx.utils.SystemParameters;
 import com.ibm.zrl.idmx.utils.Utils;
+import com.ibm.zrl.idmx.utils.perf.CrtExponentiator;
 
 /**
  * The Issuer private key (signing key) for the CL signature scheme. Required to
@@ -41,6 +42,8 @@ public class IssuerPrivateKey {
     private final BigInteger pPrime;
     /** Safe prime <tt>q'</tt>. */
     private final BigInteger qPrime;
+    /** Exponentiation modulo <tt>n</tt> using <tt>p</tt> and <tt>q</tt>. */
+    private volatile CrtExponentiator crt;
 
     /**
      * Constructor.
@@ -147,6 +150,28 @@ public class IssuerPrivateKey {
         return qPrime;
     }
 
+    /**
+     * Computes <tt>base^exponent mod n</tt> using the Chinese Remainder
+     * Theorem. A result that is wrong modulo only one of <tt>p</tt> and
+     * <tt>q</tt> reveals the factorization of <tt>n</tt>; a result that is
+     * sent to another party must therefore be checked first.
+     * 
+     * @param base
+     *            the base.
+     * @param exponent
+     *            the exponent.
+     * @return <tt>base^exponent mod n</tt>.
+     */
+    public final BigInteger modPow(final BigInteger base,
+            final BigInteger exponent) {
+        CrtExponentiator c = crt;
+        if (c == null) {
+            c = CrtExponentiator.forModulus(p, q);
+            crt = c;
+        }
+        return c.modPow(base, exponent);
+    }
+
     /**
      * Computes <tt>(p')*(q')</tt>.
      * 
@@ -7,14 +7,17 @@ import java.math.BigInteger;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Vector;
 
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
+import com.ibm.zrl.idmx.utils.Constants;
 import com.ibm.zrl.idmx.utils.GroupParameters;
 import com.ibm.zrl.idmx.utils.StructureStore;
 import com.ibm.zrl.idmx.utils.SystemParameters;
 import com.ibm.zrl.idmx.utils.Utils;
+import com.ibm.zrl.idmx.utils.perf.ModPowCache;
 
 /**
  * The Issuer's public key for the CL-signature scheme. In addition to the key
@@ -43,6 +46,22 @@ public final class IssuerPublicKey  {
     private final BigInteger n;
     /** Length of an epoch. */
     private final int epochLength;
+    /** Context of the key, see {@link #getContext()}. */
+    private volatile Context context;
+
+    /**
+     * Context value together with the group parameters it has been computed
+     * with.
+     */
+    private static final class Context {
+        private final GroupParameters groupParams;
+        private final BigInteger value;
+
+        Context(final GroupParameters theGroupParams, final BigInteger theValue) {
+            groupParams = theGroupParams;
+            value = theValue;
+        }
+    }
 
     /**
      * Constructor for the issuer public key with epoch length. Creates an
@@ -165,6 +184,32 @@ public final class IssuerPublicKey  {
                 groupParametersLocation);
     }
 
+    /**
+     * Returns the context of this key: a hash over the key and its group
+     * parameters. The key is immutable, so the hash is computed only once. It
+     * is recomputed if the structure store returns different group parameters
+     * (i.e., after they have been reloaded); a reloaded key is a new object
+     * with its own context.
+     * 
+     * @return Context value.
+     * @see Utils#computeContext(IssuerPublicKey)
+     */
+    public BigInteger getContext() {
+        final GroupParameters gp = getGroupParams();
+        Context c = context;
+        if (c == null || c.groupParams != gp) {
+            Vector<BigInteger> contextVector = new Vector<BigInteger>();
+
+            // R[], S, Z
+            contextVector = Utils.computeKeyContext(this, contextVector);
+            contextVector = Utils.computeGroupParamContext(gp, contextVector);
+            c = new Context(gp, Utils.hashOf(gp.getSystemParams().getL_H(),
+                    contextVector));
+            context = c;
+        }
+        return c.value;
+    }
+
     /**
      * @return Group parameters location.
      */
@@ -172,6 +217,47 @@ public final class IssuerPublicKey  {
         return groupParametersLocation;
     }
 
+    /**
+     * Creates a cache of pre-computed values (based on this public key) to
+     * allow faster computation. Does nothing if Constants.USE_FAST_EXPO_CACHE
+     * is not set.
+     * 
+     * @return True if the bases have been registered.
+     */
+    public boolean cacheKeyBases() {
+
+        if (!Constants.USE_FAST_EXPO_CACHE) {
+            return false;
+        }
+
+        final GroupParameters gp = getGroupParams();
+        if (gp == null) {
+            log.log(Level.WARNING, "Group parameters not available, key "
+                    + "bases are not cached.");
+            return false;
+        }
+        final SystemParameters sp = gp.getSystemParams();
+
+        int maxExpWidth = sp.getL_v() + sp.getL_Phi() + sp.getL_H();
+        if (!ModPowCache.register(capS, n, maxExpWidth)) {
+            return false;
+        }
+
+        maxExpWidth = sp.getL_n() + sp.getL_Phi();
+        if (!ModPowCache.register(capZ, n, maxExpWidth)) {
+            return false;
+        }
+
+        maxExpWidth = sp.getL_m() + sp.getL_Phi() + sp.getL_H() + 1;
+        for (int i = 0; i < capR.length; i++) {
+            if (!ModPowCache.register(capR[i], n, maxExpWidth)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * @return True if this IssuerPublicKey has the epoch length field set.
      */
@@ -6,11 +6,10 @@ package com.ibm.zrl.idmx.key;
 import java.math.BigInteger;
 import java.net.URI;
 
-import com.ibm.zrl.idmx.utils.Constants;
 import com.ibm.zrl.idmx.utils.StructureStore;
 import com.ibm.zrl.idmx.utils.SystemParameters;
 import com.ibm.zrl.idmx.utils.Utils;
-import com.ibm.zrl.idmx.utils.perf.ModPowCache;
+import com.ibm.zrl.idmx.utils.perf.CrtExponentiator;
 
 /**
  * Private key of a trusted party offering verifiable encryption on its behalf.
@@ -32,6 +31,8 @@ public class VEPrivateKey {
 
     /** Convenience: System parameters (retrieved using the public key). */
     private final SystemParameters sp;
+    /** Exponentiation modulo <tt>n^2</tt> using the factorization of n. */
+    private volatile CrtExponentiator crt;
 
     /**
      * Constructor.
@@ -54,6 +55,7 @@ public class VEPrivateKey {
         BigInteger n = npq.getN();
 
         orderN = getGroupOrder(npq);
+        crt = CrtExponentiator.forSquaredModulus(npq.getP(), npq.getQ());
         BigInteger n2 = (n.multiply(n));
         final BigInteger n2div4 = n2.shiftRight(2);
 
@@ -71,9 +73,7 @@ public class VEPrivateKey {
         vePublicKey = new VEPublicKey(theSystemParametersLocation, g, n, y1,
                 y2, y3);
 
-        if (Constants.USE_FAST_EXPO_CACHE) {
-            ModPowCache.register(g, n2, n2.bitLength());
-        }
+        vePublicKey.cacheBases();
     }
 
     /**
@@ -135,6 +135,70 @@ public class VEPrivateKey {
         return x3;
     }
 
+    /**
+     * Computes <tt>base^exponent mod n^2</tt> using the Chinese Remainder
+     * Theorem. The factorization of <tt>n</tt> is recovered from the group
+     * order if the key has been loaded.
+     * 
+     * @param base
+     *            the base.
+     * @param exponent
+     *            the exponent.
+     * @return <tt>base^exponent mod n^2</tt>.
+     */
+    public final BigInteger modPow(final BigInteger base,
+            final BigInteger exponent) {
+        CrtExponentiator c = crt;
+        if (c == null) {
+            c = factorN();
+            if (c == null) {
+                return base.modPow(exponent, getN2());
+            }
+            crt = c;
+        }
+        return c.modPow(base, exponent);
+    }
+
+    /**
+     * Recovers <tt>p</tt> and <tt>q</tt> from <tt>n</tt> and the group order
+     * <tt>(p-1)(q-1)</tt>: <tt>p + q = n - (p-1)(q-1) + 1</tt> and <tt>p - q
+     * = sqrt((p + q)^2 - 4n)</tt>.
+     * 
+     * @return Exponentiator modulo <tt>n^2</tt> or <tt>null</tt> if the group
+     *         order does not match <tt>n</tt>.
+     */
+    private CrtExponentiator factorN() {
+        final BigInteger n = getN();
+        final BigInteger sum = n.subtract(orderN).add(BigInteger.ONE);
+        final BigInteger diff = sqrt(sum.multiply(sum).subtract(
+                n.shiftLeft(2)));
+        final BigInteger p = sum.add(diff).shiftRight(1);
+        final BigInteger q = sum.subtract(diff).shiftRight(1);
+        if (q.signum() <= 0 || !p.multiply(q).equals(n)) {
+            return null;
+        }
+        return CrtExponentiator.forSquaredModulus(p, q);
+    }
+
+    /**
+     * @param a
+     *            non-negative number.
+     * @return <tt>floor(sqrt(a))</tt> (Newton's method).
+     */
+    private static BigInteger sqrt(final BigInteger a) {
+        if (a.signum() <= 0) {
+            return BigInteger.ZERO;
+        }
+        BigInteger x = BigInteger.ONE.shiftLeft((a.bitLength() + 1) / 2);
+        while (true) {
+            final BigInteger y = x.add(a.divide(x)).shiftRight(1);
+            if (y.compareTo(x) >= 0) {
+                return x;
+            }
+            x = y;
+        }
+    }
+
     /**
      * @return the g
      */
@@ -6,9 +6,11 @@ package com.ibm.zrl.idmx.key;
 import java.math.BigInteger;
 import java.net.URI;
 
+import com.ibm.zrl.idmx.utils.Constants;
 import com.ibm.zrl.idmx.utils.StructureStore;
 import com.ibm.zrl.idmx.utils.SystemParameters;
 import com.ibm.zrl.idmx.utils.Utils;
+import com.ibm.zrl.idmx.utils.perf.ModPowCache;
 
 /**
  * Public key for verifiable encryption.
@@ -127,6 +129,30 @@ public class VEPublicKey {
         return BigInteger.ONE.add(this.n).mod(n2);
     }
 
+    /**
+     * Creates a cache of pre-computed values for the bases <tt>g</tt>,
+     * <tt>y<sub>1</sub></tt>, <tt>y<sub>2</sub></tt> and
+     * <tt>y<sub>3</sub></tt> to allow faster computation. Does nothing if
+     * Constants.USE_FAST_EXPO_CACHE is not set.
+     * 
+     * @return True if the bases have been registered.
+     */
+    public boolean cacheBases() {
+
+        if (!Constants.USE_FAST_EXPO_CACHE || sp == null) {
+            return false;
+        }
+
+        // exponents are 2*r with r of 2*l_enc + l_Phi + l_H + 1 bits.
+        final int maxExpWidth = 2 * sp.getL_enc() + sp.getL_Phi()
+                + sp.getL_H() + 3;
+        return ModPowCache.register(g, n2, maxExpWidth)
+                && ModPowCache.register(y1, n2, maxExpWidth)
+                && ModPowCache.register(y2, n2, maxExpWidth)
+                // y3 is raised to the hash times 2*r.
+                && ModPowCache.register(y3, n2, maxExpWidth + sp.getL_H());
+    }
+
     /**
      * Returns a random value such that <tt>r in [n/4]</tt>, which is needed
      * when encrypting.
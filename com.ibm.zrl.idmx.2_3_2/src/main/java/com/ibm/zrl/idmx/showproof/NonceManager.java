@@ -0,0 +1,257 @@
+/**
+ * Copyright IBM Corporation 2010.
+ */
+package com.ibm.zrl.idmx.showproof;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import com.ibm.zrl.idmx.utils.SystemParameters;
+
+/**
+ * Issues the nonces of a verifier and accepts each of them for one proof
+ * within a given time. Replayed proofs (i.e., proofs with a nonce that has
+ * already been used) and proofs with a nonce that has not been issued or has
+ * expired are rejected by {@link #consume(BigInteger)} in constant time,
+ * before the proof is verified.
+ *
+ * The nonces are recorded in a ring of buckets, each of which contains the
+ * nonces issued during a fraction of the time to live. A bucket is cleared
+ * when the ring wraps around, such that expired nonces do not need to be
+ * removed one by one. Each bucket is a hash set of the lowest 64 bits of the
+ * nonces; thus, a nonce that has the same lowest 64 bits as an issued nonce
+ * is accepted instead of the issued nonce (once).
+ *
+ * The number of nonces that are issued and not yet accepted is bounded: each
+ * bucket holds at most <tt>maxNonces / nbrOfBuckets</tt> nonces. Once the
+ * bucket of the current period is full, {@link #issue(SystemParameters)}
+ * refuses to issue further nonces until the period ends or nonces of the
+ * bucket have been accepted.
+ */
+public class NonceManager {
+
+    /** Default number of buckets. */
+    public static final int DEFAULT_NBR_OF_BUCKETS = 16;
+    /** Default maximal number of nonces issued within the time to live. */
+    public static final int DEFAULT_MAX_NONCES = 1 << 20;
+
+    /** Time each bucket covers, in ns. */
+    private final long bucketTime;
+    /** Start of the first period, in ns. */
+    private final long startTime = System.nanoTime();
+    /** Nonces of the last <tt>buckets.length</tt> periods. */
+    private final LongSet[] buckets;
+    /** Period of the nonces in each bucket. */
+    private final long[] periods;
+    /** Maximal number of nonces in a bucket. */
+    private final int maxNoncesPerBucket;
+
+    /**
+     * Constructor.
+     *
+     * @param timeToLive
+     *            Time a nonce is accepted after it has been issued, in ms.
+     * @param nbrOfBuckets
+     *            Number of buckets; a nonce expires after between
+     *            <tt>timeToLive</tt> and
+     *            <tt>timeToLive * (1 + 1 / nbrOfBuckets)</tt>.
+     * @param maxNonces
+     *            Maximal number of nonces issued within the time to live that
+     *            have not been accepted yet.
+     */
+    public NonceManager(final long timeToLive, final int nbrOfBuckets,
+            final int maxNonces) {
+        if (timeToLive <= 0 || nbrOfBuckets <= 0 || maxNonces <= 0) {
+            throw new IllegalArgumentException();
+        }
+        maxNoncesPerBucket = Math.max(1, maxNonces / nbrOfBuckets);
+        // one more bucket for the nonces of the current period
+        bucketTime = Math.max(1, timeToLive * 1000000 / nbrOfBuckets);
+        buckets = new LongSet[nbrOfBuckets + 1];
+        periods = new long[nbrOfBuckets + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongSet();
+            periods[i] = -1;
+        }
+    }
+
+    /**
+     * Constructor issuing at most {@value #DEFAULT_MAX_NONCES} nonces within
+     * the time to live.
+     *
+     * @param timeToLive
+     *            Time a nonce is accepted after it has been issued, in ms.
+     * @param nbrOfBuckets
+     *            Number of buckets.
+     */
+    public NonceManager(final long timeToLive, final int nbrOfBuckets) {
+        this(timeToLive, nbrOfBuckets, DEFAULT_MAX_NONCES);
+    }
+
+    /**
+     * Constructor using {@value #DEFAULT_NBR_OF_BUCKETS} buckets.
+     *
+     * @param timeToLive
+     *            Time a nonce is accepted after it has been issued, in ms.
+     */
+    public NonceManager(final long timeToLive) {
+        this(timeToLive, DEFAULT_NBR_OF_BUCKETS);
+    }
+
+    /**
+     * Issues a nonce (see {@link Verifier#getNonce(SystemParameters)}).
+     *
+     * @param sp
+     *            System parameters.
+     * @return Verifier's nonce or <tt>null</tt> if the maximal number of
+     *         nonces has been issued.
+     */
+    public final BigInteger issue(final SystemParameters sp) {
+        final BigInteger nonce = Verifier.getNonce(sp);
+        synchronized (this) {
+            final long period = getPeriod();
+            final int index = (int) (period % buckets.length);
+            if (periods[index] != period) {
+                // the nonces in the bucket have expired
+                buckets[index].clear();
+                periods[index] = period;
+            }
+            if (buckets[index].size() >= maxNoncesPerBucket) {
+                return null;
+            }
+            buckets[index].add(nonce.longValue());
+        }
+        return nonce;
+    }
+
+    /**
+     * Accepts a nonce if it has been issued, has not expired and has not been
+     * accepted before.
+     *
+     * @param nonce
+     *            Nonce of a proof.
+     * @return True if the nonce is accepted, false if the proof must be
+     *         rejected.
+     */
+    public final synchronized boolean consume(final BigInteger nonce) {
+        final long key = nonce.longValue();
+        final long period = getPeriod();
+        for (int i = 0; i < buckets.length; i++) {
+            if (period - periods[i] < buckets.length && periods[i] >= 0
+                    && buckets[i].remove(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long getPeriod() {
+        return (System.nanoTime() - startTime) / bucketTime;
+    }
+
+    /**
+     * @return Number of nonces that have been issued and not been accepted
+     *         (including expired nonces of buckets that have not been cleared
+     *         yet).
+     */
+    public final synchronized int size() {
+        int size = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            size += buckets[i].size();
+        }
+        return size;
+    }
+
+    /**
+     * Hash set of <tt>long</tt> values (open addressing with linear probing).
+     * Zero is used to mark empty slots and is stored separately.
+     */
+    private static final class LongSet {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private int size;
+        private boolean containsZero;
+
+        int size() {
+            return size + (containsZero ? 1 : 0);
+        }
+
+        void clear() {
+            if (keys.length > INITIAL_CAPACITY) {
+                keys = new long[INITIAL_CAPACITY];
+            } else {
+                Arrays.fill(keys, 0);
+            }
+            size = 0;
+            containsZero = false;
+        }
+
+        void add(final long key) {
+            if (key == 0) {
+                containsZero = true;
+                return;
+            }
+            if (2 * (size + 1) > keys.length) {
+                resize();
+            }
+            int i = slot(key, keys.length);
+            while (keys[i] != 0) {
+                if (keys[i] == key) {
+                    return;
+                }
+                i = (i + 1) & (keys.length - 1);
+            }
+            keys[i] = key;
+            size++;
+        }
+
+        boolean remove(final long key) {
+            if (key == 0) {
+                final boolean contained = containsZero;
+                containsZero = false;
+                return contained;
+            }
+            final int mask = keys.length - 1;
+            int i = slot(key, keys.length);
+            while (keys[i] != key) {
+                if (keys[i] == 0) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            // move the following keys of the cluster into the gap
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (keys[j] == 0) {
+                    break;
+                }
+                final int k = slot(keys[j], keys.length);
+                if (((j - k) & mask) >= ((j - i) & mask)) {
+                    keys[i] = keys[j];
+                    i = j;
+                }
+            }
+            keys[i] = 0;
+            size--;
+            return true;
+        }
+
+        private void resize() {
+            final long[] old = keys;
+            keys = new long[old.length * 2];
+            size = 0;
+            for (int i = 0; i < old.length; i++) {
+                if (old[i] != 0) {
+                    add(old[i]);
+                }
+            }
+        }
+
+        private static int slot(final long key, final int length) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & (length - 1);
+        }
+    }
+}
@@ -29,6 +29,38 @@ public class ProofSpec {
     private HashMap<String, Identifier> identifierMap;
     /** Predicates. */
     private final Vector<Predicate> predicates;
+    /** Cached context, see {@link #getContext()}. */
+    private volatile Context context;
+
+    /**
+     * Context value together with the issuer public keys it has been computed
+     * with.
+     */
+    private static final class Context {
+        private final Vector<IssuerPublicKey> keys;
+        private final BigInteger value;
+
+        Context(final Vector<IssuerPublicKey> theKeys, final BigInteger theValue) {
+            keys = theKeys;
+            value = theValue;
+        }
+
+        /**
+         * @return True if the context has been computed with the very same
+         *         key objects.
+         */
+        boolean isFor(final Vector<IssuerPublicKey> theKeys) {
+            if (keys.size() != theKeys.size()) {
+                return false;
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                if (keys.get(i) != theKeys.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 
     /**
      * Constructor for proof specifications. Null arguments are initialized as
@@ -129,31 +161,46 @@ public class ProofSpec {
     }
 
     /**
-     * To get spec's context value.
+     * To get spec's context value. The value is cached; it is recomputed only
+     * if the structure store returns different issuer public keys for the
+     * credential structures of the spec (e.g., after a reload).
      * 
      * @return value of spec's context.
      */
     public final BigInteger getContext() {
-        Vector<BigInteger> contextVector = new Vector<BigInteger>();
-
-        // add values of group parametes
-        contextVector = Utils.computeGroupParamContext(gp, contextVector);
-
-        // add values of all issuer public keys (possibly multiple times)
+        // issuer public keys of all CL predicates (possibly multiple times)
+        final Vector<IssuerPublicKey> keys = new Vector<IssuerPublicKey>();
         Iterator<Predicate> it = predicates.iterator();
         while (it.hasNext()) {
             Predicate predicate = it.next();
             if (predicate instanceof CLPredicate) {
-                IssuerPublicKey pk = ((CredentialStructure) StructureStore
-                        .getInstance().get(
-                                ((CLPredicate) predicate)
-                                        .getCredStructLocation()))
-                        .getPublicKey();
-                contextVector = Utils.computeKeyContext(pk, contextVector);
+                keys.add(((CredentialStructure) StructureStore.getInstance()
+                        .get(((CLPredicate) predicate).getCredStructLocation()))
+                        .getPublicKey());
             }
         }
 
-        return Utils.hashOf(gp.getSystemParams().getL_H(), contextVector);
+        // the cached value is valid as long as the store returns the same
+        // keys, i.e., until a credential structure is reloaded.
+        final Context c = context;
+        if (c != null && c.isFor(keys)) {
+            return c.value;
+        }
+
+        Vector<BigInteger> contextVector = new Vector<BigInteger>();
+
+        // add values of group parametes
+        contextVector = Utils.computeGroupParamContext(gp, contextVector);
+
+        // add values of all issuer public keys
+        for (IssuerPublicKey pk : keys) {
+            contextVector = Utils.computeKeyContext(pk, contextVector);
+        }
+
+        final BigInteger value = Utils.hashOf(gp.getSystemParams().getL_H(),
+                contextVector);
+        context = new Context(keys, value);
+        return value;
     }
 
     /**
@@ -8,6 +8,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -35,10 +36,12 @@ import com.ibm.zrl.idmx.showproof.predicates.RepresentationPredicate;
 import com.ibm.zrl.idmx.showproof.predicates.VerEncPredicate;
 import com.ibm.zrl.idmx.showproof.sval.SValue;
 import com.ibm.zrl.idmx.showproof.sval.SValuesProveCL;
+import com.ibm.zrl.idmx.utils.Constants;
 import com.ibm.zrl.idmx.utils.GroupParameters;
 import com.ibm.zrl.idmx.utils.SystemParameters;
 import com.ibm.zrl.idmx.utils.Utils;
 import com.ibm.zrl.idmx.utils.perf.Exponentiation;
+import com.ibm.zrl.idmx.utils.perf.WorkerPool;
 import com.ibm.zrl.idmx.ve.VerifiableEncryption;
 import com.ibm.zrl.idmx.ve.VerifiableEncryptionOpening;
 
@@ -60,7 +63,7 @@ public class Prover {
      */
     private final MasterSecret masterSecret;
     /** Nonce, provided by the verifier. */
-    private final BigInteger nonce1;
+    private BigInteger nonce1;
     /** Credentials required to compile the proof. */
     private final HashMap<String, Credential> credentials;
     // /** Regular pseudonyms required to compile the proof. */
@@ -99,6 +102,14 @@ public class Prover {
     /** Convenience: System parameters. */
     private final SystemParameters sp;
 
+    /** True iff the sub-provers are run in parallel. */
+    private boolean parallel = Constants.USE_PARALLEL_PROOFS;
+
+    /** True iff the first round has been computed. */
+    private boolean precomputed = false;
+    /** True iff a proof has been built. */
+    private boolean used = false;
+
     /**
      * Constructor. After it runs, the specification is validated, and populated
      * with values from the prover's certificates.
@@ -178,6 +189,18 @@ public class Prover {
         this(theMasterSecret, creds, proofSpec, theN1, null, null, null, null);
     }
 
+    /**
+     * To run the sub-provers of independent predicates in parallel (or not).
+     * The default is set by {@link Constants#USE_PARALLEL_PROOFS}. The proof
+     * is the same in both modes.
+     * 
+     * @param theParallel
+     *            True iff the sub-provers should be run in parallel.
+     */
+    public final void setParallel(final boolean theParallel) {
+        parallel = theParallel;
+    }
+
     /**
      * Validation of the proof. If we do not care that we fail at compilation
      * time of the proof, we might include that validation in the process of
@@ -257,72 +280,42 @@ public class Prover {
      * @return Identity mixer show-proof data structure.
      */
     public final Proof buildProof() {
+        return buildProof(nonce1);
+    }
+
+    /**
+     * Online phase: Builds an Identity mixer show-proof data structure using
+     * the given nonce. Computes the first round first unless
+     * {@link #precompute()} has been called before. A prover builds only one
+     * proof, as using the randomness of the first round for two challenges
+     * would reveal the secrets.
+     * 
+     * @param theNonce
+     *            Nonce generated by the verifier.
+     * @return Identity mixer show-proof data structure.
+     */
+    public final Proof buildProof(final BigInteger theNonce) {
+        if (theNonce == null) {
+            throw new IllegalArgumentException("Nonce is required.");
+        }
+        if (used) {
+            throw new RuntimeException("The prover has already been used "
+                    + "to build a proof.");
+        }
+        used = true;
+        nonce1 = theNonce;
 
         // we have two rounds: in the first round we compute the t-values
         // (witnesses) then the Fiat-Shamir challenge. In the second round we
         // compute the s-values (responses) using that challenge.
-
-        // generate new randomness for the proof
-        masterSecret.initProof();
-
-        // [spec: buildProof 0.1]
-        Iterator<Identifier> identifiers = spec.getIdentifiers().iterator();
-        while (identifiers.hasNext()) {
-            Identifier identifier = identifiers.next();
-            if (!identifier.isRevealed()) {
-                int bitlength = sp.getL_m() + sp.getL_Phi() + sp.getL_H();
-                identifier.setRandom(Utils.computeRandomNumber(bitlength));
-            }
-        }
-
-        // [spec: buildProof 1.] iterate over all predicates, call sub-provers
-        Iterator<Predicate> predicates = spec.getPredicates().iterator();
-        while (predicates.hasNext()) {
-            Predicate predicate = predicates.next();
-            switch (predicate.getPredicateType()) {
-            case CL:
-                CLPredicate pred = ((CLPredicate) predicate);
-                Credential cred = credentials.get(pred.getTempCredName());
-                proveCL(cred, pred);
-                break;
-            case ENUMERATION:
-                provePrimeEncode((PrimeEncodePredicate) predicate);
-                break;
-            case INEQUALITY:
-                proveInequality((InequalityPredicate) predicate);
-                break;
-            case COMMITMENT:
-                CommitmentPredicate predComm = (CommitmentPredicate) predicate;
-                CommitmentOpening commOpen = commOpenings.get(predComm
-                        .getName());
-                proveCommitment(commOpen, predComm);
-                break;
-            case REPRESENTATION:
-                proveRepresentation((RepresentationPredicate) predicate);
-                break;
-            case PSEUDONYM:
-                provePseudonym((PseudonymPredicate) predicate);
-                break;
-            case DOMAINNYM:
-                proveDomainNym((DomainNymPredicate) predicate);
-                break;
-            case VERENC:
-                proveVerEnc((VerEncPredicate) predicate);
-                break;
-            case MESSAGE:
-                // nothing to be done;
-                break;
-            default:
-                throw new RuntimeException("Unimplemented predicate.");
-            }
-        }
+        precompute();
 
         // [spec: buildProof 2.]
         final BigInteger challenge = computeChallenge();
 
         // [spec: buildProof 3.] call sub-provers again, this time with the
         // challenge
-        predicates = spec.getPredicates().iterator();
+        Iterator<Predicate> predicates = spec.getPredicates().iterator();
         while (predicates.hasNext()) {
             Predicate predicate = predicates.next();
             switch (predicate.getPredicateType()) {
@@ -369,15 +362,19 @@ public class Prover {
         // Now we iterate through all those prover objects rather than
         // considering them in the previous switch statement.
 
-        // [spec: ProvePrimeEncoding 4.] add s-values for prime encodings
-        Iterator<PrimeEncodeProver> peps = primeEncodingProvers.iterator();
-        while (peps.hasNext()) {
-            sValues.putAll(peps.next().computeSValues(challenge));
-        }
-        // [spec: ProveInequality 3.] add s-values for inequality provers
-        Iterator<InequalityProver> ips = inequalityProvers.iterator();
-        while (ips.hasNext()) {
-            sValues.putAll(ips.next().computeSValues(challenge));
+        if (parallel) {
+            computeSValuesParallel(challenge);
+        } else {
+            // [spec: ProvePrimeEncoding 4.] add s-values for prime encodings
+            Iterator<PrimeEncodeProver> peps = primeEncodingProvers.iterator();
+            while (peps.hasNext()) {
+                sValues.putAll(peps.next().computeSValues(challenge));
+            }
+            // [spec: ProveInequality 3.] add s-values for inequality provers
+            Iterator<InequalityProver> ips = inequalityProvers.iterator();
+            while (ips.hasNext()) {
+                sValues.putAll(ips.next().computeSValues(challenge));
+            }
         }
 
         // output proof
@@ -385,6 +382,190 @@ public class Prover {
 
     }
 
+    /**
+     * Offline phase: Computes the first round of the proof (randomness,
+     * t-values and common values), which does not depend on the nonce. The
+     * master secret must not be used for other proofs until
+     * {@link #buildProof(BigInteger)} has been called.
+     * 
+     * @see ProverPool
+     */
+    public final void precompute() {
+        if (precomputed) {
+            return;
+        }
+
+        // generate new randomness for the proof
+        masterSecret.initProof();
+
+        // [spec: buildProof 0.1]
+        Iterator<Identifier> identifiers = spec.getIdentifiers().iterator();
+        while (identifiers.hasNext()) {
+            Identifier identifier = identifiers.next();
+            if (!identifier.isRevealed()) {
+                int bitlength = sp.getL_m() + sp.getL_Phi() + sp.getL_H();
+                identifier.setRandom(Utils.computeRandomNumber(bitlength));
+            }
+        }
+
+        // [spec: buildProof 1.] iterate over all predicates, call sub-provers
+        if (parallel) {
+            computeTValuesParallel();
+        } else {
+            Iterator<Predicate> predicates = spec.getPredicates().iterator();
+            while (predicates.hasNext()) {
+                computeTValues(predicates.next(), tList);
+            }
+        }
+        precomputed = true;
+    }
+
+    /**
+     * First round: Calls the sub-prover of the given predicate.
+     * 
+     * @param predicate
+     *            Predicate.
+     * @param tValues
+     *            List the t-values of the predicate are appended to.
+     */
+    private void computeTValues(final Predicate predicate,
+            final Vector<BigInteger> tValues) {
+        switch (predicate.getPredicateType()) {
+        case CL:
+            CLPredicate pred = ((CLPredicate) predicate);
+            Credential cred = credentials.get(pred.getTempCredName());
+            proveCL(cred, pred, tValues);
+            break;
+        case ENUMERATION:
+            provePrimeEncode((PrimeEncodePredicate) predicate, tValues);
+            break;
+        case INEQUALITY:
+            proveInequality((InequalityPredicate) predicate, tValues);
+            break;
+        case COMMITMENT:
+            CommitmentPredicate predComm = (CommitmentPredicate) predicate;
+            CommitmentOpening commOpen = commOpenings.get(predComm.getName());
+            proveCommitment(commOpen, predComm, tValues);
+            break;
+        case REPRESENTATION:
+            proveRepresentation((RepresentationPredicate) predicate, tValues);
+            break;
+        case PSEUDONYM:
+            provePseudonym((PseudonymPredicate) predicate, tValues);
+            break;
+        case DOMAINNYM:
+            proveDomainNym((DomainNymPredicate) predicate, tValues);
+            break;
+        case VERENC:
+            proveVerEnc((VerEncPredicate) predicate, tValues);
+            break;
+        case MESSAGE:
+            // nothing to be done;
+            break;
+        default:
+            throw new RuntimeException("Unimplemented predicate.");
+        }
+    }
+
+    /**
+     * First round, parallel version: Calls the sub-provers on the worker pool.
+     * Each predicate writes its t-values into its own slot; the slots are
+     * appended to the list of t-values in the order of the predicates such
+     * that the challenge is the same as in the sequential version.
+     * Pseudonyms and domain pseudonyms use the state of the master secret and
+     * are cheap, therefore we compute them on the calling thread.
+     */
+    private void computeTValuesParallel() {
+        final Vector<Predicate> predicates = spec.getPredicates();
+
+        // the values of the identifiers are read by other sub-provers (e.g.,
+        // inequalities), thus we assign them before starting any of them.
+        for (int i = 0; i < predicates.size(); i++) {
+            if (predicates.get(i) instanceof CLPredicate) {
+                final CLPredicate pred = (CLPredicate) predicates.get(i);
+                Iterator<Attribute> attributes = credentials.get(
+                        pred.getTempCredName()).getAttributes().iterator();
+                while (attributes.hasNext()) {
+                    Attribute attribute = attributes.next();
+                    pred.getIdentifier(attribute.getName()).setAttr(attribute);
+                }
+            }
+        }
+
+        final Vector<Vector<BigInteger>> slots = new Vector<Vector<BigInteger>>();
+        final Vector<Callable<Object>> tasks = new Vector<Callable<Object>>();
+        for (int i = 0; i < predicates.size(); i++) {
+            final Predicate predicate = predicates.get(i);
+            final Vector<BigInteger> slot = new Vector<BigInteger>();
+            slots.add(slot);
+            switch (predicate.getPredicateType()) {
+            case PSEUDONYM:
+            case DOMAINNYM:
+                computeTValues(predicate, slot);
+                break;
+            default:
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        computeTValues(predicate, slot);
+                        return null;
+                    }
+                });
+            }
+        }
+        WorkerPool.invokeAll(tasks);
+
+        for (int i = 0; i < slots.size(); i++) {
+            tList.addAll(slots.get(i));
+        }
+    }
+
+    /**
+     * Second round, parallel version: Computes the s-values of the prime
+     * encoding and inequality provers on the worker pool.
+     * 
+     * @param challenge
+     *            Challenge.
+     */
+    private void computeSValuesParallel(final BigInteger challenge) {
+        final Vector<Callable<HashMap<String, SValue>>> tasks = new Vector<Callable<HashMap<String, SValue>>>();
+        for (int i = 0; i < primeEncodingProvers.size(); i++) {
+            final PrimeEncodeProver pep = primeEncodingProvers.get(i);
+            tasks.add(new Callable<HashMap<String, SValue>>() {
+                public HashMap<String, SValue> call() {
+                    // [spec: ProvePrimeEncoding 4.]
+                    return pep.computeSValues(challenge);
+                }
+            });
+        }
+        for (int i = 0; i < inequalityProvers.size(); i++) {
+            final InequalityProver ip = inequalityProvers.get(i);
+            tasks.add(new Callable<HashMap<String, SValue>>() {
+                public HashMap<String, SValue> call() {
+                    // [spec: ProveInequality 3.]
+                    return ip.computeSValues(challenge);
+                }
+            });
+        }
+        final Vector<HashMap<String, SValue>> results = WorkerPool
+                .invokeAll(tasks);
+        for (int i = 0; i < results.size(); i++) {
+            sValues.putAll(results.get(i));
+        }
+    }
+
+    /**
+     * Stores the state of a sub-prover for the second round.
+     * 
+     * @param name
+     *            Name of the predicate.
+     * @param state
+     *            State.
+     */
+    private synchronized void putState(final String name,
+            final ProofState state) {
+        states.put(name, state);
+    }
+
     /**
      * First round: Computes t-value and commons-value.
      * 
@@ -392,8 +573,11 @@ public class Prover {
      *            Credential that this predicate corresponds to.
      * @param pred
      *            CL predicate.
+     * @param tValues
+     *            List the t-value is appended to.
      */
-    private void proveCL(final Credential cred, final CLPredicate pred) {
+    private void proveCL(final Credential cred, final CLPredicate pred,
+            final Vector<BigInteger> tValues) {
         if (!cred.getCredStructLocation().equals(pred.getCredStructLocation())) {
             throw new RuntimeException("Credential structures of given "
                     + "credential and proof specification do not match "
@@ -433,7 +617,7 @@ public class Prover {
         state.put("ePrime", ePrime);
         state.put("vPrime", vPrime);
         state.put("vTildePrime", vTildePrime);
-        states.put(pred.getTempCredName(), state);
+        putState(pred.getTempCredName(), state);
 
         // [spec: ProveCL 2.2] compute capZTilde.
         final Vector<Exponentiation> expos = new Vector<Exponentiation>();
@@ -473,9 +657,9 @@ public class Prover {
                 ipk.getCapR()[IssuanceSpec.MASTER_SECRET_INDEX], ipk.getN());
 
         // [spec: ProveCL 3.] output t-value capZTilde, common value capAPrime.
-        tList.add(capZTilde);
+        tValues.add(capZTilde);
         // note that we wrap the common value A' into a tagged common value.
-        commonList.put(pred.getTempCredName(), capAPrime);
+        appendCommonValue(pred.getTempCredName(), capAPrime);
     }
 
     /**
@@ -537,14 +721,17 @@ public class Prover {
      * 
      * @param pred
      *            Enumeration predicate.
+     * @param tValues
+     *            List the t-values are appended to.
      */
-    private void provePrimeEncode(final PrimeEncodePredicate pred) {
+    private void provePrimeEncode(final PrimeEncodePredicate pred,
+            final Vector<BigInteger> tValues) {
         // use the issuer public key of the first certificate that certifies E
         IssuerPublicKey ipk = Utils.getPrimeEncodingConstants(pred);
 
         PrimeEncodeProver pep = new PrimeEncodeProver(pred, this, ipk);
         primeEncodingProvers.add(pep);
-        tList.addAll(pep.computeTValues());
+        tValues.addAll(pep.computeTValues());
     }
 
     /**
@@ -552,11 +739,14 @@ public class Prover {
      * 
      * @param pred
      *            Inequality predicate.
+     * @param tValues
+     *            List the t-values are appended to.
      */
-    private void proveInequality(final InequalityPredicate pred) {
+    private void proveInequality(final InequalityPredicate pred,
+            final Vector<BigInteger> tValues) {
         final InequalityProver ip = new InequalityProver(this, pred);
         // [spec: ProveInequality 2.1]
-        tList.addAll(ip.computeTHatValues());
+        tValues.addAll(ip.computeTHatValues());
         inequalityProvers.add(ip);
     }
 
@@ -567,9 +757,11 @@ public class Prover {
      *            Commitment opening.
      * @param pred
      *            Commitment predicate.
+     * @param tValues
+     *            List the t-value is appended to.
      */
     private void proveCommitment(final CommitmentOpening commOpen,
-            final CommitmentPredicate pred) {
+            final CommitmentPredicate pred, final Vector<BigInteger> tValues) {
 
         // [spec: ProveCommitment 1.1]
         int bitlength = sp.getL_n() + sp.getL_Phi() + sp.getL_H() + 1;
@@ -596,9 +788,9 @@ public class Prover {
         // save the state for the 2nd round of building proof.
         ProofState state = new ProofState();
         state.put("rTilde", rTilde);
-        states.put(pred.getName(), state);
+        putState(pred.getName(), state);
 
-        tList.add(capCTilde);
+        tValues.add(capCTilde);
     }
 
     /**
@@ -631,8 +823,11 @@ public class Prover {
      * 
      * @param pred
      *            Representation predicate.
+     * @param tValues
+     *            List the t-value is appended to.
      */
-    private void proveRepresentation(final RepresentationPredicate pred) {
+    private void proveRepresentation(final RepresentationPredicate pred,
+            final Vector<BigInteger> tValues) {
         RepresentationOpening capR = repOpenings.get(pred.getName());
         if (capR == null) {
             throw new RuntimeException("Computation of representation "
@@ -654,7 +849,7 @@ public class Prover {
             }
         }
         BigInteger capRTilde = Utils.multiExpMul(expos, capR.getModulus());
-        tList.add(capRTilde);
+        tValues.add(capRTilde);
     }
 
     /**
@@ -662,11 +857,14 @@ public class Prover {
      * 
      * @param pred
      *            Pseudonym predicate.
+     * @param tValues
+     *            List the t-value is appended to.
      */
-    private void provePseudonym(final PseudonymPredicate pred) {
-        commonList.put(pred.getName(), masterSecret.loadNym(pred.getName()));
+    private void provePseudonym(final PseudonymPredicate pred,
+            final Vector<BigInteger> tValues) {
+        appendCommonValue(pred.getName(), masterSecret.loadNym(pred.getName()));
         final BigInteger nymTilde = masterSecret.getNymTilde(pred.getName());
-        tList.add(nymTilde);
+        tValues.add(nymTilde);
     }
 
     /**
@@ -690,13 +888,16 @@ public class Prover {
      * 
      * @param pred
      *            Domain pseudonym predicate.
+     * @param tValues
+     *            List the t-value is appended to.
      */
-    private void proveDomainNym(final DomainNymPredicate pred) {
+    private void proveDomainNym(final DomainNymPredicate pred,
+            final Vector<BigInteger> tValues) {
         BigInteger domNym = masterSecret.loadDomNym(pred.getDomain()).getNym();
-        commonList.put(pred.getDomain(), domNym);
+        appendCommonValue(pred.getDomain(), domNym);
         final BigInteger dNymTilde = masterSecret.getDomNymTilde(
                 pred.getDomain()).getNym();
-        tList.add(dNymTilde);
+        tValues.add(dNymTilde);
     }
 
     /**
@@ -704,10 +905,16 @@ public class Prover {
      * 
      * @param pred
      *            Verifiable encryption predicate.
+     * @param tValues
+     *            List the t-values are appended to.
      */
-    private void proveVerEnc(final VerEncPredicate pred) {
+    private void proveVerEnc(final VerEncPredicate pred,
+            final Vector<BigInteger> tValues) {
 
-        VerifiableEncryptionOpening enc = verEncs.get(pred.getName());
+        VerifiableEncryptionOpening enc;
+        synchronized (this) {
+            enc = verEncs.get(pred.getName());
+        }
         if (enc == null) {
             // create the encryption
             BigInteger r = pred.getPublicKey().getRandom();
@@ -715,11 +922,15 @@ public class Prover {
                     .getValue(), r, pred.getVEPublicKeyLocation(),
                     pred.getLabel());
             // for the second round
-            verEncs.put(pred.getName(), enc);
+            synchronized (this) {
+                verEncs.put(pred.getName(), enc);
+            }
         }
-        if (verEncsSend.get(pred.getName()) == null) {
-            // send it to the verifier
-            verEncsSend.put(pred.getName(), enc.getEncryption());
+        synchronized (this) {
+            if (verEncsSend.get(pred.getName()) == null) {
+                // send it to the verifier
+                verEncsSend.put(pred.getName(), enc.getEncryption());
+            }
         }
         assert (enc != null);
         VEPublicKey pk = enc.getEncryption().getPK();
@@ -751,14 +962,14 @@ public class Prover {
         log.log(Level.FINE, " eHat: " + Utils.logBigInt(eHat));
         log.log(Level.FINE, " vHat: " + Utils.logBigInt(vHat));
 
-        tList.add(uHat);
-        tList.add(eHat);
-        tList.add(vHat);
+        tValues.add(uHat);
+        tValues.add(eHat);
+        tValues.add(vHat);
 
         // keep the state for round 2
         ProofState state = new ProofState();
         state.put("rTilde", rTilde);
-        states.put(pred.getName(), state);
+        putState(pred.getName(), state);
     }
 
     /**
@@ -812,14 +1023,15 @@ public class Prover {
 
     /**
      * Adds a value to the list of common values (used by sub-prover, e.g., the
-     * inequality prover).
+     * inequality prover). Sub-provers may call this method concurrently.
      * 
      * @param name
      *            Name of the common value.
      * @param c
      *            Challenge.
      */
-    public final void appendCommonValue(final String name, final BigInteger c) {
+    public final synchronized void appendCommonValue(final String name,
+            final BigInteger c) {
         commonList.put(name, c);
     }
 
@@ -0,0 +1,198 @@
+/**
+ * Copyright IBM Corporation 2009-2010.
+ */
+package com.ibm.zrl.idmx.showproof;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+import com.ibm.zrl.idmx.dm.Credential;
+import com.ibm.zrl.idmx.dm.MasterSecret;
+import com.ibm.zrl.idmx.utils.Parser;
+
+/**
+ * Pool of provers whose first round has been computed in advance (offline
+ * phase). When the nonce of the verifier arrives, a prover is taken from the
+ * pool and only the challenge and the s-values remain to be computed (online
+ * phase). Each prover builds exactly one proof.
+ *
+ * A background thread keeps the pool filled. If the pre-computation of a
+ * prover fails, the thread retries after a delay that doubles with each
+ * consecutive failure (up to {@value #MAX_RETRY_DELAY} ms). Each prover works on its own copy
+ * of the proof specification (the prover stores values in the identifiers of
+ * the specification) and on its own instance of the master secret, which
+ * shares the value and the pseudonyms with the given master secret but has its
+ * own randomness. The pool supports proof specifications that only require the
+ * master secret and credentials, i.e., no messages, commitments,
+ * representations or verifiable encryptions.
+ *
+ * @see Prover#precompute()
+ */
+public class ProverPool {
+
+    /** Logger. */
+    private static Logger log = Logger.getLogger(ProverPool.class.getName());
+
+    /** Delay (ms) before retrying after a failed pre-computation. */
+    private static final long MIN_RETRY_DELAY = 100;
+    /** Maximal delay (ms) before retrying after a failed pre-computation. */
+    public static final long MAX_RETRY_DELAY = 30000;
+
+    /** Master secret of the user. */
+    private final MasterSecret masterSecret;
+    /** Credentials used for the proofs. */
+    private final HashMap<String, Credential> credentials;
+    /** Location of the proof specification. */
+    private final URI proofSpecLocation;
+    /** Provers with a pre-computed first round. */
+    private final ArrayBlockingQueue<Prover> queue;
+
+    /** Number of proofs built with a pre-computed prover. */
+    private final AtomicLong hits = new AtomicLong();
+    /** Number of proofs for which the first round was computed online. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Background thread filling the pool. */
+    private Thread filler;
+
+    /**
+     * Constructor.
+     *
+     * @param theMasterSecret
+     *            Master secret.
+     * @param creds
+     *            Credentials used for the proofs.
+     * @param theProofSpecLocation
+     *            Location of the proof specification.
+     * @param capacity
+     *            Maximal number of pre-computed provers.
+     */
+    public ProverPool(final MasterSecret theMasterSecret,
+            final HashMap<String, Credential> creds,
+            final URI theProofSpecLocation, final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        masterSecret = theMasterSecret;
+        credentials = creds;
+        proofSpecLocation = theProofSpecLocation;
+        queue = new ArrayBlockingQueue<Prover>(capacity);
+    }
+
+    /**
+     * Starts the background thread that fills the pool.
+     */
+    public final synchronized void start() {
+        if (filler != null && filler.isAlive()) {
+            return;
+        }
+        filler = new Thread(new Runnable() {
+            public void run() {
+                long retryDelay = MIN_RETRY_DELAY;
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        final Prover prover;
+                        try {
+                            prover = createProver();
+                        } catch (RuntimeException e) {
+                            log.log(Level.SEVERE, "Pre-computation of a "
+                                    + "prover failed, retrying in "
+                                    + retryDelay + " ms.", e);
+                            Thread.sleep(retryDelay);
+                            retryDelay = Math.min(2 * retryDelay,
+                                    MAX_RETRY_DELAY);
+                            continue;
+                        }
+                        retryDelay = MIN_RETRY_DELAY;
+                        queue.put(prover);
+                    }
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }
+        }, "idmx-prover-pool");
+        filler.setDaemon(true);
+        filler.start();
+    }
+
+    /**
+     * Stops the background thread and discards the pre-computed provers.
+     */
+    public final synchronized void stop() {
+        if (filler != null) {
+            filler.interrupt();
+            filler = null;
+        }
+        queue.clear();
+    }
+
+    /**
+     * @return Prover with a pre-computed first round. If the pool is empty,
+     *         the first round is computed on the calling thread.
+     */
+    public final Prover take() {
+        Prover prover = queue.poll();
+        if (prover == null) {
+            misses.incrementAndGet();
+            prover = createProver();
+        } else {
+            hits.incrementAndGet();
+        }
+        return prover;
+    }
+
+    /**
+     * Online phase: Builds a proof for the given nonce using a pre-computed
+     * prover.
+     *
+     * @param nonce
+     *            Nonce generated by the verifier.
+     * @return Identity mixer show-proof data structure.
+     */
+    public final Proof buildProof(final BigInteger nonce) {
+        return take().buildProof(nonce);
+    }
+
+    /**
+     * Offline phase: Creates a prover and computes its first round.
+     *
+     * @return Prover ready for the online phase.
+     */
+    private Prover createProver() {
+        final ProofSpec spec = (ProofSpec) Parser.getInstance().parse(
+                proofSpecLocation);
+        final MasterSecret ms = new MasterSecret(masterSecret.getValue(),
+                masterSecret.getGroupParametersLocation(), masterSecret
+                        .getNymList(), masterSecret.getDomNymList());
+        final Prover prover = new Prover(ms, credentials, spec, null);
+        prover.precompute();
+        return prover;
+    }
+
+    /**
+     * @return Number of pre-computed provers in the pool.
+     */
+    public final int size() {
+        return queue.size();
+    }
+
+    /**
+     * @return Number of proofs built with a pre-computed prover.
+     */
+    public final long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of proofs for which the first round was computed online.
+     */
+    public final long getMisses() {
+        return misses.get();
+    }
+}
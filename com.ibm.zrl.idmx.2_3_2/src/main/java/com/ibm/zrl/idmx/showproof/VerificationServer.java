@@ -0,0 +1,401 @@
+/**
+ * Copyright IBM Corporation 2010.
+ */
+package com.ibm.zrl.idmx.showproof;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.zeromq.ZMQ;
+import org.zeromq.ZMQException;
+
+import com.ibm.zrl.idmx.utils.Parser;
+import com.ibm.zrl.idmx.utils.ProofCodec;
+
+/**
+ * Server that verifies proofs received over ZeroMQ. Clients connect with a
+ * REQ or DEALER socket to the endpoint of the server; a ROUTER socket accepts
+ * the requests and a broker thread passes them through a DEALER socket to the
+ * worker threads. Each worker verifies one request at a time using its own
+ * copies of the proof specifications. Clients using a DEALER socket may send
+ * several requests without waiting; the replies are sent as soon as the
+ * proofs have been verified and may arrive in a different order.
+ *
+ * A request consists of four frames: a request identifier (returned with the
+ * reply), the identifier of the proof specification, the nonce (decimal) and
+ * the proof as encoded by {@link ProofCodec}. The reply consists of three
+ * frames: the request identifier, the status ({@link #VALID},
+ * {@link #INVALID} or {@link #ERROR}) and a message (UTF-8, empty unless the
+ * status is {@link #ERROR}). Clients receive {@link #ERROR_MESSAGE} for any
+ * request that cannot be processed; the cause is only logged by the server.
+ *
+ * If a {@link NonceManager} is set, clients request a nonce with two frames:
+ * the request identifier and the identifier of the proof specification. The
+ * reply consists of the request identifier, {@link #NONCE} and the nonce
+ * (decimal). If the nonce manager does not issue more nonces, the reply has
+ * the status {@link #ERROR} and the message {@link #NONCE_LIMIT_MESSAGE}.
+ * Proofs with a nonce that has not been issued, has expired or has already
+ * been used are rejected with the status {@link #REPLAYED} without being
+ * decoded.
+ *
+ * The proof specifications are registered with the server; clients refer to
+ * them by their identifier. The number of requests that are queued on the
+ * sockets is bounded (high-water mark); if the queues are full, the broker
+ * stops accepting requests until a worker becomes available.
+ */
+public class VerificationServer {
+
+    /** Logger. */
+    private static Logger log = Logger.getLogger(VerificationServer.class
+            .getName());
+
+    /** Status of a proof that verifies. */
+    public static final String VALID = "VALID";
+    /** Status of a proof that does not verify. */
+    public static final String INVALID = "INVALID";
+    /** Status of a request that cannot be processed. */
+    public static final String ERROR = "ERROR";
+    /** Status of a proof whose nonce is not accepted by the nonce manager. */
+    public static final String REPLAYED = "REPLAYED";
+    /** Status of the reply to a nonce request. */
+    public static final String NONCE = "NONCE";
+    /** Message of the replies with the status {@link #ERROR}. */
+    public static final String ERROR_MESSAGE = "Request cannot be processed.";
+    /** Message of the replies to nonce requests that have been refused. */
+    public static final String NONCE_LIMIT_MESSAGE = "Too many nonces.";
+
+    /** Number of frames of a request. */
+    private static final int NBR_OF_FRAMES = 4;
+    /** Number of frames of a nonce request. */
+    private static final int NBR_OF_NONCE_FRAMES = 2;
+    /** Encoding of the text frames. */
+    private static final String CHARSET = "UTF-8";
+    /** Endpoint between the broker and the workers. */
+    private static final String WORKERS_ENDPOINT = "inproc://idmx-verifiers";
+
+    /** Endpoint the clients connect to (e.g., <tt>tcp://*:9005</tt>). */
+    private final String endpoint;
+    /** Locations of the proof specifications indexed by their identifier. */
+    private final HashMap<String, URI> proofSpecs;
+    /** Maximal number of queued messages per socket. */
+    private final int queueSize;
+    /** Metrics of the workers. */
+    private final WorkerMetrics[] metrics;
+    /** Issues the nonces and rejects replays; optional. */
+    private volatile NonceManager nonceManager;
+
+    private ZMQ.Context context;
+    private Thread[] threads;
+
+    /**
+     * Metrics of one worker.
+     */
+    public static final class WorkerMetrics {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong valid = new AtomicLong();
+        private final AtomicLong invalid = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong replays = new AtomicLong();
+        private final AtomicLong busyTime = new AtomicLong();
+
+        /**
+         * @return Number of processed requests.
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * @return Number of proofs that verified.
+         */
+        public long getValid() {
+            return valid.get();
+        }
+
+        /**
+         * @return Number of proofs that did not verify.
+         */
+        public long getInvalid() {
+            return invalid.get();
+        }
+
+        /**
+         * @return Number of requests that could not be processed.
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * @return Number of proofs rejected because of their nonce.
+         */
+        public long getReplays() {
+            return replays.get();
+        }
+
+        /**
+         * @return Time spent processing requests, in ns.
+         */
+        public long getBusyTime() {
+            return busyTime.get();
+        }
+
+        public String toString() {
+            return "requests: " + getRequests() + ", valid: " + getValid()
+                    + ", invalid: " + getInvalid() + ", replays: "
+                    + getReplays() + ", errors: " + getErrors() + ", busy: "
+                    + getBusyTime() / 1000000 + " ms";
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param theEndpoint
+     *            Endpoint the clients connect to (e.g.,
+     *            <tt>tcp://127.0.0.1:9005</tt>).
+     * @param theProofSpecs
+     *            Locations of the proof specifications indexed by their
+     *            identifier.
+     * @param nbrOfWorkers
+     *            Number of worker threads.
+     * @param theQueueSize
+     *            Maximal number of queued messages per socket.
+     */
+    public VerificationServer(final String theEndpoint,
+            final HashMap<String, URI> theProofSpecs, final int nbrOfWorkers,
+            final int theQueueSize) {
+        if (nbrOfWorkers <= 0 || theQueueSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        endpoint = theEndpoint;
+        proofSpecs = new HashMap<String, URI>(theProofSpecs);
+        queueSize = theQueueSize;
+        metrics = new WorkerMetrics[nbrOfWorkers];
+        for (int i = 0; i < nbrOfWorkers; i++) {
+            metrics[i] = new WorkerMetrics();
+        }
+    }
+
+    /**
+     * @param theNonceManager
+     *            Nonce manager issuing the nonces of the proofs; if it is
+     *            <tt>null</tt>, any nonce is accepted.
+     */
+    public final void setNonceManager(final NonceManager theNonceManager) {
+        nonceManager = theNonceManager;
+    }
+
+    /**
+     * Binds the sockets and starts the broker and the worker threads.
+     */
+    public final synchronized void start() {
+        if (context != null) {
+            return;
+        }
+        context = ZMQ.context(1);
+        final ZMQ.Socket frontend = context.socket(ZMQ.ROUTER);
+        final ZMQ.Socket backend = context.socket(ZMQ.DEALER);
+        frontend.setLinger(0);
+        frontend.setRcvHWM(queueSize);
+        frontend.setSndHWM(queueSize);
+        backend.setLinger(0);
+        backend.setRcvHWM(queueSize);
+        backend.setSndHWM(queueSize);
+        frontend.bind(endpoint);
+        backend.bind(WORKERS_ENDPOINT);
+
+        threads = new Thread[metrics.length + 1];
+        threads[0] = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    ZMQ.proxy(frontend, backend, null);
+                } catch (ZMQException e) {
+                    logUnlessTerminated(e);
+                } finally {
+                    frontend.close();
+                    backend.close();
+                }
+            }
+        }, "idmx-verification-broker");
+        for (int i = 0; i < metrics.length; i++) {
+            threads[i + 1] = new Thread(new Worker(metrics[i]),
+                    "idmx-verification-worker-" + i);
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        log.log(Level.INFO, "Verification server listening on " + endpoint
+                + " with " + metrics.length + " workers.");
+    }
+
+    /**
+     * Closes the sockets and waits for the threads to terminate. Requests that
+     * are being verified are not answered.
+     */
+    public final synchronized void stop() {
+        if (context == null) {
+            return;
+        }
+        // interrupts the blocking calls of all threads
+        context.term();
+        for (int i = 0; i < threads.length; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        context = null;
+        threads = null;
+    }
+
+    /**
+     * @return Metrics of the workers.
+     */
+    public final WorkerMetrics[] getMetrics() {
+        return metrics.clone();
+    }
+
+    private static void logUnlessTerminated(final ZMQException e) {
+        if (e.getErrorCode() != ZMQ.Error.ETERM.getCode()) {
+            log.log(Level.SEVERE, "Verification server failed.", e);
+        }
+    }
+
+    /**
+     * Worker thread verifying the requests passed on by the broker.
+     */
+    private final class Worker implements Runnable {
+        private final WorkerMetrics workerMetrics;
+        /** Proof specifications parsed by this worker. */
+        private final HashMap<String, ProofSpec> specs = new HashMap<String, ProofSpec>();
+
+        Worker(final WorkerMetrics theMetrics) {
+            workerMetrics = theMetrics;
+        }
+
+        public void run() {
+            final ZMQ.Socket socket = context.socket(ZMQ.REP);
+            socket.setLinger(0);
+            try {
+                socket.connect(WORKERS_ENDPOINT);
+                final Vector<byte[]> frames = new Vector<byte[]>();
+                while (!Thread.currentThread().isInterrupted()) {
+                    frames.clear();
+                    frames.add(socket.recv(0));
+                    while (socket.hasReceiveMore()) {
+                        frames.add(socket.recv(0));
+                    }
+                    final byte[][] reply = handle(frames);
+                    for (int i = 0; i < reply.length - 1; i++) {
+                        socket.sendMore(reply[i]);
+                    }
+                    socket.send(reply[reply.length - 1], 0);
+                }
+            } catch (ZMQException e) {
+                logUnlessTerminated(e);
+            } finally {
+                socket.close();
+            }
+        }
+
+        /**
+         * @param frames
+         *            Frames of a request.
+         * @return Frames of the reply.
+         */
+        byte[][] handle(final Vector<byte[]> frames) {
+            final long start = System.nanoTime();
+            workerMetrics.requests.incrementAndGet();
+            final byte[] requestId = frames.isEmpty() ? new byte[0] : frames
+                    .get(0);
+            final NonceManager nonces = nonceManager;
+            String status;
+            String message = "";
+            try {
+                if (nonces != null && frames.size() == NBR_OF_NONCE_FRAMES) {
+                    final ProofSpec spec = getSpec(new String(frames.get(1),
+                            CHARSET));
+                    final BigInteger nonce = nonces.issue(spec
+                            .getGroupParams().getSystemParams());
+                    if (nonce == null) {
+                        status = ERROR;
+                        message = NONCE_LIMIT_MESSAGE;
+                        workerMetrics.errors.incrementAndGet();
+                    } else {
+                        status = NONCE;
+                        message = nonce.toString();
+                    }
+                } else if (frames.size() != NBR_OF_FRAMES) {
+                    throw new IllegalArgumentException("Request must consist "
+                            + "of " + NBR_OF_FRAMES + " frames.");
+                } else {
+                    status = verify(nonces, frames);
+                }
+            } catch (Exception e) {
+                // the cause may reveal internals and is not sent to the client
+                log.log(Level.WARNING, ERROR_MESSAGE, e);
+                status = ERROR;
+                message = ERROR_MESSAGE;
+                workerMetrics.errors.incrementAndGet();
+            }
+            workerMetrics.busyTime.addAndGet(System.nanoTime() - start);
+            try {
+                return new byte[][] { requestId, status.getBytes(CHARSET),
+                        message.getBytes(CHARSET) };
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e.getMessage());
+            }
+        }
+
+        /**
+         * @return Status of the proof of the given request.
+         */
+        private String verify(final NonceManager nonces,
+                final Vector<byte[]> frames)
+                throws UnsupportedEncodingException {
+            final ProofSpec spec = getSpec(new String(frames.get(1), CHARSET));
+            final BigInteger nonce = new BigInteger(new String(frames.get(2),
+                    CHARSET));
+            // replays are rejected before the proof is decoded
+            if (nonces != null && !nonces.consume(nonce)) {
+                workerMetrics.replays.incrementAndGet();
+                return REPLAYED;
+            }
+            final Proof proof = ProofCodec.decodeAny(frames.get(3));
+            if (new Verifier(spec, proof, nonce).verify()) {
+                workerMetrics.valid.incrementAndGet();
+                return VALID;
+            }
+            workerMetrics.invalid.incrementAndGet();
+            return INVALID;
+        }
+
+        private ProofSpec getSpec(final String specId) {
+            ProofSpec spec = specs.get(specId);
+            if (spec == null) {
+                final URI location = proofSpecs.get(specId);
+                if (location == null) {
+                    throw new IllegalArgumentException("Unknown proof "
+                            + "specification: " + specId);
+                }
+                spec = (ProofSpec) Parser.getInstance().parse(location);
+                if (spec == null) {
+                    throw new IllegalArgumentException("Proof specification "
+                            + specId + " cannot be loaded.");
+                }
+                specs.put(specId, spec);
+            }
+            return spec;
+        }
+    }
+}
@@ -4,10 +4,13 @@
 package com.ibm.zrl.idmx.showproof;
 
 import java.math.BigInteger;
+import java.net.URI;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -42,6 +45,7 @@ import com.ibm.zrl.idmx.utils.StructureStore;
 import com.ibm.zrl.idmx.utils.SystemParameters;
 import com.ibm.zrl.idmx.utils.Utils;
 import com.ibm.zrl.idmx.utils.perf.Exponentiation;
+import com.ibm.zrl.idmx.utils.perf.WorkerPool;
 import com.ibm.zrl.idmx.ve.VerifiableEncryption;
 
 /**
@@ -79,6 +83,14 @@ public class Verifier {
     /** Messages signed in the proof that we must verify. */
     private final TreeMap<String, MessageToSign> messages;
 
+    /** Context of the proof-spec; null if it must be computed. */
+    private final BigInteger context;
+    /**
+     * Credential structures of the CL predicates, keyed by location; null if
+     * they must be retrieved from the structure store.
+     */
+    private final HashMap<URI, CredentialStructure> credStructs;
+
     /**
      * negative value of proof's challenge (c, Fiat-Shamir challenge) value. Is
      * used a lot, hence we keep it available as instance variable to save
@@ -92,6 +104,9 @@ public class Verifier {
     /** Stores values that are revealed during the proof. */
     private HashMap<String, BigInteger> revealedValues;
 
+    /** True iff the sub-verifiers are run in parallel. */
+    private boolean parallel = Constants.USE_PARALLEL_PROOFS;
+
     /**
      * Minimal constructor (no additional values such as commitments,
      * representations, or verifiable encryptions).
@@ -133,6 +148,28 @@ public class Verifier {
             final HashMap<String, Commitment> theCommitments,
             final TreeMap<String, Representation> theReps,
             final TreeMap<String, VerifiableEncryption> theVerEncs) {
+        this(proofSpec, theProof, theN1, theMessages, theCommitments, theReps,
+                theVerEncs, null, null);
+    }
+
+    /**
+     * Constructor used for batch verification, where the values that only
+     * depend on the proof-spec are computed once for all proofs.
+     * 
+     * @param theContext
+     *            Context of the proof-spec; null if it must be computed.
+     * @param theCredStructs
+     *            Credential structures of the CL predicates; null if they
+     *            must be retrieved from the structure store.
+     */
+    private Verifier(final ProofSpec proofSpec, final Proof theProof,
+            final BigInteger theN1,
+            final TreeMap<String, MessageToSign> theMessages,
+            final HashMap<String, Commitment> theCommitments,
+            final TreeMap<String, Representation> theReps,
+            final TreeMap<String, VerifiableEncryption> theVerEncs,
+            final BigInteger theContext,
+            final HashMap<URI, CredentialStructure> theCredStructs) {
 
         n1 = theN1;
         spec = proofSpec;
@@ -146,6 +183,8 @@ public class Verifier {
         tHatList = new Vector<BigInteger>();
         verEncs = theVerEncs;
         messages = theMessages;
+        context = theContext;
+        credStructs = theCredStructs;
 
         revealedValues = new HashMap<String, BigInteger>();
 
@@ -200,6 +239,18 @@ public class Verifier {
         }
     }
 
+    /**
+     * To run the sub-verifiers in parallel (or not). The default is set by
+     * {@link Constants#USE_PARALLEL_PROOFS}. The result is the same in both
+     * modes.
+     * 
+     * @param theParallel
+     *            True iff the sub-verifiers should be run in parallel.
+     */
+    public final void setParallel(final boolean theParallel) {
+        parallel = theParallel;
+    }
+
     private static final int LOWER = 0;
     private static final int UPPER = 1;
 
@@ -219,22 +270,6 @@ public class Verifier {
         bounds[UPPER] = upper;
     }
 
-    /**
-     * Convenience method.
-     * 
-     * @param aPrime
-     *            Value of <tt>A'</tt>.
-     * @param n
-     *            Modulus.
-     * @return <tt>A'^(2^(l_e - 1)) mod n</tt>.
-     */
-    private BigInteger get_APrime_powered_2_le_minus_1(final BigInteger aPrime,
-            final BigInteger n) {
-        int expOf2 = sp.getL_e() - 1;
-        final BigInteger exp = BigInteger.ONE.shiftLeft(expOf2);
-        return aPrime.modPow(exp, n);
-    }
-
     private boolean checkLength_eHat(final BigInteger eHat) {
         int bitlength = sp.getL_ePrime() + sp.getL_Phi() + sp.getL_H() + 1;
         return Utils.isInInterval(eHat, bitlength);
@@ -250,44 +285,12 @@ public class Verifier {
         negC = proof.getChallenge().negate();
 
         // Iterate over predicates, calling corresponding sub-verifiers
-        Iterator<Predicate> predicates = spec.getPredicates().iterator();
-        while (predicates.hasNext()) {
-            Predicate predicate = predicates.next();
-            switch (predicate.getPredicateType()) {
-            case CL:
-                CLPredicate pred = (CLPredicate) predicate;
-                CredentialStructure credStruct = (CredentialStructure) StructureStore
-                        .getInstance().get(pred.getCredStructLocation());
-                verifyCL(credStruct, pred);
-                break;
-            case ENUMERATION:
-                tHatList.addAll(verifyPrimeEncode((PrimeEncodePredicate) predicate));
-                break;
-            case INEQUALITY:
-                verifyInequality((InequalityPredicate) predicate);
-                break;
-            case COMMITMENT:
-                CommitmentPredicate predComm = (CommitmentPredicate) predicate;
-                Commitment comm = commitments.get(predComm.getName());
-                verifyCommitment(comm, predComm);
-                break;
-            case REPRESENTATION:
-                verifyRepresentation((RepresentationPredicate) predicate);
-                break;
-            case PSEUDONYM:
-                verifyPseudonym((PseudonymPredicate) predicate);
-                break;
-            case DOMAINNYM:
-                verifyDomainNym((DomainNymPredicate) predicate);
-                break;
-            case VERENC:
-                verifyVerEnc((VerEncPredicate) predicate);
-                break;
-            case MESSAGE:
-                verifyMessage((MessagePredicate) predicate);
-                break;
-            default:
-                throw new RuntimeException("Unimplemented predicate.");
+        if (parallel) {
+            computeTHatValuesParallel();
+        } else {
+            Iterator<Predicate> predicates = spec.getPredicates().iterator();
+            while (predicates.hasNext()) {
+                computeTHatValues(predicates.next(), tHatList);
             }
         }
 
@@ -306,6 +309,99 @@ public class Verifier {
 
     }
 
+    /**
+     * Calls the sub-verifier of the given predicate.
+     * 
+     * @param predicate
+     *            Predicate.
+     * @param tHatValues
+     *            List the t-hat values of the predicate are appended to.
+     */
+    private void computeTHatValues(final Predicate predicate,
+            final Vector<BigInteger> tHatValues) {
+        switch (predicate.getPredicateType()) {
+        case CL:
+            CLPredicate pred = (CLPredicate) predicate;
+            verifyCL(getCredStruct(pred), pred, tHatValues);
+            break;
+        case ENUMERATION:
+            tHatValues.addAll(verifyPrimeEncode((PrimeEncodePredicate) predicate));
+            break;
+        case INEQUALITY:
+            verifyInequality((InequalityPredicate) predicate, tHatValues);
+            break;
+        case COMMITMENT:
+            CommitmentPredicate predComm = (CommitmentPredicate) predicate;
+            Commitment comm = commitments.get(predComm.getName());
+            verifyCommitment(comm, predComm, tHatValues);
+            break;
+        case REPRESENTATION:
+            verifyRepresentation((RepresentationPredicate) predicate,
+                    tHatValues);
+            break;
+        case PSEUDONYM:
+            verifyPseudonym((PseudonymPredicate) predicate, tHatValues);
+            break;
+        case DOMAINNYM:
+            verifyDomainNym((DomainNymPredicate) predicate, tHatValues);
+            break;
+        case VERENC:
+            verifyVerEnc((VerEncPredicate) predicate, tHatValues);
+            break;
+        case MESSAGE:
+            verifyMessage((MessagePredicate) predicate);
+            break;
+        default:
+            throw new RuntimeException("Unimplemented predicate.");
+        }
+    }
+
+    /**
+     * Parallel version: Calls the sub-verifiers on the worker pool. Each
+     * predicate writes its t-hat values into its own slot; the slots are
+     * appended to the list of t-hat values in the order of the predicates such
+     * that the challenge is computed over the same list as in the sequential
+     * version.
+     */
+    private void computeTHatValuesParallel() {
+        final Vector<Predicate> predicates = spec.getPredicates();
+        final Vector<Vector<BigInteger>> slots = new Vector<Vector<BigInteger>>();
+        final Vector<Callable<Object>> tasks = new Vector<Callable<Object>>();
+        for (int i = 0; i < predicates.size(); i++) {
+            final Predicate predicate = predicates.get(i);
+            final Vector<BigInteger> slot = new Vector<BigInteger>();
+            slots.add(slot);
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    computeTHatValues(predicate, slot);
+                    return null;
+                }
+            });
+        }
+        WorkerPool.invokeAll(tasks);
+
+        for (int i = 0; i < slots.size(); i++) {
+            tHatList.addAll(slots.get(i));
+        }
+    }
+
+    /**
+     * @param pred
+     *            CL predicate.
+     * @return Credential structure of the predicate.
+     */
+    private CredentialStructure getCredStruct(final CLPredicate pred) {
+        if (credStructs != null) {
+            final CredentialStructure credStruct = credStructs.get(pred
+                    .getCredStructLocation());
+            if (credStruct != null) {
+                return credStruct;
+            }
+        }
+        return (CredentialStructure) StructureStore.getInstance().get(
+                pred.getCredStructLocation());
+    }
+
     /**
      * Verify the CL signature for this predicate.
      * 
@@ -313,11 +409,13 @@ public class Verifier {
      *            Credential structure.
      * @param pred
      *            CL predicate.
+     * @param tHatValues
+     *            List the t-hat value is appended to.
      * 
      * @return success or failure.
      */
     private boolean verifyCL(final CredentialStructure credStruct,
-            final CLPredicate pred) {
+            final CLPredicate pred, final Vector<BigInteger> tHatValues) {
 
         final SValue clSVal = proof.getSValue(pred.getTempCredName());
         log.log(Level.FINE, pred.getTempCredName());
@@ -340,16 +438,21 @@ public class Verifier {
                     + "Knowledge of the CL signature failed.");
         }
 
-        // Compute tHat
-        Vector<Exponentiation> productRevealed = new Vector<Exponentiation>();
-        Vector<Exponentiation> productNotRevealed = new Vector<Exponentiation>();
+        // Compute tHat = (Z / (A'^(2^(l_e - 1)) * prod R_i^m_i))^(-c) *
+        // A'^eHat * prod R_j^mHat_j * S^vHatPrime, where i runs over the
+        // revealed and j over the hidden attributes. We compute it as one
+        // multi-exponentiation by moving the divisor into the exponents:
+        // Z^(-c) * A'^(eHat + c * 2^(l_e - 1)) * prod R_i^(c * m_i) * ...
+        final BigInteger c = proof.getChallenge();
+        final Vector<Exponentiation> product = new Vector<Exponentiation>();
 
-        productNotRevealed.add(new Exponentiation(capAPrime, eHat, n));
+        product.add(new Exponentiation(capAPrime, eHat.add(c
+                .shiftLeft(sp.getL_e() - 1)), n));
 
         BigInteger sMasterSecret = (BigInteger) proof.getSValue(
                 IssuanceSpec.MASTER_SECRET_NAME).getValue();
         assert (sMasterSecret != null);
-        productNotRevealed.add(new Exponentiation(
+        product.add(new Exponentiation(
                 pubKey.getCapR()[IssuanceSpec.MASTER_SECRET_INDEX],
                 sMasterSecret, n));
 
@@ -374,8 +477,8 @@ public class Verifier {
             assert (sValue != null);
 
             if (!id.isRevealed()) {
-                // add it to the unrevealed product
-                productNotRevealed.add(new Exponentiation(
+                // add it to the product
+                product.add(new Exponentiation(
                         pubKey.getCapR()[keyIndex], sValue, n));
                 // [spec: VerifyCL 2.]
                 if (!Utils.isInInterval(sValue, bounds[LOWER], bounds[UPPER])) {
@@ -384,36 +487,36 @@ public class Verifier {
                 }
             } else {
                 // add revealed value to list
-                revealedValues.put(pred.getTempCredName() + Constants.DELIMITER
+                putRevealedValue(pred.getTempCredName() + Constants.DELIMITER
                         + att.getName(), sValue);
 
-                // add it to the revealed product
-                productRevealed.add(new Exponentiation(
-                        pubKey.getCapR()[keyIndex], sValue, n));
+                // add it to the product, as part of the divisor
+                product.add(new Exponentiation(pubKey.getCapR()[keyIndex],
+                        sValue.multiply(c), n));
             }
         }
 
-        BigInteger divisor = BigInteger.ONE;
-        divisor = Utils.multiExpMul(divisor, productRevealed, n);
-
-        divisor = divisor.multiply(
-                get_APrime_powered_2_le_minus_1(capAPrime, n)).mod(n);
-        // take the modular inverse of divisor
-        divisor = divisor.modInverse(n);
-
-        // initial value
-        BigInteger tHat = pubKey.getCapZ();
-        tHat = tHat.multiply(divisor).mod(n);
-        tHat = tHat.modPow(negC, n);
-
-        productNotRevealed.add(new Exponentiation(pubKey.getCapS(), vHatPrime,
-                n));
-        tHat = Utils.multiExpMul(tHat, productNotRevealed, n);
+        product.add(new Exponentiation(pubKey.getCapZ(), negC, n));
+        product.add(new Exponentiation(pubKey.getCapS(), vHatPrime, n));
+        final BigInteger tHat = Utils.multiExpMul(product, n);
 
-        tHatList.add(tHat);
+        tHatValues.add(tHat);
         return true;
     }
 
+    /**
+     * Stores a revealed value. Sub-verifiers may call this method concurrently.
+     * 
+     * @param name
+     *            Name of the value.
+     * @param value
+     *            Revealed value.
+     */
+    private synchronized void putRevealedValue(final String name,
+            final BigInteger value) {
+        revealedValues.put(name, value);
+    }
+
     /**
      * @param pred
      *            Prime encode predicate.
@@ -431,15 +534,23 @@ public class Verifier {
      * 
      * @param pred
      *            Inequality predicate.
+     * @param tHatValues
+     *            List the t-hat values are appended to.
      */
-    private void verifyInequality(final InequalityPredicate pred) {
-        if (pred.getSecondArgument() == null) {
+    private void verifyInequality(final InequalityPredicate pred,
+            final Vector<BigInteger> tHatValues) {
+        BigInteger secondArgument = pred.getSecondArgument();
+        if (secondArgument == null) {
+            // take the revealed value from the proof; the proof-spec may be
+            // shared with other verifiers, thus we don't store it there.
             Identifier id = pred.getSecondArgumentIdentifier();
-            id.setValue((BigInteger) proof.getSValue(id.getName()).getValue());
+            secondArgument = (BigInteger) proof.getSValue(id.getName())
+                    .getValue();
         }
-        final InequalityVerifier rv = new InequalityVerifier(this, pred);
+        final InequalityVerifier rv = new InequalityVerifier(this, pred,
+                secondArgument);
         final SValue sVals = proof.getSValue(pred.getName());
-        tHatList.addAll(rv.computeTHatValues((SValuesIP) sVals.getValue()));
+        tHatValues.addAll(rv.computeTHatValues((SValuesIP) sVals.getValue()));
     }
 
     /**
@@ -449,9 +560,11 @@ public class Verifier {
      *            Commitment.
      * @param pred
      *            Commitment predicate.
+     * @param tHatValues
+     *            List the t-hat value is appended to.
      */
     private void verifyCommitment(final Commitment comm,
-            final CommitmentPredicate pred) {
+            final CommitmentPredicate pred, final Vector<BigInteger> tHatValues) {
         assert (comm != null);
 
         BigInteger n = comm.getN();
@@ -487,14 +600,17 @@ public class Verifier {
         BigInteger cHat = Utils.multiExpMul(productHidden, n);
 
         // output cHat
-        tHatList.add(cHat);
+        tHatValues.add(cHat);
     }
 
     /**
      * @param pred
      *            Representation predicate.
+     * @param tHatValues
+     *            List the t-hat value is appended to.
      */
-    private void verifyRepresentation(final RepresentationPredicate pred) {
+    private void verifyRepresentation(final RepresentationPredicate pred,
+            final Vector<BigInteger> tHatValues) {
         Representation rep = null;
         String name = pred.getName();
 
@@ -539,14 +655,17 @@ public class Verifier {
         BigInteger rHat = Utils.multiExpMul(productHidden, modulus);
 
         // output cHat
-        tHatList.add(rHat);
+        tHatValues.add(rHat);
     }
 
     /**
      * @param pred
      *            Pseudonym predicate.
+     * @param tHatValues
+     *            List the t-hat value is appended to.
      */
-    private void verifyPseudonym(final PseudonymPredicate pred) {
+    private void verifyPseudonym(final PseudonymPredicate pred,
+            final Vector<BigInteger> tHatValues) {
         BigInteger nym = proof.getCommonValue(pred.getName());
 
         final BigInteger gamma = gp.getCapGamma();
@@ -565,7 +684,7 @@ public class Verifier {
 
         final BigInteger nymHat = Utils.multiExpMul(e, gamma);
 
-        tHatList.add(nymHat);
+        tHatValues.add(nymHat);
     }
 
     /**
@@ -573,8 +692,11 @@ public class Verifier {
      * 
      * @param pred
      *            Domain pseudonym predicate.
+     * @param tHatValues
+     *            List the t-hat value is appended to.
      */
-    private void verifyDomainNym(final DomainNymPredicate pred) {
+    private void verifyDomainNym(final DomainNymPredicate pred,
+            final Vector<BigInteger> tHatValues) {
         BigInteger proverDomNym = proof.getCommonValue(pred.getDomain());
         DomNym domNym = new DomNym(gp, proverDomNym, pred.getDomain());
 
@@ -589,14 +711,17 @@ public class Verifier {
         product.add(new Exponentiation(domNym.getG_dom(), mHat_1, gamma));
 
         BigInteger dNymHat = Utils.multiExpMul(product, gamma);
-        tHatList.add(dNymHat);
+        tHatValues.add(dNymHat);
     }
 
     /**
      * @param pred
      *            Verifiable encryption predicate.
+     * @param tHatValues
+     *            List the t-hat values are appended to.
      */
-    private void verifyVerEnc(final VerEncPredicate pred) {
+    private void verifyVerEnc(final VerEncPredicate pred,
+            final Vector<BigInteger> tHatValues) {
         // get the s-values
         BigInteger mHat = null;
         mHat = (BigInteger) proof.getSValue(pred.getIdentifier().getName())
@@ -643,9 +768,9 @@ public class Verifier {
         log.log(Level.FINE, " eHat: " + Utils.logBigInt(eHat));
         log.log(Level.FINE, " vHat: " + Utils.logBigInt(vHat));
 
-        tHatList.add(uHat);
-        tHatList.add(eHat);
-        tHatList.add(vHat);
+        tHatValues.add(uHat);
+        tHatValues.add(eHat);
+        tHatValues.add(vHat);
     }
 
     /**
@@ -669,13 +794,17 @@ public class Verifier {
         list.addAll(proof.getCommonList().descendingMap().values());
         list.addAll(tHatList);
 
+        BigInteger theContext = context;
+        if (theContext == null) {
+            theContext = spec.getContext();
+        }
+
         BigInteger challenge = null;
         if (messages != null) {
-            challenge = Utils.computeChallenge(sp, spec.getContext(), list, n1,
+            challenge = Utils.computeChallenge(sp, theContext, list, n1,
                     messages.descendingMap().values());
         } else {
-            challenge = Utils.computeChallenge(sp, spec.getContext(), list, n1,
-                    null);
+            challenge = Utils.computeChallenge(sp, theContext, list, n1, null);
         }
         return challenge;
     }
@@ -699,6 +828,74 @@ public class Verifier {
         return revealedValues;
     }
 
+    /**
+     * To verify many proofs of the same proof-spec. The work that only depends
+     * on the proof-spec (retrieving the credential structures and computing
+     * the context) is done once; the proofs are then verified in parallel.
+     * Only proofs that do not refer to messages, commitments, representations
+     * or verifiable encryptions held by the verifier can be verified this way.
+     * 
+     * @param proofSpec
+     *            Proof specification all proofs are verified against.
+     * @param proofs
+     *            Proofs to be verified.
+     * @param nonces
+     *            Nonce of each proof.
+     * @return Verification result of each proof, in the order of the proofs.
+     *         A proof that causes an exception is reported as failed.
+     */
+    public static boolean[] verifyBatch(final ProofSpec proofSpec,
+            final List<Proof> proofs, final List<BigInteger> nonces) {
+        if (proofs.size() != nonces.size()) {
+            throw new IllegalArgumentException("Number of proofs and nonces "
+                    + "differ.");
+        }
+
+        // shared work
+        final HashMap<URI, CredentialStructure> credStructs = new HashMap<URI, CredentialStructure>();
+        Iterator<Predicate> predicates = proofSpec.getPredicates().iterator();
+        while (predicates.hasNext()) {
+            Predicate predicate = predicates.next();
+            if (predicate instanceof CLPredicate) {
+                URI location = ((CLPredicate) predicate)
+                        .getCredStructLocation();
+                CredentialStructure credStruct = (CredentialStructure) StructureStore
+                        .getInstance().get(location);
+                // retrieves the key from the structure store
+                credStruct.getPublicKey();
+                credStructs.put(location, credStruct);
+            }
+        }
+        final BigInteger context = proofSpec.getContext();
+
+        final Vector<Callable<Boolean>> tasks = new Vector<Callable<Boolean>>();
+        for (int i = 0; i < proofs.size(); i++) {
+            final int index = i;
+            final Proof proof = proofs.get(i);
+            final BigInteger nonce = nonces.get(i);
+            tasks.add(new Callable<Boolean>() {
+                public Boolean call() {
+                    try {
+                        return Boolean.valueOf(new Verifier(proofSpec, proof,
+                                nonce, null, null, null, null, context,
+                                credStructs).verify());
+                    } catch (RuntimeException e) {
+                        log.log(Level.SEVERE, "Verification of proof " + index
+                                + " failed: " + e.getMessage());
+                        return Boolean.FALSE;
+                    }
+                }
+            });
+        }
+
+        final Vector<Boolean> results = WorkerPool.invokeAll(tasks);
+        final boolean[] verified = new boolean[results.size()];
+        for (int i = 0; i < verified.length; i++) {
+            verified[i] = results.get(i).booleanValue();
+        }
+        return verified;
+    }
+
     /**
      * @param sp
      *            System parameters.
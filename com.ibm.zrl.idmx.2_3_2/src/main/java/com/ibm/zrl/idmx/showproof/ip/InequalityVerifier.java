@@ -38,18 +38,34 @@ public class InequalityVerifier {
      */
     public InequalityVerifier(final Verifier theVerifier,
             final InequalityPredicate predicate) {
+        this(theVerifier, predicate, predicate.getSecondArgument());
+    }
+
+    /**
+     * @param theVerifier
+     *            Verifier using this sub-verifier.
+     * @param predicate
+     *            Inequality predicate defining what has to be verified.
+     * @param secondArgument
+     *            Value of the second argument of the predicate.
+     */
+    public InequalityVerifier(final Verifier theVerifier,
+            final InequalityPredicate predicate,
+            final BigInteger secondArgument) {
         verifier = theVerifier;
         pred = predicate;
-        deltaPrime = computeDeltaPrime();
+        deltaPrime = computeDeltaPrime(secondArgument);
     }
 
     /**
+     * @param secondArgument
+     *            Value of the second argument of the predicate.
      * @return Delta value.
      */
-    private BigInteger computeDeltaPrime() {
+    private BigInteger computeDeltaPrime(final BigInteger secondArgument) {
 
         // [spec: ProveInequality 1.]
-        BigInteger theDeltaPrime = pred.getSecondArgument();
+        BigInteger theDeltaPrime = secondArgument;
 
         switch (pred.getOperator()) {
         case LT:
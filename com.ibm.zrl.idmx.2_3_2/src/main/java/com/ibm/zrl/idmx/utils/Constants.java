@@ -12,10 +12,40 @@ public class Constants {
     /** Number of bits per byte. */
     public static final int BIT_PER_BYTE = 8;
 
-    /** Enables caching of fixed-based accelerated exponentiation. */
-    public static final boolean USE_FAST_EXPO_CACHE = false;
-    /** Enables multi-core exponentiation. */
-    public static final boolean USE_MULTI_CORE_EXP = false;
+    /**
+     * Name of the system property that enables fixed-base accelerated
+     * exponentiation (e.g., <tt>-Dcom.ibm.zrl.idmx.fastExpoCache=true</tt>).
+     */
+    public static final String FAST_EXPO_CACHE_PROPERTY = "com.ibm.zrl.idmx.fastExpoCache";
+    /**
+     * Enables caching of fixed-based accelerated exponentiation. Set from the
+     * system property {@link #FAST_EXPO_CACHE_PROPERTY}.
+     */
+    public static final boolean USE_FAST_EXPO_CACHE = Boolean
+            .getBoolean(FAST_EXPO_CACHE_PROPERTY);
+    /**
+     * Name of the system property that enables multi-core exponentiation
+     * (e.g., <tt>-Dcom.ibm.zrl.idmx.multiCoreExp=true</tt>).
+     */
+    public static final String MULTI_CORE_EXP_PROPERTY = "com.ibm.zrl.idmx.multiCoreExp";
+    /**
+     * Enables multi-core exponentiation. Set from the system property
+     * {@link #MULTI_CORE_EXP_PROPERTY}.
+     */
+    public static final boolean USE_MULTI_CORE_EXP = Boolean
+            .getBoolean(MULTI_CORE_EXP_PROPERTY);
+    /**
+     * Name of the system property that enables the parallel execution of the
+     * sub-provers and sub-verifiers of a show-proof (e.g.,
+     * <tt>-Dcom.ibm.zrl.idmx.parallelProofs=true</tt>).
+     */
+    public static final String PARALLEL_PROOFS_PROPERTY = "com.ibm.zrl.idmx.parallelProofs";
+    /**
+     * Enables the parallel execution of sub-provers and sub-verifiers. Set
+     * from the system property {@link #PARALLEL_PROOFS_PROPERTY}.
+     */
+    public static final boolean USE_PARALLEL_PROOFS = Boolean
+            .getBoolean(PARALLEL_PROOFS_PROPERTY);
     /** Enables multi-core generation of safe-primes. */
     public static final boolean USE_MULTI_CORE_SAFE_PRIMES = false;
 
@@ -10,6 +10,8 @@ import java.util.Date;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
+import com.ibm.zrl.idmx.utils.perf.ModPowCache;
+
 /**
  * Idemix group parameters abstraction.
  */
@@ -100,6 +102,30 @@ public class GroupParameters {
         return h;
     }
 
+    /**
+     * Creates a cache of pre-computed values for the bases <tt>g</tt> and
+     * <tt>h</tt> (used for pseudonyms) to allow faster computation. Does
+     * nothing if Constants.USE_FAST_EXPO_CACHE is not set.
+     * 
+     * @return True if the bases have been registered.
+     */
+    public boolean cacheBases() {
+
+        if (!Constants.USE_FAST_EXPO_CACHE) {
+            return false;
+        }
+
+        final SystemParameters sp = getSystemParams();
+        if (sp == null) {
+            return false;
+        }
+
+        final int maxExpWidth = Math.max(sp.getL_m(), sp.getL_rho())
+                + sp.getL_Phi() + sp.getL_H() + 2;
+        return ModPowCache.register(g, capGamma, maxExpWidth)
+                && ModPowCache.register(h, capGamma, maxExpWidth);
+    }
+
     /**
      * @return The number of elements in the group parameters.
      */
@@ -3,10 +3,14 @@
  */
 package com.ibm.zrl.idmx.utils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.io.StringReader;
 import java.math.BigInteger;
 import java.net.URI;
@@ -21,6 +25,10 @@ import java.util.logging.Logger;
 import java.util.logging.Level;
 
 import javax.xml.parsers.*;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.validation.*;
 import javax.xml.transform.dom.*;
 
@@ -83,7 +91,8 @@ import com.ibm.zrl.idmx.ve.VerifiableEncryptionOpening;
 
 /**
  * Parsing class, which allows to load XML files specifying things such as
- * issuer keys, credential structures or proof specifications.
+ * issuer keys, credential structures or proof specifications. The
+ * <tt>parse</tt> methods may be called by several threads concurrently.
  */
 public class Parser {
 
@@ -91,7 +100,20 @@ public class Parser {
     private static Logger log = Logger.getLogger(Parser.class.getName());
 
     /** Singleton design pattern. */
-    private static Parser parser;
+    private static final Parser parser = new Parser();
+
+    /** Size of the buffer used to read the input. */
+    private static final int BUFFER_SIZE = 4096;
+
+    /** Factories of the pull parsers (they are not thread-safe). */
+    private static final ThreadLocal<XMLInputFactory> xmlInputFactory = new ThreadLocal<XMLInputFactory>() {
+        protected XMLInputFactory initialValue() {
+            final XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            return factory;
+        }
+    };
 
     protected DocumentBuilder db;
     /** Make document available to extending classes. */
@@ -122,9 +144,6 @@ public class Parser {
      * @return Parser object.
      */
     public static Parser getInstance() {
-        if (parser == null) {
-            parser = new Parser();
-        }
         return parser;
     }
 
@@ -339,11 +358,115 @@ public class Parser {
     }
 
     /**
+     * Proofs, credentials, proof specifications, issuer public keys and
+     * issuance messages are parsed with the {@link StaxParser}, which may be
+     * called by several threads concurrently. All other objects are parsed
+     * into a DOM tree while holding the lock of the {@link StructureStore}.
+     * 
      * @param inputSource
      *            Input source containing the XML that is to be parsed.
      * @return Element of the type as specified in the given XML file.
      */
     public Object parse(final InputSource inputSource) {
+        if (inputSource == null) {
+            return null;
+        }
+        try {
+            if (inputSource.getCharacterStream() != null) {
+                final String xml = read(inputSource.getCharacterStream());
+                final XMLStreamReader reader = xmlInputFactory.get()
+                        .createXMLStreamReader(new StringReader(xml));
+                if (isStaxDocument(reader)) {
+                    return StaxParser.parse(reader);
+                }
+                return parseDocument(new InputSource(new StringReader(xml)));
+
+            } else if (inputSource.getByteStream() != null) {
+                final byte[] xml = read(inputSource.getByteStream());
+                final XMLStreamReader reader;
+                if (inputSource.getEncoding() == null) {
+                    reader = xmlInputFactory.get().createXMLStreamReader(
+                            new ByteArrayInputStream(xml));
+                } else {
+                    reader = xmlInputFactory.get().createXMLStreamReader(
+                            new ByteArrayInputStream(xml),
+                            inputSource.getEncoding());
+                }
+                if (isStaxDocument(reader)) {
+                    return StaxParser.parse(reader);
+                }
+                final InputSource is = new InputSource(
+                        new ByteArrayInputStream(xml));
+                is.setEncoding(inputSource.getEncoding());
+                return parseDocument(is);
+            }
+            return parseDocument(inputSource);
+
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Error reading URI: " + e.getMessage());
+        } catch (XMLStreamException e) {
+            log.log(Level.SEVERE, "Error in parsing: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            log.log(Level.SEVERE, e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Moves the reader to the root element.
+     * 
+     * @return True if the document is parsed by the {@link StaxParser}.
+     */
+    private static boolean isStaxDocument(final XMLStreamReader reader)
+            throws XMLStreamException {
+        return reader.nextTag() == XMLStreamConstants.START_ELEMENT
+                && StaxParser.supports(reader.getLocalName());
+    }
+
+    private static String read(final Reader reader) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        final char[] buffer = new char[BUFFER_SIZE];
+        int length;
+        while ((length = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, length);
+        }
+        reader.close();
+        return sb.toString();
+    }
+
+    private static byte[] read(final InputStream stream) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+        while ((length = stream.read(buffer)) != -1) {
+            bos.write(buffer, 0, length);
+        }
+        stream.close();
+        return bos.toByteArray();
+    }
+
+    /**
+     * Parses a document into a DOM tree. The document builder is not
+     * thread-safe and the DOM based methods keep state in this object, hence
+     * the lock of the structure store is held, which is also held when the
+     * store loads objects.
+     * 
+     * @param inputSource
+     *            Input source containing the XML that is to be parsed.
+     * @return Element of the type as specified in the given XML file.
+     */
+    private Object parseDocument(final InputSource inputSource) {
+        synchronized (StructureStore.getInstance()) {
+            return parseDom(inputSource);
+        }
+    }
+
+    /**
+     * @param inputSource
+     *            Input source containing the XML that is to be parsed.
+     * @return Element of the type as specified in the given XML file.
+     */
+    private Object parseDom(final InputSource inputSource) {
         try {
             // parse document
             document = db.parse(inputSource);
@@ -427,6 +550,8 @@ public class Parser {
             } else if (rootName.equalsIgnoreCase("VerifiableEncryptionOpening")) {
                 return parseVerifiableEncryptionOpening(document);
 
+            } else {
+                return parseOtherDocument(document, rootName);
             }
 
         } catch (IOException e) {
@@ -439,6 +564,23 @@ public class Parser {
         return null;
     }
 
+    /**
+     * Parses documents whose root element is not known to this class.
+     * Extending classes override this method to parse further objects. It is
+     * called while holding the lock of the structure store.
+     * 
+     * @param document
+     *            Root of the document.
+     * @param rootName
+     *            Name of the root element.
+     * @return Object represented by the document; <tt>null</tt> if the
+     *         document is not known.
+     */
+    protected Object parseOtherDocument(final Document document,
+            final String rootName) {
+        return null;
+    }
+
     /**
      * @param document
      *            Root of the document.
@@ -0,0 +1,471 @@
+/**
+ * Copyright IBM Corporation 2010.
+ */
+package com.ibm.zrl.idmx.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import com.ibm.zrl.idmx.showproof.Proof;
+import com.ibm.zrl.idmx.showproof.sval.SValue;
+import com.ibm.zrl.idmx.showproof.sval.SValuesCGAND;
+import com.ibm.zrl.idmx.showproof.sval.SValuesCGNOT;
+import com.ibm.zrl.idmx.showproof.sval.SValuesCGOR;
+import com.ibm.zrl.idmx.showproof.sval.SValuesIP;
+import com.ibm.zrl.idmx.showproof.sval.SValuesProveCL;
+import com.ibm.zrl.idmx.ve.VerifiableEncryption;
+
+/**
+ * Compact binary encoding of a {@link Proof}, as an alternative to the XML
+ * produced by {@link XMLSerializer}. The encoding contains the same elements
+ * as the XML (challenge, common values, s-values and verifiable encryptions)
+ * and is about a third of its size: the numbers take less than half of the
+ * space of their decimal representation and the names are written only once.
+ *
+ * Layout (all integers are unsigned variable-length integers with 7 bits per
+ * byte, least significant group first):
+ *
+ * <pre>
+ *  magic (4 bytes) version (1 byte)
+ *  names:       count, UTF-8 strings (length, bytes)
+ *  challenge:   number
+ *  common list: count, (name index, number)*
+ *  s-values:    count, (name index, type (1 byte), numbers)*
+ *  encryptions: count, (name index, location name index, L, u, e, v)*
+ * </pre>
+ *
+ * Each name (keys of the maps, locations of public keys) is written once into
+ * the name table and referenced by its index. A number is written as the
+ * length of its two's complement representation followed by the bytes of the
+ * representation (see {@link BigInteger#toByteArray()}); length zero denotes
+ * <tt>null</tt>.
+ */
+public final class ProofCodec {
+
+    /**
+     * Wire formats of a proof.
+     */
+    public enum Format {
+        /** XML as produced by the {@link XMLSerializer}. */
+        XML,
+        /** Binary encoding of the {@link ProofCodec}. */
+        BINARY;
+
+        /**
+         * Negotiates the format of a proof: the binary format is used if the
+         * peer accepts it.
+         *
+         * @param acceptedFormats
+         *            Comma separated names of the formats the peer accepts
+         *            (e.g., <tt>"BINARY,XML"</tt>); <tt>null</tt> if the peer
+         *            does not indicate any format.
+         * @return Format to be used.
+         */
+        public static Format negotiate(final String acceptedFormats) {
+            if (acceptedFormats == null) {
+                return XML;
+            }
+            final String[] formats = acceptedFormats.split(",");
+            for (int i = 0; i < formats.length; i++) {
+                if (formats[i].trim().equalsIgnoreCase(BINARY.name())) {
+                    return BINARY;
+                }
+            }
+            return XML;
+        }
+    }
+
+    /** Magic number at the start of an encoded proof ("IDMP"). */
+    private static final int MAGIC = 0x49444D50;
+    /** Version of the encoding. */
+    public static final int VERSION = 1;
+
+    /** Types of the s-values. */
+    private static final int TYPE_BIG_INTEGER = 0;
+    private static final int TYPE_IP = 1;
+    private static final int TYPE_PROVE_CL = 2;
+    private static final int TYPE_CG_AND = 3;
+    private static final int TYPE_CG_NOT = 4;
+    private static final int TYPE_CG_OR = 5;
+
+    /** Character set of the names. */
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Hidden constructor.
+     */
+    private ProofCodec() {
+    }
+
+    /**
+     * @param data
+     *            Encoded proof in either format.
+     * @return True if the data is a proof in the binary format.
+     */
+    public static boolean isBinary(final byte[] data) {
+        return data.length >= 4
+                && ((data[0] & 0xff) << 24 | (data[1] & 0xff) << 16
+                        | (data[2] & 0xff) << 8 | (data[3] & 0xff)) == MAGIC;
+    }
+
+    /**
+     * Encodes a proof in the given format.
+     *
+     * @param proof
+     *            Proof.
+     * @param format
+     *            Format of the encoding.
+     * @return Encoded proof (the XML format is compact and encoded as UTF-8).
+     */
+    public static byte[] encode(final Proof proof, final Format format) {
+        if (format == Format.BINARY) {
+            return encode(proof);
+        }
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        XMLSerializer.getInstance().serialize(proof, bos, false);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Decodes a proof in either format, which is detected from the data.
+     *
+     * @param data
+     *            Encoded proof.
+     * @return Proof.
+     * @throws IllegalArgumentException
+     *             if the data is not a valid encoding.
+     */
+    public static Proof decodeAny(final byte[] data) {
+        if (isBinary(data)) {
+            return decode(data);
+        }
+        final String xml;
+        try {
+            xml = new String(data, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+        final Object proof = Parser.getInstance().parse(xml);
+        if (!(proof instanceof Proof)) {
+            throw new IllegalArgumentException("Not an XML proof.");
+        }
+        return (Proof) proof;
+    }
+
+    /**
+     * Encodes a proof in the binary format.
+     *
+     * @param proof
+     *            Proof.
+     * @return Binary encoding of the proof.
+     */
+    public static byte[] encode(final Proof proof) {
+        final Names names = new Names();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+        try {
+            final DataOutputStream out = new DataOutputStream(body);
+
+            writeNumber(out, proof.getChallenge());
+
+            final TreeMap<String, BigInteger> commonList = proof
+                    .getCommonList();
+            writeLength(out, commonList.size());
+            Iterator<String> iterator = commonList.keySet().iterator();
+            while (iterator.hasNext()) {
+                final String key = iterator.next();
+                writeLength(out, names.indexOf(key));
+                writeNumber(out, commonList.get(key));
+            }
+
+            final Map<String, SValue> sValues = proof.getSValues();
+            writeLength(out, sValues.size());
+            iterator = sValues.keySet().iterator();
+            while (iterator.hasNext()) {
+                final String key = iterator.next();
+                writeLength(out, names.indexOf(key));
+                writeSValue(out, sValues.get(key).getValue());
+            }
+
+            final TreeMap<String, VerifiableEncryption> verEncs = proof
+                    .getVerEncs();
+            writeLength(out, verEncs.size());
+            iterator = verEncs.keySet().iterator();
+            while (iterator.hasNext()) {
+                final String key = iterator.next();
+                final VerifiableEncryption enc = verEncs.get(key);
+                writeLength(out, names.indexOf(key));
+                writeLength(out, names.indexOf(enc.getVEPublicKeyLocation()
+                        .toString()));
+                writeNumber(out, enc.getCapL());
+                writeNumber(out, enc.getU());
+                writeNumber(out, enc.getE());
+                writeNumber(out, enc.getV());
+            }
+            out.flush();
+
+            final ByteArrayOutputStream result = new ByteArrayOutputStream(
+                    body.size() + 256);
+            final DataOutputStream header = new DataOutputStream(result);
+            header.writeInt(MAGIC);
+            header.writeByte(VERSION);
+            writeLength(header, names.list.size());
+            for (int i = 0; i < names.list.size(); i++) {
+                final byte[] name = names.list.get(i).getBytes(CHARSET);
+                writeLength(header, name.length);
+                header.write(name);
+            }
+            header.flush();
+            body.writeTo(result);
+            return result.toByteArray();
+        } catch (IOException e) {
+            // cannot happen when writing into memory
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes a proof in the binary format.
+     *
+     * @param data
+     *            Binary encoding of the proof.
+     * @return Proof.
+     * @throws IllegalArgumentException
+     *             if the data is not a valid encoding.
+     */
+    public static Proof decode(final byte[] data) {
+        final DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(data));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a binary proof.");
+            }
+            final int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported version: "
+                        + version);
+            }
+            final String[] names = new String[readLength(in, data.length)];
+            for (int i = 0; i < names.length; i++) {
+                final byte[] name = new byte[readLength(in, data.length)];
+                in.readFully(name);
+                names[i] = new String(name, CHARSET);
+            }
+
+            final BigInteger challenge = readNumber(in, data.length);
+
+            final TreeMap<String, BigInteger> commonList = new TreeMap<String, BigInteger>();
+            int count = readLength(in, data.length);
+            for (int i = 0; i < count; i++) {
+                final String key = readName(in, names);
+                commonList.put(key, readNumber(in, data.length));
+            }
+
+            final Map<String, SValue> sValues = new HashMap<String, SValue>();
+            count = readLength(in, data.length);
+            for (int i = 0; i < count; i++) {
+                final String key = readName(in, names);
+                sValues.put(key, new SValue(readSValue(in, data.length)));
+            }
+
+            final TreeMap<String, VerifiableEncryption> verEncs = new TreeMap<String, VerifiableEncryption>();
+            count = readLength(in, data.length);
+            for (int i = 0; i < count; i++) {
+                final String key = readName(in, names);
+                final URI location = URI.create(readName(in, names));
+                final BigInteger capL = readNumber(in, data.length);
+                final BigInteger u = readNumber(in, data.length);
+                final BigInteger e = readNumber(in, data.length);
+                final BigInteger v = readNumber(in, data.length);
+                verEncs.put(key, new VerifiableEncryption(location, u, e, v,
+                        capL));
+            }
+            if (in.available() != 0) {
+                throw new IllegalArgumentException("Extra data after proof.");
+            }
+            return new Proof(challenge, sValues, commonList, verEncs);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated proof.");
+        }
+    }
+
+    /**
+     * Table of the names used in an encoding.
+     */
+    private static final class Names {
+        private final Vector<String> list = new Vector<String>();
+        private final HashMap<String, Integer> indices = new HashMap<String, Integer>();
+
+        int indexOf(final String name) {
+            Integer index = indices.get(name);
+            if (index == null) {
+                index = list.size();
+                list.add(name);
+                indices.put(name, index);
+            }
+            return index;
+        }
+    }
+
+    private static void writeSValue(final DataOutputStream out,
+            final Object sValue) throws IOException {
+        if (sValue instanceof BigInteger) {
+            out.writeByte(TYPE_BIG_INTEGER);
+            writeNumber(out, (BigInteger) sValue);
+        } else if (sValue instanceof SValuesIP) {
+            final SValuesIP valueIP = (SValuesIP) sValue;
+            out.writeByte(TYPE_IP);
+            writeNumber(out, valueIP.getAlphaHat());
+            writeNumbers(out, valueIP.getUHat());
+            writeNumbers(out, valueIP.getRHat());
+        } else if (sValue instanceof SValuesProveCL) {
+            final SValuesProveCL valueProveCL = (SValuesProveCL) sValue;
+            out.writeByte(TYPE_PROVE_CL);
+            writeNumber(out, valueProveCL.getEHat());
+            writeNumber(out, valueProveCL.getVHatPrime());
+        } else if (sValue instanceof SValuesCGAND) {
+            final SValuesCGAND valueCGAND = (SValuesCGAND) sValue;
+            out.writeByte(TYPE_CG_AND);
+            writeNumber(out, valueCGAND.getMHat_h());
+            writeNumber(out, valueCGAND.getRHat());
+        } else if (sValue instanceof SValuesCGNOT) {
+            final SValuesCGNOT valueCGNOT = (SValuesCGNOT) sValue;
+            out.writeByte(TYPE_CG_NOT);
+            writeNumber(out, valueCGNOT.getAHat());
+            writeNumber(out, valueCGNOT.getBHat());
+            writeNumber(out, valueCGNOT.getRHatPrime());
+        } else if (sValue instanceof SValuesCGOR) {
+            final SValuesCGOR valueCGOR = (SValuesCGOR) sValue;
+            out.writeByte(TYPE_CG_OR);
+            writeNumber(out, valueCGOR.getMHat_i());
+            writeNumber(out, valueCGOR.getAlphaHat());
+            writeNumber(out, valueCGOR.getBetaHat());
+            writeNumber(out, valueCGOR.getRHat_0());
+            writeNumber(out, valueCGOR.getRHat_1());
+            writeNumber(out, valueCGOR.getRHat_2());
+        } else {
+            throw new RuntimeException("SValue not implemented!");
+        }
+    }
+
+    private static Object readSValue(final DataInputStream in,
+            final int maxLength) throws IOException {
+        final int type = in.readUnsignedByte();
+        switch (type) {
+        case TYPE_BIG_INTEGER:
+            return readNumber(in, maxLength);
+        case TYPE_IP:
+            final BigInteger alphaHat = readNumber(in, maxLength);
+            final BigInteger[] uHat = readNumbers(in, maxLength);
+            final BigInteger[] rHat = readNumbers(in, maxLength);
+            return new SValuesIP(uHat, rHat, alphaHat);
+        case TYPE_PROVE_CL:
+            return new SValuesProveCL(readNumber(in, maxLength), readNumber(
+                    in, maxLength));
+        case TYPE_CG_AND:
+            return new SValuesCGAND(readNumber(in, maxLength), readNumber(in,
+                    maxLength));
+        case TYPE_CG_NOT:
+            return new SValuesCGNOT(readNumber(in, maxLength), readNumber(in,
+                    maxLength), readNumber(in, maxLength));
+        case TYPE_CG_OR:
+            return new SValuesCGOR(readNumber(in, maxLength), readNumber(in,
+                    maxLength), readNumber(in, maxLength), readNumber(in,
+                    maxLength), readNumber(in, maxLength), readNumber(in,
+                    maxLength));
+        default:
+            throw new IllegalArgumentException("Unknown s-value type: " + type);
+        }
+    }
+
+    private static void writeLength(final DataOutputStream out, int length)
+            throws IOException {
+        while ((length & ~0x7f) != 0) {
+            out.writeByte((length & 0x7f) | 0x80);
+            length >>>= 7;
+        }
+        out.writeByte(length);
+    }
+
+    /**
+     * @param maxLength
+     *            Upper bound on the value (length of the encoded proof).
+     */
+    private static int readLength(final DataInputStream in, final int maxLength)
+            throws IOException {
+        int length = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = in.readUnsignedByte();
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (length < 0 || length > maxLength) {
+                    throw new IllegalArgumentException("Invalid length: "
+                            + length);
+                }
+                return length;
+            }
+        }
+        throw new IllegalArgumentException("Invalid length.");
+    }
+
+    private static String readName(final DataInputStream in,
+            final String[] names) throws IOException {
+        final int index = readLength(in, Integer.MAX_VALUE);
+        if (index >= names.length) {
+            throw new IllegalArgumentException("Invalid name index: " + index);
+        }
+        return names[index];
+    }
+
+    /**
+     * Writes a number; <tt>null</tt> (e.g., a missing challenge) is written
+     * as an empty number.
+     */
+    private static void writeNumber(final DataOutputStream out,
+            final BigInteger number) throws IOException {
+        if (number == null) {
+            writeLength(out, 0);
+            return;
+        }
+        final byte[] bytes = number.toByteArray();
+        writeLength(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static BigInteger readNumber(final DataInputStream in,
+            final int maxLength) throws IOException {
+        final byte[] bytes = new byte[readLength(in, maxLength)];
+        if (bytes.length == 0) {
+            return null;
+        }
+        in.readFully(bytes);
+        return new BigInteger(bytes);
+    }
+
+    private static void writeNumbers(final DataOutputStream out,
+            final BigInteger[] numbers) throws IOException {
+        writeLength(out, numbers.length);
+        for (int i = 0; i < numbers.length; i++) {
+            writeNumber(out, numbers[i]);
+        }
+    }
+
+    private static BigInteger[] readNumbers(final DataInputStream in,
+            final int maxLength) throws IOException {
+        final BigInteger[] numbers = new BigInteger[readLength(in, maxLength)];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = readNumber(in, maxLength);
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,906 @@
+/**
+ * Copyright IBM Corporation 2010.
+ */
+package com.ibm.zrl.idmx.utils;
+
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.ibm.zrl.idmx.dm.Attribute;
+import com.ibm.zrl.idmx.dm.CommitmentOpening;
+import com.ibm.zrl.idmx.dm.Credential;
+import com.ibm.zrl.idmx.dm.structure.AttributeStructure.DataType;
+import com.ibm.zrl.idmx.dm.structure.CredentialStructure;
+import com.ibm.zrl.idmx.issuance.Message;
+import com.ibm.zrl.idmx.issuance.Message.IssuanceProtocolValues;
+import com.ibm.zrl.idmx.key.IssuerPublicKey;
+import com.ibm.zrl.idmx.showproof.Identifier;
+import com.ibm.zrl.idmx.showproof.Identifier.ProofMode;
+import com.ibm.zrl.idmx.showproof.Proof;
+import com.ibm.zrl.idmx.showproof.ProofSpec;
+import com.ibm.zrl.idmx.showproof.ip.InequalityProver;
+import com.ibm.zrl.idmx.showproof.predicates.CLPredicate;
+import com.ibm.zrl.idmx.showproof.predicates.CommitmentPredicate;
+import com.ibm.zrl.idmx.showproof.predicates.DomainNymPredicate;
+import com.ibm.zrl.idmx.showproof.predicates.InequalityPredicate;
+import com.ibm.zrl.idmx.showproof.predicates.MessagePredicate;
+import com.ibm.zrl.idmx.showproof.predicates.Predicate;
+import com.ibm.zrl.idmx.showproof.predicates.PrimeEncodePredicate;
+import com.ibm.zrl.idmx.showproof.predicates.PseudonymPredicate;
+import com.ibm.zrl.idmx.showproof.predicates.RepresentationPredicate;
+import com.ibm.zrl.idmx.showproof.predicates.VerEncPredicate;
+import com.ibm.zrl.idmx.showproof.predicates.InequalityPredicate.InequalityOperator;
+import com.ibm.zrl.idmx.showproof.predicates.PrimeEncodePredicate.PrimeEncodeOp;
+import com.ibm.zrl.idmx.showproof.sval.SValue;
+import com.ibm.zrl.idmx.showproof.sval.SValuesCGAND;
+import com.ibm.zrl.idmx.showproof.sval.SValuesCGNOT;
+import com.ibm.zrl.idmx.showproof.sval.SValuesCGOR;
+import com.ibm.zrl.idmx.showproof.sval.SValuesIP;
+import com.ibm.zrl.idmx.showproof.sval.SValuesProveCL;
+import com.ibm.zrl.idmx.ve.VerifiableEncryption;
+
+/**
+ * Pull parser for the object types that are parsed on the hot path: proofs,
+ * credentials, proof specifications, issuer public keys and issuance messages.
+ * The objects are built directly from the stream of XML events without
+ * building a DOM tree. The parser keeps no state between calls and may be used
+ * by several threads concurrently.
+ *
+ * The parser accepts the documents written by the {@link XMLSerializer} and
+ * the same values as the DOM based methods of the {@link Parser}. Unknown
+ * elements are skipped.
+ *
+ * @see Parser#parse(org.xml.sax.InputSource)
+ */
+final class StaxParser {
+
+    /** Logger. */
+    private static Logger log = Logger.getLogger(StaxParser.class.getName());
+
+    /**
+     * Hidden constructor.
+     */
+    private StaxParser() {
+    }
+
+    /**
+     * @param rootName
+     *            Name of the root element of a document.
+     * @return True if documents with the given root element are parsed by
+     *         this class.
+     */
+    static boolean supports(final String rootName) {
+        return rootName.equalsIgnoreCase("IdmxProof")
+                || rootName.equalsIgnoreCase("Credential")
+                || rootName.equalsIgnoreCase("ProofSpecification")
+                || rootName.equalsIgnoreCase("IssuerPublicKey")
+                || rootName.equalsIgnoreCase("Message");
+    }
+
+    /**
+     * @param reader
+     *            Reader positioned on the root element of a document whose
+     *            type is {@link #supports(String) supported}.
+     * @return Object represented by the document.
+     */
+    static Object parse(final XMLStreamReader reader)
+            throws XMLStreamException {
+        final String rootName = reader.getLocalName();
+        if (rootName.equalsIgnoreCase("IdmxProof")) {
+            return parseProof(reader);
+        } else if (rootName.equalsIgnoreCase("Credential")) {
+            return parseCredential(reader);
+        } else if (rootName.equalsIgnoreCase("ProofSpecification")) {
+            return parseProofSpec(reader);
+        } else if (rootName.equalsIgnoreCase("IssuerPublicKey")) {
+            return parseIssuerPublicKey(reader);
+        } else if (rootName.equalsIgnoreCase("Message")) {
+            return parseMessage(reader);
+        }
+        throw new IllegalArgumentException("Not supported: " + rootName);
+    }
+
+    /**
+     * Moves to the next child of the current element.
+     *
+     * @return True if the reader is on the start of the next child, false if
+     *         it is on the end of the current element.
+     */
+    private static boolean nextChild(final XMLStreamReader reader)
+            throws XMLStreamException {
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skips the current element including its children.
+     */
+    private static void skip(final XMLStreamReader reader)
+            throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * @return Text of the current element without tab and newline
+     *         characters.
+     */
+    private static String text(final XMLStreamReader reader)
+            throws XMLStreamException {
+        return normalize(reader.getElementText());
+    }
+
+    private static String normalize(final String string) {
+        if (string.indexOf('\n') < 0 && string.indexOf('\t') < 0) {
+            return string;
+        }
+        final StringBuilder sb = new StringBuilder(string.length());
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            if (c != '\n' && c != '\t') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static BigInteger number(final XMLStreamReader reader)
+            throws XMLStreamException {
+        return new BigInteger(text(reader));
+    }
+
+    private static URI uri(final String string) {
+        try {
+            return new URI(string);
+        } catch (URISyntaxException e) {
+            log.log(Level.SEVERE, e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * @return Attribute of the current element without tab and newline
+     *         characters; <tt>null</tt> if it is not present.
+     */
+    private static String attribute(final XMLStreamReader reader,
+            final String name) {
+        final String value = reader.getAttributeValue(null, name);
+        return value == null ? null : normalize(value);
+    }
+
+    private static boolean is(final XMLStreamReader reader, final String name) {
+        return reader.getLocalName().equals(name);
+    }
+
+    // ---------------------------------------------------------------- Proof
+
+    /**
+     * @param reader
+     *            Reader on the <tt>IdmxProof</tt> element.
+     * @return Proof.
+     */
+    private static Proof parseProof(final XMLStreamReader reader)
+            throws XMLStreamException {
+        BigInteger challenge = null;
+        final TreeMap<String, BigInteger> commonValues = new TreeMap<String, BigInteger>();
+        final Map<String, SValue> values = new HashMap<String, SValue>();
+        final TreeMap<String, VerifiableEncryption> verEncs = new TreeMap<String, VerifiableEncryption>();
+
+        while (nextChild(reader)) {
+            if (is(reader, "Challenge")) {
+                challenge = number(reader);
+            } else if (is(reader, "CommonValues")) {
+                while (nextChild(reader)) {
+                    final String key = attribute(reader, "key");
+                    commonValues.put(key, number(reader));
+                }
+            } else if (is(reader, "Values")) {
+                while (nextChild(reader)) {
+                    parseSValue(reader, values);
+                }
+            } else if (is(reader, "VerifiableEncryptions")) {
+                while (nextChild(reader)) {
+                    final String key = attribute(reader, "key");
+                    verEncs.put(key, parseVerifiableEncryption(reader));
+                }
+            } else {
+                skip(reader);
+            }
+        }
+        return new Proof(challenge, values, commonValues, verEncs);
+    }
+
+    /**
+     * @param reader
+     *            Reader on a <tt>Value</tt> element of a proof.
+     * @param values
+     *            S-values to which the value is added.
+     */
+    private static void parseSValue(final XMLStreamReader reader,
+            final Map<String, SValue> values) throws XMLStreamException {
+        final String key = attribute(reader, "key");
+        final String type = attribute(reader, "type");
+
+        if (type.equalsIgnoreCase("BigInteger")) {
+            values.put(key, new SValue(number(reader)));
+            return;
+        }
+        if (!nextChild(reader)) {
+            return;
+        }
+        final HashMap<String, BigInteger> elements = new HashMap<String, BigInteger>();
+        while (nextChild(reader)) {
+            elements.put(reader.getLocalName(), number(reader));
+        }
+        // end of the value element
+        while (nextChild(reader)) {
+            skip(reader);
+        }
+
+        if (type.equalsIgnoreCase("SValueRP")) {
+            final int length = InequalityProver.NUM_SQUARES + 1;
+            final BigInteger[] uHat = new BigInteger[length];
+            final BigInteger[] rHat = new BigInteger[length];
+            for (int j = 0; j < length; j++) {
+                uHat[j] = elements.get("uHat_" + j);
+                rHat[j] = elements.get("rHat_" + j);
+            }
+            values.put(key, new SValue(new SValuesIP(uHat, rHat, elements
+                    .get("AlphaHat"))));
+        } else if (type.equalsIgnoreCase("SValueProveCL")) {
+            values.put(key, new SValue(new SValuesProveCL(elements
+                    .get("eHat"), elements.get("vHatPrime"))));
+        } else if (type.equalsIgnoreCase("SValueCGAND")) {
+            values.put(key, new SValue(new SValuesCGAND(elements
+                    .get("mHat_h"), elements.get("rHat"))));
+        } else if (type.equalsIgnoreCase("SValueCGNOT")) {
+            values.put(key, new SValue(new SValuesCGNOT(elements.get("aHat"),
+                    elements.get("bHat"), elements.get("rHatPrime"))));
+        } else if (type.equalsIgnoreCase("SValueCGOR")) {
+            values.put(key, new SValue(new SValuesCGOR(elements.get("mHat_i"),
+                    elements.get("alphaHat"), elements.get("betaHat"),
+                    elements.get("rHat_0"), elements.get("rHat_1"), elements
+                            .get("rHat_2"))));
+        }
+    }
+
+    /**
+     * @param reader
+     *            Reader on a <tt>VerifiableEncryption</tt> element.
+     * @return Verifiable encryption (verifier's side).
+     */
+    private static VerifiableEncryption parseVerifiableEncryption(
+            final XMLStreamReader reader) throws XMLStreamException {
+        URI vePublicKeyLocation = null;
+        final HashMap<String, BigInteger> elements = new HashMap<String, BigInteger>();
+        while (nextChild(reader)) {
+            if (is(reader, "Locations")) {
+                while (nextChild(reader)) {
+                    if (is(reader, "VEPublicKeyLocation")) {
+                        vePublicKeyLocation = uri(text(reader));
+                    } else {
+                        skip(reader);
+                    }
+                }
+            } else if (is(reader, "Elements")) {
+                while (nextChild(reader)) {
+                    elements.put(reader.getLocalName(), number(reader));
+                }
+            } else {
+                skip(reader);
+            }
+        }
+        return new VerifiableEncryption(vePublicKeyLocation, elements
+                .get("u"), elements.get("e"), elements.get("v"), elements
+                .get("Label"));
+    }
+
+    // ----------------------------------------------------------- Credential
+
+    /** Values of an attribute as read from a credential. */
+    private static final class AttributeValues {
+        private final String name;
+        private Object value;
+        private final HashSet<String> enumValues = new HashSet<String>();
+
+        AttributeValues(final String theName) {
+            name = theName;
+        }
+    }
+
+    /**
+     * @param reader
+     *            Reader on the <tt>Credential</tt> element.
+     * @return Credential.
+     */
+    private static Credential parseCredential(final XMLStreamReader reader)
+            throws XMLStreamException {
+        String name = null;
+        URI credStructLocation = null;
+        final Vector<AttributeValues> attributeValues = new Vector<AttributeValues>();
+        final HashMap<String, BigInteger> signature = new HashMap<String, BigInteger>();
+        URI updateLocation = null;
+        HashMap<String, BigInteger> updates = null;
+
+        while (nextChild(reader)) {
+            if (is(reader, "Name")) {
+                name = text(reader);
+            } else if (is(reader, "References")) {
+                while (nextChild(reader)) {
+                    if (is(reader, "CredentialStructure")) {
+                        credStructLocation = uri(text(reader));
+                    } else {
+                        skip(reader);
+                    }
+                }
+            } else if (is(reader, "Attributes")) {
+                while (nextChild(reader)) {
+                    attributeValues.add(parseCredentialAttribute(reader));
+                }
+            } else if (is(reader, "Signature")) {
+                while (nextChild(reader)) {
+                    signature.put(reader.getLocalName(), number(reader));
+                }
+            } else if (is(reader, "Features")) {
+                while (nextChild(reader)) {
+                    if (!is(reader, "Updates")) {
+                        skip(reader);
+                        continue;
+                    }
+                    updates = new HashMap<String, BigInteger>();
+                    while (nextChild(reader)) {
+                        if (is(reader, "UpdateSpecification")) {
+                            updateLocation = uri(text(reader));
+                        } else {
+                            updates.put(reader.getLocalName(), number(reader));
+                        }
+                    }
+                }
+            } else {
+                skip(reader);
+            }
+        }
+
+        final CredentialStructure cs = (CredentialStructure) StructureStore
+                .getInstance().get(credStructLocation);
+        final Vector<Attribute> attributes = new Vector<Attribute>();
+        for (AttributeValues values : attributeValues) {
+            if (values.enumValues.isEmpty()) {
+                attributes.add(new Attribute(cs
+                        .getAttributeStructure(values.name), values.value));
+            } else {
+                attributes.add(new Attribute(cs
+                        .getAttributeStructure(values.name), values.value,
+                        values.enumValues));
+            }
+        }
+
+        final Credential cred = new Credential(credStructLocation, signature
+                .get("A"), signature.get("e"), signature.get("v"),
+                attributes, name);
+        if (updates != null) {
+            cred.new UpdateInformation(updates.get("capU"), updates
+                    .get("vPrime"), updateLocation, updates.get("nonce"),
+                    updates.get("context"));
+        }
+        return cred;
+    }
+
+    /**
+     * @param reader
+     *            Reader on an <tt>Attribute</tt> element of a credential.
+     * @return Values of the attribute.
+     */
+    private static AttributeValues parseCredentialAttribute(
+            final XMLStreamReader reader) throws XMLStreamException {
+        final AttributeValues values = new AttributeValues(attribute(reader,
+                "name"));
+        while (nextChild(reader)) {
+            if (is(reader, "Value")) {
+                values.value = new BigInteger(reader.getElementText());
+            } else if (is(reader, "Commitment")) {
+                values.value = parseCredentialCommitment(reader);
+            } else if (is(reader, "EnumValue")) {
+                values.enumValues.add(reader.getElementText());
+            } else {
+                skip(reader);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @param reader
+     *            Reader on a <tt>Commitment</tt> element of a credential.
+     * @return Commitment.
+     */
+    private static CommitmentOpening parseCredentialCommitment(
+            final XMLStreamReader reader) throws XMLStreamException {
+        BigInteger val = null;
+        BigInteger capS = null;
+        BigInteger n = null;
+        Vector<BigInteger> bases = null;
+        Vector<BigInteger> messages = null;
+        BigInteger rand = null;
+
+        while (nextChild(reader)) {
+            if (is(reader, "commitment")) {
+                val = new BigInteger(reader.getElementText());
+            } else if (is(reader, "S")) {
+                capS = new BigInteger(reader.getElementText());
+            } else if (is(reader, "n")) {
+                n = new BigInteger(reader.getElementText());
+            } else if (is(reader, "Bases")) {
+                bases = new Vector<BigInteger>();
+                while (nextChild(reader)) {
+                    bases.add(new BigInteger(reader.getElementText()));
+                }
+            } else if (is(reader, "CommitmentOpening")) {
+                while (nextChild(reader)) {
+                    if (is(reader, "Messages")) {
+                        messages = new Vector<BigInteger>();
+                        while (nextChild(reader)) {
+                            messages
+                                    .add(new BigInteger(reader.getElementText()));
+                        }
+                    } else if (is(reader, "rand")) {
+                        rand = new BigInteger(reader.getElementText());
+                    } else {
+                        skip(reader);
+                    }
+                }
+            } else {
+                skip(reader);
+            }
+        }
+        return new CommitmentOpening(val, bases, capS, n, messages, rand);
+    }
+
+    // --------------------------------------------------- Issuer public key
+
+    /**
+     * @param reader
+     *            Reader on the <tt>IssuerPublicKey</tt> element.
+     * @return Issuer public key.
+     */
+    private static IssuerPublicKey parseIssuerPublicKey(
+            final XMLStreamReader reader) throws XMLStreamException {
+        URI groupParametersName = null;
+        final HashMap<String, BigInteger> elements = new HashMap<String, BigInteger>();
+        BigInteger[] capR = null;
+        int epochLength = 0;
+
+        while (nextChild(reader)) {
+            if (is(reader, "References")) {
+                while (nextChild(reader)) {
+                    if (is(reader, "GroupParameters")) {
+                        groupParametersName = uri(text(reader));
+                    } else {
+                        skip(reader);
+                    }
+                }
+            } else if (is(reader, "Elements")) {
+                while (nextChild(reader)) {
+                    if (!is(reader, "Bases")) {
+                        elements.put(reader.getLocalName(), number(reader));
+                        continue;
+                    }
+                    capR = new BigInteger[Integer.parseInt(attribute(reader,
+                            "num"))];
+                    while (nextChild(reader)) {
+                        final String baseName = reader.getLocalName();
+                        final int index = Integer.parseInt(baseName
+                                .substring(baseName.indexOf('_') + 1));
+                        capR[index] = number(reader);
+                    }
+                }
+            } else if (is(reader, "Features")) {
+                while (nextChild(reader)) {
+                    if (is(reader, "Epoch")) {
+                        epochLength = Integer.parseInt(attribute(reader,
+                                "length"));
+                    }
+                    skip(reader);
+                }
+            } else {
+                skip(reader);
+            }
+        }
+        return new IssuerPublicKey(groupParametersName, elements.get("S"),
+                elements.get("Z"), capR, elements.get("n"), epochLength);
+    }
+
+    // -------------------------------------------------------------- Message
+
+    /**
+     * @param reader
+     *            Reader on the <tt>Message</tt> element.
+     * @return Message of the issuance protocol.
+     */
+    private static Message parseMessage(final XMLStreamReader reader)
+            throws XMLStreamException {
+        final HashMap<IssuanceProtocolValues, BigInteger> issuanceProtocolValues = new HashMap<IssuanceProtocolValues, BigInteger>();
+        Proof proof = null;
+        URI updateLocation = null;
+
+        while (nextChild(reader)) {
+            if (is(reader, "Values")) {
+                while (nextChild(reader)) {
+                    final IssuanceProtocolValues name = IssuanceProtocolValues
+                            .valueOf(attribute(reader, "name"));
+                    issuanceProtocolValues.put(name, number(reader));
+                }
+            } else if (is(reader, "IdmxProof")) {
+                proof = parseProof(reader);
+            } else if (is(reader, "UpdateLocation")) {
+                updateLocation = parseUpdateLocation(reader);
+            } else {
+                skip(reader);
+            }
+        }
+        return new Message(issuanceProtocolValues, proof, updateLocation);
+    }
+
+    /**
+     * The serializer writes the location as text of the
+     * <tt>UpdateLocation</tt> element; a nested <tt>Update</tt> element is
+     * accepted as well.
+     */
+    private static URI parseUpdateLocation(final XMLStreamReader reader)
+            throws XMLStreamException {
+        final StringBuilder text = new StringBuilder();
+        URI location = null;
+        while (reader.hasNext()) {
+            final int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.CDATA) {
+                text.append(reader.getText());
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                if (is(reader, "Update")) {
+                    location = uri(text(reader));
+                } else {
+                    skip(reader);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+        }
+        if (location == null) {
+            location = uri(normalize(text.toString()).trim());
+        }
+        return location;
+    }
+
+    // --------------------------------------------------- Proof specification
+
+    /** Enumeration attribute as read from a proof specification. */
+    private static final class EnumAttribute {
+        private final String idName;
+        private final String opName;
+        private final Vector<String> enumValues = new Vector<String>();
+
+        EnumAttribute(final String theIdName, final String theOpName) {
+            idName = theIdName;
+            opName = theOpName;
+        }
+    }
+
+    /**
+     * The predicates are created in the same order as by the DOM based parser:
+     * credentials, enumerations, inequalities, commitments, representations,
+     * pseudonyms, verifiable encryptions and messages.
+     *
+     * @param reader
+     *            Reader on the <tt>ProofSpecification</tt> element.
+     * @return Proof specification.
+     */
+    private static ProofSpec parseProofSpec(final XMLStreamReader reader)
+            throws XMLStreamException {
+        final HashMap<String, Identifier> identifierMap = new HashMap<String, Identifier>();
+        final HashMap<Identifier, String[]> identifierToAttributeMap = new HashMap<Identifier, String[]>();
+
+        final Vector<Predicate> credentials = new Vector<Predicate>();
+        final Vector<EnumAttribute> enumAttributes = new Vector<EnumAttribute>();
+        final Vector<Predicate> inequalities = new Vector<Predicate>();
+        final Vector<Predicate> commitments = new Vector<Predicate>();
+        final Vector<Predicate> representations = new Vector<Predicate>();
+        final Vector<Predicate> domainPseudonyms = new Vector<Predicate>();
+        final Vector<Predicate> pseudonyms = new Vector<Predicate>();
+        final Vector<Predicate> verEncs = new Vector<Predicate>();
+        final Vector<Predicate> messages = new Vector<Predicate>();
+
+        while (nextChild(reader)) {
+            if (is(reader, "Declaration")) {
+                parseAttributeIdentifiers(reader, identifierMap);
+                continue;
+            } else if (!is(reader, "Specification")) {
+                skip(reader);
+                continue;
+            }
+            while (nextChild(reader)) {
+                final String section = reader.getLocalName();
+                while (nextChild(reader)) {
+                    if (section.equals("Credentials")) {
+                        credentials.add(parseCredentialPredicate(reader,
+                                identifierMap, identifierToAttributeMap));
+                    } else if (section.equals("EnumAttributes")) {
+                        enumAttributes.add(parseEnumAttribute(reader));
+                    } else if (section.equals("Inequalities")) {
+                        inequalities.add(parseInequality(reader,
+                                identifierMap));
+                    } else if (section.equals("Commitments")) {
+                        commitments.add(parseCommitment(reader,
+                                identifierMap));
+                    } else if (section.equals("Representations")) {
+                        representations.add(parseRepresentation(reader,
+                                identifierMap));
+                    } else if (section.equals("Pseudonyms")
+                            && is(reader, "DomainPseudonym")) {
+                        final String domain = text(reader);
+                        if (domain.equalsIgnoreCase("")) {
+                            throw new RuntimeException("Domain must not be "
+                                    + "empty in the " + domainPseudonyms.size()
+                                    + "-th domain pseudonym.");
+                        }
+                        domainPseudonyms.add(new DomainNymPredicate(domain));
+                    } else if (section.equals("Pseudonyms")
+                            && is(reader, "Pseudonym")) {
+                        pseudonyms.add(new PseudonymPredicate(attribute(
+                                reader, "name")));
+                        skip(reader);
+                    } else if (section.equals("VerifiableEncryptions")) {
+                        verEncs.add(parseVerEnc(reader, identifierMap));
+                    } else if (section.equals("Messages")) {
+                        final String name = attribute(reader, "name");
+                        final String value = reader.getElementText()
+                                .replaceAll("\\n", " ").replaceAll("\\t", "");
+                        messages.add(new MessagePredicate(name, value));
+                    } else {
+                        skip(reader);
+                    }
+                }
+            }
+        }
+
+        final Vector<Predicate> predicates = new Vector<Predicate>();
+        predicates.addAll(credentials);
+        predicates.addAll(createEnumPredicates(enumAttributes, identifierMap,
+                identifierToAttributeMap));
+        predicates.addAll(inequalities);
+        predicates.addAll(commitments);
+        predicates.addAll(representations);
+        predicates.addAll(domainPseudonyms);
+        predicates.addAll(pseudonyms);
+        predicates.addAll(verEncs);
+        predicates.addAll(messages);
+
+        return new ProofSpec(identifierMap, predicates);
+    }
+
+    private static void parseAttributeIdentifiers(
+            final XMLStreamReader reader,
+            final HashMap<String, Identifier> identifierMap)
+            throws XMLStreamException {
+        while (nextChild(reader)) {
+            if (!is(reader, "AttributeId")) {
+                skip(reader);
+                continue;
+            }
+            final String identifierName = attribute(reader, "name");
+            final ProofMode proofMode = ProofMode.valueOf(attribute(reader,
+                    "proofMode").toUpperCase());
+            final DataType dataType = DataType.valueOf(attribute(reader,
+                    "type").toUpperCase());
+            skip(reader);
+
+            // verify that attribute identifier have unique names
+            if (identifierMap.containsKey(identifierName)) {
+                throw new RuntimeException("[Parser:"
+                        + "parseAttributeIdentifiers()] Identifiers must "
+                        + "have unique names.");
+            }
+            identifierMap.put(identifierName, new Identifier(identifierName,
+                    dataType, proofMode));
+        }
+    }
+
+    private static Identifier getIdentifier(
+            final HashMap<String, Identifier> identifierMap, final String name) {
+        final Identifier identifier = identifierMap.get(name);
+        if (identifier == null) {
+            throw new RuntimeException("Identifier: " + name + " not found.");
+        }
+        return identifier;
+    }
+
+    private static Predicate parseCredentialPredicate(
+            final XMLStreamReader reader,
+            final HashMap<String, Identifier> identifierMap,
+            final HashMap<Identifier, String[]> identifierToAttributeMap)
+            throws XMLStreamException {
+        final String credName = attribute(reader, "name");
+        final URI credStructLocation = uri(attribute(reader, "credStruct"));
+
+        final HashMap<String, Identifier> attToIdentifierMap = new HashMap<String, Identifier>();
+        while (nextChild(reader)) {
+            if (!is(reader, "Attribute")) {
+                skip(reader);
+                continue;
+            }
+            final String attName = attribute(reader, "name");
+            final Identifier attId = getIdentifier(identifierMap, text(reader));
+            attToIdentifierMap.put(attName, attId);
+            // this is required for the Prime Encoded Values
+            identifierToAttributeMap.put(attId, new String[] {
+                    credStructLocation.toString(), attName });
+        }
+        return new CLPredicate(credStructLocation, credName,
+                attToIdentifierMap);
+    }
+
+    private static EnumAttribute parseEnumAttribute(
+            final XMLStreamReader reader) throws XMLStreamException {
+        final EnumAttribute enumAttribute = new EnumAttribute(attribute(
+                reader, "attributeId"), attribute(reader, "operator")
+                .toUpperCase());
+        while (nextChild(reader)) {
+            if (!is(reader, "EnumValue")) {
+                skip(reader);
+                continue;
+            }
+            final String attName = attribute(reader, "attributeName");
+            enumAttribute.enumValues.add(attName + Constants.DELIMITER
+                    + text(reader));
+        }
+        return enumAttribute;
+    }
+
+    /**
+     * Creates the prime encoding predicates; the attributes of the
+     * identifiers are known once all credentials have been parsed.
+     */
+    private static Vector<Predicate> createEnumPredicates(
+            final Vector<EnumAttribute> enumAttributes,
+            final HashMap<String, Identifier> identifierMap,
+            final HashMap<Identifier, String[]> identifierToAttributeMap) {
+        final Vector<Predicate> predicates = new Vector<Predicate>();
+        for (EnumAttribute enumAttribute : enumAttributes) {
+            final Identifier identifier = getIdentifier(identifierMap,
+                    enumAttribute.idName);
+            final String[] attributeIdentifier = identifierToAttributeMap
+                    .get(identifier);
+            identifier.setAttributeName(attributeIdentifier[0],
+                    attributeIdentifier[1]);
+
+            final PrimeEncodeOp operator = PrimeEncodeOp
+                    .valueOf(enumAttribute.opName);
+            final String predName = enumAttribute.idName + Constants.DELIMITER
+                    + enumAttribute.opName;
+
+            boolean sameIdentifierOperator = false;
+            for (Predicate pred : predicates) {
+                final PrimeEncodePredicate pePred = (PrimeEncodePredicate) pred;
+                if (pePred.getName().equals(predName)) {
+                    pePred.addAttributeNames(enumAttribute.enumValues);
+                    sameIdentifierOperator = true;
+                    break;
+                }
+            }
+            if (!sameIdentifierOperator) {
+                predicates.add(new PrimeEncodePredicate(predName, identifier,
+                        enumAttribute.enumValues, operator));
+            }
+        }
+        return predicates;
+    }
+
+    private static Predicate parseInequality(final XMLStreamReader reader,
+            final HashMap<String, Identifier> identifierMap)
+            throws XMLStreamException {
+        final String operator = attribute(reader, "operator").toUpperCase();
+        final String secondArgument = attribute(reader, "secondArgument");
+        final URI key = uri(attribute(reader, "publicKey"));
+        final Identifier identifier = getIdentifier(identifierMap,
+                text(reader));
+
+        final String predName = identifier.getName() + Constants.DELIMITER
+                + operator + Constants.DELIMITER + secondArgument;
+
+        final Identifier secondArg = identifierMap.get(secondArgument);
+        if (secondArg != null) {
+            if (!secondArg.isRevealed()) {
+                throw new RuntimeException("Malformed proof "
+                        + "specification: Inequality proofs can only "
+                        + "be created w.r.t. reveled arguments but "
+                        + "identifier: " + secondArgument + " is not "
+                        + "revealed.");
+            }
+            return new InequalityPredicate(predName, key, identifier,
+                    InequalityOperator.valueOf(operator), secondArg);
+        }
+        final BigInteger secondValue;
+        if (secondArgument.equalsIgnoreCase("CURRENT_EPOCH")) {
+            secondValue = ((IssuerPublicKey) StructureStore.getInstance().get(
+                    key)).computeCurrentEpoch();
+        } else {
+            secondValue = new BigInteger(secondArgument);
+        }
+        return new InequalityPredicate(predName, key, identifier,
+                InequalityOperator.valueOf(operator), secondValue);
+    }
+
+    private static Predicate parseCommitment(final XMLStreamReader reader,
+            final HashMap<String, Identifier> identifierMap)
+            throws XMLStreamException {
+        final String commName = attribute(reader, "name");
+        final TreeMap<Integer, Identifier> exponents = new TreeMap<Integer, Identifier>();
+        while (nextChild(reader)) {
+            if (!is(reader, "Exponent")) {
+                skip(reader);
+                continue;
+            }
+            final int index = Integer.parseInt(attribute(reader, "index"));
+            exponents.put(index, getIdentifier(identifierMap, text(reader)));
+        }
+        return new CommitmentPredicate(commName, new Vector<Identifier>(
+                exponents.values()));
+    }
+
+    private static Predicate parseRepresentation(
+            final XMLStreamReader reader,
+            final HashMap<String, Identifier> identifierMap)
+            throws XMLStreamException {
+        final String name = attribute(reader, "name");
+        final TreeMap<Integer, Identifier> identifiers = new TreeMap<Integer, Identifier>();
+        final Vector<BigInteger> bases = new Vector<BigInteger>();
+        while (nextChild(reader)) {
+            if (!is(reader, "Exponent")) {
+                skip(reader);
+                continue;
+            }
+            final BigInteger base = new BigInteger(attribute(reader, "base"));
+            final int index = Integer.parseInt(attribute(reader, "index"));
+            identifiers.put(index, getIdentifier(identifierMap, text(reader)));
+            bases.add(base);
+        }
+        return new RepresentationPredicate(name, new Vector<Identifier>(
+                identifiers.values()), bases);
+    }
+
+    private static Predicate parseVerEnc(final XMLStreamReader reader,
+            final HashMap<String, Identifier> identifierMap)
+            throws XMLStreamException {
+        final String name = attribute(reader, "name");
+        final URI key = uri(attribute(reader, "publicKey"));
+        final String label = attribute(reader, "label");
+        final Identifier identifier = getIdentifier(identifierMap,
+                text(reader));
+        return new VerEncPredicate(name, identifier, key, label);
+    }
+}
@@ -3,28 +3,49 @@
  */
 package com.ibm.zrl.idmx.utils;
 
+import java.io.File;
 import java.net.URI;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+import com.ibm.zrl.idmx.key.IssuerPublicKey;
+import com.ibm.zrl.idmx.key.VEPublicKey;
 
 /**
  * Utility class that loads structural information (e.g., credential structures,
  * public keys). All structural information that is needed throughout the
- * library is retrieved from this class.
+ * library is retrieved from this class. The store may be used by several
+ * threads concurrently.
+ *
+ * Lookups of loaded objects do not lock. Loading is single-flight: each object
+ * is parsed once, even if several threads request it at the same time. All
+ * loads are done while holding the lock of the store (which is also the lock
+ * of the DOM part of the {@link Parser}); a thread that finds an object
+ * missing waits for the lock and then checks again whether another thread has
+ * loaded the object in the meantime. Loads may be nested (e.g., a credential
+ * structure loads its public key).
  */
 public final class StructureStore {
 
+    /** Logger. */
+    private static Logger log = Logger.getLogger(StructureStore.class
+            .getName());
+
+    /** Extension of the files loaded by {@link #prewarm(URI)}. */
+    private static final String XML_EXTENSION = ".xml";
+
     /** Map of already loaded structural information objects. */
-    private HashMap<String, Object> structureMap = new HashMap<String, Object>();
+    private final ConcurrentHashMap<String, Object> structureMap = new ConcurrentHashMap<String, Object>();
     /** Only instance of this object. */
-    private static StructureStore structures;
+    private static final StructureStore structures = new StructureStore();
 
     /**
      * @return Singleton instance of this class.
      */
     public static StructureStore getInstance() {
-        if (structures == null) {
-            structures = new StructureStore();
-        }
         return structures;
     }
 
@@ -37,7 +58,7 @@ public final class StructureStore {
 
     /**
      * Convenience method. Creates the location of the structure using its name.
-     * 
+     *
      * @param objectName
      *            Location indicator of a structural element (e.g., credential
      *            structure, issuer public key).
@@ -57,14 +78,21 @@ public final class StructureStore {
      *         <tt>objectLocation</tt>.
      */
     public Object get(final String objectName, final URI objectLocation) {
-        Object obj = structureMap.get(objectName);
-        if (obj == null) {
-            obj = load(objectLocation);
-            if (obj != null) {
-                structureMap.put(objectName, obj);
+        final Object obj = structureMap.get(objectName);
+        if (obj != null) {
+            return obj;
+        }
+        synchronized (this) {
+            // another thread may have loaded the object while we waited
+            Object loaded = structureMap.get(objectName);
+            if (loaded == null) {
+                loaded = load(objectLocation);
+                if (loaded != null) {
+                    structureMap.put(objectName, loaded);
+                }
             }
+            return loaded;
         }
-        return obj;
     }
 
     /**
@@ -73,19 +101,137 @@ public final class StructureStore {
      * @return Object loaded from the indicated location.
      */
     private Object load(final URI objectLocation) {
-        return Parser.getInstance().parse(objectLocation);
+        final Object obj = Parser.getInstance().parse(objectLocation);
+        cacheBases(obj);
+        return obj;
+    }
+
+    /**
+     * Registers the fixed bases of public keys and group parameters for
+     * accelerated exponentiation. Does nothing if
+     * Constants.USE_FAST_EXPO_CACHE is not set.
+     *
+     * @param obj
+     *            Object that has just been loaded.
+     */
+    private void cacheBases(final Object obj) {
+        if (!Constants.USE_FAST_EXPO_CACHE) {
+            return;
+        }
+        if (obj instanceof IssuerPublicKey) {
+            ((IssuerPublicKey) obj).cacheKeyBases();
+        } else if (obj instanceof GroupParameters) {
+            ((GroupParameters) obj).cacheBases();
+        } else if (obj instanceof VEPublicKey) {
+            ((VEPublicKey) obj).cacheBases();
+        }
+    }
+
+    /**
+     * Loads all XML files of a directory (not including sub-directories) into
+     * the store, e.g., when a service starts. Each object is stored under the
+     * name <tt>directory + fileName</tt>. Files that cannot be parsed are
+     * skipped; objects that are already loaded are not parsed again.
+     *
+     * @param directory
+     *            Location of the directory (a <tt>file</tt> URI ending with a
+     *            slash).
+     * @return Number of objects that are available in the store afterwards.
+     */
+    public int prewarm(final URI directory) {
+        if (!directory.toString().endsWith("/")) {
+            throw new IllegalArgumentException("Not a directory: " + directory);
+        }
+        final String[] fileNames = new File(directory).list();
+        if (fileNames == null) {
+            throw new IllegalArgumentException("Not a directory: " + directory);
+        }
+        // deterministic order of the loads
+        Arrays.sort(fileNames);
+
+        int nbrOfObjects = 0;
+        for (int i = 0; i < fileNames.length; i++) {
+            if (!fileNames[i].endsWith(XML_EXTENSION)) {
+                continue;
+            }
+            final URI location = URI.create(directory.toString()
+                    + fileNames[i]);
+            try {
+                if (get(location) != null) {
+                    nbrOfObjects++;
+                } else {
+                    log.log(Level.WARNING, "Not loaded: " + location);
+                }
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Not loaded: " + location, e);
+            }
+        }
+        return nbrOfObjects;
+    }
+
+    /**
+     * Convenience method. Reloads the object using its name as location.
+     *
+     * @param objectName
+     *            Location indicator of a structural element.
+     * @return The reloaded object.
+     * @see #reload(String, URI)
+     */
+    public Object reload(final URI objectName) {
+        return reload(objectName.toString(), objectName);
+    }
+
+    /**
+     * Parses an object again (e.g., after an issuer has rotated its key) and
+     * replaces the stored object. Threads that have looked up the object
+     * before keep using the old one; caches that depend on the object (e.g.,
+     * the context of a proof specification) notice the new object and are
+     * recomputed. If the object cannot be parsed, the stored object is
+     * removed.
+     *
+     * @param objectName
+     *            Name of a structural element.
+     * @param objectLocation
+     *            Location indicator of the object.
+     * @return The reloaded object or <tt>null</tt> if it could not be loaded.
+     */
+    public synchronized Object reload(final String objectName,
+            final URI objectLocation) {
+        final Object obj = load(objectLocation);
+        if (obj == null) {
+            structureMap.remove(objectName);
+        } else {
+            structureMap.put(objectName, obj);
+        }
+        return obj;
+    }
+
+    /**
+     * Removes an object from the store such that it is loaded again on the
+     * next request.
+     *
+     * @param objectName
+     *            Name of the object to be removed.
+     */
+    public void invalidate(final String objectName) {
+        structureMap.remove(objectName);
+    }
+
+    /**
+     * Removes all objects from the store.
+     */
+    public void invalidateAll() {
+        structureMap.clear();
     }
 
     /**
      * Removes a URI from the store of structures. This method is needed when a
      * wrong secret key is loaded.
-     * 
+     *
      * @param uri
      *            URI of the object to be removed.
      */
     public void remove(URI uri) {
-        if (structures.structureMap.containsKey(uri.toString())) {
-            structures.structureMap.remove(uri.toString());
-        }
+        invalidate(uri.toString());
     }
 }
@@ -7,9 +7,11 @@ import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -21,10 +23,15 @@ import com.ibm.zrl.idmx.dm.structure.AttributeStructure;
 import com.ibm.zrl.idmx.dm.structure.AttributeStructure.IssuanceMode;
 import com.ibm.zrl.idmx.key.IssuerPublicKey;
 import com.ibm.zrl.idmx.showproof.predicates.PrimeEncodePredicate;
+import com.ibm.zrl.idmx.utils.perf.EPrimePool;
 import com.ibm.zrl.idmx.utils.perf.Exponentiation;
+import com.ibm.zrl.idmx.utils.perf.InterleavedMultiBase;
 import com.ibm.zrl.idmx.utils.perf.ModPow;
 import com.ibm.zrl.idmx.utils.perf.ModPowCache;
+import com.ibm.zrl.idmx.utils.perf.MontgomeryContext;
 import com.ibm.zrl.idmx.utils.perf.MultiCoreMultiBase;
+import com.ibm.zrl.idmx.utils.perf.PrimeSieve;
+import com.ibm.zrl.idmx.utils.perf.SafePrimePool;
 import com.ibm.zrl.idmx.utils.perf.SafePrimes;
 
 /**
@@ -465,6 +472,9 @@ public class Utils {
      * and Victor Shoup in "Signature Schemes Based on the strong RSA
      * Assumption" May 9, 2000.
      * 
+     * If the {@link SafePrimePool} holds a prime of the bit length, that prime
+     * is returned instead.
+     * 
      * @param bitlength
      *            the bit length of the safe prime to be computed.
      * @param primeCertainty
@@ -476,6 +486,12 @@ public class Utils {
     public static BigInteger computeSafePrime(final int bitlength,
             final int primeCertainty) {
 
+        final BigInteger pooled = SafePrimePool.getInstance().poll(bitlength,
+                primeCertainty);
+        if (pooled != null) {
+            return pooled;
+        }
+
         final SafePrimes safePrime = SafePrimes.getInstance();
         if (Constants.USE_MULTI_CORE_SAFE_PRIMES) {
             safePrime.setForceSingleThread(false);
@@ -607,14 +623,7 @@ public class Utils {
 
         // length in bytes
         int hashLen = l_H / BYTE_BIT_LENGTH;
-        MessageDigest digest = null;
-
-        try {
-            digest = MessageDigest.getInstance(DIGEST_METHOD);
-        } catch (final NoSuchAlgorithmException e1) {
-            e1.printStackTrace();
-            throw new RuntimeException(e1.getMessage());
-        }
+        final MessageDigest digest = getDigest();
 
         final byte[] preImage = str.getBytes();
         digest.update(preImage, 0, preImage.length);
@@ -643,15 +652,26 @@ public class Utils {
      * @see SystemParameters#getL_H()
      */
     public static BigInteger hashOf(final int l_H, final BigInteger[] array) {
+        return hashOf(l_H, Arrays.asList(array));
+    }
+
+    /**
+     * Hashes a vector of BigIntegers into a single BigInteger value (see
+     * {@link #hashOf(int, BigInteger[])}).
+     * 
+     * @param l_H
+     *            System parameter: Bit length of a hash.
+     * @param list
+     *            vector of BigInteger.
+     * @return hashed value of <tt>list</tt>.
+     */
+    public static BigInteger hashOf(final int l_H, final Vector<BigInteger> list) {
+        return hashOf(l_H, (List<BigInteger>) list);
+    }
 
-        MessageDigest digest = null;
+    private static BigInteger hashOf(final int l_H, final List<BigInteger> list) {
 
-        try {
-            digest = MessageDigest.getInstance(DIGEST_METHOD);
-        } catch (final NoSuchAlgorithmException e1) {
-            log.log(Level.SEVERE, e1.getMessage(), e1);
-            throw new RuntimeException(e1.getMessage());
-        }
+        final MessageDigest digest = getDigest();
 
         // length in bytes
         int hashLen = l_H / BYTE_BIT_LENGTH;
@@ -663,9 +683,9 @@ public class Utils {
             }
         }
 
-        final byte[] asn1representation = idemix_asn.encode(array);
-
-        digest.update(asn1representation, 0, asn1representation.length);
+        // the ASN.1 representation is written into the digest directly
+        // instead of being assembled in a byte array first.
+        idemix_asn.encode(list, digest);
 
         final byte[] byteArray = new byte[hashLen];
         try {
@@ -677,41 +697,28 @@ public class Utils {
         return new BigInteger(byteArray);
     }
 
-    public static BigInteger hashOf(final int l_H, final Vector<BigInteger> list) {
-
-        MessageDigest digest = null;
-
-        try {
-            digest = MessageDigest.getInstance(DIGEST_METHOD);
-        } catch (final NoSuchAlgorithmException e1) {
-            log.log(Level.SEVERE, e1.getMessage(), e1);
-            throw new RuntimeException(e1.getMessage());
-        }
-
-        // length in bytes
-        int hashLen = l_H / BYTE_BIT_LENGTH;
-        if (DIGEST_METHOD.equals("SHA-256")) {
-            if (hashLen < SHA_BIT_LENGTH / BYTE_BIT_LENGTH) {
-                log.log(Level.SEVERE, "SHA-256: hashLen < " + SHA_BIT_LENGTH
-                        + "/" + BYTE_BIT_LENGTH + " (" + hashLen + ")");
-                throw new RuntimeException("Digest error");
+    /** Message digest of each thread, see {@link #getDigest()}. */
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance(DIGEST_METHOD);
+            } catch (final NoSuchAlgorithmException e1) {
+                log.log(Level.SEVERE, e1.getMessage(), e1);
+                throw new RuntimeException(e1.getMessage());
             }
         }
+    };
 
-        BigInteger[] array = new BigInteger[list.size()];
-        list.toArray(array);
-
-        final byte[] asn1representation = idemix_asn.encode(array);
-        digest.update(asn1representation, 0, asn1representation.length);
-
-        final byte[] byteArray = new byte[hashLen];
-        try {
-            digest.digest(byteArray, 0, hashLen);
-        } catch (Exception e) {
-            log.log(Level.SEVERE, "Error calculating ASN1 hash", e);
-            throw new RuntimeException("Digest error");
-        }
-        return new BigInteger(byteArray);
+    /**
+     * @return Message digest of the calling thread, reset to its initial
+     *         state. Creating a digest is expensive compared to hashing the
+     *         few kilobytes of a challenge.
+     */
+    private static MessageDigest getDigest() {
+        final MessageDigest digest = digests.get();
+        digest.reset();
+        return digest;
     }
 
     /**
@@ -813,7 +820,7 @@ public class Utils {
         BigInteger t;
         // TODO (frp): check this branch
         if (Constants.USE_FAST_EXPO_CACHE) {
-            final ModPow mp = ModPowCache.lookup(base);
+            final ModPow mp = ModPowCache.lookup(base, modulus, exponent);
             if (mp == null) { // no cached info. go the java.math.BigInteger
                 // route
                 t = base.modPow(exponent, modulus);
@@ -885,7 +892,7 @@ public class Utils {
             return BigInteger.ZERO;
         }
 
-        return product.multiply(t).mod(modulus);
+        return MontgomeryContext.getInstance(modulus).multiply(product, t);
     }
 
     /**
@@ -909,7 +916,7 @@ public class Utils {
             }
             return mcmb.multiBaseExp(exponentiations, modulus);
         } else { // use single-threaded default.
-            return MultiCoreMultiBase.compute(exponentiations, modulus);
+            return InterleavedMultiBase.compute(exponentiations, modulus);
         }
     }
 
@@ -955,7 +962,7 @@ public class Utils {
             }
             return mcmb.multiBaseExp(initialVal, exponentiations, modulus);
         } else { // use single-threaded default.
-            return MultiCoreMultiBase.compute(initialVal, exponentiations,
+            return InterleavedMultiBase.compute(initialVal, exponentiations,
                     modulus);
         }
     }
@@ -1222,19 +1229,13 @@ public class Utils {
 
     /**
      * Compute the context. This is a hash over all the public parameters and
-     * the issuer public key.
+     * the issuer public key. The value is cached by the public key.
      * 
      * @return Context for the proof.
+     * @see IssuerPublicKey#getContext()
      */
     public static final BigInteger computeContext(IssuerPublicKey pk) {
-        final GroupParameters gp = pk.getGroupParams();
-
-        Vector<BigInteger> contextVector = new Vector<BigInteger>();
-
-        // R[], S, Z
-        contextVector = computeKeyContext(pk, contextVector);
-        contextVector = computeGroupParamContext(gp, contextVector);
-        return Utils.hashOf(gp.getSystemParams().getL_H(), contextVector);
+        return pk.getContext();
     }
 
     /**
@@ -1274,26 +1275,27 @@ public class Utils {
     }
 
     /**
-     * Convenience method to select the e-value for the CL signature.
+     * Convenience method to select the e-value for the CL signature. The
+     * prime is taken from the {@link EPrimePool} if it has been started for
+     * the given system parameters, otherwise it is searched with a sieve.
      * 
      * @param sp
      *            System parameters.
      * @return Random prime <tt>e</tt>.
      */
     public static BigInteger chooseE(final SystemParameters sp) {
-        BigInteger e;
+        final BigInteger e = EPrimePool.getInstance().poll(sp.getL_e(),
+                sp.getL_ePrime(), sp.getL_pt());
+        if (e != null) {
+            return e;
+        }
         /**
          * offset = 2^(l_e-1), e in [2^(l_e - 1).. 2^(l_e -1) + 2^(lPrime_e - 1)
          * means we can pick the randomness in the interval [0..2^(lPrime_e -
          * 1)] and then add the offset.
          */
         final BigInteger offset = BigInteger.ONE.shiftLeft(sp.getL_e() - 1);
-        do {
-            e = Utils.computeRandomNumber(sp.getL_ePrime() - 1);
-            // add offset
-            e = e.add(offset);
-        } while (!e.isProbablePrime(sp.getL_pt()));
-        return e;
+        return PrimeSieve.genPrime(offset, sp.getL_ePrime() - 1, sp.getL_pt());
     }
 
     /**
@@ -1368,14 +1370,7 @@ public class Utils {
     }
 
     private static BigInteger hashOf(final int l_H, final String string) {
-        MessageDigest digest = null;
-
-        try {
-            digest = MessageDigest.getInstance(DIGEST_METHOD);
-        } catch (final NoSuchAlgorithmException e1) {
-            log.log(Level.SEVERE, e1.getMessage(), e1);
-            throw new RuntimeException(e1.getMessage());
-        }
+        final MessageDigest digest = getDigest();
 
         // length in bytes
         int hashLen = l_H / BYTE_BIT_LENGTH;
@@ -3,8 +3,15 @@
  */
 package com.ibm.zrl.idmx.utils;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.math.BigInteger;
 import java.net.URI;
 import java.util.HashMap;
@@ -12,15 +19,8 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
-
-import javax.xml.parsers.*;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Text;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.ibm.zrl.idmx.dm.Attribute;
 import com.ibm.zrl.idmx.dm.Commitment;
@@ -48,14 +48,22 @@ import com.ibm.zrl.idmx.ve.VerifiableEncryption;
 import com.ibm.zrl.idmx.ve.VerifiableEncryptionOpening;
 
 /**
- * Class for object serialization to XML.
+ * Class for object serialization to XML. The XML is written directly to the
+ * output, either indented (as by the <tt>serialize</tt> methods without an
+ * <tt>indent</tt> argument) or compact. The serializer keeps no state between
+ * calls and may be used by several threads concurrently.
  */
 public class XMLSerializer {
 
-    /** Singleton design pattern. */
-    private static XMLSerializer serializer;
+    /** Logger. */
+    private static Logger log = Logger.getLogger(XMLSerializer.class
+            .getName());
 
-    private Document doc;
+    /** Encoding of the output. */
+    private static final String CHARSET = "UTF-8";
+
+    /** Singleton design pattern. */
+    private static final XMLSerializer serializer = new XMLSerializer();
 
     /**
      * Constructor.
@@ -66,699 +74,766 @@ public class XMLSerializer {
 
     /**
      * Singleton design pattern.
-     * 
+     *
      * @return Parser object.
      */
     public static XMLSerializer getInstance() {
-        if (serializer == null) {
-            serializer = new XMLSerializer();
-        }
         return serializer;
     }
 
-    protected Document createDocument() {
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        DocumentBuilder db = null;
+    /**
+     * @param object
+     *            Object to be serialized.
+     * @return Indented XML representation of the object.
+     */
+    public String serialize(Object object) {
+        StringWriter writer = new StringWriter();
+        serialize(object, writer, true);
+        return writer.toString();
+    }
+
+    /**
+     * @param object
+     *            Object to be serialized.
+     * @param filename
+     *            Location of the file to which the indented XML
+     *            representation of the object is written.
+     */
+    public void serialize(Object object, URI filename) {
+        OutputStream stream = null;
+        try {
+            stream = new FileOutputStream(new File(filename));
+            serialize(object, stream, true);
+        } catch (FileNotFoundException e) {
+            log.log(Level.SEVERE, "File: " + filename + " not found.");
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    log.log(Level.SEVERE, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param object
+     *            Object to be serialized.
+     * @param stream
+     *            Stream to which the XML representation of the object is
+     *            written (UTF-8 encoded). The stream is flushed but not
+     *            closed.
+     * @param indent
+     *            True if the elements are written on separate, indented
+     *            lines; false for a compact representation.
+     */
+    public void serialize(Object object, OutputStream stream, boolean indent) {
         try {
-            db = dbf.newDocumentBuilder();
-        } catch (ParserConfigurationException e) {
-            e.printStackTrace();
+            Writer writer = new BufferedWriter(new OutputStreamWriter(stream,
+                    CHARSET));
+            serialize(object, writer, indent);
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage());
         }
-        return db.newDocument();
     }
 
     /**
      * @param object
-     * @return
-     * @throws ParserConfigurationException
+     *            Object to be serialized.
+     * @param writer
+     *            Writer to which the XML representation of the object is
+     *            written. The writer is flushed but not closed.
+     * @param indent
+     *            True if the elements are written on separate, indented
+     *            lines; false for a compact representation.
      */
-    protected Document createDOM(Object object) {
-        // Document doc = null;
-        doc = createDocument();
+    public void serialize(Object object, Writer writer, boolean indent) {
+        Output out = new Output(writer, indent);
+        try {
+            out.startDocument();
+            if (!write(object, out)) {
+                throw new IllegalArgumentException("Object of type: "
+                        + (object == null ? null : object.getClass().getName())
+                        + " cannot be serialized.");
+            }
+            out.endDocument();
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
 
+    /**
+     * Writes the root element of an object. Extending classes override this
+     * method to serialize further objects.
+     *
+     * @param object
+     *            Object to be serialized.
+     * @param out
+     *            Output.
+     * @return False if objects of the given type cannot be serialized.
+     */
+    protected boolean write(Object object, Output out) throws IOException {
         if (object instanceof GroupParameters) {
-            serializeGroupParameters((GroupParameters) object);
+            serializeGroupParameters((GroupParameters) object, out);
         } else if (object instanceof IssuerPublicKey) {
-            serializeIssuerPublicKey((IssuerPublicKey) object);
+            serializeIssuerPublicKey((IssuerPublicKey) object, out);
         } else if (object instanceof IssuerPrivateKey) {
-            serializeIssuerPrivateKey((IssuerPrivateKey) object);
+            serializeIssuerPrivateKey((IssuerPrivateKey) object, out);
         } else if (object instanceof VEPublicKey) {
-            serializeVerEncPublicKey((VEPublicKey) object);
+            serializeVerEncPublicKey((VEPublicKey) object, out);
         } else if (object instanceof VEPrivateKey) {
-            serializeVerEncPrivateKey((VEPrivateKey) object);
+            serializeVerEncPrivateKey((VEPrivateKey) object, out);
         } else if (object instanceof MasterSecret) {
-            serializeMasterSecret((MasterSecret) object);
+            serializeMasterSecret((MasterSecret) object, out);
         } else if (object instanceof Credential) {
-            serializeCredential((Credential) object);
+            serializeCredential((Credential) object, out);
         } else if (object instanceof Proof) {
-            serializeProof((Proof) object);
+            serializeProof((Proof) object, out);
         } else if (object instanceof BigInteger) {
-            serializeNonce((BigInteger) object);
+            serializeNonce((BigInteger) object, out);
         } else if (object instanceof IssuerUpdateInformation) {
-            serializeIssuerUpdateInformation((IssuerUpdateInformation) object);
+            serializeIssuerUpdateInformation((IssuerUpdateInformation) object,
+                    out);
         } else if (object instanceof Message) {
-            serializeMessage((Message) object);
+            serializeMessage((Message) object, out);
         } else if (object instanceof VerifiableEncryptionOpening) {
-            serializeVerifiableEncryptionOpening((VerifiableEncryptionOpening) object);
+            serializeVerifiableEncryptionOpening(
+                    (VerifiableEncryptionOpening) object, out);
         } else if (object instanceof VerifiableEncryption) {
-            serializeVerifiableEncryption((VerifiableEncryption) object);
+            serializeVerifiableEncryption((VerifiableEncryption) object, out);
+        } else {
+            return false;
         }
-        return doc;
+        return true;
     }
 
-    protected void output(Source source, Result result) {
-
-        try {
-            Transformer transformer = TransformerFactory.newInstance()
-                    .newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty(
-                    "{http://xml.apache.org/xslt}indent-amount", "2");
-            transformer.transform(source, result);
-        } catch (TransformerConfigurationException e) {
-            e.printStackTrace();
-        } catch (TransformerException e) {
-            e.printStackTrace();
+    /**
+     * Writer of an XML document. Elements that only contain text are written
+     * on one line; empty elements are closed immediately (e.g.,
+     * <tt>&lt;Features/&gt;</tt>).
+     */
+    protected static final class Output {
+
+        /** Number of spaces per indentation level. */
+        private static final int INDENT_AMOUNT = 2;
+
+        private final Writer writer;
+        private final boolean indent;
+        /** Names of the open elements. */
+        private final Vector<String> elements = new Vector<String>();
+        /** True if the start tag of the innermost element is not closed. */
+        private boolean startTagOpen;
+        /** True if the innermost element contains text. */
+        private boolean hasText;
+
+        private Output(final Writer theWriter, final boolean theIndent) {
+            writer = theWriter;
+            indent = theIndent;
         }
-    }
 
-    public String serialize(Object object) {
-        Document doc = createDOM(object);
+        private void startDocument() throws IOException {
+            writer.write("<?xml version=\"1.0\" encoding=\"" + CHARSET
+                    + "\" standalone=\"no\"?>");
+        }
 
-        DOMSource source = new DOMSource(doc);
-        StringWriter writer = new StringWriter();
-        StreamResult result = new StreamResult(writer);
-        output(source, result);
+        private void endDocument() throws IOException {
+            if (indent) {
+                writer.write('\n');
+            }
+            writer.flush();
+        }
 
-        return writer.toString();
-    }
+        private void newLine() throws IOException {
+            if (!indent) {
+                return;
+            }
+            writer.write('\n');
+            for (int i = 0; i < elements.size() * INDENT_AMOUNT; i++) {
+                writer.write(' ');
+            }
+        }
 
-    public void serialize(Object object, URI filename) {
-        Document doc = createDOM(object);
+        private void closeStartTag() throws IOException {
+            if (startTagOpen) {
+                writer.write('>');
+                startTagOpen = false;
+            }
+        }
 
-        try {
-            Source source = new DOMSource(doc);
-            File file = new File(filename);
-            Result result = new StreamResult(file);
-            output(source, result);
-        } catch (TransformerFactoryConfigurationError e) {
-            e.printStackTrace();
+        /**
+         * Starts the root element including the declaration of the
+         * namespaces and the schema location.
+         *
+         * @param name
+         *            Name of the root element.
+         */
+        public void startRoot(final String name) throws IOException {
+            start(name);
+            attribute("xmlns", Constants.XML_NAMESPACE);
+            attribute("xmlns:xs", Constants.XML_SCHEMA);
+            attribute("xmlns:xsi", Constants.XML_SCHEMA_INSTANCE);
+            attribute("xsi:schemaLocation", Constants.XML_NAMESPACE + " "
+                    + name + ".xsd");
         }
-    }
 
-    protected void setRootAttributes(Element root) {
-        String name = root.getNodeName();
+        /**
+         * @param name
+         *            Name of the element to be started.
+         */
+        public void start(final String name) throws IOException {
+            closeStartTag();
+            newLine();
+            writer.write('<');
+            writer.write(name);
+            elements.add(name);
+            startTagOpen = true;
+            hasText = false;
+        }
 
-        root.setAttribute("xmlns", Constants.XML_NAMESPACE);
-        root.setAttribute("xmlns:xsi", Constants.XML_SCHEMA_INSTANCE);
-        root.setAttribute("xmlns:xs", Constants.XML_SCHEMA);
-        root.setAttribute("xsi:schemaLocation", Constants.XML_NAMESPACE + " "
-                + name + ".xsd");
-    }
+        /**
+         * Adds an attribute to the element that has just been started.
+         */
+        public void attribute(final String name, final String value)
+                throws IOException {
+            if (!startTagOpen) {
+                throw new IllegalStateException("Attribute: " + name
+                        + " outside of a start tag.");
+            }
+            writer.write(' ');
+            writer.write(name);
+            writer.write("=\"");
+            escape(value, true);
+            writer.write('"');
+        }
 
-    /**
-     * Convenience: Appends a value <code>value</code> to the parent node, where
-     * the format is of the following form:
-     * 
-     * <pre>
-     *  &lt;name&gt;
-     *     value
-     *  &lt;/name&gt;
-     * </pre>
-     * 
-     * @param value
-     *            Value to be serialized.
-     * @param name
-     *            Name to be used for the element.
-     * @param doc
-     *            Document.
-     * @param parent
-     *            Parent where the element should be attached.
-     */
-    private final void serializeObject(Object value, String name, Element parent) {
-        Element element = doc.createElement(name);
-        Text text = doc.createTextNode(value.toString());
-        element.appendChild(text);
-        parent.appendChild(element);
+        /**
+         * @param value
+         *            Value whose string representation is added as text to
+         *            the current element.
+         */
+        public void text(final Object value) throws IOException {
+            closeStartTag();
+            escape(value.toString(), false);
+            hasText = true;
+        }
 
-    }
+        /**
+         * Ends the current element.
+         */
+        public void end() throws IOException {
+            final String name = elements.remove(elements.size() - 1);
+            if (startTagOpen) {
+                writer.write("/>");
+                startTagOpen = false;
+            } else {
+                if (!hasText) {
+                    newLine();
+                }
+                writer.write("</");
+                writer.write(name);
+                writer.write('>');
+            }
+            hasText = false;
+        }
 
-    private final Document serializeGroupParameters(GroupParameters gp) {
-        Element root = doc.createElement("GroupParameters");
-        setRootAttributes(root);
-        doc.appendChild(root);
+        /**
+         * Convenience: Writes an element that contains the string
+         * representation of the given value as text.
+         */
+        public void element(final String name, final Object value)
+                throws IOException {
+            start(name);
+            text(value);
+            end();
+        }
 
-        Element references = doc.createElement("References");
-        root.appendChild(references);
+        private void escape(final String string, final boolean inAttribute)
+                throws IOException {
+            for (int i = 0; i < string.length(); i++) {
+                final char c = string.charAt(i);
+                switch (c) {
+                case '&':
+                    writer.write("&amp;");
+                    break;
+                case '<':
+                    writer.write("&lt;");
+                    break;
+                case '>':
+                    writer.write("&gt;");
+                    break;
+                case '\r':
+                    writer.write("&#13;");
+                    break;
+                case '"':
+                    writer.write(inAttribute ? "&quot;" : "\"");
+                    break;
+                case '\n':
+                    writer.write(inAttribute ? "&#10;" : "\n");
+                    break;
+                case '\t':
+                    writer.write(inAttribute ? "&#9;" : "\t");
+                    break;
+                default:
+                    writer.write(c);
+                }
+            }
+        }
+    }
 
-        serializeObject(gp.getSystemParamsLocation(), "SystemParameters",
-                references);
+    private final void serializeGroupParameters(GroupParameters gp,
+            Output out) throws IOException {
+        out.startRoot("GroupParameters");
 
-        Element elements = doc.createElement("Elements");
-        root.appendChild(elements);
+        out.start("References");
+        out.element("SystemParameters", gp.getSystemParamsLocation());
+        out.end();
 
-        serializeObject(gp.getCapGamma(), "Gamma", elements);
-        serializeObject(gp.getG(), "g", elements);
-        serializeObject(gp.getH(), "h", elements);
-        serializeObject(gp.getRho(), "rho", elements);
+        out.start("Elements");
+        out.element("Gamma", gp.getCapGamma());
+        out.element("g", gp.getG());
+        out.element("h", gp.getH());
+        out.element("rho", gp.getRho());
+        out.end();
 
-        return doc;
+        out.end();
     }
 
-    private final Document serializeIssuerPublicKey(IssuerPublicKey ipk) {
-        Element root = doc.createElement("IssuerPublicKey");
-        setRootAttributes(root);
-        doc.appendChild(root);
+    private final void serializeIssuerPublicKey(IssuerPublicKey ipk,
+            Output out) throws IOException {
+        out.startRoot("IssuerPublicKey");
 
-        Element references = doc.createElement("References");
-        root.appendChild(references);
+        out.start("References");
+        out.element("GroupParameters", ipk.getGroupParamsLocation());
+        out.end();
 
-        serializeObject(ipk.getGroupParamsLocation(), "GroupParameters",
-                references);
-
-        Element elements = doc.createElement("Elements");
-        root.appendChild(elements);
-
-        serializeObject(ipk.getCapS(), "S", elements);
-        serializeObject(ipk.getCapZ(), "Z", elements);
-        serializeObject(ipk.getN(), "n", elements);
-
-        Element bases = doc.createElement("Bases");
-        bases.setAttribute("num", Integer.toString(ipk.getMaxNbrAttrs()));
-        elements.appendChild(bases);
+        out.start("Elements");
+        out.element("S", ipk.getCapS());
+        out.element("Z", ipk.getCapZ());
+        out.element("n", ipk.getN());
 
+        out.start("Bases");
+        out.attribute("num", Integer.toString(ipk.getMaxNbrAttrs()));
         BigInteger[] capR = ipk.getCapR();
-
         for (int i = 0; i < ipk.getMaxNbrAttrs(); ++i) {
-            serializeObject(capR[i], "Base_" + i, bases);
+            out.element("Base_" + i, capR[i]);
         }
+        out.end();
+        out.end();
 
-        Element features = doc.createElement("Features");
-        root.appendChild(features);
-
-        Element element;
+        out.start("Features");
         if (ipk.hasEpoch()) {
-            element = doc.createElement("Epoch");
-            element.setAttribute("length",
-                    Integer.toString(ipk.getEpochLength()));
-            features.appendChild(element);
+            out.start("Epoch");
+            out.attribute("length", Integer.toString(ipk.getEpochLength()));
+            out.end();
         }
-        return doc;
-    }
+        out.end();
 
-    private final Document serializeIssuerPrivateKey(IssuerPrivateKey isk) {
-        Element root = doc.createElement("IssuerPrivateKey");
-        setRootAttributes(root);
-        doc.appendChild(root);
+        out.end();
+    }
 
-        Element references = doc.createElement("References");
-        root.appendChild(references);
-        serializeObject(isk.getPublicKeyLocation(), "IssuerPublicKey",
-                references);
+    private final void serializeIssuerPrivateKey(IssuerPrivateKey isk,
+            Output out) throws IOException {
+        out.startRoot("IssuerPrivateKey");
 
-        Element elements = doc.createElement("Elements");
-        root.appendChild(elements);
+        out.start("References");
+        out.element("IssuerPublicKey", isk.getPublicKeyLocation());
+        out.end();
 
-        serializeObject(isk.getN(), "n", elements);
-        serializeObject(isk.getP(), "p", elements);
-        serializeObject(isk.getPPrime(), "pPrime", elements);
-        serializeObject(isk.getQ(), "q", elements);
-        serializeObject(isk.getQPrime(), "qPrime", elements);
+        out.start("Elements");
+        out.element("n", isk.getN());
+        out.element("p", isk.getP());
+        out.element("pPrime", isk.getPPrime());
+        out.element("q", isk.getQ());
+        out.element("qPrime", isk.getQPrime());
+        out.end();
 
-        return doc;
+        out.end();
     }
 
-    private final Document serializeVerEncPublicKey(VEPublicKey pk) {
-        Element root = doc.createElement("VerifiableEncryptionPublicKey");
-        setRootAttributes(root);
-        doc.appendChild(root);
-
-        Element references = doc.createElement("References");
-        root.appendChild(references);
-        serializeObject(pk.getSystemParametersLocation(), "SystemParameters",
-                references);
+    private final void serializeVerEncPublicKey(VEPublicKey pk, Output out)
+            throws IOException {
+        out.startRoot("VerifiableEncryptionPublicKey");
 
-        Element elements = doc.createElement("Elements");
-        root.appendChild(elements);
+        out.start("References");
+        out.element("SystemParameters", pk.getSystemParametersLocation());
+        out.end();
 
-        serializeObject(pk.getG(), "g", elements);
-        serializeObject(pk.getN(), "n", elements);
-        serializeObject(pk.getY1(), "y1", elements);
-        serializeObject(pk.getY2(), "y2", elements);
-        serializeObject(pk.getY3(), "y3", elements);
+        out.start("Elements");
+        out.element("g", pk.getG());
+        out.element("n", pk.getN());
+        out.element("y1", pk.getY1());
+        out.element("y2", pk.getY2());
+        out.element("y3", pk.getY3());
+        out.end();
 
-        return doc;
+        out.end();
     }
 
-    private final Document serializeVerEncPrivateKey(VEPrivateKey sk) {
-        Element root = doc.createElement("VerifiableEncryptionPrivateKey");
-        setRootAttributes(root);
-        doc.appendChild(root);
+    private final void serializeVerEncPrivateKey(VEPrivateKey sk, Output out)
+            throws IOException {
+        out.startRoot("VerifiableEncryptionPrivateKey");
 
-        Element references = doc.createElement("References");
-        root.appendChild(references);
-        serializeObject(sk.getPublicKeyLocation(),
-                "VerifiableEncryptionPublicKey", references);
+        out.start("References");
+        out.element("VerifiableEncryptionPublicKey", sk
+                .getPublicKeyLocation());
+        out.end();
 
-        Element elements = doc.createElement("Elements");
-        root.appendChild(elements);
+        out.start("Elements");
+        out.element("orderN", sk.getOrderN());
+        out.element("x1", sk.getX1());
+        out.element("x2", sk.getX2());
+        out.element("x3", sk.getX3());
+        out.end();
 
-        serializeObject(sk.getOrderN(), "orderN", elements);
-        serializeObject(sk.getX1(), "x1", elements);
-        serializeObject(sk.getX2(), "x2", elements);
-        serializeObject(sk.getX3(), "x3", elements);
-
-        return doc;
+        out.end();
     }
 
-    private final Document serializeMasterSecret(MasterSecret masterSecret) {
-        Element root = doc.createElement("MasterSecret");
-        setRootAttributes(root);
-        doc.appendChild(root);
+    private final void serializeMasterSecret(MasterSecret masterSecret,
+            Output out) throws IOException {
+        out.startRoot("MasterSecret");
 
         // Serialise value
-        serializeObject(masterSecret.getValue(), "Value", root);
+        out.element("Value", masterSecret.getValue());
 
         // serialise group parameters location
-        serializeObject(masterSecret.getGroupParametersLocation(),
-                "GroupParameters", root);
+        out.element("GroupParameters", masterSecret
+                .getGroupParametersLocation());
 
         // Serialise pseudonyms
-        Element elements = doc.createElement("Pseudonyms");
+        out.start("Pseudonyms");
         HashMap<String, Nym> nymMap = masterSecret.getNymList();
         Iterator<String> iterator = nymMap.keySet().iterator();
-
-        Element element;
-        Text text;
         while (iterator.hasNext()) {
             String name = iterator.next();
             Nym nym = nymMap.get(name);
 
-            element = doc.createElement("Pseudonym");
-            element.setAttribute("name", name);
-            text = doc.createTextNode(nym.getRandom().toString());
-            element.appendChild(text);
-            elements.appendChild(element);
+            out.start("Pseudonym");
+            out.attribute("name", name);
+            out.text(nym.getRandom());
+            out.end();
         }
-        root.appendChild(elements);
+        out.end();
 
         // Serialise domain pseudonyms
-        elements = doc.createElement("DomainPseudonyms");
+        out.start("DomainPseudonyms");
         HashMap<String, DomNym> domNymMap = masterSecret.getDomNymList();
         iterator = domNymMap.keySet().iterator();
-
         while (iterator.hasNext()) {
             String name = iterator.next();
-            element = doc.createElement("DomainPseudonym");
-            element.setAttribute("name", name);
-
             DomNym domNym = domNymMap.get(name);
-            String g_Dom = domNym.getG_dom().toString();
-            element.setAttribute("g_Dom", g_Dom);
-            text = doc.createTextNode(domNym.getNym().toString());
-            element.appendChild(text);
 
-            elements.appendChild(element);
+            out.start("DomainPseudonym");
+            out.attribute("name", name);
+            out.attribute("g_Dom", domNym.getG_dom().toString());
+            out.text(domNym.getNym());
+            out.end();
         }
-        root.appendChild(elements);
+        out.end();
 
-        return doc;
+        out.end();
     }
 
-    private final Document serializeCredential(Credential cred) {
-        Element root = doc.createElement("Credential");
-        setRootAttributes(root);
-        doc.appendChild(root);
+    private final void serializeCredential(Credential cred, Output out)
+            throws IOException {
+        out.startRoot("Credential");
 
         if (cred.getName() != null) {
-            serializeObject(cred.getName(), "Name", root);
+            out.element("Name", cred.getName());
         }
 
-        Element references = doc.createElement("References");
-        root.appendChild(references);
-
-        serializeObject(cred.getCredStructLocation(), "CredentialStructure",
-                references);
-
-        Element attributes = doc.createElement("Attributes");
-        root.appendChild(attributes);
+        out.start("References");
+        out.element("CredentialStructure", cred.getCredStructLocation());
+        out.end();
 
+        out.start("Attributes");
         Vector<Attribute> attrs = cred.getAttributes();
-
         for (Attribute attr : attrs) {
-            Element attribute = doc.createElement("Attribute");
-            attribute.setAttribute("name", attr.getName());
-            attributes.appendChild(attribute);
+            out.start("Attribute");
+            out.attribute("name", attr.getName());
 
             Object valueObject = attr.getValueObject();
 
             if (valueObject instanceof BigInteger) {
-                serializeObject(valueObject, "Value", attribute);
+                out.element("Value", valueObject);
 
             } else if (valueObject instanceof Commitment) {
                 Commitment c = (Commitment) valueObject;
 
-                Element commitment = doc.createElement("Commitment");
-                attribute.appendChild(commitment);
-
-                serializeObject(c.getCommitment(), "commitment", commitment);
-                serializeObject(c.getCapS(), "S", commitment);
-                serializeObject(c.getN(), "n", commitment);
-
-                Element bases = doc.createElement("Bases");
-                bases.setAttribute("num", Integer.toString(c.getNumBases()));
-                commitment.appendChild(bases);
+                out.start("Commitment");
+                out.element("commitment", c.getCommitment());
+                out.element("S", c.getCapS());
+                out.element("n", c.getN());
 
+                out.start("Bases");
+                out.attribute("num", Integer.toString(c.getNumBases()));
                 for (int i = 0; i < c.getNumBases(); ++i) {
-                    serializeObject(c.getMsgBase(i), "Base", bases);
+                    out.element("Base", c.getMsgBase(i));
                 }
-
-                Element commitmentOpening = doc
-                        .createElement("CommitmentOpening");
-                commitment.appendChild(commitmentOpening);
-
-                Element messages = doc.createElement("Messages");
-                commitmentOpening.appendChild(messages);
+                out.end();
 
                 CommitmentOpening co = (CommitmentOpening) c;
 
+                out.start("CommitmentOpening");
+                out.start("Messages");
                 for (int i = 0; i < co.getNumBases(); ++i) {
-                    serializeObject(co.getMessage(i), "Message", messages);
+                    out.element("Message", co.getMessage(i));
                 }
-                serializeObject(co.getRandom(), "rand", commitmentOpening);
+                out.end();
+                out.element("rand", co.getRandom());
+                out.end();
+
+                out.end();
             }
 
             if (attr.getPrimeFactors() != null) {
-
                 Iterator<String> itr = attr.getPrimeFactors().iterator();
-
                 while (itr.hasNext()) {
-                    serializeObject(itr.next(), "EnumValue", attribute);
+                    out.element("EnumValue", itr.next());
                 }
             }
+            out.end();
         }
+        out.end();
 
-        Element signature = doc.createElement("Signature");
-        root.appendChild(signature);
-
-        serializeObject(cred.getCapA(), "A", signature);
-        serializeObject(cred.getE(), "e", signature);
-        serializeObject(cred.getV(), "v", signature);
-
-        Element features = doc.createElement("Features");
-        root.appendChild(features);
+        out.start("Signature");
+        out.element("A", cred.getCapA());
+        out.element("e", cred.getE());
+        out.element("v", cred.getV());
+        out.end();
 
+        out.start("Features");
         UpdateInformation updateInfo = cred.getUpdateInformation();
-
         if (updateInfo != null) {
-            Element updates = doc.createElement("Updates");
-            features.appendChild(updates);
-
-            serializeObject(updateInfo.getUpdateLocation(),
-                    "UpdateSpecification", updates);
-            serializeObject(updateInfo.getCapU(), "capU", updates);
-            serializeObject(updateInfo.getVPrime(), "vPrime", updates);
-            serializeObject(updateInfo.getNonce(), "nonce", updates);
-            serializeObject(updateInfo.getContext(), "context", updates);
+            out.start("Updates");
+            out.element("UpdateSpecification", updateInfo.getUpdateLocation());
+            out.element("capU", updateInfo.getCapU());
+            out.element("vPrime", updateInfo.getVPrime());
+            out.element("nonce", updateInfo.getNonce());
+            out.element("context", updateInfo.getContext());
+            out.end();
         }
+        out.end();
 
-        return doc;
+        out.end();
     }
 
-    private final Document serializeProof(Proof proof) {
-        Element root = doc.createElement("IdmxProof");
-        setRootAttributes(root);
-        doc.appendChild(root);
-
-        serializeProofElements(proof, root);
-
-        return doc;
+    private final void serializeProof(Proof proof, Output out)
+            throws IOException {
+        out.startRoot("IdmxProof");
+        serializeProofElements(proof, out);
+        out.end();
     }
 
-    private Document serializeProofElements(Proof proof, Element root) {
-        Text text = null;
-
+    private void serializeProofElements(Proof proof, Output out)
+            throws IOException {
         if (proof.getChallenge() != null) {
-            serializeObject(proof.getChallenge(), "Challenge", root);
+            out.element("Challenge", proof.getChallenge());
         }
 
-        Element commonValues = doc.createElement("CommonValues");
+        out.start("CommonValues");
         TreeMap<String, BigInteger> commonList = proof.getCommonList();
         Iterator<String> iterator = commonList.keySet().iterator();
-
         while (iterator.hasNext()) {
             String key = iterator.next();
-            Element commonValue = doc.createElement("CommonValue");
-            commonValue.setAttribute("key", key);
-            text = doc.createTextNode(commonList.get(key).toString());
-            commonValue.appendChild(text);
-            commonValues.appendChild(commonValue);
+            out.start("CommonValue");
+            out.attribute("key", key);
+            out.text(commonList.get(key));
+            out.end();
         }
-        root.appendChild(commonValues);
+        out.end();
 
-        Element values = doc.createElement("Values");
+        out.start("Values");
         Map<String, SValue> sValues = proof.getSValues();
         iterator = sValues.keySet().iterator();
-
         while (iterator.hasNext()) {
             String key = iterator.next();
-            Element value = doc.createElement("Value");
-            value.setAttribute("key", key);
-
             Object sValue = sValues.get(key).getValue();
+
+            out.start("Value");
+            out.attribute("key", key);
             if (sValue instanceof BigInteger) {
-                value.setAttribute("type", "BigInteger");
-                text = doc.createTextNode(sValue.toString());
-                value.appendChild(text);
+                out.attribute("type", "BigInteger");
+                out.text(sValue);
             } else if (sValue instanceof SValuesIP) {
-                value.setAttribute("type", "SValueRP");
+                out.attribute("type", "SValueRP");
                 SValuesIP valueRP = (SValuesIP) sValue;
-                Element sValueRP = doc.createElement("SValueRP");
-
-                serializeObject(valueRP.getAlphaHat(), "AlphaHat", sValueRP);
 
+                out.start("SValueRP");
+                out.element("AlphaHat", valueRP.getAlphaHat());
                 BigInteger[] uHat = valueRP.getUHat();
                 for (int i = 0; i < uHat.length; i++) {
-                    serializeObject(uHat[i], "uHat_" + i, sValueRP);
+                    out.element("uHat_" + i, uHat[i]);
                 }
                 BigInteger[] rHat = valueRP.getRHat();
                 for (int i = 0; i < rHat.length; i++) {
-                    serializeObject(rHat[i], "rHat_" + i, sValueRP);
+                    out.element("rHat_" + i, rHat[i]);
                 }
-                value.appendChild(sValueRP);
+                out.end();
             } else if (sValue instanceof SValuesProveCL) {
-                value.setAttribute("type", "SValueProveCL");
+                out.attribute("type", "SValueProveCL");
                 SValuesProveCL valueProveCL = (SValuesProveCL) sValue;
-                Element sValueProveCL = doc.createElement("SValueProveCL");
-
-                serializeObject(valueProveCL.getEHat(), "eHat", sValueProveCL);
-                serializeObject(valueProveCL.getVHatPrime(), "vHatPrime",
-                        sValueProveCL);
 
-                value.appendChild(sValueProveCL);
+                out.start("SValueProveCL");
+                out.element("eHat", valueProveCL.getEHat());
+                out.element("vHatPrime", valueProveCL.getVHatPrime());
+                out.end();
             } else if (sValue instanceof SValuesCGAND) {
-                value.setAttribute("type", "SValueCGAND");
+                out.attribute("type", "SValueCGAND");
                 SValuesCGAND valueCGAND = (SValuesCGAND) sValue;
-                Element sValueCGAND = doc.createElement("SValueCGAND");
 
-                serializeObject(valueCGAND.getMHat_h(), "mHat_h", sValueCGAND);
-                serializeObject(valueCGAND.getRHat(), "rHat", sValueCGAND);
-
-                value.appendChild(sValueCGAND);
+                out.start("SValueCGAND");
+                out.element("mHat_h", valueCGAND.getMHat_h());
+                out.element("rHat", valueCGAND.getRHat());
+                out.end();
             } else if (sValue instanceof SValuesCGNOT) {
-                value.setAttribute("type", "SValueCGNOT");
+                out.attribute("type", "SValueCGNOT");
                 SValuesCGNOT valueCGNOT = (SValuesCGNOT) sValue;
-                Element sValueCGNOT = doc.createElement("SValueCGNOT");
-
-                serializeObject(valueCGNOT.getAHat(), "aHat", sValueCGNOT);
-                serializeObject(valueCGNOT.getBHat(), "bHat", sValueCGNOT);
-                serializeObject(valueCGNOT.getRHatPrime(), "rHatPrime",
-                        sValueCGNOT);
 
-                value.appendChild(sValueCGNOT);
+                out.start("SValueCGNOT");
+                out.element("aHat", valueCGNOT.getAHat());
+                out.element("bHat", valueCGNOT.getBHat());
+                out.element("rHatPrime", valueCGNOT.getRHatPrime());
+                out.end();
             } else if (sValue instanceof SValuesCGOR) {
-                value.setAttribute("type", "SValueCGOR");
+                out.attribute("type", "SValueCGOR");
                 SValuesCGOR valueCGOR = (SValuesCGOR) sValue;
-                Element sValueCGOR = doc.createElement("SValueCGOR");
 
-                serializeObject(valueCGOR.getMHat_i(), "mHat_i", sValueCGOR);
-                serializeObject(valueCGOR.getAlphaHat(), "alphaHat", sValueCGOR);
-                serializeObject(valueCGOR.getBetaHat(), "betaHat", sValueCGOR);
-                serializeObject(valueCGOR.getRHat_0(), "rHat_0", sValueCGOR);
-                serializeObject(valueCGOR.getRHat_1(), "rHat_1", sValueCGOR);
-                serializeObject(valueCGOR.getRHat_2(), "rHat_2", sValueCGOR);
+                out.start("SValueCGOR");
+                out.element("mHat_i", valueCGOR.getMHat_i());
+                out.element("alphaHat", valueCGOR.getAlphaHat());
+                out.element("betaHat", valueCGOR.getBetaHat());
+                out.element("rHat_0", valueCGOR.getRHat_0());
+                out.element("rHat_1", valueCGOR.getRHat_1());
+                out.element("rHat_2", valueCGOR.getRHat_2());
 
                 // TODO (pbi) add the values for the additional commitment
 
-                value.appendChild(sValueCGOR);
+                out.end();
             } else {
                 throw new RuntimeException("SValue not implemented!");
             }
-            values.appendChild(value);
+            out.end();
         }
-        root.appendChild(values);
+        out.end();
 
-        Element verifiableEncryptions = doc
-                .createElement("VerifiableEncryptions");
+        out.start("VerifiableEncryptions");
         TreeMap<String, VerifiableEncryption> verEncs = proof.getVerEncs();
         iterator = verEncs.keySet().iterator();
-
         while (iterator.hasNext()) {
             String key = iterator.next();
-            Element verifiableEncryption = doc
-                    .createElement("VerifiableEncryption");
-            verifiableEncryption.setAttribute("key", key);
-
-            VerifiableEncryption enc = verEncs.get(key);
-
-            doc = serializeVerifiableEncryptionElements(enc,
-                    verifiableEncryption);
-
-            verifiableEncryptions.appendChild(verifiableEncryption);
+            out.start("VerifiableEncryption");
+            out.attribute("key", key);
+            serializeVerifiableEncryptionElements(verEncs.get(key), out);
+            out.end();
         }
-        root.appendChild(verifiableEncryptions);
-
-        return doc;
+        out.end();
     }
 
-    private final Document serializeNonce(BigInteger nonce) {
-        Element root = doc.createElement("IdmxNonce");
-        setRootAttributes(root);
-        doc.appendChild(root);
-
-        serializeObject(nonce, "Value", root);
-
-        return doc;
+    private final void serializeNonce(BigInteger nonce, Output out)
+            throws IOException {
+        out.startRoot("IdmxNonce");
+        out.element("Value", nonce);
+        out.end();
     }
 
-    private final Document serializeIssuerUpdateInformation(
-            IssuerUpdateInformation issuerUpdateInfo) {
-
-        Element root = doc.createElement("IssuerUpdateInformation");
-        setRootAttributes(root);
-        doc.appendChild(root);
+    private final void serializeIssuerUpdateInformation(
+            IssuerUpdateInformation issuerUpdateInfo, Output out)
+            throws IOException {
+        out.startRoot("IssuerUpdateInformation");
 
-        Element element = null, subelement = null;
-        Text text = null;
-
-        element = doc.createElement("Location");
-        serializeObject(issuerUpdateInfo.getCredStructLocation(),
-                "CredentialStructure", element);
-
-        serializeObject(issuerUpdateInfo.getUpdateLocation(), "Update", element);
-
-        root.appendChild(element);
+        out.start("Location");
+        out.element("CredentialStructure", issuerUpdateInfo
+                .getCredStructLocation());
+        out.element("Update", issuerUpdateInfo.getUpdateLocation());
+        out.end();
 
         Iterator<String> it = issuerUpdateInfo.getValues().iterator();
-        element = doc.createElement("Values");
+        out.start("Values");
         while (it.hasNext()) {
             String name = it.next();
-            BigInteger value = issuerUpdateInfo.getValue(name);
-
-            subelement = doc.createElement("Value");
-            subelement.setAttribute("name", name);
-            text = doc.createTextNode(value.toString());
-            subelement.appendChild(text);
-            element.appendChild(subelement);
+            out.start("Value");
+            out.attribute("name", name);
+            out.text(issuerUpdateInfo.getValue(name));
+            out.end();
         }
-        root.appendChild(element);
+        out.end();
 
-        serializeObject(issuerUpdateInfo.getCapQ(), "Q", root);
-        serializeObject(issuerUpdateInfo.getVPrimePrime(), "vPrimePrime", root);
-        serializeObject(issuerUpdateInfo.getNonce(), "Nonce", root);
-        serializeObject(issuerUpdateInfo.getContext(), "Context", root);
+        out.element("Q", issuerUpdateInfo.getCapQ());
+        out.element("vPrimePrime", issuerUpdateInfo.getVPrimePrime());
+        out.element("Nonce", issuerUpdateInfo.getNonce());
+        out.element("Context", issuerUpdateInfo.getContext());
 
-        return doc;
+        out.end();
     }
 
-    private final Document serializeMessage(Message message) {
-
-        Element root = doc.createElement("Message");
-        setRootAttributes(root);
-        doc.appendChild(root);
-
-        Element element = null, subelement = null;
-        Text text = null;
+    private final void serializeMessage(Message message, Output out)
+            throws IOException {
+        out.startRoot("Message");
 
         Iterator<IssuanceProtocolValues> it = message.iterator();
-        element = doc.createElement("Values");
+        out.start("Values");
         while (it.hasNext()) {
             IssuanceProtocolValues issuanceProtocolValue = it.next();
-            BigInteger value = message
-                    .getIssuanceElement(issuanceProtocolValue);
-
-            subelement = doc.createElement("Value");
-            subelement.setAttribute("name", issuanceProtocolValue.toString());
-            text = doc.createTextNode(value.toString());
-            subelement.appendChild(text);
-            element.appendChild(subelement);
+            out.start("Value");
+            out.attribute("name", issuanceProtocolValue.toString());
+            out.text(message.getIssuanceElement(issuanceProtocolValue));
+            out.end();
         }
-        root.appendChild(element);
+        out.end();
 
-        Proof proof = message.getProof();
-        element = doc.createElement("IdmxProof");
-        serializeProofElements(proof, element);
-        root.appendChild(element);
+        out.start("IdmxProof");
+        serializeProofElements(message.getProof(), out);
+        out.end();
 
         URI updateLocation = message.getUpdateLocation();
         if (updateLocation != null) {
-            serializeObject(updateLocation, "UpdateLocation", root);
+            out.element("UpdateLocation", updateLocation);
         }
 
-        return doc;
+        out.end();
     }
 
-    private final Document serializeVerifiableEncryption(
-            VerifiableEncryption verifiableEncryption) {
-
-        Element root = doc.createElement("VerifiableEncryption");
-        setRootAttributes(root);
-        doc.appendChild(root);
-
-        return serializeVerifiableEncryptionElements(verifiableEncryption, root);
+    private final void serializeVerifiableEncryption(
+            VerifiableEncryption verifiableEncryption, Output out)
+            throws IOException {
+        out.startRoot("VerifiableEncryption");
+        serializeVerifiableEncryptionElements(verifiableEncryption, out);
+        out.end();
     }
 
-    private final Document serializeVerifiableEncryptionElements(
-            VerifiableEncryption verifiableEncryption, Element root) {
-
-        Element element = doc.createElement("Locations");
-        serializeObject(verifiableEncryption.getVEPublicKeyLocation(),
-                "VEPublicKeyLocation", element);
-        root.appendChild(element);
-
-        element = doc.createElement("Elements");
-
-        serializeObject(verifiableEncryption.getCapL(), "Label", element);
-        serializeObject(verifiableEncryption.getU(), "u", element);
-        serializeObject(verifiableEncryption.getE(), "e", element);
-        serializeObject(verifiableEncryption.getV(), "v", element);
-
-        root.appendChild(element);
-
-        return doc;
+    private final void serializeVerifiableEncryptionElements(
+            VerifiableEncryption verifiableEncryption, Output out)
+            throws IOException {
+        out.start("Locations");
+        out.element("VEPublicKeyLocation", verifiableEncryption
+                .getVEPublicKeyLocation());
+        out.end();
+
+        out.start("Elements");
+        out.element("Label", verifiableEncryption.getCapL());
+        out.element("u", verifiableEncryption.getU());
+        out.element("e", verifiableEncryption.getE());
+        out.element("v", verifiableEncryption.getV());
+        out.end();
     }
 
-    private final Document serializeVerifiableEncryptionOpening(
-            VerifiableEncryptionOpening verifiableEncryptionOpening) {
-
-        Element root = doc.createElement("VerifiableEncryptionOpening");
-        setRootAttributes(root);
-        doc.appendChild(root);
-
-        Element element = doc.createElement("Locations");
-        serializeObject(verifiableEncryptionOpening.getVEPublicKeyLocation(),
-                "VEPublicKeyLocation", element);
-        root.appendChild(element);
-
-        element = doc.createElement("Elements");
+    private final void serializeVerifiableEncryptionOpening(
+            VerifiableEncryptionOpening verifiableEncryptionOpening, Output out)
+            throws IOException {
+        out.startRoot("VerifiableEncryptionOpening");
 
-        serializeObject(verifiableEncryptionOpening.getMessage(), "Message",
-                element);
-        serializeObject(verifiableEncryptionOpening.getR(), "r", element);
-        serializeObject(verifiableEncryptionOpening.getCapL(), "Label", element);
+        out.start("Locations");
+        out.element("VEPublicKeyLocation", verifiableEncryptionOpening
+                .getVEPublicKeyLocation());
+        out.end();
 
-        root.appendChild(element);
+        out.start("Elements");
+        out.element("Message", verifiableEncryptionOpening.getMessage());
+        out.element("r", verifiableEncryptionOpening.getR());
+        out.element("Label", verifiableEncryptionOpening.getCapL());
+        out.end();
 
-        return doc;
+        out.end();
     }
 }
@@ -4,6 +4,8 @@
 package com.ibm.zrl.idmx.utils;
 
 import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.List;
 
 /**
  * A standard externalizing representation of arrays of BigInteger, based on
@@ -119,6 +121,61 @@ public final class idemix_asn {
         return asn;
     }
 
+    /**
+     * To feed the ASN.1 BER encoding of a list of big-integers into a message
+     * digest. The digest receives the same bytes as from
+     * {@link #encode(BigInteger[])}, but the encoding is never assembled in
+     * memory: the lengths are computed from the bit lengths of the integers.
+     * 
+     * @param ints
+     *            list of BigInteger to be encoded.
+     * @param digest
+     *            the message digest to be updated.
+     */
+    public static void encode(final List<BigInteger> ints,
+            final MessageDigest digest) {
+        final int n = ints.size();
+        if (lenbytes(n) != 1) {
+            // same restriction as for the array encoding
+            throw new IllegalArgumentException("Internal error of BER encoding");
+        }
+        int len = 0;
+        for (int i = 0; i < n; ++i) {
+            // length of BigInteger.toByteArray()
+            final int lf = ints.get(i).bitLength() / 8 + 1;
+            len += 1 + lenbytes(lf) + lf;
+        }
+        len += 1 + 1 + 1; // INTEGER { fieldcount }
+
+        digest.update((byte) SEQ);
+        lenupdate(digest, len);
+        digest.update((byte) INT);
+        digest.update((byte) 1);
+        digest.update((byte) n);
+
+        for (int i = 0; i < n; ++i) {
+            final byte[] asnf = ints.get(i).toByteArray();
+            digest.update((byte) INT);
+            lenupdate(digest, asnf.length);
+            digest.update(asnf);
+        }
+    }
+
+    /**
+     * Feeds the DER length bytes into the digest.
+     */
+    private static void lenupdate(final MessageDigest digest, final int len) {
+        if (len <= 0x7f) {
+            digest.update((byte) len);
+        } else {
+            final int nbrOfBytes = lenbytes(len) - 1;
+            digest.update((byte) (0x80 + nbrOfBytes));
+            for (int i = nbrOfBytes - 1; i >= 0; --i) {
+                digest.update((byte) (len >> (8 * i)));
+            }
+        }
+    }
+
     /**
      * Bytes of DER field length.
      */
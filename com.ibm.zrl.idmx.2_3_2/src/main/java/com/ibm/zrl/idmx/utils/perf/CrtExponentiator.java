@@ -0,0 +1,156 @@
+/**
+ * Copyright IBM Corporation 2009
+ */
+package com.ibm.zrl.idmx.utils.perf;
+
+import java.math.BigInteger;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+
+import com.ibm.zrl.idmx.utils.Constants;
+
+/**
+ * Modular exponentiation for a modulus with known factorization into two
+ * coprime factors m1 and m2 (e.g., n = p*q or n^2 = p^2*q^2), using the
+ * Chinese Remainder Theorem. The exponentiation is computed modulo each
+ * factor with an exponent reduced by the order of the corresponding group
+ * and the two halves are recombined (Garner's formula). Each half works on
+ * numbers of half the size, which makes the exponentiation about three to
+ * four times faster.
+ *
+ * If multi-core exponentiation is enabled (see
+ * {@link Constants#USE_MULTI_CORE_EXP}), the two halves are computed in
+ * parallel.
+ */
+public final class CrtExponentiator {
+
+    /** First factor of the modulus. */
+    private final BigInteger m1;
+    /** Order of the group of units modulo m1. */
+    private final BigInteger order1;
+    /** Second factor of the modulus. */
+    private final BigInteger m2;
+    /** Order of the group of units modulo m2. */
+    private final BigInteger order2;
+    /** The modulus m1*m2. */
+    private final BigInteger modulus;
+    /** CRT coefficient m2^(-1) mod m1. */
+    private final BigInteger m2InverseModM1;
+
+    /**
+     * Constructor.
+     *
+     * @param theM1
+     *            first factor of the modulus.
+     * @param theOrder1
+     *            order of the group of units modulo m1.
+     * @param theM2
+     *            second factor of the modulus, coprime to m1.
+     * @param theOrder2
+     *            order of the group of units modulo m2.
+     */
+    public CrtExponentiator(final BigInteger theM1,
+            final BigInteger theOrder1, final BigInteger theM2,
+            final BigInteger theOrder2) {
+        m1 = theM1;
+        order1 = theOrder1;
+        m2 = theM2;
+        order2 = theOrder2;
+        modulus = m1.multiply(m2);
+        m2InverseModM1 = m2.modInverse(m1);
+    }
+
+    /**
+     * @param p
+     *            prime factor of n.
+     * @param q
+     *            prime factor of n.
+     * @return Exponentiator modulo n = p*q.
+     */
+    public static CrtExponentiator forModulus(final BigInteger p,
+            final BigInteger q) {
+        return new CrtExponentiator(p, p.subtract(BigInteger.ONE), q, q
+                .subtract(BigInteger.ONE));
+    }
+
+    /**
+     * @param p
+     *            prime factor of n.
+     * @param q
+     *            prime factor of n.
+     * @return Exponentiator modulo n^2 = p^2*q^2.
+     */
+    public static CrtExponentiator forSquaredModulus(final BigInteger p,
+            final BigInteger q) {
+        return new CrtExponentiator(p.multiply(p), p.multiply(p
+                .subtract(BigInteger.ONE)), q.multiply(q), q.multiply(q
+                .subtract(BigInteger.ONE)));
+    }
+
+    /**
+     * @return The modulus.
+     */
+    public BigInteger getModulus() {
+        return modulus;
+    }
+
+    /**
+     * Computes base^exponent modulo one factor. The exponent is only reduced
+     * if the base is a unit, otherwise the reduction would be wrong.
+     *
+     * @param base
+     *            the base.
+     * @param exponent
+     *            the exponent.
+     * @param m
+     *            the factor.
+     * @param order
+     *            order of the group of units modulo the factor.
+     * @return base^exponent mod m.
+     */
+    private static BigInteger halfPow(final BigInteger base,
+            final BigInteger exponent, final BigInteger m,
+            final BigInteger order) {
+        final BigInteger b = base.mod(m);
+        if (b.gcd(m).equals(BigInteger.ONE)) {
+            return b.modPow(exponent.mod(order), m);
+        }
+        return b.modPow(exponent, m);
+    }
+
+    /**
+     * To compute base^exponent mod( modulus).
+     *
+     * @param base
+     *            the base.
+     * @param exponent
+     *            the exponent; may be negative if the base is a unit.
+     * @return base^exponent mod( modulus).
+     */
+    public BigInteger modPow(final BigInteger base, final BigInteger exponent) {
+        final BigInteger r1;
+        final BigInteger r2;
+        if (Constants.USE_MULTI_CORE_EXP) {
+            final Vector<Callable<BigInteger>> tasks = new Vector<Callable<BigInteger>>();
+            tasks.add(new Callable<BigInteger>() {
+                public BigInteger call() {
+                    return halfPow(base, exponent, m1, order1);
+                }
+            });
+            tasks.add(new Callable<BigInteger>() {
+                public BigInteger call() {
+                    return halfPow(base, exponent, m2, order2);
+                }
+            });
+            final Vector<BigInteger> results = WorkerPool.invokeAll(tasks);
+            r1 = results.get(0);
+            r2 = results.get(1);
+        } else {
+            r1 = halfPow(base, exponent, m1, order1);
+            r2 = halfPow(base, exponent, m2, order2);
+        }
+        // x = r2 + m2 * ((r1 - r2) * m2^(-1) mod m1)
+        final BigInteger h = r1.subtract(r2).multiply(m2InverseModM1).mod(m1);
+        return r2.add(m2.multiply(h));
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright IBM Corporation 2009
+ */
+package com.ibm.zrl.idmx.utils.perf;
+
+import java.math.BigInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Buffer of fresh primes <tt>e</tt> for CL signatures, i.e., primes in the
+ * interval <tt>[2^(l_e - 1), 2^(l_e - 1) + 2^(l'_e - 1)]</tt>. Background
+ * daemon threads keep the buffer filled, and
+ * {@link com.ibm.zrl.idmx.utils.Utils#chooseE(com.ibm.zrl.idmx.utils.SystemParameters)}
+ * takes its primes from the buffer if it has been started for the same
+ * lengths. Each prime is handed out once.
+ */
+public final class EPrimePool {
+
+    private static Logger log = Logger.getLogger(EPrimePool.class.getName());
+
+    /** Current configuration and its generator threads. */
+    private static final class Buffer {
+        private final int l_e;
+        private final int l_ePrime;
+        private final int primeCertainty;
+        private final ArrayBlockingQueue<BigInteger> queue;
+        private final Thread[] threads;
+
+        Buffer(final int theL_e, final int theL_ePrime,
+                final int thePrimeCertainty, final int capacity,
+                final int nbrOfThreads) {
+            l_e = theL_e;
+            l_ePrime = theL_ePrime;
+            primeCertainty = thePrimeCertainty;
+            queue = new ArrayBlockingQueue<BigInteger>(capacity);
+            threads = new Thread[nbrOfThreads];
+            for (int i = 0; i < nbrOfThreads; i++) {
+                threads[i] = new Thread(new Runnable() {
+                    public void run() {
+                        fill();
+                    }
+                }, "idmx-e-primes-" + i);
+                threads[i].setDaemon(true);
+                threads[i].setPriority(Thread.MIN_PRIORITY);
+                threads[i].start();
+            }
+        }
+
+        /**
+         * Main loop of the generator threads.
+         */
+        private void fill() {
+            final BigInteger offset = BigInteger.ONE.shiftLeft(l_e - 1);
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    queue.put(PrimeSieve.genPrime(offset, l_ePrime - 1,
+                            primeCertainty));
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            } catch (RuntimeException e) {
+                log.log(Level.SEVERE, "Generation of e-primes failed.", e);
+            }
+        }
+
+        void stop() {
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].interrupt();
+            }
+            queue.clear();
+        }
+    }
+
+    /** The buffer, <tt>null</tt> if the pool has not been started. */
+    private volatile Buffer buffer;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** singleton instance. */
+    private static final EPrimePool instance = new EPrimePool();
+
+    /**
+     * Hidden constructor; use {@link #getInstance()}.
+     */
+    private EPrimePool() {
+    }
+
+    /**
+     * @return The pool.
+     */
+    public static EPrimePool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts generating primes in the background. A previous configuration
+     * is replaced.
+     *
+     * @param l_e
+     *            bit length of the primes (system parameter l_e).
+     * @param l_ePrime
+     *            bit length of the interval (system parameter l'_e).
+     * @param primeCertainty
+     *            the error probability of a prime is (2^(-primeCertainty)).
+     * @param capacity
+     *            max. number of primes that are kept.
+     * @param nbrOfThreads
+     *            number of generator threads.
+     */
+    public synchronized void start(final int l_e, final int l_ePrime,
+            final int primeCertainty, final int capacity,
+            final int nbrOfThreads) {
+        if (capacity <= 0 || nbrOfThreads <= 0) {
+            throw new IllegalArgumentException();
+        }
+        stop();
+        buffer = new Buffer(l_e, l_ePrime, primeCertainty, capacity,
+                nbrOfThreads);
+    }
+
+    /**
+     * Stops the generator threads and discards the buffered primes.
+     */
+    public synchronized void stop() {
+        if (buffer != null) {
+            buffer.stop();
+            buffer = null;
+        }
+    }
+
+    /**
+     * To take a prime from the buffer without waiting.
+     *
+     * @param l_e
+     *            bit length of the prime.
+     * @param l_ePrime
+     *            bit length of the interval.
+     * @param primeCertainty
+     *            required prime certainty.
+     * @return a prime or <tt>null</tt> if the buffer does not have one for
+     *         the given lengths.
+     */
+    public BigInteger poll(final int l_e, final int l_ePrime,
+            final int primeCertainty) {
+        final Buffer b = buffer;
+        if (b == null || b.l_e != l_e || b.l_ePrime != l_ePrime
+                || b.primeCertainty < primeCertainty) {
+            return null;
+        }
+        final BigInteger e = b.queue.poll();
+        if (e == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return e;
+    }
+
+    /**
+     * @return Number of buffered primes.
+     */
+    public int size() {
+        final Buffer b = buffer;
+        return b == null ? 0 : b.queue.size();
+    }
+
+    /**
+     * @return Number of primes taken from the buffer.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of requests that found the buffer empty.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -39,14 +39,14 @@ public class Exponentiation {
      *            Modulus.
      * 
      * @see MultiCoreMultiBase#multiBaseExp(java.util.Vector, BigInteger)
-     * @see ModPowCache#lookup(BigInteger)
+     * @see ModPowCache#lookup(BigInteger, BigInteger, BigInteger)
      */
     public Exponentiation(final BigInteger base, final BigInteger theExponent,
             final BigInteger modulus) {
         exponent = theExponent;
         if (Constants.USE_FAST_EXPO_CACHE) {
             // we may not have cached all bases...
-            ModPow exp = ModPowCache.lookup(base);
+            ModPow exp = ModPowCache.lookup(base, modulus, theExponent);
             if (exp == null) {
                 // log.log(Level.INFO, "cache miss");
                 exp = new DefModPow(base, modulus);
@@ -13,14 +13,18 @@ import java.util.logging.Level;
  * al.).
  * 
  * Precomputes exponentiated bases and thus speeds-up exponentiations on random
- * exponents.
+ * exponents. The pre-computed values are never modified after construction,
+ * thus one instance may be used by several threads at the same time.
  * 
  */
 public class FixedBaseComb implements ModPow {
 
     private static Logger log = Logger.getLogger(FixedBaseComb.class.getName());
 
-    /** array of pre-allocated and pre-computed values; base^{some-power}. */
+    /**
+     * array of pre-allocated and pre-computed values; base^{some-power}, in
+     * Montgomery form.
+     */
     final BigInteger capG[][];
 
     /** the fixed base we're going to work on. */
@@ -33,7 +37,7 @@ public class FixedBaseComb implements ModPow {
     final int a;
 
     /** nbr of words in row of exp array; ceil( a/WORD_SIZE). */
-    int nbrOfWordsInRow;
+    final int nbrOfWordsInRow;
 
     final int maxNbrOfExpoBits;
 
@@ -52,6 +56,9 @@ public class FixedBaseComb implements ModPow {
     /** modulus used for modular exponentiation */
     final BigInteger modulus;
 
+    /** arithmetic modulo( modulus). */
+    final MontgomeryContext ctx;
+
     /**
      * we use the native word size (integer, 32 bit) for efficiency reasons,
      * although wasting some space.
@@ -67,9 +74,6 @@ public class FixedBaseComb implements ModPow {
         }
     }
 
-    /** Instance variable, exponent array. */
-    int expArr[][] = null;
-
     /**
      * Computes capG[0][i].
      * 
@@ -138,9 +142,11 @@ public class FixedBaseComb implements ModPow {
         this.h = h;
         this.v = v;
         this.b = (int) Math.ceil((double) this.a / this.v);
+        this.nbrOfWordsInRow = getNbrOfWordsInRow(this.a, this.h);
 
         this.base = base;
         this.modulus = modulus;
+        this.ctx = MontgomeryContext.getInstance(modulus);
 
         if (this.base.equals(BigInteger.ONE)
                 || this.base.equals(BigInteger.ZERO)) {
@@ -162,13 +168,21 @@ public class FixedBaseComb implements ModPow {
             // System.err.println( "g[" + i + "]: " + g[i].toString());
         }
 
+        // G[j][i] = G[0][i]^(2^(j*b)) = G[j-1][i]^(2^b)
+        final BigInteger exp = BigInteger.ONE.shiftLeft(b);
         for (int i = 1; i < (1 << h); i++) {
             this.capG[0][i] = prodOfG(g, h, i, modulus);
 
             for (int j = 1; j < v; j++) {
-                final BigInteger exp = BigInteger.ONE.shiftLeft(j * b);
+                this.capG[j][i] = (this.capG[j - 1][i]).modPow(exp,
+                        this.modulus);
+            }
+        }
 
-                this.capG[j][i] = (this.capG[0][i]).modPow(exp, this.modulus);
+        // the exponentiations run in Montgomery form.
+        for (int j = 0; j < v; j++) {
+            for (int i = 1; i < (1 << h); i++) {
+                this.capG[j][i] = this.ctx.toMontgomery(this.capG[j][i]);
             }
         }
 
@@ -193,11 +207,27 @@ public class FixedBaseComb implements ModPow {
         this.a = fbc.a;
         this.base = fbc.base;
         this.modulus = fbc.modulus;
+        this.ctx = fbc.ctx;
         this.capG = fbc.capG;
+        this.nbrOfWordsInRow = fbc.nbrOfWordsInRow;
+    }
 
-        this.expArr = null;
-        this.nbrOfWordsInRow = 0;
-
+    /**
+     * Computes the row-width of the exponent array. We take ints to be
+     * run-time efficient.
+     * 
+     * @param a
+     *            bit-width of exponent bit-strings.
+     * @param h
+     *            nbr. of rows in exponent array.
+     * @return nbr of words per row.
+     */
+    private static int getNbrOfWordsInRow(final int a, final int h) {
+        int nbrOfWords = a / WORD_SIZE;
+        if ((h % WORD_SIZE) != 0) { // need padding
+            nbrOfWords += 1;
+        }
+        return nbrOfWords;
     }
 
     /**
@@ -236,7 +266,7 @@ public class FixedBaseComb implements ModPow {
     // return colIdx & NEG_WORD_SIZE;
     // }
 
-    private void loadExpArr(final BigInteger exp) {
+    private void loadExpArr(final int expArr[][], final BigInteger exp) {
 
         int nbrOfBits = exp.bitLength();
 
@@ -258,7 +288,7 @@ public class FixedBaseComb implements ModPow {
 
             if (exp.testBit(i)) {
                 // System.err.println( "i: " + i + " bitPos: " + bitPos);
-                this.expArr[rowIdx][wordIdx] |= (1 << bitPos);
+                expArr[rowIdx][wordIdx] |= (1 << bitPos);
             } // else leave it 0.
 
         }
@@ -281,7 +311,7 @@ public class FixedBaseComb implements ModPow {
      * return false; }
      */
 
-    private int getI_jk(int j, int k) {
+    private int getI_jk(final int expArr[][], int j, int k) {
 
         assert (0 <= k && k < this.b);
         assert (0 <= j && j < this.v);
@@ -304,7 +334,7 @@ public class FixedBaseComb implements ModPow {
 
         for (int row = 0; row < this.h; row++) {
             // if ( testBit( row, col)) {
-            if ((this.expArr[row][wordIdx] & (1 << bitPos)) != 0) {
+            if ((expArr[row][wordIdx] & (1 << bitPos)) != 0) {
                 // LSB is at the top.
                 capI |= 1 << row;
             } // else: no-op
@@ -312,15 +342,15 @@ public class FixedBaseComb implements ModPow {
         return capI;
     }
 
-    private BigInteger getElemOfG(int j, int k) {
-        final int capI_jk = getI_jk(j, k);
+    private BigInteger getElemOfG(final int expArr[][], int j, int k) {
+        final int capI_jk = getI_jk(expArr, j, k);
 
         assert (0 <= j && j < this.v); // row
 
         // it can be that I_jk returns 0, but G[j][0] is null.
-        // we return 1 (neutral elem for multiply).
+        // we return null (nothing to multiply).
         if (capI_jk == 0) {
-            return BigInteger.ONE;
+            return null;
         }
 
         // G was only initialized at col 1 and greater...
@@ -329,17 +359,6 @@ public class FixedBaseComb implements ModPow {
         return this.capG[j][capI_jk];
     }
 
-    /**
-     * Sets all the values in exponent array to 0.
-     */
-    private void resetExpArr() {
-        for (int i = 0; i < this.expArr.length; i++) {
-            for (int j = 0; j < this.expArr[i].length; j++) {
-                this.expArr[i][j] = 0;
-            }
-        }
-    }
-
     /**
      * To compute base^exp mod( modulus).
      * 
@@ -378,40 +397,26 @@ public class FixedBaseComb implements ModPow {
                     "max bit length of exponent exceeded");
         }
 
-        // compute row-width of EA. We take ints to be run-time efficient.
-        // this.a: bit-width of exponent bit-strings.
-        this.nbrOfWordsInRow = this.a / WORD_SIZE;
-        if ((this.h % WORD_SIZE) != 0) { // need padding
-            this.nbrOfWordsInRow += 1;
-        }
+        // allocate EA: h x a; h rows, a columns. EA is local to the call
+        // such that one instance may be shared among threads.
+        final int expArr[][] = new int[h][this.nbrOfWordsInRow];
+        loadExpArr(expArr, exponent);
 
-        // allocate EA: h x a; h rows, a columns.
-        if (this.expArr == null) {
-            this.expArr = new int[h][this.nbrOfWordsInRow];
-        } else { // we may reuse a previously allocated exponent array.
-            if (h == this.expArr.length
-                    && this.nbrOfWordsInRow == this.expArr[0].length) {
-                resetExpArr();
-            } else {
-                this.expArr = new int[h][this.nbrOfWordsInRow];
-            }
-        }
-        loadExpArr(exponent);
-
-        BigInteger capA = BigInteger.ONE;
+        BigInteger capA = this.ctx.getOne();
 
         for (int k = this.b - 1; k >= 0; k--) {
             // A = A * A
-            capA = capA.multiply(capA).mod(this.modulus);
+            capA = this.ctx.montSquare(capA);
 
             for (int j = this.v - 1; j >= 0; j--) {
-                final BigInteger elemOfG = getElemOfG(j, k);
+                final BigInteger elemOfG = getElemOfG(expArr, j, k);
 
                 // A = G[j][I(j,k)] * A
-                if (!elemOfG.equals(BigInteger.ONE))
-                    capA = capA.multiply(elemOfG).mod(this.modulus);
+                if (elemOfG != null)
+                    capA = this.ctx.montMultiply(capA, elemOfG);
             }
         }
+        capA = this.ctx.fromMontgomery(capA);
 
         if (negFlag) {
             // we computed base^{-exponent} and need to invert this.
@@ -420,6 +425,21 @@ public class FixedBaseComb implements ModPow {
         return capA;
     }
 
+    /**
+     * @return Approximate number of bytes occupied by the pre-computed
+     *         values.
+     */
+    public long getNbrOfBytes() {
+        if (this.capG == null) {
+            return 0;
+        }
+        // per BigInteger: object (~40 bytes), magnitude array header (~16
+        // bytes) and the magnitude itself.
+        final long bytesPerValue = 56 + 4 * ((this.modulus.bitLength() + 31)
+                / WORD_SIZE);
+        return (long) this.v * ((1 << this.h) - 1) * bytesPerValue;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -17,7 +17,10 @@ public class FixedBaseWindowing implements ModPow {
     private static Logger log = Logger.getLogger(FixedBaseWindowing.class
             .getName());
 
-    /** to hold base^1, base^{expBase}, .. base^{expBase^expBase+1} */
+    /**
+     * to hold base^1, base^{expBase}, .. base^{expBase^expBase+1}, in
+     * Montgomery form.
+     */
     final BigInteger gb[];
 
     /** the fixed base we're dealing with. */
@@ -39,6 +42,9 @@ public class FixedBaseWindowing implements ModPow {
     /** the modulus we're going to use. */
     final BigInteger modulus;
 
+    /** arithmetic modulo( modulus). */
+    final MontgomeryContext ctx;
+
     /**
      * Constructor.
      * 
@@ -73,6 +79,7 @@ public class FixedBaseWindowing implements ModPow {
         this.expBase = (1 << digitWidthInBits);
         this.expWidthInDigits = maxExponentWidthInDigits;
         this.modulus = modulus;
+        this.ctx = MontgomeryContext.getInstance(modulus);
 
         if (this.base.equals(BigInteger.ZERO)
                 || this.base.equals(BigInteger.ONE)) {
@@ -101,7 +108,7 @@ public class FixedBaseWindowing implements ModPow {
 
             // System.out.println( "exponent: " + exponent.toString());
 
-            this.gb[i] = base.modPow(exponent, modulus);
+            this.gb[i] = this.ctx.toMontgomery(base.modPow(exponent, modulus));
             exponent = exponent.multiply(_expBase);
         }
 
@@ -124,8 +131,8 @@ public class FixedBaseWindowing implements ModPow {
      *      BigInteger)
      */
     public BigInteger modPow(final BigInteger exp, final BigInteger modulus) {
-        BigInteger capA = BigInteger.ONE;
-        BigInteger capB = BigInteger.ONE;
+        BigInteger capA = this.ctx.getOne();
+        BigInteger capB = this.ctx.getOne();
 
         if (this.base.equals(BigInteger.ZERO)) {
             return BigInteger.ZERO;
@@ -199,15 +206,16 @@ public class FixedBaseWindowing implements ModPow {
                 if (ei == j) {
                     int idx = digitPos / this.digitWidthInBits;
                     // System.out.println( "multply in elem[" + idx + "]");
-                    capB = capB.multiply(this.gb[idx]).mod(modulus);
+                    capB = this.ctx.montMultiply(capB, this.gb[idx]);
                 }
 
                 digitPos = digitPos - this.digitWidthInBits;
             }
 
-            capA = capA.multiply(capB).mod(modulus);
+            capA = this.ctx.montMultiply(capA, capB);
 
         }
+        capA = this.ctx.fromMontgomery(capA);
 
         if (negFlag) {
             // we computed base^{-exponent} and need to invert this.
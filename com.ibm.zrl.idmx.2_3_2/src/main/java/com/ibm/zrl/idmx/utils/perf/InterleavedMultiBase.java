@@ -0,0 +1,295 @@
+/**
+ * Copyright IBM Corporation 2009
+ */
+package com.ibm.zrl.idmx.utils.perf;
+
+import java.math.BigInteger;
+import java.util.Vector;
+
+/**
+ * Simultaneous multi-exponentiation using interleaved sliding windows, also
+ * known as Straus' (or Shamir's) trick. See algorithm 14.88 and section 14.6.1
+ * in the green crypto book (Menezes et al.).
+ *
+ * Instead of computing every exponentiation on its own and multiplying the
+ * results, all bases share one chain of squarings. Each base contributes a
+ * small table of odd powers and one multiplication per non-zero window of its
+ * exponent. For the 10+ bases of a CL proof this saves most of the squarings.
+ *
+ * Exponentiations that come with an accelerated exponentiator (e.g., a
+ * registered fixed-base comb) are computed by that exponentiator and
+ * multiplied in. Negative exponents are collected in a separate product which
+ * is inverted once at the end.
+ *
+ * @see MultiCoreMultiBase
+ * @see Exponentiation
+ */
+public class InterleavedMultiBase {
+
+    /** Largest sliding window width we consider, in bit. */
+    private static final int MAX_WINDOW_WIDTH = 6;
+
+    /**
+     * Minimal number of bases for the interleaved method. A product under our
+     * own arithmetic costs about three times as much as a step of the built-in
+     * <code>BigInteger.modPow()</code>, so sharing the squarings only pays off
+     * from about five bases on.
+     */
+    static final int MIN_NBR_OF_BASES = 5;
+
+    /**
+     * Hidden constructor; this class only provides static methods.
+     */
+    private InterleavedMultiBase() {
+    }
+
+    /**
+     * Selects the window width w for an exponent of the given bit length. The
+     * cost per base is about 2^(w-1) multiplications for the table plus
+     * bitLength/(w+1) multiplications for the windows; we take the w which
+     * minimises that sum.
+     *
+     * @param bitLength
+     *            bit length of the exponent.
+     * @return window width in bit.
+     */
+    static int getWindowWidth(final int bitLength) {
+        int best = 1;
+        double bestCost = bitLength / 2.0;
+        for (int w = 2; w <= MAX_WINDOW_WIDTH; w++) {
+            final double cost = (1 << (w - 1)) + (double) bitLength / (w + 1);
+            if (cost < bestCost) {
+                best = w;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Splits the (non-negative) exponent into sliding windows. The returned
+     * array contains at position i the odd window value whose least
+     * significant bit is at bit position i of the exponent, or 0 if no window
+     * ends at i.
+     *
+     * @param exponent
+     *            non-negative exponent.
+     * @param w
+     *            window width in bit.
+     * @return windows of the exponent, indexed by bit position.
+     */
+    static int[] getWindows(final BigInteger exponent, final int w) {
+        final int[] windows = new int[exponent.bitLength()];
+        int i = exponent.bitLength() - 1;
+        while (i >= 0) {
+            if (!exponent.testBit(i)) {
+                i--;
+                continue;
+            }
+            // the window spans bits i down to j with bit j set.
+            int j = Math.max(i - w + 1, 0);
+            while (!exponent.testBit(j)) {
+                j++;
+            }
+            int value = 0;
+            for (int k = i; k >= j; k--) {
+                value = (value << 1) | (exponent.testBit(k) ? 1 : 0);
+            }
+            windows[j] = value;
+            i = j - 1;
+        }
+        return windows;
+    }
+
+    /**
+     * Computes the table of odd powers base^1, base^3, ..., base^(2^w - 1).
+     *
+     * @param base
+     *            base of the exponentiation, in Montgomery form.
+     * @param w
+     *            window width in bit.
+     * @param ctx
+     *            arithmetic modulo the modulus.
+     * @return table with base^(2i+1) at position i, in Montgomery form.
+     */
+    private static BigInteger[] getOddPowers(final BigInteger base,
+            final int w, final MontgomeryContext ctx) {
+        final BigInteger[] table = new BigInteger[1 << (w - 1)];
+        table[0] = base;
+        if (table.length > 1) {
+            final BigInteger baseSquared = ctx.montSquare(base);
+            for (int i = 1; i < table.length; i++) {
+                table[i] = ctx.montMultiply(table[i - 1], baseSquared);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Computes the product of base_i^exponent_i modulo( modulus) with one
+     * shared squaring chain. All exponents must be positive.
+     *
+     * @param bases
+     *            the bases, in Montgomery form.
+     * @param exponents
+     *            the positive exponents.
+     * @param nbrOfTerms
+     *            number of valid entries in <code>bases</code> and
+     *            <code>exponents</code>.
+     * @param ctx
+     *            arithmetic modulo the modulus.
+     * @return product of exponentiations modulo( modulus), in Montgomery
+     *         form.
+     */
+    static BigInteger interleave(final BigInteger[] bases,
+            final BigInteger[] exponents, final int nbrOfTerms,
+            final MontgomeryContext ctx) {
+        if (nbrOfTerms == 0) {
+            return ctx.getOne();
+        }
+
+        final int[][] windows = new int[nbrOfTerms][];
+        final BigInteger[][] tables = new BigInteger[nbrOfTerms][];
+        int maxBitLength = 0;
+        for (int i = 0; i < nbrOfTerms; i++) {
+            final int bitLength = exponents[i].bitLength();
+            final int w = getWindowWidth(bitLength);
+            windows[i] = getWindows(exponents[i], w);
+            tables[i] = getOddPowers(bases[i], w, ctx);
+            maxBitLength = Math.max(maxBitLength, bitLength);
+        }
+
+        BigInteger accu = ctx.getOne();
+        boolean isOne = true;
+        for (int bit = maxBitLength - 1; bit >= 0; bit--) {
+            if (!isOne) {
+                accu = ctx.montSquare(accu);
+            }
+            for (int i = 0; i < nbrOfTerms; i++) {
+                if (bit >= windows[i].length) {
+                    continue;
+                }
+                final int value = windows[i][bit];
+                if (value != 0) {
+                    final BigInteger factor = tables[i][value >> 1];
+                    if (isOne) {
+                        accu = factor;
+                        isOne = false;
+                    } else {
+                        accu = ctx.montMultiply(accu, factor);
+                    }
+                }
+            }
+        }
+        return accu;
+    }
+
+    /**
+     * To compute the product of the set of modular exponentiations, sharing
+     * the squarings among all bases that do not have an accelerated
+     * exponentiator.
+     *
+     * @param accu
+     *            initial value of the product. MAY be <tt>null</tt>.
+     * @param exponentiations
+     *            set of modular exponentiations.
+     * @param modulus
+     *            the modulus.
+     * @return accu * product of exponentiations modulo( modulus).
+     */
+    public static BigInteger compute(BigInteger accu,
+            final Vector<Exponentiation> exponentiations,
+            final BigInteger modulus) {
+        if (accu == null) {
+            accu = BigInteger.ONE;
+        }
+        if (exponentiations.size() == 0) {
+            return accu;
+        }
+
+        final int size = exponentiations.size();
+        final BigInteger[] posBases = new BigInteger[size];
+        final BigInteger[] posExps = new BigInteger[size];
+        final BigInteger[] negBases = new BigInteger[size];
+        final BigInteger[] negExps = new BigInteger[size];
+        int nbrOfPos = 0;
+        int nbrOfNeg = 0;
+
+        for (int i = 0; i < size; i++) {
+            final Exponentiation exp = exponentiations.get(i);
+            final ModPow mp = exp.getExponentiator();
+
+            assert (modulus.equals(mp.getModulus()));
+
+            final BigInteger exponent = exp.getExponent();
+            final int signum = exponent.signum();
+            if (signum == 0) {
+                continue;
+            }
+
+            if (!(mp instanceof DefModPow)) {
+                // accelerated exponentiator; let it do its work.
+                accu = accu.multiply(mp.modPow(exponent, mp.getModulus())).mod(
+                        modulus);
+            } else if (signum > 0) {
+                posBases[nbrOfPos] = mp.getBase();
+                posExps[nbrOfPos] = exponent;
+                nbrOfPos++;
+            } else {
+                negBases[nbrOfNeg] = mp.getBase();
+                negExps[nbrOfNeg] = exponent.negate();
+                nbrOfNeg++;
+            }
+        }
+
+        if (nbrOfPos + nbrOfNeg == 0) {
+            return accu.mod(modulus);
+        }
+
+        final MontgomeryContext ctx = MontgomeryContext.getInstance(modulus);
+        if (nbrOfPos + nbrOfNeg < MIN_NBR_OF_BASES) {
+            for (int i = 0; i < nbrOfPos; i++) {
+                accu = ctx.multiply(accu,
+                        posBases[i].modPow(posExps[i], modulus));
+            }
+            for (int i = 0; i < nbrOfNeg; i++) {
+                accu = ctx.multiply(accu,
+                        negBases[i].modPow(negExps[i].negate(), modulus));
+            }
+            return accu;
+        }
+
+        // all intermediate values stay in Montgomery form.
+        for (int i = 0; i < nbrOfPos; i++) {
+            posBases[i] = ctx.toMontgomery(posBases[i]);
+        }
+        for (int i = 0; i < nbrOfNeg; i++) {
+            negBases[i] = ctx.toMontgomery(negBases[i]);
+        }
+
+        BigInteger product = ctx.fromMontgomery(interleave(posBases, posExps,
+                nbrOfPos, ctx));
+        if (nbrOfNeg > 0) {
+            // prod b_i^{-e_i} == (prod b_i^{e_i})^{-1}
+            final BigInteger denom = ctx.fromMontgomery(interleave(negBases,
+                    negExps, nbrOfNeg, ctx));
+            product = ctx.multiply(product, denom.modInverse(modulus));
+        }
+        return ctx.multiply(accu, product);
+    }
+
+    /**
+     * To compute the product of the set of modular exponentiations.
+     *
+     * @param exponentiations
+     *            set of modular exponentiations.
+     * @param modulus
+     *            the modulus.
+     * @return product of exponentiations modulo( modulus).
+     */
+    public static BigInteger compute(
+            final Vector<Exponentiation> exponentiations,
+            final BigInteger modulus) {
+        return compute(BigInteger.ONE, exponentiations, modulus);
+    }
+}
@@ -4,7 +4,10 @@
 package com.ibm.zrl.idmx.utils.perf;
 
 import java.math.BigInteger;
-import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import java.util.logging.Logger;
 import java.util.logging.Level;
@@ -12,13 +15,36 @@ import java.util.logging.Level;
 import com.ibm.zrl.idmx.utils.Utils;
 
 /**
+ * Registry of fixed-base exponentiators. The registry is only consulted if
+ * fixed-base exponentiation is enabled, i.e., if the system property
+ * {@value com.ibm.zrl.idmx.utils.Constants#FAST_EXPO_CACHE_PROPERTY} is set to
+ * <tt>true</tt>. The bases of public keys and group parameters are then
+ * registered when these are loaded through the
+ * {@link com.ibm.zrl.idmx.utils.StructureStore}.
  *
+ * Look-ups do not lock. The pre-computed tables are large, therefore the
+ * registry accounts for their (approximate) size and evicts the least recently
+ * used tables once the memory ceiling is exceeded. The time of the last use
+ * has a resolution of about 1 ms and is only written if it changes, such that
+ * concurrent look-ups do not write to shared memory. The ceiling is read from
+ * the system property {@value #MAX_BYTES_PROPERTY} and may be changed with
+ * {@link #setMaxBytes(long)}.
+ *
+ * An evicted base is not registered again automatically: look-ups for it
+ * miss (and the exponentiation is computed without a table) until it is
+ * registered again, e.g., when its key is loaded again. Re-building a table
+ * costs far more than one exponentiation, and re-registering evicted bases
+ * would thrash if the ceiling is too low for the working set.
  */
 public class ModPowCache {
 
     private static Logger log = Logger.getLogger(ModPowCache.class.getName());
 
-    static private final Hashtable<BigInteger, ModPow> lkupTable = new Hashtable<BigInteger, ModPow>();
+    /** Name of the system property that sets the memory ceiling in bytes. */
+    public static final String MAX_BYTES_PROPERTY = "com.ibm.zrl.idmx.fastExpoCacheBytes";
+
+    /** Default memory ceiling: 64 MB. */
+    private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
 
     /** for fixed-base comb method; how many rows do we have in exponent array. */
     static private final int ROWS_IN_EXPO_ARR = 5;
@@ -29,10 +55,70 @@ public class ModPowCache {
      */
     static private final int NBR_OF_COLS_IN_G = 8;
 
+    /**
+     * Key of a table: the base and the modulus. The exponent width is kept in
+     * the table itself; a table for a wider exponent replaces a narrower one.
+     */
+    private static final class Key {
+        private final BigInteger base;
+        private final BigInteger modulus;
+
+        Key(final BigInteger theBase, final BigInteger theModulus) {
+            base = theBase;
+            modulus = theModulus;
+        }
+
+        @Override
+        public int hashCode() {
+            return base.hashCode() * 31 + modulus.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return base.equals(other.base) && modulus.equals(other.modulus);
+        }
+    }
+
+    /** A registered exponentiator with its bookkeeping data. */
+    private static final class Entry {
+        private final ModPow exponentiator;
+        private final long nbrOfBytes;
+        /** coarse time of the last access, for LRU eviction. */
+        private volatile long lastAccess;
+
+        Entry(final ModPow theExponentiator, final long theNbrOfBytes) {
+            exponentiator = theExponentiator;
+            nbrOfBytes = theNbrOfBytes;
+            lastAccess = now();
+        }
+
+        /** Records an access. */
+        void touch() {
+            final long now = now();
+            if (lastAccess != now) {
+                lastAccess = now;
+            }
+        }
+    }
+
+    static private final ConcurrentHashMap<Key, Entry> lkupTable = new ConcurrentHashMap<Key, Entry>();
+
+    static private final AtomicLong hits = new AtomicLong();
+    static private final AtomicLong misses = new AtomicLong();
+    static private final AtomicLong evictions = new AtomicLong();
+    static private final AtomicLong nbrOfBytes = new AtomicLong();
+
+    static private volatile long maxBytes = Long.getLong(MAX_BYTES_PROPERTY,
+            DEFAULT_MAX_BYTES).longValue();
+
     /**
      * Creates an instance of a fixed base exponentiator and registers it with
      * look-up table.
-     * 
+     *
      * @param base
      *            fixed exponentiation base.
      * @param modulus
@@ -49,37 +135,187 @@ public class ModPowCache {
         }
 
         // check for duplicate
-        ModPow fbc = lookup(base);
-        if (fbc != null) {
-            if (!fbc.getModulus().equals(modulus)
-                    || !fbc.getBase().equals(base)
-                    || fbc.getMaxExpWidth() < maxExpWidth) {
-                throw new IllegalArgumentException();
-            } else {
-                return true;
-            }
+        final Key key = new Key(base, modulus);
+        final Entry existing = lkupTable.get(key);
+        if (existing != null
+                && existing.exponentiator.getMaxExpWidth() >= maxExpWidth) {
+            existing.touch();
+            return true;
         }
 
         log.log(Level.INFO, "registering base: " + Utils.logBigInt(base)
                 + ", expWidth: " + maxExpWidth);
 
-        // create accelerator and register it.
-        fbc = new FixedBaseComb(base, maxExpWidth, ROWS_IN_EXPO_ARR,
-                NBR_OF_COLS_IN_G, modulus);
-        lkupTable.put(base, fbc);
+        // create accelerator and register it. This is expensive, thus we do
+        // it without holding any lock; if two threads register the same base
+        // concurrently, the wider table wins.
+        final FixedBaseComb fbc = new FixedBaseComb(base, maxExpWidth,
+                ROWS_IN_EXPO_ARR, NBR_OF_COLS_IN_G, modulus);
+        put(key, new Entry(fbc, fbc.getNbrOfBytes()));
         return true;
     }
 
     /**
-     * To look-up the fixed base exponentiator.
-     * 
+     * Stores the entry and evicts tables if we exceed the memory ceiling.
+     *
+     * @param key
+     *            the key.
+     * @param entry
+     *            the new entry.
+     */
+    private static synchronized void put(final Key key, final Entry entry) {
+        final Entry previous = lkupTable.get(key);
+        if (previous != null) {
+            if (previous.exponentiator.getMaxExpWidth() >= entry.exponentiator
+                    .getMaxExpWidth()) {
+                return;
+            }
+            lkupTable.remove(key);
+            nbrOfBytes.addAndGet(-previous.nbrOfBytes);
+        }
+        lkupTable.put(key, entry);
+        nbrOfBytes.addAndGet(entry.nbrOfBytes);
+        evict();
+    }
+
+    /**
+     * Evicts the least recently used tables until we are below the memory
+     * ceiling. The most recently used table is always kept.
+     */
+    private static synchronized void evict() {
+        while (nbrOfBytes.get() > maxBytes && lkupTable.size() > 1) {
+            Map.Entry<Key, Entry> lru = null;
+            final Iterator<Map.Entry<Key, Entry>> it = lkupTable.entrySet()
+                    .iterator();
+            while (it.hasNext()) {
+                final Map.Entry<Key, Entry> e = it.next();
+                if (lru == null
+                        || e.getValue().lastAccess < lru.getValue().lastAccess) {
+                    lru = e;
+                }
+            }
+            lkupTable.remove(lru.getKey());
+            nbrOfBytes.addAndGet(-lru.getValue().nbrOfBytes);
+            evictions.incrementAndGet();
+            log.log(Level.INFO, "evicted base: "
+                    + Utils.logBigInt(lru.getKey().base));
+        }
+    }
+
+    /**
+     * To look-up the fixed base exponentiator that can compute base^exponent
+     * mod( modulus).
+     *
      * @param base
      *            fixed-base we're considering.
+     * @param modulus
+     *            the modulus of the exponentiation.
+     * @param exponent
+     *            the exponent; may be negative.
      * @return instance of an accelerated modular exponentiator or null if the
-     *         base was not registered.
+     *         base was not registered for this modulus or the exponent is too
+     *         large for the pre-computed table.
+     */
+    public static ModPow lookup(final BigInteger base,
+            final BigInteger modulus, final BigInteger exponent) {
+        final Entry entry = lkupTable.get(new Key(base, modulus));
+        if (entry == null
+                || exponent.bitLength() > entry.exponentiator.getMaxExpWidth()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.touch();
+        hits.incrementAndGet();
+        return entry.exponentiator;
+    }
+
+    /**
+     * @return coarse time (about 1 ms resolution).
      */
-    public static ModPow lookup(final BigInteger base) {
-        return lkupTable.get(base);
+    private static long now() {
+        return System.nanoTime() >> 20;
     }
 
+    /**
+     * Removes the exponentiator of the given base and modulus.
+     *
+     * @param base
+     *            fixed exponentiation base.
+     * @param modulus
+     *            the modulus.
+     * @return true if an exponentiator has been removed.
+     */
+    public static synchronized boolean unregister(final BigInteger base,
+            final BigInteger modulus) {
+        final Entry entry = lkupTable.remove(new Key(base, modulus));
+        if (entry == null) {
+            return false;
+        }
+        nbrOfBytes.addAndGet(-entry.nbrOfBytes);
+        return true;
+    }
+
+    /**
+     * Removes all registered exponentiators. The counters are not reset.
+     */
+    public static synchronized void clear() {
+        lkupTable.clear();
+        nbrOfBytes.set(0);
+    }
+
+    /**
+     * Sets the memory ceiling and evicts tables if necessary.
+     *
+     * @param theMaxBytes
+     *            max. number of bytes used by pre-computed tables.
+     */
+    public static synchronized void setMaxBytes(final long theMaxBytes) {
+        if (theMaxBytes <= 0) {
+            throw new IllegalArgumentException();
+        }
+        maxBytes = theMaxBytes;
+        evict();
+    }
+
+    /**
+     * @return Memory ceiling in bytes.
+     */
+    public static long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return Approximate number of bytes used by the registered tables.
+     */
+    public static long getNbrOfBytes() {
+        return nbrOfBytes.get();
+    }
+
+    /**
+     * @return Number of registered exponentiators.
+     */
+    public static int size() {
+        return lkupTable.size();
+    }
+
+    /**
+     * @return Number of look-ups that returned an exponentiator.
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of look-ups that did not return an exponentiator.
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return Number of exponentiators evicted to stay below the ceiling.
+     */
+    public static long getEvictions() {
+        return evictions.get();
+    }
 }
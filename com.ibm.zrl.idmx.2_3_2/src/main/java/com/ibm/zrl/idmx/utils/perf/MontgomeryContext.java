@@ -0,0 +1,270 @@
+/**
+ * Copyright IBM Corporation 2009
+ */
+package com.ibm.zrl.idmx.utils.perf;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Modular arithmetic modulo a fixed modulus. The constants for Montgomery
+ * multiplication (algorithm 14.36 in the green crypto book, Menezes et al.)
+ * and Barrett reduction (algorithm 14.42) are computed once per modulus and
+ * then shared by all computations under that modulus (issuer modulus n, group
+ * modulus capGamma, VE modulus n^2).
+ *
+ * A value x is kept in Montgomery form x*R mod( modulus) with R = 2^k while a
+ * whole exponentiation is running; only the final result is converted back.
+ * The limbs are held in <code>BigInteger</code>s: the JVM computes products
+ * of those with intrinsics, which is faster than any hand-written limb loop.
+ *
+ * For even moduli there is no Montgomery form. The context then keeps values
+ * in standard form and uses Barrett reduction for all products, such that
+ * clients can use it without distinguishing the two cases.
+ */
+public final class MontgomeryContext {
+
+    /** Contexts we have computed so far, keyed by modulus. */
+    private static final ConcurrentHashMap<BigInteger, MontgomeryContext> contexts = new ConcurrentHashMap<BigInteger, MontgomeryContext>();
+
+    /**
+     * Max. number of cached contexts. There are only a handful of moduli in
+     * an Idemix system; we don't want to pile up contexts for ad-hoc moduli.
+     * If there are more, the least recently used context is evicted.
+     */
+    private static final int MAX_NBR_OF_CONTEXTS = 64;
+
+    /**
+     * Time of the last use of this context (in units of about 1 ms), for LRU
+     * eviction. Only written if it changes.
+     */
+    private volatile long lastUse;
+
+    /** the modulus. */
+    private final BigInteger modulus;
+    /** bit length of the modulus; R = 2^k. */
+    private final int k;
+    /** true iff the modulus is odd and we use Montgomery form. */
+    private final boolean montgomery;
+    /** R - 1. */
+    private final BigInteger mask;
+    /** -modulus^(-1) mod( R). */
+    private final BigInteger nPrime;
+    /** R^2 mod( modulus). */
+    private final BigInteger rSquared;
+    /** R mod( modulus), i.e., 1 in Montgomery form. */
+    private final BigInteger one;
+    /** floor(2^(2k) / modulus), for Barrett reduction. */
+    private final BigInteger mu;
+
+    /**
+     * Constructor.
+     *
+     * @param theModulus
+     *            modulus (> 1).
+     */
+    public MontgomeryContext(final BigInteger theModulus) {
+        if (theModulus == null || theModulus.compareTo(BigInteger.ONE) <= 0) {
+            throw new IllegalArgumentException("modulus must be > 1");
+        }
+        modulus = theModulus;
+        k = theModulus.bitLength();
+        mu = BigInteger.ONE.shiftLeft(2 * k).divide(theModulus);
+        montgomery = theModulus.testBit(0);
+        if (montgomery) {
+            final BigInteger capR = BigInteger.ONE.shiftLeft(k);
+            mask = capR.subtract(BigInteger.ONE);
+            nPrime = theModulus.negate().modInverse(capR);
+            one = capR.mod(theModulus);
+            rSquared = one.multiply(one).mod(theModulus);
+        } else {
+            mask = null;
+            nPrime = null;
+            one = BigInteger.ONE;
+            rSquared = null;
+        }
+    }
+
+    /**
+     * To get the (shared) context of the given modulus.
+     *
+     * @param modulus
+     *            the modulus.
+     * @return context for the modulus.
+     */
+    public static MontgomeryContext getInstance(final BigInteger modulus) {
+        MontgomeryContext ctx = contexts.get(modulus);
+        if (ctx == null) {
+            ctx = new MontgomeryContext(modulus);
+            final MontgomeryContext existing = contexts.putIfAbsent(modulus,
+                    ctx);
+            if (existing != null) {
+                ctx = existing;
+            } else if (contexts.size() > MAX_NBR_OF_CONTEXTS) {
+                ctx.lastUse = now();
+                evict();
+            }
+        }
+        final long now = now();
+        if (ctx.lastUse != now) {
+            ctx.lastUse = now;
+        }
+        return ctx;
+    }
+
+    /**
+     * @return coarse time (about 1 ms resolution).
+     */
+    private static long now() {
+        return System.nanoTime() >> 20;
+    }
+
+    /**
+     * Evicts the least recently used contexts until at most
+     * {@value #MAX_NBR_OF_CONTEXTS} are cached.
+     */
+    private static synchronized void evict() {
+        while (contexts.size() > MAX_NBR_OF_CONTEXTS) {
+            Map.Entry<BigInteger, MontgomeryContext> lru = null;
+            final Iterator<Map.Entry<BigInteger, MontgomeryContext>> it = contexts
+                    .entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<BigInteger, MontgomeryContext> e = it.next();
+                if (lru == null
+                        || e.getValue().lastUse < lru.getValue().lastUse) {
+                    lru = e;
+                }
+            }
+            contexts.remove(lru.getKey(), lru.getValue());
+        }
+    }
+
+    /**
+     * @return the modulus.
+     */
+    public BigInteger getModulus() {
+        return this.modulus;
+    }
+
+    /**
+     * @return true iff values are kept in Montgomery form (odd modulus).
+     */
+    public boolean isMontgomery() {
+        return this.montgomery;
+    }
+
+    /**
+     * Montgomery reduction.
+     *
+     * @param t
+     *            value in [0, modulus * R).
+     * @return t * R^(-1) mod( modulus).
+     */
+    private BigInteger redc(final BigInteger t) {
+        final BigInteger m = t.and(this.mask).multiply(this.nPrime).and(
+                this.mask);
+        final BigInteger u = t.add(m.multiply(this.modulus)).shiftRight(this.k);
+        if (u.compareTo(this.modulus) >= 0) {
+            return u.subtract(this.modulus);
+        }
+        return u;
+    }
+
+    /**
+     * Barrett reduction.
+     *
+     * @param x
+     *            value in [0, modulus^2).
+     * @return x mod( modulus).
+     */
+    public BigInteger reduce(final BigInteger x) {
+        final BigInteger q = x.shiftRight(this.k - 1).multiply(this.mu)
+                .shiftRight(this.k + 1);
+        BigInteger r = x.subtract(q.multiply(this.modulus));
+        // at most two subtractions are needed.
+        while (r.compareTo(this.modulus) >= 0) {
+            r = r.subtract(this.modulus);
+        }
+        return r;
+    }
+
+    /**
+     * To compute a product of two values in standard form.
+     *
+     * @param a
+     *            factor (any non-negative value).
+     * @param b
+     *            factor (any non-negative value).
+     * @return a * b mod( modulus).
+     */
+    public BigInteger multiply(BigInteger a, BigInteger b) {
+        if (a.signum() < 0 || a.compareTo(this.modulus) >= 0) {
+            a = a.mod(this.modulus);
+        }
+        if (b.signum() < 0 || b.compareTo(this.modulus) >= 0) {
+            b = b.mod(this.modulus);
+        }
+        return reduce(a.multiply(b));
+    }
+
+    /**
+     * @param x
+     *            value in standard form (any value).
+     * @return x in Montgomery form.
+     */
+    public BigInteger toMontgomery(BigInteger x) {
+        if (x.signum() < 0 || x.compareTo(this.modulus) >= 0) {
+            x = x.mod(this.modulus);
+        }
+        if (!this.montgomery) {
+            return x;
+        }
+        return redc(x.multiply(this.rSquared));
+    }
+
+    /**
+     * @param x
+     *            value in Montgomery form.
+     * @return x in standard form.
+     */
+    public BigInteger fromMontgomery(final BigInteger x) {
+        if (!this.montgomery) {
+            return x;
+        }
+        return redc(x);
+    }
+
+    /**
+     * @return the value 1 in Montgomery form.
+     */
+    public BigInteger getOne() {
+        return this.one;
+    }
+
+    /**
+     * @param a
+     *            factor in Montgomery form.
+     * @param b
+     *            factor in Montgomery form.
+     * @return a * b in Montgomery form.
+     */
+    public BigInteger montMultiply(final BigInteger a, final BigInteger b) {
+        if (!this.montgomery) {
+            return reduce(a.multiply(b));
+        }
+        return redc(a.multiply(b));
+    }
+
+    /**
+     * @param a
+     *            value in Montgomery form.
+     * @return a^2 in Montgomery form.
+     */
+    public BigInteger montSquare(final BigInteger a) {
+        // BigInteger uses a dedicated squaring algorithm when multiplying a
+        // value by itself.
+        return montMultiply(a, a);
+    }
+}
@@ -4,162 +4,43 @@
 package com.ibm.zrl.idmx.utils.perf;
 
 import java.math.BigInteger;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Vector;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
 
 import com.ibm.zrl.idmx.utils.Constants;
 import com.ibm.zrl.idmx.utils.Utils;
 
 /**
  * To compute the product of modular exponentiations on a multi-core setting.
- * The client builds a Vector<Exponentiation> and a set of worker threads then
- * computes the individual exponentiations and accumulates the resulting
- * product.
+ * The client builds a Vector<Exponentiation>; the exponentiations are split
+ * into groups of about equal cost (estimated by the exponent bit length). The
+ * groups are computed on an executor, each into its own partial product, and
+ * the partial products are combined once at the end. The calling thread
+ * computes one group itself.
+ * 
+ * No state is shared between calls, thus the instance may be used by many
+ * threads at the same time. By default the work is run on a
+ * {@link ForkJoinPool} with one worker per core; another executor can be
+ * plugged in with {@link #setExecutor(Executor, int)}.
  * 
  * @see Exponentiation
+ * @see InterleavedMultiBase
  */
 public class MultiCoreMultiBase {
 
     private final int nbrOfProcessors;
 
-    /**
-     * Accumulating the result of the partial product.
-     */
-    private static class Accumulator {
-
-        // /**
-        // * @return the modulus
-        // */
-        // public BigInteger getModulus() {
-        // return modulus;
-        // }
-
-        private BigInteger val = BigInteger.ONE;
-        private final BigInteger modulus;
-
-        // Accumulator(final BigInteger mod) {
-        // modulus = mod;
-        // }
-
-        /**
-         * Constructor with initial value.
-         * 
-         * @param _val
-         * @param mod
-         */
-        Accumulator(final BigInteger theValue, final BigInteger mod) {
-            val = theValue;
-            modulus = mod;
-        }
-
-        /**
-         * To multiply-in one additional factor into the accumulated product.
-         * 
-         * @param fact
-         *            factor. new value of accumulator is current value * factor
-         *            mod( modulus).
-         */
-        synchronized void multiply(final BigInteger fact) {
-            // this op must be atomic. And presumably, it's a hot-spot....
-            if (this.val.equals(BigInteger.ONE)) {
-                this.val = fact.mod(this.modulus);
-            } else {
-                this.val = this.val.multiply(fact).mod(this.modulus);
-            }
-        }
-
-        /**
-         * To get the accumulator's value.
-         * 
-         * @return accumulator value.
-         */
-        synchronized BigInteger getValue() {
-            return this.val;
-        }
-    }
-
-    /**
-     * The working thread. We create one per core.
-     */
-    private static class ExponentiatorThread extends Thread {
-
-        private boolean haveWork = false;
-        private Accumulator result = null;
-        private CountDownLatch latch = null;
-        private ArrayBlockingQueue<Exponentiation> queue = null;
-
-        ExponentiatorThread() {
-            super();
-        }
-
-        /**
-         * Thread's main loop.
-         */
-        public void run() {
-            while (true) {
-                try {
-                    synchronized (this) {
-
-                        // System.err.println( "thread: going to wait...");
-
-                        while (!this.haveWork)
-                            this.wait();
+    /** The executor that computes the partial products. */
+    private volatile Executor executor;
 
-                        Exponentiation exp = null;
-
-                        // while queue is non empty; get a task to do
-                        while ((exp = this.queue.poll()) != null) {
-
-                            // System.err.println( "got task...");
-
-                            // compute the exponentiation
-                            final BigInteger res = exp
-                                    .getExponentiator()
-                                    .modPow(exp.getExponent(),
-                                            exp.getExponentiator().getModulus());
-                            // and multiply the result to the accumulator
-                            this.result.multiply(res);
-                        }
-
-                        // queue is empty. we signal the master thread and go to
-                        // sleep.
-                        this.haveWork = false;
-                        this.latch.countDown();
-                    }
-
-                } catch (InterruptedException ie) {
-                    ie.printStackTrace();
-                }
-            }
-        }
-
-        /**
-         * To dispatch a queue of exponentiations onto the worker thread.
-         * 
-         * @param queue
-         *            set of exponentiation tasks.
-         * @param accu
-         *            the result accumulator.
-         * @param latch
-         *            synchronization with master thread.
-         * @return success/failures.
-         */
-        synchronized boolean dispatch(
-                final ArrayBlockingQueue<Exponentiation> queue,
-                final Accumulator accu, final CountDownLatch latch) {
-            this.queue = queue;
-            this.result = accu;
-            this.latch = latch;
-            this.haveWork = true;
-            // System.err.println( "notifying thread");
-            this.notify();
-            return true;
-        }
-    }
-
-    /** The set of working threads. */
-    private final ExponentiatorThread threads[];
+    /** Number of groups the exponentiations are split into. */
+    private volatile int parallelism;
 
     /**
      * Constructor.
@@ -174,15 +55,12 @@ public class MultiCoreMultiBase {
             this.nbrOfProcessors = Runtime.getRuntime().availableProcessors();
         }
 
+        this.parallelism = this.nbrOfProcessors;
         if (this.nbrOfProcessors == 1) {
-            this.threads = null;
-            return;
-        }
-
-        this.threads = new ExponentiatorThread[this.nbrOfProcessors];
-        for (int i = 0; i < this.nbrOfProcessors; i++) {
-            this.threads[i] = new ExponentiatorThread();
-            this.threads[i].start();
+            this.executor = null;
+        } else {
+            // the workers of a fork-join pool are daemon threads.
+            this.executor = new ForkJoinPool(this.nbrOfProcessors);
         }
     }
 
@@ -198,7 +76,93 @@ public class MultiCoreMultiBase {
     }
 
     /**
-     * To compute the product sequentially.
+     * To replace the executor on which the partial products are computed.
+     * 
+     * @param theExecutor
+     *            the executor; <tt>null</tt> to compute everything on the
+     *            calling thread.
+     * @param theParallelism
+     *            number of groups the exponentiations are split into,
+     *            typically the number of threads of the executor plus one for
+     *            the calling thread.
+     */
+    public void setExecutor(final Executor theExecutor,
+            final int theParallelism) {
+        if (theParallelism < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.executor = theExecutor;
+        this.parallelism = theParallelism;
+    }
+
+    /**
+     * @return the executor on which the partial products are computed;
+     *         <tt>null</tt> if everything is computed on the calling thread.
+     */
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * @return number of groups the exponentiations are split into.
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * To split the exponentiations into groups of about equal cost. Uses the
+     * greedy longest-processing-time-first heuristic: the most expensive
+     * exponentiation is assigned to the cheapest group.
+     * 
+     * @param exponentiations
+     *            set of modular exponentiations.
+     * @param nbrOfGroups
+     *            number of groups.
+     * @return the groups.
+     */
+    static Vector<Vector<Exponentiation>> split(
+            final Vector<Exponentiation> exponentiations, final int nbrOfGroups) {
+        final Vector<Exponentiation> sorted = new Vector<Exponentiation>(
+                exponentiations);
+        Collections.sort(sorted, new Comparator<Exponentiation>() {
+            public int compare(final Exponentiation e1, final Exponentiation e2) {
+                return getCost(e2) - getCost(e1);
+            }
+        });
+
+        final Vector<Vector<Exponentiation>> groups = new Vector<Vector<Exponentiation>>(
+                nbrOfGroups);
+        final long[] costs = new long[nbrOfGroups];
+        for (int i = 0; i < nbrOfGroups; i++) {
+            groups.add(new Vector<Exponentiation>());
+        }
+        for (int i = 0; i < sorted.size(); i++) {
+            int cheapest = 0;
+            for (int j = 1; j < nbrOfGroups; j++) {
+                if (costs[j] < costs[cheapest]) {
+                    cheapest = j;
+                }
+            }
+            groups.get(cheapest).add(sorted.get(i));
+            costs[cheapest] += getCost(sorted.get(i));
+        }
+        return groups;
+    }
+
+    /**
+     * @param exp
+     *            an exponentiation.
+     * @return estimated cost of the exponentiation.
+     */
+    private static int getCost(final Exponentiation exp) {
+        return exp.getExponent().bitLength();
+    }
+
+    /**
+     * To compute the product sequentially, one exponentiation at a time. This
+     * is the reference implementation; the default single-threaded path is
+     * {@link InterleavedMultiBase#compute(BigInteger, Vector, BigInteger)}.
      * 
      * @param accu
      * @param exponentiations
@@ -281,36 +245,53 @@ public class MultiCoreMultiBase {
         if (initialAccuVal == null) {
             initialAccuVal = BigInteger.ONE;
         }
-        if (this.nbrOfProcessors == 1) {
-            return compute(initialAccuVal, exponentiations, modulus);
-        } else if (exponentiations.size() == 1) {
-            return compute(initialAccuVal, exponentiations, modulus);
-        } else { // use the multi-core set-up.
-            final Accumulator accu = new Accumulator(initialAccuVal, modulus);
-            // create the queue
-            final ArrayBlockingQueue<Exponentiation> queue = new ArrayBlockingQueue<Exponentiation>(
-                    exponentiations.size(), true, exponentiations);
-            // create the count-down latch
-            final CountDownLatch latch = new CountDownLatch(
-                    this.nbrOfProcessors);
-
-            // dispatch the working threads
-            for (int i = 0; i < this.threads.length; i++) {
-                final ExponentiatorThread t = this.threads[i];
-                t.dispatch(queue, accu, latch);
-            }
+        final Executor exec = this.executor;
+        final int nbrOfGroups = Math.min(this.parallelism,
+                exponentiations.size());
+        if (exec == null || nbrOfGroups <= 1) {
+            return InterleavedMultiBase.compute(initialAccuVal,
+                    exponentiations, modulus);
+        }
 
-            // we wait until the queue has been processed. The accumulator
-            // contains the result.
-            try {
-                latch.await();
-            } catch (InterruptedException ie) {
-                ie.printStackTrace();
-                throw new RuntimeException();
-            }
-            return accu.getValue();
+        // use the multi-core set-up.
+        final Vector<Vector<Exponentiation>> groups = split(exponentiations,
+                nbrOfGroups);
+        final Vector<FutureTask<BigInteger>> tasks = new Vector<FutureTask<BigInteger>>(
+                nbrOfGroups - 1);
+        for (int i = 1; i < nbrOfGroups; i++) {
+            final Vector<Exponentiation> group = groups.get(i);
+            final FutureTask<BigInteger> task = new FutureTask<BigInteger>(
+                    new Callable<BigInteger>() {
+                        public BigInteger call() {
+                            return InterleavedMultiBase.compute(group, modulus);
+                        }
+                    });
+            tasks.add(task);
+            exec.execute(task);
         }
 
+        // the calling thread computes the first group.
+        BigInteger product = InterleavedMultiBase.compute(initialAccuVal,
+                groups.get(0), modulus);
+
+        final MontgomeryContext ctx = MontgomeryContext.getInstance(modulus);
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                product = ctx.multiply(product, tasks.get(i).get());
+            }
+        } catch (InterruptedException ie) {
+            for (int i = 0; i < tasks.size(); i++) {
+                tasks.get(i).cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+        }
+        return product;
     }
 
     /**
@@ -0,0 +1,100 @@
+/**
+ * Copyright IBM Corporation 2009
+ */
+package com.ibm.zrl.idmx.utils.perf;
+
+import java.math.BigInteger;
+
+import com.ibm.zrl.idmx.utils.Utils;
+
+/**
+ * Generation of random primes in an interval by sieving. A window of odd
+ * candidates following a random start value is sieved with the small primes,
+ * such that the probable-prime test only runs on candidates without small
+ * factors. The first candidate that passes the test is returned.
+ *
+ * @see SafePrimes
+ */
+public final class PrimeSieve {
+
+    /** Number of odd candidates that are sieved at once. */
+    private static final int SIEVE_LENGTH = 1024;
+
+    /**
+     * Hidden constructor; this class only provides static methods.
+     */
+    private PrimeSieve() {
+    }
+
+    /**
+     * Sieves the window of candidates start + 2k, k = 0, ..., SIEVE_LENGTH -
+     * 1, with the small primes that are smaller than <tt>bound</tt>.
+     *
+     * @param start
+     *            odd start value of the window.
+     * @param bound
+     *            bound on the small primes; must not exceed the start value.
+     * @return array with <tt>true</tt> at position k iff start + 2k has a
+     *         small factor.
+     */
+    private static boolean[] sieve(final BigInteger start, final long bound) {
+        final boolean[] composite = new boolean[SIEVE_LENGTH];
+        final int[] primes = SafePrimes.SMALL_PRIMES;
+        for (int i = 0; i < primes.length && primes[i] < bound; i++) {
+            final int q = primes[i];
+            final int r = start.remainder(BigInteger.valueOf(q)).intValue();
+            // start + 2k == 0 (mod q) <=> k == -r/2 (mod q)
+            int k = (int) (((q - r) % q) * (long) ((q + 1) / 2) % q);
+            for (; k < SIEVE_LENGTH; k += q) {
+                composite[k] = true;
+            }
+        }
+        return composite;
+    }
+
+    /**
+     * To generate a random prime in the interval <tt>[lowerBound, lowerBound
+     * + 2^rangeBitLength)</tt>.
+     *
+     * @param lowerBound
+     *            lower bound of the interval.
+     * @param rangeBitLength
+     *            bit length of the width of the interval.
+     * @param primeCertainty
+     *            the error probability is (2^(-primeCertainty)).
+     * @return a probable prime in the interval.
+     */
+    public static BigInteger genPrime(final BigInteger lowerBound,
+            final int rangeBitLength, final int primeCertainty) {
+        // the window must fit into the interval; for tiny intervals we test
+        // random candidates instead
+        final BigInteger windowWidth = BigInteger.valueOf(2L * SIEVE_LENGTH);
+        if (rangeBitLength < 2 * windowWidth.bitLength()) {
+            BigInteger p;
+            do {
+                p = lowerBound.add(Utils.computeRandomNumber(rangeBitLength));
+            } while (!p.isProbablePrime(primeCertainty));
+            return p;
+        }
+        final BigInteger maxOffset = BigInteger.ONE.shiftLeft(rangeBitLength)
+                .subtract(windowWidth);
+        // only sieve with primes below the interval
+        final long bound = 1L << Math.min(lowerBound.bitLength() - 1, 62);
+
+        while (true) {
+            final BigInteger start = lowerBound.add(
+                    Utils.computeRandomNumber(rangeBitLength).mod(maxOffset))
+                    .setBit(0);
+            final boolean[] composite = sieve(start, bound);
+            for (int k = 0; k < SIEVE_LENGTH; k++) {
+                if (composite[k]) {
+                    continue;
+                }
+                final BigInteger p = start.add(BigInteger.valueOf(2L * k));
+                if (p.isProbablePrime(primeCertainty)) {
+                    return p;
+                }
+            }
+        }
+    }
+}
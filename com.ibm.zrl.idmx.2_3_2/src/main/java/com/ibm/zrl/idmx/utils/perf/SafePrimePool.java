@@ -0,0 +1,248 @@
+/**
+ * Copyright IBM Corporation 2009
+ */
+package com.ibm.zrl.idmx.utils.perf;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Pool of safe primes that are generated in advance. For each configured bit
+ * length, low-priority daemon threads keep a bounded in-memory queue filled.
+ * {@link com.ibm.zrl.idmx.utils.Utils#computeSafePrime(int, int)} takes its
+ * primes from the pool if one is available, such that key generation (e.g.,
+ * <code>IssuerPrivateKey.getNPQ()</code>) does not wait for the prime search
+ * while the pool is warm.
+ *
+ * The primes are kept in memory only and each prime is handed out once. A
+ * prime is only handed out for requests whose prime certainty does not exceed
+ * the one it has been generated with.
+ */
+public final class SafePrimePool {
+
+    private static Logger log = Logger.getLogger(SafePrimePool.class
+            .getName());
+
+    /** Queue and generator threads for one bit length. */
+    private static final class Buffer {
+        private final int bitLength;
+        private final int primeCertainty;
+        private final ArrayBlockingQueue<BigInteger> queue;
+        private final Thread[] threads;
+        /** Time (ns) the threads spent searching, summed over the threads. */
+        private final AtomicLong generationTime = new AtomicLong();
+        private final AtomicLong generated = new AtomicLong();
+        private final AtomicLong handedOut = new AtomicLong();
+
+        Buffer(final int theBitLength, final int thePrimeCertainty,
+                final int capacity, final int nbrOfThreads) {
+            bitLength = theBitLength;
+            primeCertainty = thePrimeCertainty;
+            queue = new ArrayBlockingQueue<BigInteger>(capacity);
+            threads = new Thread[nbrOfThreads];
+            for (int i = 0; i < nbrOfThreads; i++) {
+                threads[i] = new Thread(new Runnable() {
+                    public void run() {
+                        fill();
+                    }
+                }, "idmx-safe-primes-" + bitLength + "-" + i);
+                threads[i].setDaemon(true);
+                threads[i].setPriority(Thread.MIN_PRIORITY);
+                threads[i].start();
+            }
+        }
+
+        /**
+         * Main loop of the generator threads.
+         */
+        private void fill() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    final long start = System.nanoTime();
+                    final BigInteger p = SafePrimes.searchSafePrime(bitLength,
+                            primeCertainty);
+                    generationTime.addAndGet(System.nanoTime() - start);
+                    if (p == null) {
+                        return;
+                    }
+                    generated.incrementAndGet();
+                    queue.put(p);
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            } catch (RuntimeException e) {
+                log.log(Level.SEVERE, "Generation of safe primes failed.", e);
+            }
+        }
+
+        void stop() {
+            for (int i = 0; i < threads.length; i++) {
+                threads[i].interrupt();
+            }
+            queue.clear();
+        }
+    }
+
+    /** Buffers indexed by bit length. */
+    private final HashMap<Integer, Buffer> buffers = new HashMap<Integer, Buffer>();
+
+    /** singleton instance. */
+    private static final SafePrimePool instance = new SafePrimePool();
+
+    /**
+     * Hidden constructor; use {@link #getInstance()}.
+     */
+    private SafePrimePool() {
+    }
+
+    /**
+     * @return The pool.
+     */
+    public static SafePrimePool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts generating safe primes of the given bit length in the
+     * background. A previous configuration for the bit length is replaced.
+     *
+     * @param bitLength
+     *            bit length of the safe primes.
+     * @param primeCertainty
+     *            the error probability of a prime is (2^(-primeCertainty)).
+     * @param capacity
+     *            max. number of primes that are kept.
+     * @param nbrOfThreads
+     *            number of generator threads.
+     */
+    public synchronized void start(final int bitLength,
+            final int primeCertainty, final int capacity,
+            final int nbrOfThreads) {
+        if (capacity <= 0 || nbrOfThreads <= 0) {
+            throw new IllegalArgumentException();
+        }
+        stop(bitLength);
+        buffers.put(bitLength, new Buffer(bitLength, primeCertainty, capacity,
+                nbrOfThreads));
+    }
+
+    /**
+     * Stops generating safe primes of the given bit length and discards the
+     * pooled primes.
+     *
+     * @param bitLength
+     *            bit length of the safe primes.
+     */
+    public synchronized void stop(final int bitLength) {
+        final Buffer buffer = buffers.remove(bitLength);
+        if (buffer != null) {
+            buffer.stop();
+        }
+    }
+
+    /**
+     * Stops all generator threads and discards all pooled primes.
+     */
+    public synchronized void stopAll() {
+        final Buffer[] all = buffers.values().toArray(new Buffer[0]);
+        for (int i = 0; i < all.length; i++) {
+            stop(all[i].bitLength);
+        }
+    }
+
+    /**
+     * @param bitLength
+     *            bit length of the safe prime.
+     * @return The buffer for the bit length or <tt>null</tt>.
+     */
+    private synchronized Buffer getBuffer(final int bitLength) {
+        return buffers.get(bitLength);
+    }
+
+    /**
+     * To take a safe prime from the pool without waiting.
+     *
+     * @param bitLength
+     *            bit length of the safe prime.
+     * @param primeCertainty
+     *            required prime certainty.
+     * @return a safe prime or <tt>null</tt> if the pool does not have one.
+     */
+    public BigInteger poll(final int bitLength, final int primeCertainty) {
+        final Buffer buffer = getBuffer(bitLength);
+        if (buffer == null || buffer.primeCertainty < primeCertainty) {
+            return null;
+        }
+        final BigInteger p = buffer.queue.poll();
+        if (p != null) {
+            buffer.handedOut.incrementAndGet();
+        }
+        return p;
+    }
+
+    /**
+     * @param bitLength
+     *            bit length of the safe primes.
+     * @return Number of pooled primes of the bit length.
+     */
+    public int size(final int bitLength) {
+        final Buffer buffer = getBuffer(bitLength);
+        return buffer == null ? 0 : buffer.queue.size();
+    }
+
+    /**
+     * @param bitLength
+     *            bit length of the safe primes.
+     * @return Fill level of the pool for the bit length, between 0 and 1.
+     */
+    public double getFillLevel(final int bitLength) {
+        final Buffer buffer = getBuffer(bitLength);
+        if (buffer == null) {
+            return 0;
+        }
+        final int size = buffer.queue.size();
+        return (double) size / (size + buffer.queue.remainingCapacity());
+    }
+
+    /**
+     * @param bitLength
+     *            bit length of the safe primes.
+     * @return Number of primes of the bit length generated since the start.
+     */
+    public long getGenerated(final int bitLength) {
+        final Buffer buffer = getBuffer(bitLength);
+        return buffer == null ? 0 : buffer.generated.get();
+    }
+
+    /**
+     * @param bitLength
+     *            bit length of the safe primes.
+     * @return Number of primes of the bit length handed out since the start.
+     */
+    public long getHandedOut(final int bitLength) {
+        final Buffer buffer = getBuffer(bitLength);
+        return buffer == null ? 0 : buffer.handedOut.get();
+    }
+
+    /**
+     * @param bitLength
+     *            bit length of the safe primes.
+     * @return Average number of primes of the bit length the generator
+     *         threads produce per second while searching. The time the
+     *         threads wait for space in a full pool is not counted.
+     */
+    public double getGenerationRate(final int bitLength) {
+        final Buffer buffer = getBuffer(bitLength);
+        if (buffer == null) {
+            return 0;
+        }
+        final long time = buffer.generationTime.get();
+        return time <= 0 ? 0 : buffer.generated.get() * 1e9
+                * buffer.threads.length / time;
+    }
+}
@@ -8,8 +8,15 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.ibm.zrl.idmx.utils.Constants;
 import com.ibm.zrl.idmx.utils.Utils;
@@ -41,117 +48,59 @@ public class SafePrimes {
         }
     }
 
-    private static class PrimeResult {
-
-        private BigInteger result = null;
-
-        PrimeResult() {
-            super();
-        }
-
-        synchronized void setResult(final BigInteger r) {
-            this.result = r;
-        }
-
-        synchronized BigInteger getResult() {
-            return this.result;
-        }
-
-    }
-
-    private static class TaskDescriptor {
-
-        PrimeResult result;
-        final int bitLength;
-        final int primeCertainty;
-        final BigInteger primeBound;
-
-        TaskDescriptor(final PrimeResult result, final int bitLength,
-                final BigInteger primeBound, final int primeCertainty) {
-            this.result = result;
-            this.bitLength = bitLength;
-            this.primeBound = primeBound;
-            this.primeCertainty = primeCertainty;
-        }
-
-    }
-
     /**
-     * The working thread. We create one per core.
+     * State of one parallel search for a safe prime. Each search has its own
+     * instance, such that concurrent searches do not interfere. The instance
+     * is run by several workers; the first prime found ends the search.
      */
-    private static class IterationThread extends Thread {
-
-        private boolean haveWork = false;
-        private CountDownLatch latch = null;
-        private TaskDescriptor task = null;
-        private SecureRandom random = null;
+    private static final class Search implements Runnable {
+
+        private final int bitLength;
+        private final int primeCertainty;
+        private final AtomicReference<BigInteger> result = new AtomicReference<BigInteger>();
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+        /** Number of workers that have not terminated yet. */
+        private final AtomicInteger running;
+        /** Released when a prime is found or all workers have terminated. */
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean cancelled = false;
+
+        Search(final int theBitLength, final int thePrimeCertainty,
+                final int nbrOfWorkers) {
+            bitLength = theBitLength;
+            primeCertainty = thePrimeCertainty;
+            running = new AtomicInteger(nbrOfWorkers);
+        }
 
-        IterationThread() throws NoSuchAlgorithmException {
-            super();
-            this.random = statRandom; // SecureRandom.getInstance("SHA1PRNG");
+        /**
+         * @return True iff the worker on the calling thread should stop.
+         */
+        boolean isStopped() {
+            return cancelled || result.get() != null
+                    || Thread.currentThread().isInterrupted();
         }
 
         /**
-         * Thread's main loop.
+         * Worker's main loop.
          */
         public void run() {
-            while (true) {
-                try {
-                    synchronized (this) {
-
-                        // System.err.println( "thread: going to wait...");
-
-                        while (!this.haveWork)
-                            this.wait();
-
-                        // System.err.println( "thread " + this.toString() +
-                        // ": " + this.task.nbrIterations);
-
-                        // we quit after the nbr of iterations OR if some other
-                        // thread has detected a non-prime.
-                        while (this.task.result.getResult() == null) {
-                            final BigInteger p = iterationStep(
-                                    this.task.bitLength, this.task.primeBound,
-                                    this.task.primeCertainty, this.random);
-                            if (p != null) {
-                                // System.err.println( "found result");
-                                this.task.result.setResult(p);
-                                break;
-                            }
-                        }
-
-                        // task is completed.
-                        this.haveWork = false;
-                        this.latch.countDown();
+            try {
+                while (!isStopped()) {
+                    final BigInteger p = iterationStep(bitLength,
+                            primeCertainty, statRandom, this);
+                    if (p != null) {
+                        result.compareAndSet(null, p);
+                        done.countDown();
                     }
-
-                } catch (InterruptedException ie) {
-                    ie.printStackTrace();
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                if (running.decrementAndGet() == 0) {
+                    done.countDown();
                 }
             }
         }
-
-        /**
-         * To dispatch a queue of exponentiations onto the worker thread.
-         * 
-         * @param queue
-         *            set of exponentiation tasks.
-         * @param accu
-         *            the result accumulator.
-         * @param latch
-         *            synchronization with master thread.
-         * @return success/failures.
-         */
-        synchronized boolean dispatch(final TaskDescriptor task,
-                final CountDownLatch latch) {
-            this.task = task;
-            this.latch = latch;
-            this.haveWork = true;
-            // System.err.println( "notifying thread");
-            this.notify();
-            return true;
-        }
-
     }
 
     // pre-compute a list of small primes
@@ -160,6 +109,15 @@ public class SafePrimes {
     protected final static List<BigInteger> listOfSmallPrimes = generateSmallPrimes(
             MAX_SMALL_PRIME, 3);
 
+    /** the small primes as int values, in increasing order. */
+    static final int[] SMALL_PRIMES = toIntArray(listOfSmallPrimes);
+
+    /**
+     * Number of candidates pDash, pDash + 2, ... that are sieved at once. Each
+     * window starts at a fresh random number.
+     */
+    private static final int SIEVE_LENGTH = 4096;
+
     /**
      * This method generates small prime numbers up to a specified bounds using
      * the Sieve of Eratosthenes algorithm.
@@ -197,40 +155,56 @@ public class SafePrimes {
     }
 
     /**
-     * Test whether the provided pDash or p = 2*pDash + 1 are divisible by any
-     * of the small primes saved in the listOfSmallPrimes. A limit for the
-     * largest prime to be tested against can be specified, but it will be
-     * ignored if it exceeds the number of pre-computed primes.
-     * 
-     * @param pDash
-     *            The number to be tested (pDash)
-     * @param primeBound
-     *            The limit for the small primes to be tested against.
+     * @param primes
+     *            list of small primes.
+     * @return the primes as int values.
      */
-    private static boolean testSmallPrimeFactors(final BigInteger pDash,
-            final BigInteger primeBound) {
-        ListIterator<BigInteger> primes = listOfSmallPrimes.listIterator();
-        BigInteger smallPrime = BigInteger.ONE;
-
-        while (primes.hasNext() && (smallPrime.compareTo(primeBound) < 0)) {
-            smallPrime = (BigInteger) primes.next();
-
-            // r = pDash % smallPrime
-            final BigInteger r = pDash.remainder(smallPrime);
+    private static int[] toIntArray(final List<BigInteger> primes) {
+        final int[] res = new int[primes.size()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = primes.get(i).intValue();
+        }
+        return res;
+    }
 
-            // test if pDash = 0 (mod smallPrime)
-            // if (r.compareTo(BigInteger.ZERO) == 0) {
-            if (r.equals(BigInteger.ZERO)) {
-                return false;
+    /**
+     * Sieves the window of candidates pDash = start + 2k, k = 0, ...,
+     * SIEVE_LENGTH - 1. A candidate is eliminated if pDash or p = 2*pDash + 1
+     * is divisible by one of the small primes. The residues of the start value
+     * are computed once per small prime; the multiples are then crossed out
+     * by stepping through the window.
+     * 
+     * @param start
+     *            odd start value of the window.
+     * @param bitLength
+     *            bit length of the start value, used to only sieve with
+     *            primes that are smaller than all candidates.
+     * @return array with <tt>true</tt> at position k iff start + 2k has been
+     *         eliminated.
+     */
+    private static boolean[] sieve(final BigInteger start, final int bitLength) {
+        final boolean[] composite = new boolean[SIEVE_LENGTH];
+        // only use primes q < 2^(bitLength-2) <= start, such that no candidate
+        // is eliminated for being a small prime itself
+        final long bound = 1L << Math.min(bitLength - 2, 62);
+        for (int i = 0; i < SMALL_PRIMES.length && SMALL_PRIMES[i] < bound; i++) {
+            final int q = SMALL_PRIMES[i];
+            final int r = start.remainder(BigInteger.valueOf(q)).intValue();
+            // 2^{-1} mod q
+            final long inv2 = (q + 1) / 2;
+
+            // pDash = start + 2k == 0 (mod q) <=> k == -r/2 (mod q)
+            int k = (int) (((q - r) % q) * inv2 % q);
+            for (; k < SIEVE_LENGTH; k += q) {
+                composite[k] = true;
             }
-            // test if p == 0 (mod smallPrime) (or, equivalently, r ==
-            // smallPrime - r - 1)
-            if (r.compareTo(smallPrime.subtract(r).subtract(BigInteger.ONE)) == 0) {
-                return false;
-            } else {
+            // p = 2*start + 1 + 4k == 0 (mod q) <=> k == -(2r+1)/4 (mod q)
+            k = (int) (((2L * q - 2L * r - 1) % q) * inv2 % q * inv2 % q);
+            for (; k < SIEVE_LENGTH; k += q) {
+                composite[k] = true;
             }
         }
-        return true;
+        return composite;
     }
 
     /**
@@ -269,23 +243,20 @@ public class SafePrimes {
             return false;
     }
 
-    private static BigInteger iterationStep(final int bitLength,
-            final BigInteger primeBound, final int primeCertainty,
-            final SecureRandom random) {
-
-        // System.err.println( ".");
-
-        // generate random, odd pDash
-        final BigInteger pDash = Utils
-                .randomOddBigNumber(bitLength - 1, random);
-
+    /**
+     * Tests whether pDash and p = 2*pDash + 1 are both prime.
+     * 
+     * @param pDash
+     *            candidate that passed the sieve.
+     * @param primeCertainty
+     *            the error probability is (2^(-primeCertainty)).
+     * @return p if it is a safe prime, <tt>null</tt> otherwise.
+     */
+    private static BigInteger testCandidate(final BigInteger pDash,
+            final int primeCertainty) {
         // calculate p = 2*pDash+1
         final BigInteger p = pDash.shiftLeft(1).add(BigInteger.ONE);
 
-        // test if pDash or p are divisible by some small primes
-        if (!testSmallPrimeFactors(pDash, primeBound)) {
-            return null;
-        }
         // test if 2 is a compositness witness for pDash or p
         if (isMillerRabinWitness(Utils.TWO, pDash)) {
             return null;
@@ -308,27 +279,75 @@ public class SafePrimes {
         return null;
     }
 
-    private boolean forceSingleThread = false;
+    /**
+     * Searches a window of candidates that starts at a random odd pDash: the
+     * window is sieved first and the expensive tests are only run on the
+     * survivors.
+     * 
+     * @param bitLength
+     *            bit length of the safe prime.
+     * @param primeCertainty
+     *            the error probability is (2^(-primeCertainty)).
+     * @param random
+     *            source of randomness.
+     * @param search
+     *            the search this step belongs to, or <tt>null</tt>.
+     * @return a safe prime or <tt>null</tt> if the window does not contain
+     *         one or the search has been stopped.
+     */
+    private static BigInteger iterationStep(final int bitLength,
+            final int primeCertainty, final SecureRandom random,
+            final Search search) {
 
-    public final void setForceSingleThread(boolean flag) {
-        this.forceSingleThread = flag;
+        // generate random, odd pDash
+        final BigInteger start = Utils
+                .randomOddBigNumber(bitLength - 1, random);
+        final boolean[] composite = sieve(start, bitLength - 1);
+
+        for (int k = 0; k < SIEVE_LENGTH; k++) {
+            if (composite[k]) {
+                continue;
+            }
+            if (search != null ? search.isStopped() : Thread.currentThread()
+                    .isInterrupted()) {
+                return null;
+            }
+            final BigInteger pDash = start.add(BigInteger.valueOf(2L * k));
+            if (pDash.bitLength() != bitLength - 1) {
+                // we ran past the largest number of the bit length
+                return null;
+            }
+            final BigInteger p = testCandidate(pDash, primeCertainty);
+            if (p != null) {
+                return p;
+            }
+        }
+        return null;
     }
 
-    private static BigInteger getPrimeBound(int bitLength) {
-        // some heuristic checks to limit the number of small primes
-        // to check against and the number of Miller-Rabin primality tests at
-        // the end
-        if (bitLength <= 256) {
-            return BigInteger.valueOf(768);
-        } else if (bitLength <= 512) {
-            return BigInteger.valueOf(3072);
-        } else if (bitLength <= 768) {
-            return BigInteger.valueOf(6144);
-        } else if (bitLength <= 1024) {
-            return BigInteger.valueOf(10240);
-        } else {
-            return BigInteger.valueOf(MAX_SMALL_PRIME + 1);
+    /**
+     * Searches a safe prime on the calling thread. The search stops if the
+     * thread is interrupted.
+     * 
+     * @param bitLength
+     *            bit length of the safe prime.
+     * @param primeCertainty
+     *            the error probability is (2^(-primeCertainty)).
+     * @return a safe prime or <tt>null</tt> if the thread was interrupted.
+     */
+    static BigInteger searchSafePrime(final int bitLength,
+            final int primeCertainty) {
+        BigInteger p = null;
+        while (p == null && !Thread.currentThread().isInterrupted()) {
+            p = iterationStep(bitLength, primeCertainty, statRandom, null);
         }
+        return p;
+    }
+
+    private boolean forceSingleThread = false;
+
+    public final void setForceSingleThread(boolean flag) {
+        this.forceSingleThread = flag;
     }
 
     /**
@@ -340,7 +359,9 @@ public class SafePrimes {
      * 
      * This implementation uses the algorithm proposed by Ronald Cramer and
      * Victor Shoup in "Signature Schemes Based on the strong RSA Assumption"
-     * May 9, 2000.
+     * May 9, 2000. Instead of testing independent random candidates, windows
+     * of consecutive odd candidates starting at a random number are sieved
+     * with the small primes, such that only the survivors are tested.
      * 
      * @param bitLength
      *            The bit length of the safe prime to be computed.
@@ -354,36 +375,22 @@ public class SafePrimes {
     public final BigInteger genSafePrime(final int bitLength,
             final int primeCertainty) {
 
-        final BigInteger primeBound = getPrimeBound(bitLength);
-
         BigInteger p = null;
         if (this.forceSingleThread || this.nbrOfProcessors == 1) {
             do {
-                p = iterationStep(bitLength, primeBound, primeCertainty,
-                        statRandom);
+                p = iterationStep(bitLength, primeCertainty, statRandom, null);
             } while (p == null);
         } else {
-            final CountDownLatch latch = new CountDownLatch(
-                    this.nbrOfProcessors);
-            final PrimeResult pr = new PrimeResult();
-            final TaskDescriptor td = new TaskDescriptor(pr, bitLength,
-                    primeBound, primeCertainty);
-
-            // lauch the worker threads
-            for (int i = 0; i < this.nbrOfProcessors; i++) {
-                this.threads[i].dispatch(td, latch);
-            }
-            // and wait until they're done.
-
             try {
-                latch.await();
+                p = genSafePrime(bitLength, primeCertainty, this.executor,
+                        this.nbrOfProcessors, 0, null);
             } catch (InterruptedException e) {
-                e.printStackTrace();
-                throw new RuntimeException();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (TimeoutException e) {
+                // we did not set a deadline
+                throw new RuntimeException(e);
             }
-
-            p = pr.getResult();
-            assert (p != null);
         }
 
         /*
@@ -410,11 +417,70 @@ public class SafePrimes {
         return p;
     }
 
+    /**
+     * To compute a random safe prime (see {@link #genSafePrime(int, int)})
+     * with several workers that run on the given executor. Once a worker has
+     * found a prime, the other workers stop after their current candidate.
+     * The method may be called concurrently; every call runs its own search.
+     * 
+     * @param bitLength
+     *            The bit length of the safe prime to be computed.
+     * @param primeCertainty
+     *            The error probability that the computed number is not prime is
+     *            (2^(-primeCertainty))
+     * @param executor
+     *            executor that runs the workers.
+     * @param nbrOfWorkers
+     *            number of workers submitted to the executor.
+     * @param timeout
+     *            max. time to wait for the prime.
+     * @param unit
+     *            unit of the timeout, or <tt>null</tt> to wait without a
+     *            deadline.
+     * @return A safe prime.
+     * @throws InterruptedException
+     *             if the calling thread has been interrupted; the workers are
+     *             stopped.
+     * @throws TimeoutException
+     *             if the deadline has passed; the workers are stopped.
+     */
+    public static BigInteger genSafePrime(final int bitLength,
+            final int primeCertainty, final Executor executor,
+            final int nbrOfWorkers, final long timeout, final TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        if (executor == null || nbrOfWorkers <= 0) {
+            throw new IllegalArgumentException();
+        }
+        final Search search = new Search(bitLength, primeCertainty,
+                nbrOfWorkers);
+        try {
+            for (int i = 0; i < nbrOfWorkers; i++) {
+                executor.execute(search);
+            }
+            if (unit == null) {
+                search.done.await();
+            } else if (!search.done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+        } finally {
+            search.cancelled = true;
+        }
+
+        final BigInteger p = search.result.get();
+        if (p == null) {
+            if (search.failure.get() != null) {
+                throw search.failure.get();
+            }
+            throw new RuntimeException("Search for a safe prime aborted.");
+        }
+        return p;
+    }
+
     /** nbr of cores */
     private final int nbrOfProcessors;
 
-    /** one thread per core */
-    private final IterationThread threads[];
+    /** executor with one daemon thread per core, for multi-core searches. */
+    private final ExecutorService executor;
 
     /**
      * Constructor.
@@ -438,15 +504,18 @@ public class SafePrimes {
         }
 
         if (this.nbrOfProcessors == 1) {
-            this.threads = null;
+            this.executor = null;
             return;
         }
 
-        this.threads = new IterationThread[this.nbrOfProcessors];
-        for (int i = 0; i < this.nbrOfProcessors; i++) {
-            this.threads[i] = new IterationThread();
-            this.threads[i].start();
-        }
+        this.executor = Executors.newFixedThreadPool(this.nbrOfProcessors,
+                new ThreadFactory() {
+                    public Thread newThread(final Runnable r) {
+                        final Thread t = new Thread(r, "idmx-safe-primes");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
     }
 
     /** singleton instance. */
@@ -0,0 +1,86 @@
+/**
+ * Copyright IBM Corporation 2009
+ */
+package com.ibm.zrl.idmx.utils.perf;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Pool of worker threads shared by the coarse-grained parallel computations
+ * of the library (e.g., verification of a batch of proofs). The pool is a
+ * {@link ForkJoinPool} with one worker per core: a task that waits for the
+ * tasks it has submitted itself helps executing them instead of blocking a
+ * worker, such that tasks may be nested.
+ */
+public final class WorkerPool {
+
+    /** The pool; its workers are daemon threads. */
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime
+            .getRuntime().availableProcessors());
+
+    /**
+     * Hidden constructor; this class only provides static methods.
+     */
+    private WorkerPool() {
+    }
+
+    /**
+     * @return Number of workers of the pool.
+     */
+    public static int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * To run the given tasks on the pool and wait for all of them. A single
+     * task is run on the calling thread.
+     *
+     * @param tasks
+     *            the tasks.
+     * @return the results of the tasks, in the order of the tasks.
+     * @throws RuntimeException
+     *             if a task failed (the exception of the task if it is a
+     *             runtime exception) or the calling thread was interrupted.
+     */
+    public static <T> Vector<T> invokeAll(
+            final List<? extends Callable<T>> tasks) {
+        final Vector<T> results = new Vector<T>(tasks.size());
+        if (tasks.size() == 1) {
+            try {
+                results.add(tasks.get(0).call());
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return results;
+        }
+
+        final List<Future<T>> futures = pool.invokeAll(tasks);
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                results.add(futures.get(i).get());
+            }
+        } catch (InterruptedException ie) {
+            for (int i = 0; i < futures.size(); i++) {
+                futures.get(i).cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        return results;
+    }
+}
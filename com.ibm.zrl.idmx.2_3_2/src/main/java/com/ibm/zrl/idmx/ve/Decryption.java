@@ -9,7 +9,9 @@ import com.ibm.zrl.idmx.key.VEPrivateKey;
 import com.ibm.zrl.idmx.utils.Utils;
 
 /**
- * Decryption of a verifiably encrypted ciphertext.
+ * Decryption of a verifiably encrypted ciphertext. The exponentiations modulo
+ * <tt>n^2</tt> use the factorization of <tt>n</tt> (see
+ * {@link VEPrivateKey#modPow(BigInteger, BigInteger)}).
  */
 public class Decryption {
 
@@ -46,7 +48,7 @@ public class Decryption {
                 .multiply(privateKey.getX3()));
         exp = exp.multiply(Utils.TWO);
 
-        final BigInteger u2 = encryption.getU().modPow(exp, n2);
+        final BigInteger u2 = privateKey.modPow(encryption.getU(), exp);
         if (!u2.equals(v2)) {
             return null;
         }
@@ -54,11 +56,13 @@ public class Decryption {
         final BigInteger t = Utils.TWO.modInverse(n).multiply(Utils.TWO);
 
         // ux1 = u^(x1) mod n2
-        BigInteger ux1 = encryption.getU().modPow(privateKey.getX1(), n2);
+        BigInteger ux1 = privateKey.modPow(encryption.getU(), privateKey
+                .getX1());
         ux1 = ux1.modInverse(n2);
 
         // mHat = (e/ux1)^(t)
-        BigInteger mHat = encryption.getE().multiply(ux1).modPow(t, n2);
+        BigInteger mHat = privateKey.modPow(encryption.getE().multiply(ux1),
+                t);
         if (!mHat.mod(n).equals(BigInteger.ONE)) {
             return null;
         }
@@ -0,0 +1,304 @@
+/**
+ * Copyright IBM Corporation 2010.
+ */
+package com.ibm.zrl.idmx.tests.credsystem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+import com.ibm.zrl.credsystem.CredentialStore;
+import com.ibm.zrl.credsystem.utils.XMLSerializer;
+import com.ibm.zrl.idmx.dm.Credential;
+import com.ibm.zrl.idmx.tests.idmx.Locations;
+import com.ibm.zrl.idmx.tests.idmx.TestIssuance;
+import com.ibm.zrl.idmx.utils.Parser;
+
+/**
+ * Tests the credential file of the credential store: appending and reading
+ * credentials, rebuilding the index when the store is opened again, reading
+ * credentials appended after the file has been mapped, removing a torn
+ * record, rejecting a corrupted file, the cache of decoded credentials and
+ * the import of credentials stored as XML files.
+ */
+public class TestCredentialStore extends TestCase {
+
+    /** Name of the credential file within the store directory. */
+    private static final String CREDENTIAL_FILE = "credentials.bin";
+
+    /** Directory of the credential store. */
+    private File dir;
+    /** Credential that is stored. */
+    private Credential credential;
+    /** XML encoding of the credential. */
+    private String encoded;
+
+    /**
+     * Creates an empty credential store directory and loads the credential.
+     */
+    protected final void setUp() throws IOException {
+        TestIssuance.initIdmx();
+        Locations.loadParameters(TestIssuance.BASE_ID,
+                TestIssuance.BASE_LOCATION);
+        Locations.loadCredStruct(TestIssuance.CRED_STRUCT_1A);
+        credential = (Credential) Parser.getInstance().parse(
+                Locations.getCredentialLocation(TestIssuance.CRED1A_FN));
+        assertNotNull(credential);
+        encoded = encode(credential);
+
+        dir = File.createTempFile("credStore", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+    }
+
+    /**
+     * Removes the credential store directory.
+     */
+    protected final void tearDown() {
+        final File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Test: Credentials that have been appended are read from the file, also
+     * after the store has been opened again (i.e., the index is rebuilt).
+     */
+    public final void testAppendAndReopen() {
+        CredentialStore store = open();
+        final String[] names = new String[3];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = store.put(credential, "credential" + i);
+        }
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(encoded, encode(store.getCredential(names[i])));
+        }
+        assertNull(store.getCredential("Credential_unknown.xml"));
+        store.close();
+
+        store = open();
+        try {
+            for (int i = 0; i < names.length; i++) {
+                final Credential c = store.getCredential(names[i]);
+                assertNotNull(c);
+                assertNotSame(credential, c);
+                assertEquals(encoded, encode(c));
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Test: Credentials appended after the file has been mapped are read from
+     * the file, also once the file has been mapped again.
+     */
+    public final void testAppendAfterMapping() {
+        CredentialStore store = open(1);
+        final String[] names = new String[12];
+        for (int i = 0; i < 3; i++) {
+            names[i] = store.put(credential, "credential" + i);
+        }
+        store.close();
+
+        store = open(1);
+        try {
+            for (int i = 3; i < names.length; i++) {
+                names[i] = store.put(credential, "credential" + i);
+                // only the last credential is cached
+                final Credential c = store.getCredential(names[i - 1]);
+                assertNotSame(credential, c);
+                assertEquals(encoded, encode(c));
+            }
+            for (int i = 0; i < names.length; i++) {
+                assertEquals(encoded, encode(store.getCredential(names[i])));
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Test: A record that has not been written completely at the end of the
+     * file is removed when the store is opened; the other records remain.
+     */
+    public final void testTornTail() throws IOException {
+        CredentialStore store = open();
+        final String first = store.put(credential, "first");
+        final long length = credentialFile().length();
+        final String second = store.put(credential, "second");
+        store.close();
+
+        // the last record is cut off
+        RandomAccessFile file = new RandomAccessFile(credentialFile(), "rw");
+        file.setLength(file.length() - 10);
+        file.close();
+        store = open();
+        try {
+            assertEquals(length, credentialFile().length());
+            assertEquals(encoded, encode(store.getCredential(first)));
+            assertNull(store.getCredential(second));
+        } finally {
+            store.close();
+        }
+
+        // the file has been extended but the record not written
+        file = new RandomAccessFile(credentialFile(), "rw");
+        file.setLength(length + 100);
+        file.close();
+        store = open();
+        try {
+            assertEquals(length, credentialFile().length());
+            assertEquals(encoded, encode(store.getCredential(first)));
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Test: A corrupted record that is followed by other records is not
+     * removed; the store cannot be opened.
+     */
+    public final void testCorruptedRecord() throws IOException {
+        final CredentialStore store = open();
+        store.put(credential, "first");
+        store.put(credential, "second");
+        store.close();
+
+        // a byte in the data of the first record
+        flipByte(100);
+        try {
+            open();
+            fail("A corrupted credential file has been opened");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        // the length of the name of the first record
+        flipByte(100);
+        flipByte(8);
+        try {
+            open();
+            fail("A corrupted credential file has been opened");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test: Only the most recently used credentials are cached; evicted ones
+     * are decoded again.
+     */
+    public final void testCacheEviction() {
+        final CredentialStore store = open(2);
+        try {
+            final String first = store.put(credential, "first");
+            final String second = store.put(credential, "second");
+            assertSame(credential, store.getCredential(first));
+            final String third = store.put(credential, "third");
+
+            // the second credential is the least recently used one
+            assertSame(credential, store.getCredential(first));
+            assertSame(credential, store.getCredential(third));
+            final Credential decoded = store.getCredential(second);
+            assertNotSame(credential, decoded);
+            assertEquals(encoded, encode(decoded));
+            assertSame(decoded, store.getCredential(second));
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Test: Credentials stored as XML files by earlier versions are added to
+     * the credential file when the store is opened.
+     */
+    public final void testLegacyImport() throws IOException {
+        final String name = "Credential_legacy.xml";
+        copy(new File(Locations.getCredentialLocation(TestIssuance.CRED1A_FN)),
+                new File(dir, name));
+        final HashMap<Object, String> names = new HashMap<Object, String>();
+        names.put("legacy", name);
+        XMLSerializer.getInstance().serialize(names,
+                new File(dir, "credentialNames.xml").toURI());
+
+        CredentialStore store = open();
+        assertEquals(encoded, encode(store.getCredential(name)));
+        store.close();
+
+        // the credential is read from the credential file
+        assertTrue(new File(dir, name).delete());
+        store = open();
+        try {
+            assertEquals(encoded, encode(store.getCredential(name)));
+        } finally {
+            store.close();
+        }
+    }
+
+    private CredentialStore open() {
+        return CredentialStore.get(dir.toURI(), new File(dir, "ms.xml")
+                .toURI(), Locations.gpIdUri);
+    }
+
+    /**
+     * Opens the store with the given number of cached credentials.
+     */
+    private CredentialStore open(final int cacheSize) {
+        System.setProperty(CredentialStore.CACHE_SIZE_PROPERTY, String
+                .valueOf(cacheSize));
+        try {
+            return open();
+        } finally {
+            System.clearProperty(CredentialStore.CACHE_SIZE_PROPERTY);
+        }
+    }
+
+    private File credentialFile() {
+        return new File(dir, CREDENTIAL_FILE);
+    }
+
+    private void flipByte(final long position) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(credentialFile(),
+                "rw");
+        try {
+            file.seek(position);
+            final int b = file.read();
+            file.seek(position);
+            file.write(b ^ 0x01);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static String encode(final Credential c) {
+        assertNotNull(c);
+        return com.ibm.zrl.idmx.utils.XMLSerializer.getInstance().serialize(c);
+    }
+
+    private static void copy(final File from, final File to)
+            throws IOException {
+        final FileInputStream in = new FileInputStream(from);
+        try {
+            final FileOutputStream out = new FileOutputStream(to);
+            try {
+                final byte[] buffer = new byte[4096];
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, length);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
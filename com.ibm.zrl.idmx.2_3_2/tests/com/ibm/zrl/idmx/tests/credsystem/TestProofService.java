@@ -0,0 +1,293 @@
+/**
+ * Copyright IBM Corporation 2010.
+ */
+package com.ibm.zrl.idmx.tests.credsystem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import com.ibm.zrl.credsystem.CredentialStore;
+import com.ibm.zrl.credsystem.ProofService;
+import com.ibm.zrl.idmx.dm.Credential;
+import com.ibm.zrl.idmx.showproof.ProofSpec;
+import com.ibm.zrl.idmx.showproof.Verifier;
+import com.ibm.zrl.idmx.tests.idmx.Locations;
+import com.ibm.zrl.idmx.tests.idmx.TestIssuance;
+import com.ibm.zrl.idmx.utils.Parser;
+import com.ibm.zrl.idmx.utils.ProofCodec;
+import com.ibm.zrl.idmx.utils.SystemParameters;
+
+/**
+ * Tests the proof service: concurrent requests for one credential store,
+ * the bound on pending requests, the cache of proof specifications and
+ * requests whose stages fail.
+ */
+public class TestProofService extends TestCase {
+
+    /** Temporary name of the credential in the proof specification. */
+    private static final String TEMP_NAME = "someRandomName";
+    /** Time (ms) to wait for a request. */
+    private static final long TIMEOUT = 60000;
+
+    /** Directory of the credential store. */
+    private File dir;
+    /** Credential store of the holder. */
+    private CredentialStore store;
+    /** Name of the credential in the store. */
+    private String credentialName;
+    /** Proof specification (XML). */
+    private String specXml;
+    /** Parsed proof specification of the verifier. */
+    private ProofSpec spec;
+    /** Service under test. */
+    private ProofService service;
+
+    /**
+     * Creates a credential store with one credential.
+     */
+    protected final void setUp() throws IOException {
+        TestIssuance.initIdmx();
+        Locations.loadParameters(TestIssuance.BASE_ID,
+                TestIssuance.BASE_LOCATION);
+        Locations.loadCredStruct(TestIssuance.CRED_STRUCT_1A);
+        specXml = read(new File(Locations.getProofSpecLocation("ProofSpec1a")));
+        spec = (ProofSpec) Parser.getInstance().parse(specXml);
+
+        dir = File.createTempFile("proofService", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        final File ms = new File(dir, "ms.xml");
+        copy(new File(Locations.getPrivateLocation("ms")), ms);
+        store = CredentialStore.get(dir.toURI(), ms.toURI(),
+                Locations.gpIdUri);
+        credentialName = store.put((Credential) Parser.getInstance().parse(
+                Locations.getCredentialLocation(TestIssuance.CRED1A_FN)),
+                "credential");
+    }
+
+    /**
+     * Stops the service and removes the credential store.
+     */
+    protected final void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+        store.close();
+        final File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Test: Several threads submit requests for the same credential store;
+     * all proofs verify.
+     */
+    public final void testConcurrentSubmits() throws Exception {
+        service = new ProofService(4, 2, 4, 8);
+        final int nbrOfThreads = 3;
+        final int nbrOfRequests = 3;
+        final Vector<Future<byte[]>> proofs = new Vector<Future<byte[]>>();
+        final Vector<BigInteger> nonces = new Vector<BigInteger>();
+        final Vector<Throwable> errors = new Vector<Throwable>();
+        final Thread[] threads = new Thread[nbrOfThreads];
+        for (int i = 0; i < nbrOfThreads; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < nbrOfRequests; j++) {
+                            final BigInteger nonce = getNonce();
+                            final Future<byte[]> proof = submit(
+                                    credentialName, specXml, nonce,
+                                    ProofCodec.Format.BINARY);
+                            synchronized (proofs) {
+                                proofs.add(proof);
+                                nonces.add(nonce);
+                            }
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < nbrOfThreads; i++) {
+            threads[i].join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertEquals(nbrOfThreads * nbrOfRequests, proofs.size());
+        for (int i = 0; i < proofs.size(); i++) {
+            assertTrue(verify(proofs.get(i), nonces.get(i)));
+        }
+        awaitPermits(4);
+    }
+
+    /**
+     * Test: A submit blocks while the maximal number of requests is pending
+     * and returns once one of them has been completed.
+     */
+    public final void testSubmitBlocks() throws Exception {
+        service = new ProofService(1, 1, 2, 8);
+        final BigInteger nonce = getNonce();
+        final Future<byte[]> first = submit(credentialName, specXml, nonce,
+                ProofCodec.Format.BINARY);
+        final Future<byte[]> second = submit(credentialName, specXml, nonce,
+                ProofCodec.Format.BINARY);
+        final Vector<Future<byte[]>> third = new Vector<Future<byte[]>>();
+        final Vector<Boolean> completed = new Vector<Boolean>();
+        final Thread thread = new Thread() {
+            public void run() {
+                try {
+                    third.add(submit(credentialName, specXml, nonce,
+                            ProofCodec.Format.BINARY));
+                    // a permit is released after the request is completed
+                    completed.add(Boolean.valueOf(first.isDone()
+                            || second.isDone()));
+                } catch (InterruptedException e) {
+                    // the test fails below
+                }
+            }
+        };
+        thread.start();
+        thread.join(TIMEOUT);
+        assertFalse(thread.isAlive());
+        assertEquals(1, third.size());
+        assertEquals(Boolean.TRUE, completed.get(0));
+        assertTrue(verify(first, nonce));
+        assertTrue(verify(second, nonce));
+        assertTrue(verify(third.get(0), nonce));
+        awaitPermits(2);
+    }
+
+    /**
+     * Test: A parsed proof specification is reused by subsequent requests.
+     */
+    public final void testSpecCache() throws Exception {
+        service = new ProofService(1, 1, 4, 8);
+        for (int i = 0; i < 3; i++) {
+            final BigInteger nonce = getNonce();
+            assertTrue(verify(submit(credentialName, specXml, nonce,
+                    ProofCodec.Format.XML), nonce));
+        }
+        assertEquals(1, service.getSpecMisses());
+        assertEquals(2, service.getSpecHits());
+    }
+
+    /**
+     * Test: A request whose stage fails is completed with the exception and
+     * releases its permit; its proof specification is not used again.
+     */
+    public final void testFailure() throws Exception {
+        service = new ProofService(1, 1, 2, 8);
+        BigInteger nonce = getNonce();
+        assertTrue(verify(submit(credentialName, specXml, nonce,
+                ProofCodec.Format.BINARY), nonce));
+        assertEquals(1, service.getSpecMisses());
+
+        // proving fails
+        try {
+            submit("Credential_unknown.xml", specXml, nonce,
+                    ProofCodec.Format.BINARY).get();
+            fail("A proof has been built for an unknown credential");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        awaitPermits(2);
+        assertEquals(1, service.getSpecHits());
+
+        // the specification of the failed proof has been discarded
+        nonce = getNonce();
+        assertTrue(verify(submit(credentialName, specXml, nonce,
+                ProofCodec.Format.BINARY), nonce));
+        assertEquals(2, service.getSpecMisses());
+
+        // parsing fails
+        try {
+            submit(credentialName, "<ProofSpecification", nonce,
+                    ProofCodec.Format.BINARY).get();
+            fail("A proof has been built for an invalid specification");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        awaitPermits(2);
+    }
+
+    private Future<byte[]> submit(final String credName, final String xml,
+            final BigInteger nonce, final ProofCodec.Format format)
+            throws InterruptedException {
+        final HashMap<String, String> credentialNames = new HashMap<String, String>();
+        credentialNames.put(TEMP_NAME, credName);
+        return service.submit(store, credentialNames, xml, nonce, format);
+    }
+
+    private BigInteger getNonce() {
+        final SystemParameters sp = spec.getGroupParams().getSystemParams();
+        return Verifier.getNonce(sp);
+    }
+
+    private boolean verify(final Future<byte[]> proof, final BigInteger nonce)
+            throws Exception {
+        return new Verifier(spec, ProofCodec.decodeAny(proof.get()), nonce)
+                .verify();
+    }
+
+    /**
+     * Waits until the given number of permits is available; a permit is
+     * released right after its request has been completed.
+     */
+    private void awaitPermits(final int permits) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (service.getAvailablePermits() != permits
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(permits, service.getAvailablePermits());
+    }
+
+    private static String read(final File file) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[4096];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                bos.write(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+        return bos.toString("UTF-8");
+    }
+
+    private static void copy(final File from, final File to)
+            throws IOException {
+        final FileInputStream in = new FileInputStream(from);
+        try {
+            final FileOutputStream out = new FileOutputStream(to);
+            try {
+                final byte[] buffer = new byte[4096];
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, length);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -1,22 +1,44 @@
 package com.ibm.zrl.idmx.tests.idmx;
-import org.zeromq.ZMQ;
-import org.zeromq.ZMQ.Context;
-import org.zeromq.ZMQ.Socket;
-import java.util.Date;
+import java.io.File;
+import java.net.URI;
+import java.util.HashMap;
+
+import com.ibm.zrl.idmx.showproof.NonceManager;
+import com.ibm.zrl.idmx.showproof.VerificationServer;
+
+/**
+ * Starts a verification server for the audit front-end.
+ *
+ * Arguments: <tt>[endpoint] [id=proofSpecFile ...]</tt>; the endpoint
+ * defaults to <tt>tcp://127.0.0.1:9005</tt>.
+ */
 public class SCAudit {
     public static void main(String[] args) throws Exception{
-        ZMQ.Context context = ZMQ.context(1);
-        ZMQ.Socket socket = context.socket(ZMQ.REP);
-        socket.bind ("tcp://127.0.0.1:9005");
+        String endpoint = "tcp://127.0.0.1:9005";
+        HashMap<String, URI> proofSpecs = new HashMap<String, URI>();
+        for (int i = 0; i < args.length; i++) {
+            int separator = args[i].indexOf('=');
+            if (separator < 0) {
+                endpoint = args[i];
+            } else {
+                proofSpecs.put(args[i].substring(0, separator), new File(
+                        args[i].substring(separator + 1)).toURI());
+            }
+        }
 
-        while (true) {
-            byte[] recv = socket.recv(0);
-            String recvStr = new String(recv);
-            System.out.println("recv:" + recvStr);
-            String time = new Date().getTime() + "";
+        int nbrOfWorkers = Runtime.getRuntime().availableProcessors();
+        VerificationServer server = new VerificationServer(endpoint,
+                proofSpecs, nbrOfWorkers, 1000);
+        // nonces are accepted once within five minutes
+        server.setNonceManager(new NonceManager(5 * 60 * 1000));
+        server.start();
 
-            byte[] reply = time.getBytes();
-            socket.send(reply, 0);
+        while (true) {
+            Thread.sleep(60000);
+            VerificationServer.WorkerMetrics[] metrics = server.getMetrics();
+            for (int i = 0; i < metrics.length; i++) {
+                System.out.println("worker " + i + ": " + metrics[i]);
+            }
         }
     }
 }
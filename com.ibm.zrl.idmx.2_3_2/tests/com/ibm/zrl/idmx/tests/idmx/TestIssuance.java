@@ -3,6 +3,7 @@
  */
 package com.ibm.zrl.idmx.tests.idmx;
 
+import java.lang.reflect.Field;
 import java.math.BigInteger;
 import java.util.HashSet;
 
@@ -20,11 +21,13 @@ import com.ibm.zrl.idmx.issuance.Issuer;
 import com.ibm.zrl.idmx.issuance.Recipient;
 import com.ibm.zrl.idmx.issuance.update.IssuerUpdateInformation;
 import com.ibm.zrl.idmx.key.IssuerKeyPair;
+import com.ibm.zrl.idmx.key.IssuerPrivateKey;
 import com.ibm.zrl.idmx.key.IssuerPublicKey;
 import com.ibm.zrl.idmx.utils.Constants;
 import com.ibm.zrl.idmx.utils.SystemParameters;
 import com.ibm.zrl.idmx.utils.Utils;
 import com.ibm.zrl.idmx.utils.XMLSerializer;
+import com.ibm.zrl.idmx.utils.perf.CrtExponentiator;
 
 /**
  * Test cases to cover issuance of credentials.
@@ -192,6 +195,55 @@ public class TestIssuance extends TestCase {
 
         System.out.println(cred.toStringPretty());
     }
+    /**
+     * Test: Issues a credential while one half of the CRT exponentiation of
+     * the issuer is faulty. The issuer must not send a wrong signature, which
+     * would reveal the factorization of the modulus to the recipient.
+     */
+    public final void testIssuance_faultyCrt() throws Exception {
+        Locations.loadCredStruct(CRED_STRUCT_1A);
+        IssuanceSpec issuanceSpec = new IssuanceSpec(
+                Locations.getIssuerId(CRED_STRUCT_1A));
+        Values values = new Values(sp);
+        values.add("attr1", ATTRIBUTE_VALUE_1);
+        values.add("attr2", ATTRIBUTE_VALUE_2);
+        values.add("attr3", ATTRIBUTE_VALUE_3);
+        values.add("attr4", ATTRIBUTE_VALUE_4);
+
+        // the exponent is reduced by a wrong order modulo p
+        final IssuerPrivateKey privKey = issuerKey.getPrivateKey();
+        final BigInteger p = privKey.getP();
+        final BigInteger q = privKey.getQ();
+        final BigInteger n = privKey.getN();
+        final Field crt = IssuerPrivateKey.class.getDeclaredField("crt");
+        crt.setAccessible(true);
+        crt.set(privKey, new CrtExponentiator(p, p, q, q
+                .subtract(BigInteger.ONE)));
+        try {
+            final BigInteger base = Utils.computeRandomNumber(
+                    n.bitLength() - 1);
+            assertFalse(base.modPow(n, n).equals(privKey.modPow(base, n)));
+
+            Issuer issuer = new Issuer(issuerKey, issuanceSpec, null, null,
+                    values);
+            Recipient recipient = new Recipient(issuanceSpec, masterSecret,
+                    values);
+            Message msgToRecipient2 = issuer.round2(recipient.round1(issuer
+                    .getNonce1()));
+            final BigInteger capA = msgToRecipient2
+                    .getIssuanceElement(Message.IssuanceProtocolValues.capA);
+            final BigInteger e = msgToRecipient2
+                    .getIssuanceElement(Message.IssuanceProtocolValues.e);
+            final BigInteger capQ = msgToRecipient2
+                    .getIssuanceElement(Message.IssuanceProtocolValues.capQ);
+            assertEquals(capQ, capA.modPow(e, n));
+            // the proof of A~ verifies
+            assertNotNull(recipient.round3(msgToRecipient2));
+        } finally {
+            crt.set(privKey, null);
+        }
+    }
+
     /**
      * Test: Issues a credential with all implemented features.
      * 
@@ -0,0 +1,296 @@
+/**
+ * Copyright IBM Corporation 2010.
+ */
+package com.ibm.zrl.idmx.tests.idmx;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+import org.zeromq.ZMQ;
+
+import com.ibm.zrl.idmx.dm.Credential;
+import com.ibm.zrl.idmx.dm.MasterSecret;
+import com.ibm.zrl.idmx.showproof.NonceManager;
+import com.ibm.zrl.idmx.showproof.Proof;
+import com.ibm.zrl.idmx.showproof.ProofSpec;
+import com.ibm.zrl.idmx.showproof.Prover;
+import com.ibm.zrl.idmx.showproof.VerificationServer;
+import com.ibm.zrl.idmx.showproof.Verifier;
+import com.ibm.zrl.idmx.utils.ProofCodec;
+import com.ibm.zrl.idmx.utils.StructureStore;
+import com.ibm.zrl.idmx.utils.SystemParameters;
+
+/**
+ * Tests the verification server over a loopback TCP connection: the status
+ * of valid, invalid and malformed requests, several requests sent by a
+ * DEALER socket without waiting for the replies and the nonces issued by the
+ * server.
+ */
+public class TestVerificationServer extends TestCase {
+
+    /** Identifier of the proof specification at the server. */
+    private static final String SPEC_ID = "ProofSpec1a";
+    /** Time (ms) to wait for a reply. */
+    private static final int TIMEOUT = 60000;
+    /** Encoding of the text frames. */
+    private static final String CHARSET = "UTF-8";
+
+    private VerificationServer server;
+    private ZMQ.Context context;
+    private ZMQ.Socket client;
+    private ProofSpec spec;
+    private MasterSecret masterSecret;
+    private HashMap<String, Credential> creds;
+
+    /**
+     * Starts the server and connects the client.
+     */
+    protected final void setUp() throws IOException {
+        Locations.loadParameters(TestIssuance.BASE_ID,
+                TestIssuance.BASE_LOCATION);
+        TestVerify.preloadCredStructs();
+        final URI specLocation = Locations.getProofSpecLocation(SPEC_ID);
+        spec = (ProofSpec) StructureStore.getInstance().get(specLocation);
+        masterSecret = Locations.getMasterSecret();
+        creds = TestVerify.loadCredential(Locations
+                .getCredentialLocation(TestIssuance.CRED1A_FN),
+                "someRandomName");
+
+        final String endpoint = "tcp://127.0.0.1:" + getFreePort();
+        final HashMap<String, URI> proofSpecs = new HashMap<String, URI>();
+        proofSpecs.put(SPEC_ID, specLocation);
+        server = new VerificationServer(endpoint, proofSpecs, 2, 100);
+        server.start();
+
+        context = ZMQ.context(1);
+        client = context.socket(ZMQ.DEALER);
+        client.setLinger(0);
+        client.setReceiveTimeOut(TIMEOUT);
+        client.connect(endpoint);
+    }
+
+    /**
+     * Closes the client and stops the server.
+     */
+    protected final void tearDown() {
+        client.close();
+        context.term();
+        server.stop();
+    }
+
+    /**
+     * Test: A proof is VALID for its nonce and INVALID for another one.
+     */
+    public final void testValidInvalid() throws Exception {
+        final BigInteger nonce = getNonce();
+        final byte[] proof = ProofCodec.encode(buildProof(nonce),
+                ProofCodec.Format.BINARY);
+
+        send("1", SPEC_ID, nonce.toString(), proof);
+        assertReply(receive(), "1", VerificationServer.VALID, "");
+
+        send("2", SPEC_ID, nonce.add(BigInteger.ONE).toString(), proof);
+        assertReply(receive(), "2", VerificationServer.INVALID, "");
+
+        final VerificationServer.WorkerMetrics[] metrics = server
+                .getMetrics();
+        long valid = 0;
+        long invalid = 0;
+        for (int i = 0; i < metrics.length; i++) {
+            valid += metrics[i].getValid();
+            invalid += metrics[i].getInvalid();
+        }
+        assertEquals(1, valid);
+        assertEquals(1, invalid);
+    }
+
+    /**
+     * Test: Malformed requests get the status ERROR with a fixed message.
+     */
+    public final void testError() throws Exception {
+        final BigInteger nonce = getNonce();
+        final byte[] proof = ProofCodec.encode(buildProof(nonce),
+                ProofCodec.Format.BINARY);
+
+        // unknown proof specification
+        send("1", "unknown", nonce.toString(), proof);
+        assertReply(receive(), "1", VerificationServer.ERROR,
+                VerificationServer.ERROR_MESSAGE);
+        // nonce is not a number
+        send("2", SPEC_ID, "nonce", proof);
+        assertReply(receive(), "2", VerificationServer.ERROR,
+                VerificationServer.ERROR_MESSAGE);
+        // proof cannot be decoded
+        send("3", SPEC_ID, nonce.toString(), "proof".getBytes(CHARSET));
+        assertReply(receive(), "3", VerificationServer.ERROR,
+                VerificationServer.ERROR_MESSAGE);
+        // wrong number of frames
+        send("4", SPEC_ID, nonce.toString());
+        assertReply(receive(), "4", VerificationServer.ERROR,
+                VerificationServer.ERROR_MESSAGE);
+    }
+
+    /**
+     * Test: Requests sent without waiting for the replies are all answered;
+     * the replies are matched by their request identifier.
+     */
+    public final void testPipelining() throws Exception {
+        final int nbrOfRequests = 8;
+        final BigInteger nonce = getNonce();
+        final byte[] binary = ProofCodec.encode(buildProof(nonce),
+                ProofCodec.Format.BINARY);
+        final byte[] xml = ProofCodec.encode(buildProof(nonce),
+                ProofCodec.Format.XML);
+        final HashMap<String, String> expected = new HashMap<String, String>();
+        for (int i = 0; i < nbrOfRequests; i++) {
+            final String requestId = String.valueOf(i);
+            if (i % 3 == 2) {
+                send(requestId, SPEC_ID, nonce.add(BigInteger.ONE).toString(),
+                        binary);
+                expected.put(requestId, VerificationServer.INVALID);
+            } else {
+                send(requestId, SPEC_ID, nonce.toString(), i % 2 == 0 ? binary
+                        : xml);
+                expected.put(requestId, VerificationServer.VALID);
+            }
+        }
+        for (int i = 0; i < nbrOfRequests; i++) {
+            final String[] reply = receive();
+            assertTrue(expected.containsKey(reply[0]));
+            assertReply(reply, reply[0], expected.remove(reply[0]), "");
+        }
+        assertTrue(expected.isEmpty());
+    }
+
+    /**
+     * Test: A proof is accepted once for a nonce issued by the server; a
+     * replay is rejected before the proof is decoded.
+     */
+    public final void testReplay() throws Exception {
+        server.setNonceManager(new NonceManager(60000));
+        send("1", SPEC_ID);
+        final String[] reply = receive();
+        assertEquals(3, reply.length);
+        assertEquals("1", reply[0]);
+        assertEquals(VerificationServer.NONCE, reply[1]);
+        final BigInteger nonce = new BigInteger(reply[2]);
+        final byte[] proof = ProofCodec.encode(buildProof(nonce),
+                ProofCodec.Format.BINARY);
+
+        send("2", SPEC_ID, nonce.toString(), proof);
+        assertReply(receive(), "2", VerificationServer.VALID, "");
+        send("3", SPEC_ID, nonce.toString(), proof);
+        assertReply(receive(), "3", VerificationServer.REPLAYED, "");
+
+        // a proof that cannot be decoded would be an ERROR
+        send("4", SPEC_ID, nonce.toString(), "proof".getBytes(CHARSET));
+        assertReply(receive(), "4", VerificationServer.REPLAYED, "");
+        // the nonce has not been issued by the server
+        send("5", SPEC_ID, getNonce().toString(), "proof".getBytes(CHARSET));
+        assertReply(receive(), "5", VerificationServer.REPLAYED, "");
+
+        final VerificationServer.WorkerMetrics[] metrics = server
+                .getMetrics();
+        long replays = 0;
+        long errors = 0;
+        for (int i = 0; i < metrics.length; i++) {
+            replays += metrics[i].getReplays();
+            errors += metrics[i].getErrors();
+        }
+        assertEquals(3, replays);
+        assertEquals(0, errors);
+    }
+
+    /**
+     * Test: The server refuses to issue nonces beyond the bound of its nonce
+     * manager.
+     */
+    public final void testNonceLimit() throws Exception {
+        server.setNonceManager(new NonceManager(60000, 1, 1));
+        send("1", SPEC_ID);
+        assertEquals(VerificationServer.NONCE, receive()[1]);
+        send("2", SPEC_ID);
+        assertReply(receive(), "2", VerificationServer.ERROR,
+                VerificationServer.NONCE_LIMIT_MESSAGE);
+    }
+
+    private BigInteger getNonce() {
+        final SystemParameters sp = spec.getGroupParams().getSystemParams();
+        return Verifier.getNonce(sp);
+    }
+
+    private Proof buildProof(final BigInteger nonce) {
+        return new Prover(masterSecret, creds, spec, nonce)
+                .buildProof();
+    }
+
+    /**
+     * Sends a request; the empty frame separates the envelope of the DEALER
+     * socket from the request.
+     */
+    private void send(final String requestId, final String specId,
+            final String nonce, final byte[] proof)
+            throws UnsupportedEncodingException {
+        client.sendMore(new byte[0]);
+        client.sendMore(requestId.getBytes(CHARSET));
+        client.sendMore(specId.getBytes(CHARSET));
+        client.sendMore(nonce.getBytes(CHARSET));
+        client.send(proof, 0);
+    }
+
+    private void send(final String requestId, final String specId,
+            final String nonce) throws UnsupportedEncodingException {
+        client.sendMore(new byte[0]);
+        client.sendMore(requestId.getBytes(CHARSET));
+        client.sendMore(specId.getBytes(CHARSET));
+        client.send(nonce.getBytes(CHARSET), 0);
+    }
+
+    /**
+     * Requests a nonce.
+     */
+    private void send(final String requestId, final String specId)
+            throws UnsupportedEncodingException {
+        client.sendMore(new byte[0]);
+        client.sendMore(requestId.getBytes(CHARSET));
+        client.send(specId.getBytes(CHARSET), 0);
+    }
+
+    /**
+     * @return Frames of a reply (without the empty frame).
+     */
+    private String[] receive() throws UnsupportedEncodingException {
+        final byte[] delimiter = client.recv(0);
+        assertNotNull("No reply received", delimiter);
+        assertEquals(0, delimiter.length);
+        final Vector<String> frames = new Vector<String>();
+        while (client.hasReceiveMore()) {
+            frames.add(new String(client.recv(0), CHARSET));
+        }
+        return frames.toArray(new String[frames.size()]);
+    }
+
+    private static void assertReply(final String[] reply,
+            final String requestId, final String status, final String message) {
+        assertEquals(3, reply.length);
+        assertEquals(requestId, reply[0]);
+        assertEquals(status, reply[1]);
+        assertEquals(message, reply[2]);
+    }
+
+    private static int getFreePort() throws IOException {
+        final ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -3,8 +3,10 @@
  */
 package com.ibm.zrl.idmx.tests.idmx;
 
+import java.io.StringWriter;
 import java.math.BigInteger;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.TreeMap;
@@ -19,15 +21,24 @@ import com.ibm.zrl.idmx.dm.MasterSecret;
 import com.ibm.zrl.idmx.dm.MessageToSign;
 import com.ibm.zrl.idmx.dm.Representation;
 import com.ibm.zrl.idmx.dm.RepresentationOpening;
+import com.ibm.zrl.idmx.dm.Values;
+import com.ibm.zrl.idmx.issuance.IssuanceSpec;
+import com.ibm.zrl.idmx.issuance.Issuer;
+import com.ibm.zrl.idmx.issuance.Message;
+import com.ibm.zrl.idmx.issuance.Recipient;
+import com.ibm.zrl.idmx.key.IssuerKeyPair;
 import com.ibm.zrl.idmx.key.IssuerPublicKey;
 import com.ibm.zrl.idmx.key.VEPrivateKey;
 import com.ibm.zrl.idmx.key.VEPublicKey;
+import com.ibm.zrl.idmx.showproof.NonceManager;
 import com.ibm.zrl.idmx.showproof.Proof;
 import com.ibm.zrl.idmx.showproof.ProofSpec;
 import com.ibm.zrl.idmx.showproof.Prover;
+import com.ibm.zrl.idmx.showproof.ProverPool;
 import com.ibm.zrl.idmx.showproof.Verifier;
 import com.ibm.zrl.idmx.utils.Constants;
 import com.ibm.zrl.idmx.utils.Parser;
+import com.ibm.zrl.idmx.utils.ProofCodec;
 import com.ibm.zrl.idmx.utils.StructureStore;
 import com.ibm.zrl.idmx.utils.SystemParameters;
 import com.ibm.zrl.idmx.utils.Utils;
@@ -310,6 +321,481 @@ public class TestVerify extends TestCase {
         outputRevealedValues(revealedValues);
     }
 
+    /**
+     * Test: A proof encoded in the binary format verifies after decoding and
+     * is much smaller than its XML encoding.
+     */
+    public final void testProofCodec_Cred1a() {
+        ProofSpec spec = (ProofSpec) StructureStore.getInstance().get(
+                Locations.getProofSpecLocation("ProofSpec1a"));
+        Proof p = (Proof) Parser.getInstance().parse(
+                Locations.getProofLocation(CL_KNOWN));
+        BigInteger nonce = (BigInteger) Parser.getInstance().parse(
+                Locations.getNonceLocation(CL_KNOWN));
+
+        byte[] binary = ProofCodec.encode(p, ProofCodec.Format.BINARY);
+        byte[] xml = ProofCodec.encode(p, ProofCodec.Format.XML);
+        assertTrue(ProofCodec.isBinary(binary));
+        assertFalse(ProofCodec.isBinary(xml));
+        System.out.println("Proof: " + binary.length + " bytes (binary), "
+                + xml.length + " bytes (XML)");
+        assertTrue(binary.length * 5 < xml.length * 2);
+
+        Proof decoded = ProofCodec.decodeAny(binary);
+        assertEquals(p.getChallenge(), decoded.getChallenge());
+        assertEquals(p.getCommonList(), decoded.getCommonList());
+        if (!new Verifier(spec, decoded, nonce).verify()) {
+            fail("The decoded proof does not verify");
+        }
+        if (!new Verifier(spec, ProofCodec.decodeAny(xml), nonce).verify()) {
+            fail("The decoded XML proof does not verify");
+        }
+
+        assertEquals(ProofCodec.Format.BINARY, ProofCodec.Format
+                .negotiate("xml, binary"));
+        assertEquals(ProofCodec.Format.XML, ProofCodec.Format.negotiate(null));
+        try {
+            ProofCodec.decode(Arrays.copyOf(binary, binary.length - 1));
+            fail("A truncated proof has been decoded");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            ProofCodec.decodeAny(Arrays.copyOf(xml, xml.length / 2));
+            fail("A truncated XML proof has been decoded");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Test: Verifies a batch of proofs according to the same specification.
+     * One of the proofs is given with a wrong nonce and must fail.
+     */
+    public final void testVerifyBatch_Cred1a() {
+
+        // load the proof specification
+        ProofSpec spec = (ProofSpec) StructureStore.getInstance().get(
+                Locations.getProofSpecLocation("ProofSpec1a"));
+        SystemParameters sp = spec.getGroupParams().getSystemParams();
+
+        // load credentials
+        HashMap<String, Credential> creds = loadCredential(
+                Locations.getCredentialLocation(TestIssuance.CRED1A_FN),
+                "someRandomName");
+
+        final int nbrOfProofs = 6;
+        final int wrongNonce = 3;
+        Vector<Proof> proofs = new Vector<Proof>();
+        Vector<BigInteger> nonces = new Vector<BigInteger>();
+        for (int i = 0; i < nbrOfProofs; i++) {
+            BigInteger nonce = Verifier.getNonce(sp);
+            proofs.add(new Prover(masterSecret, creds, spec, nonce)
+                    .buildProof());
+            if (i == wrongNonce) {
+                nonce = nonce.add(BigInteger.ONE);
+            }
+            nonces.add(nonce);
+        }
+
+        boolean[] verified = Verifier.verifyBatch(spec, proofs, nonces);
+        assertEquals(nbrOfProofs, verified.length);
+        for (int i = 0; i < nbrOfProofs; i++) {
+            assertEquals(i != wrongNonce, verified[i]);
+        }
+    }
+
+    /**
+     * Test: Builds proofs with the sub-provers running in parallel and
+     * sequentially and verifies each with the other mode of the verifier, such
+     * that both modes are checked against each other.
+     */
+    public final void testParallel_Cred1a() {
+
+        // load the proof specification
+        ProofSpec spec = (ProofSpec) StructureStore.getInstance().get(
+                Locations.getProofSpecLocation("ProofSpec1a"));
+        SystemParameters sp = spec.getGroupParams().getSystemParams();
+        BigInteger nonce = Verifier.getNonce(sp);
+
+        // load credentials
+        HashMap<String, Credential> creds = loadCredential(
+                Locations.getCredentialLocation(TestIssuance.CRED1A_FN),
+                "someRandomName");
+
+        // parallel prover, sequential verifier
+        Prover prover = new Prover(masterSecret, creds, spec, nonce);
+        prover.setParallel(true);
+        Proof p = prover.buildProof();
+
+        Verifier verifier = new Verifier(spec, p, nonce);
+        verifier.setParallel(false);
+        if (!verifier.verify()) {
+            fail("The parallel proof does not verify sequentially");
+        }
+
+        // sequential prover, parallel verifier
+        prover = new Prover(masterSecret, creds, spec, nonce);
+        prover.setParallel(false);
+        p = prover.buildProof();
+
+        verifier = new Verifier(spec, p, nonce);
+        verifier.setParallel(true);
+        if (!verifier.verify()) {
+            fail("The sequential proof does not verify in parallel");
+        }
+
+        verifier = new Verifier(spec, p, nonce.add(BigInteger.ONE));
+        verifier.setParallel(true);
+        assertFalse(verifier.verify());
+    }
+
+    /**
+     * Test: Builds a proof of inequalities over two credentials with the
+     * sub-provers running in parallel. The sub-provers of the inequalities
+     * share the attribute values with the CL sub-provers, hence the proof
+     * must verify with both the sequential and the parallel verifier.
+     */
+    public final void testParallel_Inequality_Cred2Cred3() {
+
+        // load the proof specification
+        Locations.loadCredStruct("CredStruct2");
+        Locations.loadCredStruct("CredStruct3");
+        ProofSpec spec = (ProofSpec) StructureStore.getInstance().get(
+                Locations.getProofSpecLocation("ProofSpecInequality_Cred2"));
+        SystemParameters sp = spec.getGroupParams().getSystemParams();
+
+        // issue the credentials such that all inequalities hold
+        IssuerKeyPair issuerKey = Locations.getIssuerKey();
+        Values values2 = new Values(sp);
+        values2.add("attr1", BigInteger.valueOf(1313));
+        values2.add("attr2", BigInteger.valueOf(1315));
+        values2.add("attr6", BigInteger.valueOf(1318));
+        Values values2Recipient = new Values(sp);
+        values2Recipient.add("attr1", BigInteger.valueOf(1313));
+        values2Recipient.add("attr2", BigInteger.valueOf(1315));
+        values2Recipient.add("attr3", BigInteger.valueOf(1314));
+        values2Recipient.add("attr4", BigInteger.valueOf(1313));
+        values2Recipient.add("attr5", BigInteger.valueOf(1317));
+        values2Recipient.add("attr6", BigInteger.valueOf(1318));
+        Credential cred2 = issue(issuerKey, "CredStruct2", values2,
+                values2Recipient);
+
+        CommitmentOpening co = new CommitmentOpening(BigInteger
+                .valueOf(1313), CommitmentOpening.genRandom(issuerPublicKey
+                .getN(), sp.getL_n()), issuerPublicKey);
+        Values values3 = new Values(sp);
+        values3.add("attr1", BigInteger.valueOf(1314));
+        values3.add("attr3", new Commitment(co.getCommitment(),
+                issuerPublicKey));
+        Values values3Recipient = new Values(sp);
+        values3Recipient.add("attr1", BigInteger.valueOf(1314));
+        values3Recipient.add("attr2", BigInteger.valueOf(1317));
+        values3Recipient.add("attr3", co);
+        Credential cred3 = issue(issuerKey, "CredStruct3", values3,
+                values3Recipient);
+
+        String tempName = "someRandomNameMatchingTheOneInTheProofSpec";
+        HashMap<String, Credential> creds = new HashMap<String, Credential>();
+        creds.put(cred2.getCredStructLocation().toString().concat(
+                Constants.DELIMITER).concat(tempName), cred2);
+        creds.put(cred3.getCredStructLocation().toString().concat(
+                Constants.DELIMITER).concat(tempName), cred3);
+
+        BigInteger nonce = Verifier.getNonce(sp);
+        Prover prover = new Prover(masterSecret, creds, spec, nonce);
+        prover.setParallel(true);
+        Proof p = prover.buildProof();
+
+        Verifier verifier = new Verifier(spec, p, nonce);
+        verifier.setParallel(false);
+        if (!verifier.verify()) {
+            fail("The proof does not verify sequentially");
+        }
+        verifier = new Verifier(spec, p, nonce);
+        verifier.setParallel(true);
+        if (!verifier.verify()) {
+            fail("The proof does not verify in parallel");
+        }
+        assertFalse(new Verifier(spec, p, nonce.add(BigInteger.ONE))
+                .verify());
+    }
+
+    /**
+     * Runs the issuance protocol.
+     * 
+     * @return Credential of the recipient.
+     */
+    private Credential issue(final IssuerKeyPair issuerKey,
+            final String credStruct, final Values valuesIssuer,
+            final Values valuesRecipient) {
+        IssuanceSpec issuanceSpec = new IssuanceSpec(Locations
+                .getIssuerId(credStruct));
+        Issuer issuer = new Issuer(issuerKey, issuanceSpec, null, null,
+                valuesIssuer);
+        Recipient recipient = new Recipient(issuanceSpec, masterSecret,
+                valuesRecipient);
+        Message msgToRecipient2 = issuer.round2(recipient.round1(issuer
+                .getNonce1()));
+        Credential cred = recipient.round3(msgToRecipient2);
+        assertNotNull(cred);
+        return cred;
+    }
+
+    /**
+     * Test: Builds proofs with provers whose first round has been computed in
+     * advance and verifies them.
+     */
+    public final void testProverPool_Cred1a() {
+
+        URI specLocation = Locations.getProofSpecLocation("ProofSpec1a");
+        ProofSpec spec = (ProofSpec) StructureStore.getInstance().get(
+                specLocation);
+        SystemParameters sp = spec.getGroupParams().getSystemParams();
+
+        // load credentials
+        HashMap<String, Credential> creds = loadCredential(
+                Locations.getCredentialLocation(TestIssuance.CRED1A_FN),
+                "someRandomName");
+
+        ProverPool pool = new ProverPool(masterSecret, creds, specLocation, 2);
+        pool.start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                BigInteger nonce = Verifier.getNonce(sp);
+                Proof p = pool.buildProof(nonce);
+                Verifier verifier = new Verifier(spec, p, nonce);
+                if (!verifier.verify()) {
+                    fail("The proof does not verify");
+                }
+            }
+            assertEquals(3, pool.getHits() + pool.getMisses());
+
+            // a prover must not answer a second challenge
+            Prover prover = pool.take();
+            prover.buildProof(Verifier.getNonce(sp));
+            try {
+                prover.buildProof(Verifier.getNonce(sp));
+                fail("The prover has been used twice");
+            } catch (RuntimeException e) {
+                // expected
+            }
+        } finally {
+            pool.stop();
+        }
+    }
+
+    /**
+     * Test: The context of a proof specification and an issuer public key is
+     * computed once and equals the hash over the group parameters and keys.
+     */
+    public final void testContext_Cred1a() {
+        ProofSpec spec = (ProofSpec) StructureStore.getInstance().get(
+                Locations.getProofSpecLocation("ProofSpec1a"));
+
+        BigInteger context = spec.getContext();
+        assertSame(context, spec.getContext());
+
+        Vector<BigInteger> contextVector = new Vector<BigInteger>();
+        contextVector = Utils.computeGroupParamContext(spec.getGroupParams(),
+                contextVector);
+        contextVector = Utils.computeKeyContext(issuerPublicKey, contextVector);
+        assertEquals(Utils.hashOf(spec.getGroupParams().getSystemParams()
+                .getL_H(), contextVector), context);
+
+        assertSame(Utils.computeContext(issuerPublicKey), Utils
+                .computeContext(issuerPublicKey));
+    }
+
+    /**
+     * Test: Concurrent requests for an object that is not loaded yet obtain
+     * the same instance; reloading replaces the instance.
+     */
+    public final void testStructureStore() throws InterruptedException {
+        final StructureStore store = StructureStore.getInstance();
+        final URI specLocation = Locations.getProofSpecLocation("ProofSpec1a");
+        final String name = "concurrentProofSpec1a";
+        store.invalidate(name);
+
+        final Object[] results = new Object[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    results[index] = store.get(name, specLocation);
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertNotNull(results[0]);
+        for (int i = 1; i < results.length; i++) {
+            assertSame(results[0], results[i]);
+        }
+
+        ProofSpec reloaded = (ProofSpec) store.reload(name, specLocation);
+        assertNotSame(results[0], reloaded);
+        assertSame(reloaded, store.get(name, specLocation));
+        assertEquals(((ProofSpec) results[0]).getContext(), reloaded
+                .getContext());
+        store.invalidate(name);
+
+        assertTrue(store.prewarm(URI.create(TestIssuance.BASE_LOCATION)) >= 2);
+        assertNotNull(store.get(URI.create(TestIssuance.BASE_LOCATION
+                + "gp.xml")));
+    }
+
+    /**
+     * Test: Parses keys, credentials, proof specifications and proofs in
+     * several threads concurrently. The parsed objects must be equal to each
+     * other and the proof must verify.
+     */
+    public final void testParser_Cred1a() throws InterruptedException {
+        final URI[] locations = new URI[] { Locations.ipkUri,
+                Locations.getCredentialLocation(TestIssuance.CRED1A_FN),
+                Locations.getProofSpecLocation("ProofSpec1a"),
+                Locations.getProofLocation(CL_KNOWN) };
+        final Object[][] results = new Object[8][locations.length];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < locations.length; j++) {
+                        results[index][j] = Parser.getInstance().parse(
+                                locations[j]);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        XMLSerializer serializer = XMLSerializer.getInstance();
+        for (int j = 0; j < locations.length; j++) {
+            assertNotNull(results[0][j]);
+            if (results[0][j] instanceof ProofSpec) {
+                String spec = ((ProofSpec) results[0][j]).toStringPretty();
+                for (int i = 1; i < results.length; i++) {
+                    assertEquals(spec, ((ProofSpec) results[i][j])
+                            .toStringPretty());
+                }
+                continue;
+            }
+            String xml = serializer.serialize(results[0][j]);
+            for (int i = 1; i < results.length; i++) {
+                assertEquals(xml, serializer.serialize(results[i][j]));
+            }
+            // parsing the serialized object yields the same object
+            assertEquals(xml, serializer.serialize(Parser.getInstance()
+                    .parse(xml)));
+        }
+
+        ProofSpec spec = (ProofSpec) results[0][2];
+        BigInteger nonce = (BigInteger) Parser.getInstance().parse(
+                Locations.getNonceLocation(CL_KNOWN));
+        if (!new Verifier(spec, (Proof) results[0][3], nonce).verify()) {
+            fail("The parsed proof does not verify");
+        }
+    }
+
+    /**
+     * Test: Serializes a credential and a proof in several threads
+     * concurrently, indented and compact.
+     */
+    public final void testSerializer_Cred1a() throws InterruptedException {
+        final Object[] objects = new Object[] {
+                Parser.getInstance().parse(
+                        Locations.getCredentialLocation(TestIssuance.CRED1A_FN)),
+                Parser.getInstance().parse(
+                        Locations.getProofLocation(CL_KNOWN)) };
+        final XMLSerializer serializer = XMLSerializer.getInstance();
+        final String[][] results = new String[8][2 * objects.length];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < objects.length; j++) {
+                        results[index][2 * j] = serializer
+                                .serialize(objects[j]);
+                        StringWriter writer = new StringWriter();
+                        serializer.serialize(objects[j], writer, false);
+                        results[index][2 * j + 1] = writer.toString();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        for (int j = 0; j < objects.length; j++) {
+            String indented = serializer.serialize(objects[j]);
+            String compact = results[0][2 * j + 1];
+            for (int i = 0; i < results.length; i++) {
+                assertEquals(indented, results[i][2 * j]);
+                assertEquals(compact, results[i][2 * j + 1]);
+            }
+            assertTrue(compact.indexOf('\n') < 0);
+            assertTrue(compact.length() < indented.length());
+            assertEquals(indented, serializer.serialize(Parser.getInstance()
+                    .parse(compact)));
+        }
+    }
+
+    /**
+     * Test: Accepts each issued nonce once and rejects unknown, reused and
+     * expired nonces.
+     */
+    public final void testNonceManager_Cred1a() throws InterruptedException {
+        ProofSpec spec = (ProofSpec) StructureStore.getInstance().get(
+                Locations.getProofSpecLocation("ProofSpec1a"));
+        SystemParameters sp = spec.getGroupParams().getSystemParams();
+
+        NonceManager nonceManager = new NonceManager(60000);
+        Vector<BigInteger> nonces = new Vector<BigInteger>();
+        for (int i = 0; i < 1000; i++) {
+            nonces.add(nonceManager.issue(sp));
+        }
+        assertEquals(nonces.size(), nonceManager.size());
+        assertFalse(nonceManager.consume(Verifier.getNonce(sp)));
+        for (int i = 0; i < nonces.size(); i++) {
+            assertTrue(nonceManager.consume(nonces.get(i)));
+            assertFalse(nonceManager.consume(nonces.get(i)));
+        }
+        assertEquals(0, nonceManager.size());
+
+        // the proof with the consumed nonce verifies but is a replay
+        HashMap<String, Credential> creds = loadCredential(
+                Locations.getCredentialLocation(TestIssuance.CRED1A_FN),
+                "someRandomName");
+        BigInteger nonce = nonceManager.issue(sp);
+        Proof p = new Prover(masterSecret, creds, spec, nonce).buildProof();
+        assertTrue(nonceManager.consume(nonce));
+        assertTrue(new Verifier(spec, p, nonce).verify());
+        assertFalse(nonceManager.consume(nonce));
+
+        nonceManager = new NonceManager(50, 5);
+        nonce = nonceManager.issue(sp);
+        Thread.sleep(100);
+        assertFalse(nonceManager.consume(nonce));
+
+        // at most two nonces per bucket are outstanding
+        nonceManager = new NonceManager(60000, 4, 8);
+        nonce = nonceManager.issue(sp);
+        assertNotNull(nonce);
+        assertNotNull(nonceManager.issue(sp));
+        assertNull(nonceManager.issue(sp));
+        assertEquals(2, nonceManager.size());
+        assertTrue(nonceManager.consume(nonce));
+        assertNotNull(nonceManager.issue(sp));
+    }
+
 //    /**
 //     * Test: Builds a proof according to the specification.
 //     * 
@@ -0,0 +1,402 @@
+/**
+ * Copyright IBM Corporation 2009
+ */
+package com.ibm.zrl.idmx.tests.perf;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Vector;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+import com.ibm.zrl.idmx.utils.Utils;
+import com.ibm.zrl.idmx.utils.idemix_asn;
+import com.ibm.zrl.idmx.utils.perf.CrtExponentiator;
+import com.ibm.zrl.idmx.utils.perf.EPrimePool;
+import com.ibm.zrl.idmx.utils.perf.Exponentiation;
+import com.ibm.zrl.idmx.utils.perf.FixedBaseComb;
+import com.ibm.zrl.idmx.utils.perf.FixedBaseWindowing;
+import com.ibm.zrl.idmx.utils.perf.InterleavedMultiBase;
+import com.ibm.zrl.idmx.utils.perf.ModPow;
+import com.ibm.zrl.idmx.utils.perf.ModPowCache;
+import com.ibm.zrl.idmx.utils.perf.MontgomeryContext;
+import com.ibm.zrl.idmx.utils.perf.MultiCoreMultiBase;
+import com.ibm.zrl.idmx.utils.perf.PrimeSieve;
+import com.ibm.zrl.idmx.utils.perf.SafePrimePool;
+import com.ibm.zrl.idmx.utils.perf.SafePrimes;
+
+/**
+ * Test cases to cover the performance enhancements. The accelerated
+ * computations are compared against the straightforward ones.
+ */
+public class TestPerf extends TestCase {
+
+    /** Bit length of the test modulus. */
+    private static final int MODULUS_LENGTH = 1024;
+    /** Number of random multi-exponentiations that are compared. */
+    private static final int NBR_OF_ROUNDS = 50;
+
+    /** Modulus (product of two primes) used for the tests. */
+    private static final BigInteger MODULUS = Utils.genPrime(
+            MODULUS_LENGTH / 2, 80).multiply(
+            Utils.genPrime(MODULUS_LENGTH / 2, 80));
+
+    /**
+     * Creates a random multi-exponentiation with positive, negative and zero
+     * exponents.
+     *
+     * @param nbrOfBases
+     *            number of exponentiations.
+     * @return set of exponentiations modulo MODULUS.
+     */
+    private static Vector<Exponentiation> getExponentiations(
+            final int nbrOfBases) {
+        final Vector<Exponentiation> expos = new Vector<Exponentiation>();
+        for (int i = 0; i < nbrOfBases; i++) {
+            final BigInteger base = Utils.computeRandomNumber(MODULUS_LENGTH)
+                    .mod(MODULUS);
+            BigInteger exp = Utils.computeRandomNumberSymmetric(100 + 200 * i);
+            if (i % 7 == 6) {
+                exp = BigInteger.ZERO;
+            }
+            expos.add(new Exponentiation(base, exp, MODULUS));
+        }
+        return expos;
+    }
+
+    /**
+     * Compares the interleaved multi-exponentiation against the sequential
+     * computation.
+     */
+    public final void testInterleavedMultiBase() {
+        for (int i = 0; i < NBR_OF_ROUNDS; i++) {
+            final Vector<Exponentiation> expos = getExponentiations(1 + i % 15);
+            final BigInteger initialVal = Utils.computeRandomNumber(
+                    MODULUS_LENGTH).mod(MODULUS);
+            assertEquals(MultiCoreMultiBase.compute(initialVal, expos, MODULUS),
+                    InterleavedMultiBase.compute(initialVal, expos, MODULUS));
+        }
+    }
+
+    /**
+     * Compares the multi-core multi-exponentiation on a pluggable executor
+     * against the sequential computation.
+     */
+    public final void testMultiCoreMultiBase() {
+        final MultiCoreMultiBase mcmb = MultiCoreMultiBase.getInstance();
+        final Executor previousExecutor = mcmb.getExecutor();
+        final int previousParallelism = mcmb.getParallelism();
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            mcmb.setExecutor(executor, 4);
+            for (int i = 0; i < NBR_OF_ROUNDS; i++) {
+                final Vector<Exponentiation> expos = getExponentiations(1 + i % 15);
+                final BigInteger initialVal = Utils.computeRandomNumber(
+                        MODULUS_LENGTH).mod(MODULUS);
+                assertEquals(
+                        MultiCoreMultiBase.compute(initialVal, expos, MODULUS),
+                        mcmb.multiBaseExp(initialVal, expos, MODULUS));
+            }
+        } finally {
+            mcmb.setExecutor(previousExecutor, previousParallelism);
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Mixes fixed-base exponentiators with default ones.
+     */
+    public final void testInterleavedMultiBaseFixedBase() {
+        final Vector<Exponentiation> expos = getExponentiations(8);
+        final BigInteger base = Utils.computeRandomNumber(MODULUS_LENGTH)
+                .mod(MODULUS);
+        expos.add(new Exponentiation(new FixedBaseComb(base, 512, 5, 8,
+                MODULUS), Utils.computeRandomNumberSymmetric(500)));
+        assertEquals(MultiCoreMultiBase.compute(expos, MODULUS),
+                InterleavedMultiBase.compute(expos, MODULUS));
+    }
+
+    /**
+     * Checks the Montgomery arithmetic for an odd and an even modulus.
+     */
+    public final void testMontgomeryContext() {
+        final BigInteger[] moduli = { MODULUS, MODULUS.shiftLeft(3) };
+        for (int m = 0; m < moduli.length; m++) {
+            final BigInteger modulus = moduli[m];
+            final MontgomeryContext ctx = MontgomeryContext
+                    .getInstance(modulus);
+            assertEquals(modulus.testBit(0), ctx.isMontgomery());
+            assertSame(ctx, MontgomeryContext.getInstance(modulus));
+            for (int i = 0; i < NBR_OF_ROUNDS; i++) {
+                final BigInteger a = Utils.computeRandomNumberSymmetric(
+                        MODULUS_LENGTH + 100);
+                final BigInteger b = Utils.computeRandomNumber(MODULUS_LENGTH);
+                final BigInteger ab = a.multiply(b).mod(modulus);
+                assertEquals(ab, ctx.multiply(a, b));
+                assertEquals(ab, ctx.fromMontgomery(ctx.montMultiply(
+                        ctx.toMontgomery(a), ctx.toMontgomery(b))));
+                assertEquals(a.mod(modulus),
+                        ctx.fromMontgomery(ctx.toMontgomery(a)));
+            }
+        }
+    }
+
+    /**
+     * Compares the CRT exponentiation modulo n and n^2 against
+     * BigInteger.modPow(), including a base that is not a unit.
+     */
+    public final void testCrtExponentiator() {
+        final BigInteger p = Utils.genPrime(MODULUS_LENGTH / 2, 80);
+        final BigInteger q = Utils.genPrime(MODULUS_LENGTH / 2, 80);
+        final CrtExponentiator[] crts = {
+                CrtExponentiator.forModulus(p, q),
+                CrtExponentiator.forSquaredModulus(p, q) };
+        for (int c = 0; c < crts.length; c++) {
+            final BigInteger modulus = crts[c].getModulus();
+            for (int i = 0; i < NBR_OF_ROUNDS; i++) {
+                final BigInteger base = Utils.computeRandomNumber(
+                        modulus.bitLength() + 10);
+                final BigInteger exp = Utils.computeRandomNumberSymmetric(
+                        MODULUS_LENGTH + 100);
+                assertEquals(base.modPow(exp, modulus), crts[c].modPow(base,
+                        exp));
+            }
+            final BigInteger exp = Utils.computeRandomNumber(MODULUS_LENGTH);
+            assertEquals(p.modPow(exp, modulus), crts[c].modPow(p, exp));
+        }
+    }
+
+    /**
+     * Compares the fixed-base exponentiators against BigInteger.modPow().
+     */
+    public final void testFixedBase() {
+        final BigInteger base = Utils.computeRandomNumber(MODULUS_LENGTH)
+                .mod(MODULUS);
+        final FixedBaseComb comb = new FixedBaseComb(base, 600, 5, 8, MODULUS);
+        final FixedBaseWindowing windowing = new FixedBaseWindowing(base, 4,
+                150, MODULUS);
+        for (int i = 0; i < NBR_OF_ROUNDS; i++) {
+            final BigInteger exp = Utils.computeRandomNumberSymmetric(599);
+            final BigInteger expected = base.modPow(exp, MODULUS);
+            assertEquals(expected, comb.modPow(exp, MODULUS));
+            assertEquals(expected, windowing.modPow(exp, MODULUS));
+        }
+    }
+
+    /**
+     * Registered fixed-base exponentiators must only be returned for the
+     * modulus and the exponent widths they have been built for.
+     */
+    public final void testModPowCacheLookup() {
+        final BigInteger base = Utils.computeRandomNumber(MODULUS_LENGTH)
+                .mod(MODULUS);
+        assertTrue(ModPowCache.register(base, MODULUS, 300));
+        try {
+            final BigInteger exp = Utils.computeRandomNumberSymmetric(300);
+            final ModPow mp = ModPowCache.lookup(base, MODULUS, exp);
+            assertNotNull(mp);
+            assertEquals(base.modPow(exp, MODULUS), mp.modPow(exp, MODULUS));
+
+            assertNull(ModPowCache.lookup(base, MODULUS, BigInteger.ONE
+                    .shiftLeft(301)));
+            assertNull(ModPowCache.lookup(base, MODULUS.add(Utils.TWO), exp));
+        } finally {
+            assertTrue(ModPowCache.unregister(base, MODULUS));
+        }
+        assertNull(ModPowCache.lookup(base, MODULUS, BigInteger.ONE));
+    }
+
+    /**
+     * The cache must stay below its memory ceiling by evicting the least
+     * recently used tables.
+     */
+    public final void testModPowCacheEviction() throws InterruptedException {
+        final long maxBytes = ModPowCache.getMaxBytes();
+        try {
+            ModPowCache.clear();
+            final BigInteger[] bases = new BigInteger[4];
+            for (int i = 0; i < bases.length; i++) {
+                bases[i] = Utils.computeRandomNumber(MODULUS_LENGTH).mod(
+                        MODULUS);
+                assertTrue(ModPowCache.register(bases[i], MODULUS, 200));
+                // the time of the last use has a resolution of about 1 ms
+                Thread.sleep(3);
+            }
+            final long bytesPerTable = ModPowCache.getNbrOfBytes()
+                    / bases.length;
+            final BigInteger exp = BigInteger.ONE.shiftLeft(100);
+
+            // touch base 0, such that base 1 is the least recently used one
+            Thread.sleep(3);
+            assertNotNull(ModPowCache.lookup(bases[0], MODULUS, exp));
+
+            final long evictions = ModPowCache.getEvictions();
+            ModPowCache.setMaxBytes(3 * bytesPerTable);
+            assertEquals(evictions + 1, ModPowCache.getEvictions());
+            assertEquals(3, ModPowCache.size());
+            assertTrue(ModPowCache.getNbrOfBytes() <= 3 * bytesPerTable);
+            assertNotNull(ModPowCache.lookup(bases[0], MODULUS, exp));
+
+            final long misses = ModPowCache.getMisses();
+            assertNull(ModPowCache.lookup(bases[1], MODULUS, exp));
+            assertEquals(misses + 1, ModPowCache.getMisses());
+        } finally {
+            ModPowCache.setMaxBytes(maxBytes);
+            ModPowCache.clear();
+        }
+    }
+
+    /**
+     * The sieved search must return safe primes of the requested bit length.
+     */
+    public final void testSafePrimes() {
+        final SafePrimes sp = SafePrimes.getInstance();
+        sp.setForceSingleThread(true);
+        final int[] bitLengths = { 24, 64, 256 };
+        for (int i = 0; i < bitLengths.length; i++) {
+            final BigInteger p = sp.genSafePrime(bitLengths[i], 80);
+            assertEquals(bitLengths[i], p.bitLength());
+            assertTrue(p.isProbablePrime(80));
+            assertTrue(p.shiftRight(1).isProbablePrime(80));
+        }
+    }
+
+    /**
+     * Runs concurrent parallel searches on one executor and cancels a search
+     * at its deadline.
+     */
+    public final void testSafePrimesParallel() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final BigInteger[] primes = new BigInteger[2];
+            final Thread other = new Thread() {
+                public void run() {
+                    try {
+                        primes[1] = SafePrimes.genSafePrime(128, 80, executor,
+                                2, 0, null);
+                    } catch (Exception e) {
+                        // primes[1] stays null
+                    }
+                }
+            };
+            other.start();
+            primes[0] = SafePrimes.genSafePrime(128, 80, executor, 2, 0, null);
+            other.join();
+            for (int i = 0; i < primes.length; i++) {
+                assertEquals(128, primes[i].bitLength());
+                assertTrue(primes[i].shiftRight(1).isProbablePrime(80));
+            }
+
+            try {
+                SafePrimes.genSafePrime(2048, 80, executor, 4, 1,
+                        TimeUnit.MILLISECONDS);
+                fail("The deadline has been ignored");
+            } catch (TimeoutException e) {
+                // expected
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // the workers of the cancelled search must stop
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Safe primes are generated in the background and handed out once.
+     */
+    public final void testSafePrimePool() throws InterruptedException {
+        final SafePrimePool pool = SafePrimePool.getInstance();
+        final int bitLength = 128;
+        pool.start(bitLength, 80, 2, 1);
+        try {
+            for (int i = 0; i < 600 && pool.size(bitLength) < 2; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(2, pool.size(bitLength));
+            assertEquals(1.0, pool.getFillLevel(bitLength), 0.0);
+            assertTrue(pool.getGenerationRate(bitLength) > 0);
+
+            // primes of a higher certainty are not taken from the pool
+            assertNull(pool.poll(bitLength, 100));
+
+            final BigInteger p = Utils.computeSafePrime(bitLength, 80);
+            assertEquals(1, pool.getHandedOut(bitLength));
+            assertEquals(bitLength, p.bitLength());
+            assertTrue(p.shiftRight(1).isProbablePrime(80));
+        } finally {
+            pool.stop(bitLength);
+        }
+        assertEquals(0, pool.size(bitLength));
+    }
+
+    /**
+     * Sieved primes must lie in the requested interval; the e-prime pool
+     * hands out primes of the configured lengths only.
+     */
+    public final void testPrimeSieve() throws InterruptedException {
+        final BigInteger lowerBound = BigInteger.ONE.shiftLeft(596);
+        final BigInteger upperBound = lowerBound.add(BigInteger.ONE
+                .shiftLeft(119));
+        for (int i = 0; i < NBR_OF_ROUNDS; i++) {
+            final BigInteger e = PrimeSieve.genPrime(lowerBound, 119, 80);
+            assertTrue(e.compareTo(lowerBound) >= 0);
+            assertTrue(e.compareTo(upperBound) < 0);
+            assertTrue(e.isProbablePrime(80));
+        }
+        // tiny interval [1000, 1016)
+        final BigInteger p = PrimeSieve.genPrime(BigInteger.valueOf(1000), 4,
+                80);
+        assertTrue(p.equals(BigInteger.valueOf(1009))
+                || p.equals(BigInteger.valueOf(1013)));
+
+        final EPrimePool pool = EPrimePool.getInstance();
+        pool.start(597, 120, 80, 4, 1);
+        try {
+            for (int i = 0; i < 200 && pool.size() < 4; i++) {
+                Thread.sleep(50);
+            }
+            assertNull(pool.poll(598, 120, 80));
+            final BigInteger e = pool.poll(597, 120, 80);
+            assertNotNull(e);
+            assertTrue(e.compareTo(lowerBound) >= 0);
+            assertTrue(e.compareTo(upperBound) < 0);
+        } finally {
+            pool.stop();
+        }
+        assertEquals(0, pool.size());
+    }
+
+    /**
+     * The streamed Fiat-Shamir hash must be identical to hashing the ASN.1
+     * encoding of the values.
+     */
+    public final void testHashOf() throws NoSuchAlgorithmException {
+        final int l_H = 256;
+        final Vector<BigInteger> values = new Vector<BigInteger>();
+        values.add(BigInteger.ZERO);
+        values.add(BigInteger.ONE.negate());
+        values.add(BigInteger.valueOf(128));
+        values.add(BigInteger.valueOf(-129));
+        values.add(BigInteger.ONE.shiftLeft(1023));
+        for (int i = 0; i < 40; i++) {
+            values.add(Utils.computeRandomNumberSymmetric(2048));
+        }
+        final BigInteger[] array = values.toArray(new BigInteger[0]);
+
+        final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(idemix_asn.encode(array));
+        final byte[] expected = new byte[l_H / 8];
+        System.arraycopy(digest.digest(), 0, expected, 0, expected.length);
+
+        assertEquals(new BigInteger(expected), Utils.hashOf(l_H, array));
+        assertEquals(new BigInteger(expected), Utils.hashOf(l_H, values));
+        // the digest of the thread is reset between two hashes
+        assertEquals(Utils.hashOf(l_H, array), Utils.hashOf(l_H, array));
+    }
+}